@@ -45,12 +45,29 @@ import org.javatuples.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class ContentPublisherService extends EzBakeBaseThriftService implements ContentPublisher.Iface {
     private static final Logger logger = LoggerFactory.getLogger(ContentPublisherService.class);
@@ -62,6 +79,22 @@ public class ContentPublisherService extends EzBakeBaseThriftService implements
     public static final String SSR_TOPIC = "SSR";
     public static final String GROUP_ID = "ContentPublisherService";
 
+    public static final String BATCH_MAX_SIZE_KEY = "publisher.batch.max.size";
+    public static final String TOKEN_CACHE_TTL_MILLIS_KEY = "publisher.token.cache.ttl.ms";
+    public static final String INS_CACHE_TTL_MILLIS_KEY = "publisher.ins.cache.ttl.ms";
+    public static final String ASYNC_STAGES_KEY = "publisher.async.stages";
+    public static final String STAGE_THREADS_KEY = "publisher.stage.threads";
+
+    // Cached derived tokens are fetched again once they are this close to expiring
+    private static final long TOKEN_EXPIRY_MARGIN_MILLIS = 30 * 1000;
+
+    private int maxBatchSize;
+    private Cache<String, EzSecurityToken> derivedTokens;
+    private Cache<String, Pair<String, Set<String>>> insInfo;
+    private TopicBroadcasters broadcasters;
+    private ExecutorService stageExecutor;
+    private final PublishStageMetrics metrics = new PublishStageMetrics();
+
     static {
         AuditLoggerConfigurator.setAdditivity(true);
         auditLogger = AuditLogger.getAuditLogger(ContentPublisherService.class);
@@ -71,6 +104,7 @@ public class ContentPublisherService extends EzBakeBaseThriftService implements
         this.props = props;
         this.pool = pool;
         this.security = security;
+        initialize();
     }
 
     // No arg constructor for ThriftRunner support
@@ -81,9 +115,46 @@ public class ContentPublisherService extends EzBakeBaseThriftService implements
         props = new EzProperties(getConfigurationProperties(), true);
         pool = new ThriftClientPool(props);
         security = new EzbakeSecurityClient(props);
+        initialize();
         return new ContentPublisher.Processor(this);
     }
 
+    @Override
+    public void shutdown() {
+        if (broadcasters != null) {
+            broadcasters.close();
+        }
+        if (stageExecutor != null) {
+            stageExecutor.shutdownNow();
+        }
+    }
+
+    private void initialize() {
+        maxBatchSize = Math.max(props.getInteger(BATCH_MAX_SIZE_KEY, 500), 1);
+        derivedTokens = CacheBuilder.newBuilder()
+                .expireAfterWrite(props.getLong(TOKEN_CACHE_TTL_MILLIS_KEY, 5 * 60 * 1000), TimeUnit.MILLISECONDS)
+                .maximumSize(10000)
+                .build();
+        insInfo = CacheBuilder.newBuilder()
+                .expireAfterWrite(props.getLong(INS_CACHE_TTL_MILLIS_KEY, 60 * 1000), TimeUnit.MILLISECONDS)
+                .build();
+        broadcasters = new TopicBroadcasters(new TopicBroadcasters.Factory() {
+            @Override
+            public EzBroadcaster create(EzSecurityToken token, String topic) {
+                return getBroadcaster(token, GROUP_ID, topic);
+            }
+        });
+        if (props.getBoolean(ASYNC_STAGES_KEY, false)) {
+            // Once every thread is busy and the queue is full a stage runs on the publishing thread, so a publish
+            // never waits longer than it would without async stages
+            int threads = Math.max(props.getInteger(STAGE_THREADS_KEY, 8), 1);
+            stageExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(threads * 4),
+                    new ThreadFactoryBuilder().setNameFormat("publish-stage-%d").setDaemon(true).build(),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+    }
+
     @Override
     public boolean ping() {
         // Check provenance, warehaus, INS, and locksmith
@@ -131,50 +202,71 @@ public class ContentPublisherService extends EzBakeBaseThriftService implements
         SSRJSON ssrjson = data.getSsrjson();
         PublishResult result = new PublishResult();
 
-        if (data.isSetProvenance()) {
-            try {
-                provenance = pool.getClient(ProvenanceServiceConstants.SERVICE_NAME, ProvenanceService.Client.class);
-                EzSecurityToken provenanceToken = security.fetchDerivedTokenForApp(token, pool.getSecurityId(ProvenanceServiceConstants.SERVICE_NAME));
-                long provenanceDocumentId = provenance.addDocument(provenanceToken, data.getProvenance().getUri(), data.getProvenance().getParents(), data.getProvenance().getAgeOffRules());
-                result.setProvenanceDocumentId(provenanceDocumentId);
-            } catch (ProvenanceDocumentExistsException e) {
-                if (data.isIgnoreProvenanceDuplicate()) {
-                    logger.warn("Duplicate document found in provenance for {}, ignoring based on input", data.getEntry().getUri());
-                    // TODO add the document ID to the result here somehow
-                } else {
-                    logger.error("Duplicate document found in provenance for {}, failing based on input", data.getEntry().getUri(), e);
-                    throw new TException("Duplicate document found, not ignoring based on input", e);
-                }
-            } catch (ProvenanceCircularInheritanceNotAllowedException | ProvenanceAgeOffRuleNotFoundException
-                    | ProvenanceParentDocumentNotFoundException e) {
-                logger.error("Error indexing data in provenance", e);
-                throw new TException(e);
-            } finally {
-                pool.returnToPool(provenance);
+        // The INS lookup and the SSR payload don't depend on provenance or the warehaus, so with async stages they
+        // are prepared while the document is stored
+        Future<Pair<String, Set<String>>> insFuture = null;
+        Future<byte[]> ssrFuture = null;
+        if (stageExecutor != null) {
+            insFuture = submitINSLookup(data.getFeedname(), token);
+            if (ssrjson != null) {
+                ssrFuture = submitSerialize(ssrjson);
             }
         }
 
+        boolean stored = false;
         try {
-            warehaus = pool.getClient(WarehausServiceConstants.SERVICE_NAME, WarehausService.Client.class);
-            PutRequest putRequest = new PutRequest();
-            PutUpdateEntry entry = new PutUpdateEntry(data.getEntry(), visibility);
-            putRequest.addToEntries(entry);
-            EzSecurityToken warehausToken = security.fetchDerivedTokenForApp(token, pool.getSecurityId(WarehausServiceConstants.SERVICE_NAME));
-            IngestStatus status = warehaus.put(putRequest, warehausToken);
+            if (data.isSetProvenance()) {
+                try {
+                    provenance = pool.getClient(ProvenanceServiceConstants.SERVICE_NAME, ProvenanceService.Client.class);
+                    EzSecurityToken provenanceToken = getDerivedToken(token, ProvenanceServiceConstants.SERVICE_NAME);
+                    long provenanceDocumentId = provenance.addDocument(provenanceToken, data.getProvenance().getUri(), data.getProvenance().getParents(), data.getProvenance().getAgeOffRules());
+                    result.setProvenanceDocumentId(provenanceDocumentId);
+                } catch (ProvenanceDocumentExistsException e) {
+                    if (data.isIgnoreProvenanceDuplicate()) {
+                        logger.warn("Duplicate document found in provenance for {}, ignoring based on input", data.getEntry().getUri());
+                        // TODO add the document ID to the result here somehow
+                    } else {
+                        logger.error("Duplicate document found in provenance for {}, failing based on input", data.getEntry().getUri(), e);
+                        throw new TException("Duplicate document found, not ignoring based on input", e);
+                    }
+                } catch (ProvenanceCircularInheritanceNotAllowedException | ProvenanceAgeOffRuleNotFoundException
+                        | ProvenanceParentDocumentNotFoundException e) {
+                    logger.error("Error indexing data in provenance", e);
+                    throw new TException(e);
+                } finally {
+                    pool.returnToPool(provenance);
+                }
+            }
 
-            // Handle failed ingest
-            if (status.getStatus() != IngestStatusEnum.SUCCESS) {
-                logger.error("Could not properly ingest record into warehouse for URI {}", data.getEntry().getUri());
-                throw new TException(String.format("Could not properly ingest record into warehouse for URI %s", data.getEntry().getUri()));
-            } else {
-                result.setWarehouseTimestamp(status.getTimestamp());
+            try {
+                warehaus = pool.getClient(WarehausServiceConstants.SERVICE_NAME, WarehausService.Client.class);
+                PutRequest putRequest = new PutRequest();
+                PutUpdateEntry entry = new PutUpdateEntry(data.getEntry(), visibility);
+                putRequest.addToEntries(entry);
+                EzSecurityToken warehausToken = getDerivedToken(token, WarehausServiceConstants.SERVICE_NAME);
+                IngestStatus status = warehaus.put(putRequest, warehausToken);
+
+                // Handle failed ingest
+                if (status.getStatus() != IngestStatusEnum.SUCCESS) {
+                    logger.error("Could not properly ingest record into warehouse for URI {}", data.getEntry().getUri());
+                    throw new TException(String.format("Could not properly ingest record into warehouse for URI %s", data.getEntry().getUri()));
+                } else {
+                    result.setWarehouseTimestamp(status.getTimestamp());
+                }
+                logger.debug("Successfully inserted uri {} into Warehaus", data.getEntry().getUri());
+            } finally {
+                pool.returnToPool(warehaus);
             }
-            logger.debug("Successfully inserted uri {} into Warehaus", data.getEntry().getUri());
+            stored = true;
         } finally {
-            pool.returnToPool(warehaus);
+            if (!stored) {
+                cancel(insFuture);
+                cancel(ssrFuture);
+            }
         }
 
-        Pair<String, Set<String>> info = getINSInfo(data.getFeedname(), security.fetchDerivedTokenForApp(token, pool.getSecurityId(InternalNameServiceConstants.SERVICE_NAME)));
+        Pair<String, Set<String>> info = insFuture != null ? await(insFuture)
+                : getINSInfo(data.getFeedname(), getDerivedToken(token, InternalNameServiceConstants.SERVICE_NAME));
 
         EzBroadcaster broadcaster = null;
         try {
@@ -208,7 +300,7 @@ public class ContentPublisherService extends EzBakeBaseThriftService implements
                 auditLog(token, AuditEventType.ImportOfInformation, auditArgs);
                 
                 broadcaster.broadcast(SSR_TOPIC, ssrjson.getSsr().getVisibility(),
-                        ThriftUtils.serialize(ssrjson));
+                        ssrFuture != null ? await(ssrFuture) : ThriftUtils.serialize(ssrjson));
             }
         } catch (IOException e) {
             logger.error("Error during broadcast", e);
@@ -226,9 +318,280 @@ public class ContentPublisherService extends EzBakeBaseThriftService implements
         return result;
     }
 
+    /**
+     * Publish a batch of documents.  Works like {@link #publish(PublishData, Visibility, EzSecurityToken)} for each
+     * document, but the documents are added to provenance and the warehaus with a single call for every
+     * publisher.batch.max.size documents, and broadcast through broadcasters that are kept open.  A batch is also cut
+     * short where a URI repeats, so every URI is only written once per call.
+     *
+     * @param data         - documents to publish
+     * @param visibilities - visibility of each document
+     * @return the result of each document, in the same order
+     * @throws TException if any document fails, documents of earlier batches stay published
+     */
+    public List<PublishResult> publishBatch(List<PublishData> data, List<Visibility> visibilities,
+                                            EzSecurityToken token) throws TException {
+        Preconditions.checkArgument(data.size() == visibilities.size(), "Every document needs a visibility");
+        List<PublishResult> results = Lists.newArrayListWithCapacity(data.size());
+        int from = 0;
+        while (from < data.size()) {
+            int to = getBatchEnd(data, from);
+            results.addAll(publishBatchPart(data.subList(from, to), visibilities.subList(from, to), token));
+            from = to;
+        }
+        return results;
+    }
+
+    /**
+     * @return latency of each stage of the batches published so far
+     */
+    public PublishStageMetrics getStageMetrics() {
+        return metrics;
+    }
+
+    private int getBatchEnd(List<PublishData> data, int from) {
+        Set<String> uris = Sets.newHashSet();
+        Set<String> provenanceUris = Sets.newHashSet();
+        int to = from;
+        while (to < data.size() && to - from < maxBatchSize) {
+            PublishData next = data.get(to);
+            if (!uris.add(next.getEntry().getUri())
+                    || next.isSetProvenance() && !provenanceUris.add(next.getProvenance().getUri())) {
+                break;
+            }
+            to++;
+        }
+        return to;
+    }
+
+    private List<PublishResult> publishBatchPart(List<PublishData> batch, List<Visibility> visibilities,
+                                                 EzSecurityToken token) throws TException {
+        List<PublishResult> results = Lists.newArrayListWithCapacity(batch.size());
+        boolean provenanceNeeded = false;
+        for (PublishData data : batch) {
+            HashMap<String, String> auditArgs = Maps.newHashMap();
+            auditArgs.put("action", "publish");
+            auditArgs.put("uri", data.getEntry().getUri());
+            auditLog(token, AuditEventType.FileObjectCreate, auditArgs);
+            results.add(new PublishResult());
+            provenanceNeeded = provenanceNeeded || data.isSetProvenance();
+        }
+
+        long start = System.nanoTime();
+        EzSecurityToken provenanceToken = provenanceNeeded
+                ? getDerivedToken(token, ProvenanceServiceConstants.SERVICE_NAME) : null;
+        EzSecurityToken warehausToken = getDerivedToken(token, WarehausServiceConstants.SERVICE_NAME);
+        EzSecurityToken insToken = getDerivedToken(token, InternalNameServiceConstants.SERVICE_NAME);
+        metrics.record(PublishStageMetrics.TOKENS, batch.size(), start);
+
+        if (provenanceNeeded) {
+            start = System.nanoTime();
+            addToProvenance(batch, results, provenanceToken);
+            metrics.record(PublishStageMetrics.PROVENANCE, batch.size(), start);
+        }
+
+        start = System.nanoTime();
+        putToWarehaus(batch, visibilities, results, warehausToken);
+        metrics.record(PublishStageMetrics.WAREHAUS, batch.size(), start);
+
+        start = System.nanoTime();
+        Map<String, Set<String>> topicsByFeed = Maps.newHashMap();
+        for (PublishData data : batch) {
+            if (!topicsByFeed.containsKey(data.getFeedname())) {
+                topicsByFeed.put(data.getFeedname(), getINSInfo(data.getFeedname(), insToken).getValue1());
+            }
+        }
+        metrics.record(PublishStageMetrics.INS, batch.size(), start);
+
+        start = System.nanoTime();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                PublishData data = batch.get(i);
+                for (String topic : topicsByFeed.get(data.getFeedname())) {
+                    HashMap<String, String> auditArgs = Maps.newHashMap();
+                    auditArgs.put("topic", topic);
+                    auditLog(token, AuditEventType.ImportOfInformation, auditArgs);
+
+                    broadcasters.broadcast(token, topic, visibilities.get(i), data.getEntry().getParsedData());
+                }
+
+                SSRJSON ssrjson = data.getSsrjson();
+                if (ssrjson != null) {
+                    HashMap<String, String> auditArgs = Maps.newHashMap();
+                    auditArgs.put("topic", SSR_TOPIC);
+                    auditLog(token, AuditEventType.ImportOfInformation, auditArgs);
+
+                    broadcasters.broadcast(token, SSR_TOPIC, ssrjson.getSsr().getVisibility(),
+                            ThriftUtils.serialize(ssrjson));
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Error during broadcast", e);
+            throw new TException(e);
+        }
+        metrics.record(PublishStageMetrics.BROADCAST, batch.size(), start);
+
+        logger.debug("Published batch of {} documents, stage latencies {}", batch.size(), metrics);
+        return results;
+    }
+
+    /**
+     * Add the documents of the batch that have provenance with one addDocuments call per set of age off rules
+     */
+    private void addToProvenance(List<PublishData> batch, List<PublishResult> results,
+                                 EzSecurityToken provenanceToken) throws TException {
+        Map<Set<AgeOffMapping>, Set<AddDocumentEntry>> documentsByAgeOff = Maps.newHashMap();
+        for (PublishData data : batch) {
+            if (!data.isSetProvenance()) {
+                continue;
+            }
+            List<AgeOffMapping> ageOffRules = data.getProvenance().getAgeOffRules();
+            Set<AgeOffMapping> ageOff = ageOffRules == null ? null : Sets.newHashSet(ageOffRules);
+            AddDocumentEntry document = new AddDocumentEntry(data.getProvenance().getUri());
+            if (data.getProvenance().getParents() != null) {
+                document.setParents(Sets.newHashSet(data.getProvenance().getParents()));
+            }
+            Set<AddDocumentEntry> documents = documentsByAgeOff.get(ageOff);
+            if (documents == null) {
+                documents = Sets.newHashSet();
+                documentsByAgeOff.put(ageOff, documents);
+            }
+            documents.add(document);
+        }
+
+        Map<String, AddDocumentResult> added = Maps.newHashMap();
+        ProvenanceService.Client provenance = null;
+        try {
+            provenance = pool.getClient(ProvenanceServiceConstants.SERVICE_NAME, ProvenanceService.Client.class);
+            for (Map.Entry<Set<AgeOffMapping>, Set<AddDocumentEntry>> group : documentsByAgeOff.entrySet()) {
+                added.putAll(provenance.addDocuments(provenanceToken, group.getValue(), group.getKey()));
+            }
+        } catch (ProvenanceAgeOffRuleNotFoundException | ProvenanceExceedsMaxBatchSizeException e) {
+            logger.error("Error indexing data in provenance", e);
+            throw new TException(e);
+        } finally {
+            pool.returnToPool(provenance);
+        }
+
+        List<String> failed = Lists.newArrayList();
+        for (int i = 0; i < batch.size(); i++) {
+            PublishData data = batch.get(i);
+            if (!data.isSetProvenance()) {
+                continue;
+            }
+            String uri = data.getProvenance().getUri();
+            AddDocumentResult result = added.get(uri);
+            if (result != null && result.getStatus() == AddDocumentStatus.SUCCESS) {
+                results.get(i).setProvenanceDocumentId(result.getDocumentId());
+            } else if (result != null && result.getStatus() == AddDocumentStatus.ALREADY_EXISTS
+                    && data.isIgnoreProvenanceDuplicate()) {
+                logger.warn("Duplicate document found in provenance for {}, ignoring based on input", uri);
+            } else {
+                failed.add(uri + " (" + (result == null ? "no result" : result.getStatus()) + ")");
+            }
+        }
+        if (!failed.isEmpty()) {
+            logger.error("Could not add documents to provenance: {}", failed);
+            throw new TException(String.format("Could not add documents to provenance: %s", failed));
+        }
+    }
+
+    /**
+     * Put all documents of the batch in the warehaus with a single put
+     */
+    private void putToWarehaus(List<PublishData> batch, List<Visibility> visibilities, List<PublishResult> results,
+                               EzSecurityToken warehausToken) throws TException {
+        PutRequest putRequest = new PutRequest();
+        for (int i = 0; i < batch.size(); i++) {
+            putRequest.addToEntries(new PutUpdateEntry(batch.get(i).getEntry(), visibilities.get(i)));
+        }
+
+        WarehausService.Client warehaus = null;
+        try {
+            warehaus = pool.getClient(WarehausServiceConstants.SERVICE_NAME, WarehausService.Client.class);
+            IngestStatus status = warehaus.put(putRequest, warehausToken);
+            if (status.getStatus() != IngestStatusEnum.SUCCESS) {
+                logger.error("Could not properly ingest records into warehouse for URIs {}", status.getFailedURIs());
+                throw new TException(String.format("Could not properly ingest records into warehouse for URIs %s",
+                        status.getFailedURIs()));
+            }
+            for (PublishResult result : results) {
+                result.setWarehouseTimestamp(status.getTimestamp());
+            }
+            logger.debug("Successfully inserted {} uris into Warehaus", batch.size());
+        } finally {
+            pool.returnToPool(warehaus);
+        }
+    }
+
+    private Future<Pair<String, Set<String>>> submitINSLookup(final String feedName, final EzSecurityToken token) {
+        return stageExecutor.submit(new Callable<Pair<String, Set<String>>>() {
+            @Override
+            public Pair<String, Set<String>> call() throws TException {
+                return getINSInfo(feedName, getDerivedToken(token, InternalNameServiceConstants.SERVICE_NAME));
+            }
+        });
+    }
+
+    private Future<byte[]> submitSerialize(final SSRJSON ssrjson) {
+        return stageExecutor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws TException {
+                return ThriftUtils.serialize(ssrjson);
+            }
+        });
+    }
+
+    private static <T> T await(Future<T> future) throws TException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TException("Interrupted while publishing", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TException) {
+                throw (TException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new TException(cause);
+        }
+    }
+
+    private static void cancel(Future<?> future) {
+        if (future != null) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * @return the derived token for the service, cached until it is about to expire
+     */
+    private EzSecurityToken getDerivedToken(EzSecurityToken token, String serviceName) throws TException {
+        String securityId = pool.getSecurityId(serviceName);
+        String key = securityId + "/" + Hashing.sha1().hashBytes(ThriftUtils.serialize(token));
+        EzSecurityToken derived = derivedTokens.getIfPresent(key);
+        if (derived == null || isExpiring(derived)) {
+            derived = security.fetchDerivedTokenForApp(token, securityId);
+            derivedTokens.put(key, derived);
+        }
+        return derived;
+    }
+
+    private static boolean isExpiring(EzSecurityToken token) {
+        return token.isSetValidity()
+                && token.getValidity().getNotAfter() - System.currentTimeMillis() < TOKEN_EXPIRY_MARGIN_MILLIS;
+    }
+
     private Pair<String, Set<String>> getINSInfo(String feedName, EzSecurityToken token) throws TException {
         InternalNameService.Client insClient = null;
         String applicationSecurityId = new EzSecurityTokenWrapper(token).getApplicationSecurityId();
+        String key = applicationSecurityId + "/" + feedName;
+        Pair<String, Set<String>> cached = insInfo.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
 
         try {
             insClient = pool.getClient(InternalNameServiceConstants.SERVICE_NAME, InternalNameService.Client.class);
@@ -236,7 +599,10 @@ public class ContentPublisherService extends EzBakeBaseThriftService implements
             Set<String> topics = insClient.getTopicsForFeed(applicationSecurityId, feedName);
             String prefix = insClient.getURIPrefix(applicationSecurityId, feedName);
 
-            return new Pair<String, Set<String>>(prefix, topics);
+            Pair<String, Set<String>> info = new Pair<String, Set<String>>(prefix,
+                    topics == null ? Collections.<String>emptySet() : ImmutableSet.copyOf(topics));
+            insInfo.put(key, info);
+            return info;
         } catch (Exception ex) {
             logger.error("Failed to communicate with INS", ex);
             throw new TException("Failed to communicate with INS", ex);
@@ -0,0 +1,109 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.publisher.service;
+
+import com.google.common.collect.Maps;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of each stage of publishing a batch: fetching tokens, provenance, warehaus, INS and broadcasting
+ */
+public class PublishStageMetrics {
+    public static final String TOKENS = "tokens";
+    public static final String PROVENANCE = "provenance";
+    public static final String WAREHAUS = "warehaus";
+    public static final String INS = "ins";
+    public static final String BROADCAST = "broadcast";
+
+    /**
+     * Latency of a single stage over all batches
+     */
+    public static class Stage {
+        private long batches;
+        private long documents;
+        private long totalNanos;
+        private long maxNanos;
+
+        private Stage() {
+        }
+
+        private Stage(Stage other) {
+            this.batches = other.batches;
+            this.documents = other.documents;
+            this.totalNanos = other.totalNanos;
+            this.maxNanos = other.maxNanos;
+        }
+
+        public long getBatches() {
+            return batches;
+        }
+
+        public long getDocuments() {
+            return documents;
+        }
+
+        public double getAverageMillis() {
+            return batches == 0 ? 0 : totalNanos / (double) batches / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        public double getMaxMillis() {
+            return maxNanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d batches, %d documents, avg %.2f ms, max %.2f ms", batches, documents,
+                    getAverageMillis(), getMaxMillis());
+        }
+    }
+
+    private final Map<String, Stage> stages = Maps.newLinkedHashMap();
+
+    /**
+     * @param startNanos - {@link System#nanoTime()} when the stage started
+     */
+    public synchronized void record(String stage, int documents, long startNanos) {
+        long elapsed = System.nanoTime() - startNanos;
+        Stage stats = stages.get(stage);
+        if (stats == null) {
+            stats = new Stage();
+            stages.put(stage, stats);
+        }
+        stats.batches++;
+        stats.documents += documents;
+        stats.totalNanos += elapsed;
+        stats.maxNanos = Math.max(stats.maxNanos, elapsed);
+    }
+
+    /**
+     * @return a copy of the latency of every stage recorded so far
+     */
+    public synchronized Map<String, Stage> getStages() {
+        Map<String, Stage> copy = Maps.newLinkedHashMap();
+        for (Map.Entry<String, Stage> entry : stages.entrySet()) {
+            copy.put(entry.getKey(), new Stage(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(copy);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return stages.toString();
+    }
+}
@@ -0,0 +1,111 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.publisher.service;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import ezbake.base.thrift.EzSecurityToken;
+import ezbake.base.thrift.Visibility;
+import ezbake.ezbroadcast.core.EzBroadcaster;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps a broadcaster open for every topic published to, instead of opening one per message.  A broadcaster that
+ * fails to broadcast is closed and replaced on the next message to its topic.
+ */
+public class TopicBroadcasters implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(TopicBroadcasters.class);
+
+    /**
+     * Creates a broadcaster registered to broadcast on the topic
+     */
+    public interface Factory {
+        EzBroadcaster create(EzSecurityToken token, String topic);
+    }
+
+    private final Factory factory;
+    private final ConcurrentMap<String, EzBroadcaster> broadcasters = Maps.newConcurrentMap();
+
+    public TopicBroadcasters(Factory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Broadcast on the topic, opening its broadcaster if it isn't open yet
+     *
+     * @param token - used to retrieve the topic key when the broadcaster is opened
+     */
+    public void broadcast(EzSecurityToken token, String topic, Visibility visibility, byte[] payload)
+            throws IOException {
+        EzBroadcaster broadcaster = get(token, topic);
+        try {
+            synchronized (broadcaster) {
+                broadcaster.broadcast(topic, visibility, payload);
+            }
+        } catch (IOException e) {
+            if (broadcasters.remove(topic, broadcaster)) {
+                close(topic, broadcaster);
+            }
+            throw e;
+        }
+    }
+
+    public int size() {
+        return broadcasters.size();
+    }
+
+    @Override
+    public void close() {
+        List<String> topics = Lists.newArrayList(broadcasters.keySet());
+        for (String topic : topics) {
+            EzBroadcaster broadcaster = broadcasters.remove(topic);
+            if (broadcaster != null) {
+                close(topic, broadcaster);
+            }
+        }
+    }
+
+    private EzBroadcaster get(EzSecurityToken token, String topic) {
+        EzBroadcaster broadcaster = broadcasters.get(topic);
+        if (broadcaster == null) {
+            synchronized (broadcasters) {
+                broadcaster = broadcasters.get(topic);
+                if (broadcaster == null) {
+                    broadcaster = factory.create(token, topic);
+                    broadcasters.put(topic, broadcaster);
+                    logger.debug("Opened broadcaster for topic {}", topic);
+                }
+            }
+        }
+        return broadcaster;
+    }
+
+    private static void close(String topic, EzBroadcaster broadcaster) {
+        try {
+            synchronized (broadcaster) {
+                broadcaster.close();
+            }
+        } catch (IOException e) {
+            logger.error("Error closing broadcaster for topic " + topic, e);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.publisher.service;
+
+import com.google.common.collect.Sets;
+import ezbake.base.thrift.EzSecurityToken;
+import ezbake.base.thrift.Visibility;
+import ezbake.common.properties.EzProperties;
+import ezbake.configuration.ClasspathConfigurationLoader;
+import ezbake.configuration.constants.EzBakePropertyConstants;
+import ezbake.ins.thrift.gen.InternalNameService;
+import ezbake.ins.thrift.gen.InternalNameServiceConstants;
+import ezbake.publisher.thrift.PublishData;
+import ezbake.publisher.thrift.PublishResult;
+import ezbake.security.client.EzSecurityTokenWrapper;
+import ezbake.security.client.EzbakeSecurityClient;
+import ezbake.security.test.MockEzSecurityToken;
+import ezbake.thrift.ThriftClientPool;
+import ezbake.warehaus.IngestStatus;
+import ezbake.warehaus.IngestStatusEnum;
+import ezbake.warehaus.PutRequest;
+import ezbake.warehaus.UpdateEntry;
+import ezbake.warehaus.WarehausService;
+import ezbake.warehaus.WarehausServiceConstants;
+import org.apache.thrift.TException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.nio.ByteBuffer;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Checks that publishing with async stages looks the topics up in INS while the warehaus put is running, against stub
+ * services that wait for each other
+ */
+public class AsyncPublishStagesTest {
+    private ThriftClientPool mockPool;
+    private EzbakeSecurityClient mockSecurity;
+    private EzSecurityToken mockToken;
+    private WarehausService.Client mockWarehaus;
+    private InternalNameService.Client mockIns;
+    private ContentPublisherService sequential;
+    private ContentPublisherService async;
+
+    @Before
+    public void setup() throws Exception {
+        mockPool = mock(ThriftClientPool.class);
+        when(mockPool.getSecurityId(WarehausServiceConstants.SERVICE_NAME)).thenReturn("warehaus");
+        when(mockPool.getSecurityId(InternalNameServiceConstants.SERVICE_NAME)).thenReturn("ins");
+
+        mockIns = mock(InternalNameService.Client.class);
+        when(mockIns.getTopicsForFeed("content", "publishContent")).thenReturn(Sets.newHashSet("someTopic"));
+        when(mockIns.getURIPrefix("content", "publishContent")).thenReturn("DEV://contentpublisher/");
+        when(mockPool.getClient(InternalNameServiceConstants.SERVICE_NAME, InternalNameService.Client.class))
+                .thenReturn(mockIns);
+
+        mockWarehaus = mock(WarehausService.Client.class);
+        when(mockPool.getClient(WarehausServiceConstants.SERVICE_NAME, WarehausService.Client.class))
+                .thenReturn(mockWarehaus);
+
+        mockToken = MockEzSecurityToken.getMockUserToken("Jon Doe", "TS", Sets.newHashSet("U", "FOUO"), null, false);
+        MockEzSecurityToken.populateAppInfo(mockToken, "content", "whatever");
+        mockSecurity = mock(EzbakeSecurityClient.class);
+        when(mockSecurity.fetchDerivedTokenForApp(mockToken, "warehaus"))
+                .thenReturn(new EzSecurityTokenWrapper(mockToken));
+        when(mockSecurity.fetchDerivedTokenForApp(mockToken, "ins")).thenReturn(new EzSecurityTokenWrapper(mockToken));
+
+        sequential = new ContentPublisherService(mockPool, mockSecurity, props(false));
+        async = new ContentPublisherService(mockPool, mockSecurity, props(true));
+    }
+
+    @After
+    public void tearDown() {
+        sequential.shutdown();
+        async.shutdown();
+    }
+
+    @Test
+    public void testAsyncStagesOverlapINSAndWarehaus() throws Exception {
+        Overlap overlap = stubOverlappingServices(10);
+        PublishResult result = async.publish(publishData(0), new Visibility().setFormalVisibility("U"), mockToken);
+
+        Assert.assertEquals(12345, result.getWarehouseTimestamp());
+        Assert.assertTrue("The INS lookup should run while the warehaus put is running", overlap.insSawWarehaus.get());
+        Assert.assertTrue("The warehaus put should run while the INS lookup is running", overlap.warehausSawIns.get());
+        verify(mockWarehaus).put(any(PutRequest.class), eq(mockToken));
+    }
+
+    @Test
+    public void testSequentialStagesDontOverlap() throws Exception {
+        // Sequential stages can't overlap, so the stubs give up waiting for each other quickly
+        Overlap overlap = stubOverlappingServices(0);
+        PublishResult result = sequential.publish(publishData(0), new Visibility().setFormalVisibility("U"), mockToken);
+
+        Assert.assertEquals(12345, result.getWarehouseTimestamp());
+        Assert.assertFalse(overlap.insSawWarehaus.get() && overlap.warehausSawIns.get());
+    }
+
+    @Test
+    public void testAsyncStagesKeepWarehausFailures() throws TException {
+        when(mockWarehaus.put(any(PutRequest.class), any(EzSecurityToken.class)))
+                .thenReturn(new IngestStatus().setStatus(IngestStatusEnum.FAIL));
+        try {
+            async.publish(publishData(0), new Visibility().setFormalVisibility("U"), mockToken);
+            Assert.fail("The failed warehaus put should fail the publish");
+        } catch (TException e) {
+            Assert.assertTrue(e.getMessage().contains("DEV://contentpublisher/latency/0"));
+        }
+    }
+
+    private static PublishData publishData(int i) {
+        UpdateEntry entry = new UpdateEntry("DEV://contentpublisher/latency/" + i);
+        entry.setParsedData(ByteBuffer.wrap(("parsed data " + i).getBytes()));
+        PublishData data = new PublishData();
+        data.setEntry(entry);
+        data.setFeedname("publishContent");
+        return data;
+    }
+
+    private static EzProperties props(boolean asyncStages) throws Exception {
+        Properties props = new ClasspathConfigurationLoader().loadConfiguration();
+        EzProperties ezProps = new EzProperties(props, true);
+        ezProps.setProperty(EzBakePropertyConstants.EZBAKE_SECURITY_ID, "app");
+        // Every publish looks the topics up in INS
+        ezProps.setProperty(ContentPublisherService.INS_CACHE_TTL_MILLIS_KEY, "0");
+        ezProps.setProperty(ContentPublisherService.ASYNC_STAGES_KEY, Boolean.toString(asyncStages));
+        return ezProps;
+    }
+
+    /**
+     * Which of the INS topic lookup and the warehaus put saw the other one running
+     */
+    private static class Overlap {
+        final CountDownLatch insStarted = new CountDownLatch(1);
+        final CountDownLatch warehausStarted = new CountDownLatch(1);
+        final AtomicBoolean insSawWarehaus = new AtomicBoolean();
+        final AtomicBoolean warehausSawIns = new AtomicBoolean();
+    }
+
+    /**
+     * Make the INS topic lookup and the warehaus put each wait for the other one to start.  They only both see the
+     * other one if they run at the same time.
+     */
+    private Overlap stubOverlappingServices(final long waitSeconds) throws TException {
+        final Overlap overlap = new Overlap();
+        when(mockIns.getTopicsForFeed("content", "publishContent")).then(new Answer<Set<String>>() {
+            @Override
+            public Set<String> answer(InvocationOnMock invocationOnMock) throws Throwable {
+                overlap.insStarted.countDown();
+                overlap.insSawWarehaus.set(overlap.warehausStarted.await(waitSeconds, TimeUnit.SECONDS));
+                return Sets.newHashSet("someTopic");
+            }
+        });
+        when(mockWarehaus.put(any(PutRequest.class), any(EzSecurityToken.class))).then(new Answer<IngestStatus>() {
+            @Override
+            public IngestStatus answer(InvocationOnMock invocationOnMock) throws Throwable {
+                overlap.warehausStarted.countDown();
+                overlap.warehausSawIns.set(overlap.insStarted.await(waitSeconds, TimeUnit.SECONDS));
+                return new IngestStatus().setTimestamp(12345).setStatus(IngestStatusEnum.SUCCESS);
+            }
+        });
+        return overlap;
+    }
+}
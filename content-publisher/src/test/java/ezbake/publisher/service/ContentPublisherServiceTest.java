@@ -15,6 +15,7 @@
 package ezbake.publisher.service;
 
 import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Properties;
 
 import ezbake.common.properties.EzProperties;
@@ -25,6 +26,7 @@ import ezbake.security.client.EzSecurityTokenWrapper;
 import ezbake.security.client.EzbakeSecurityClient;
 import ezbake.security.lock.smith.thrift.EzLocksmith;
 import ezbake.security.lock.smith.thrift.EzLocksmithConstants;
+import ezbake.publisher.thrift.PublishResult;
 import ezbake.services.provenance.thrift.ProvenanceService;
 import ezbake.services.provenance.thrift.ProvenanceServiceConstants;
 import ezbake.warehaus.*;
@@ -39,6 +41,7 @@ import org.mockito.stubbing.Answer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 
@@ -170,4 +173,49 @@ public class ContentPublisherServiceTest {
         logger.info("Starting fetch");
         Assert.assertEquals(parsedData, result[0]);
     }
+
+    @Test
+    public void publishBatch() throws TException {
+        Visibility visibility = new Visibility().setFormalVisibility("U");
+
+        // Mock Warehaus
+        WarehausService.Client mockClient = mock(WarehausService.Client.class);
+        when(mockClient.put(any(PutRequest.class), eq(mockToken)))
+                .thenReturn(new IngestStatus().setTimestamp(12345).setStatus(IngestStatusEnum.SUCCESS));
+        when(mockPool.getClient(WarehausServiceConstants.SERVICE_NAME, WarehausService.Client.class)).thenReturn(mockClient);
+
+        List<PublishData> batch = Lists.newArrayList();
+        List<Visibility> visibilities = Lists.newArrayList();
+        for (int i = 0; i < 3; i++) {
+            UpdateEntry entry = new UpdateEntry("DEV://contentpublisher/batch/" + i);
+            entry.setParsedData(ByteBuffer.wrap(("parsed data " + i).getBytes()));
+            PublishData data = new PublishData();
+            data.setEntry(entry);
+            data.setFeedname("publishContent");
+            batch.add(data);
+            visibilities.add(visibility);
+        }
+
+        List<PublishResult> results = contentPublisher.publishBatch(batch, visibilities, mockToken);
+        contentPublisher.publishBatch(batch.subList(0, 1), visibilities.subList(0, 1), mockToken);
+        contentPublisher.shutdown();
+
+        Assert.assertEquals(3, results.size());
+        for (PublishResult result : results) {
+            Assert.assertEquals(12345, result.getWarehouseTimestamp());
+        }
+
+        // One warehaus put per batch, the topics are only looked up once
+        verify(mockClient, times(2)).put(any(PutRequest.class), eq(mockToken));
+        verify(mockPool.getClient(InternalNameServiceConstants.SERVICE_NAME, InternalNameService.Client.class),
+                times(1)).getTopicsForFeed("content", "publishContent");
+
+        Multimap<String, byte[]> broadcasted = PublisherBroadcaster.getBroadcasted();
+        Assert.assertEquals(4, broadcasted.get("someTopic").size());
+
+        PublishStageMetrics.Stage warehaus = contentPublisher.getStageMetrics().getStages()
+                .get(PublishStageMetrics.WAREHAUS);
+        Assert.assertEquals(2, warehaus.getBatches());
+        Assert.assertEquals(4, warehaus.getDocuments());
+    }
 }
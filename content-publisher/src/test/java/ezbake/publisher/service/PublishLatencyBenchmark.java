@@ -0,0 +1,152 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.publisher.service;
+
+import com.google.common.collect.Sets;
+import ezbake.base.thrift.EzSecurityToken;
+import ezbake.base.thrift.Visibility;
+import ezbake.common.properties.EzProperties;
+import ezbake.configuration.ClasspathConfigurationLoader;
+import ezbake.configuration.constants.EzBakePropertyConstants;
+import ezbake.ins.thrift.gen.InternalNameService;
+import ezbake.ins.thrift.gen.InternalNameServiceConstants;
+import ezbake.publisher.thrift.PublishData;
+import ezbake.publisher.thrift.PublishResult;
+import ezbake.security.client.EzSecurityTokenWrapper;
+import ezbake.security.client.EzbakeSecurityClient;
+import ezbake.security.test.MockEzSecurityToken;
+import ezbake.thrift.ThriftClientPool;
+import ezbake.warehaus.IngestStatus;
+import ezbake.warehaus.IngestStatusEnum;
+import ezbake.warehaus.PutRequest;
+import ezbake.warehaus.UpdateEntry;
+import ezbake.warehaus.WarehausService;
+import ezbake.warehaus.WarehausServiceConstants;
+import org.apache.thrift.TException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Properties;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Latency of publishing with and without async stages, against stub services that take a fixed time to answer.  Only
+ * run with the benchmark profile.
+ */
+public class PublishLatencyBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger(PublishLatencyBenchmark.class);
+    private static final long SERVICE_MILLIS = 20;
+    private static final int PUBLISHES = 10;
+
+    private ThriftClientPool mockPool;
+    private EzbakeSecurityClient mockSecurity;
+    private EzSecurityToken mockToken;
+    private WarehausService.Client mockWarehaus;
+    private ContentPublisherService sequential;
+    private ContentPublisherService async;
+
+    @Before
+    public void setup() throws Exception {
+        mockPool = mock(ThriftClientPool.class);
+        when(mockPool.getSecurityId(WarehausServiceConstants.SERVICE_NAME)).thenReturn("warehaus");
+        when(mockPool.getSecurityId(InternalNameServiceConstants.SERVICE_NAME)).thenReturn("ins");
+
+        InternalNameService.Client mockIns = mock(InternalNameService.Client.class);
+        when(mockIns.getTopicsForFeed("content", "publishContent")).then(slow(Sets.newHashSet("someTopic")));
+        when(mockIns.getURIPrefix("content", "publishContent")).then(slow("DEV://contentpublisher/"));
+        when(mockPool.getClient(InternalNameServiceConstants.SERVICE_NAME, InternalNameService.Client.class))
+                .thenReturn(mockIns);
+
+        mockWarehaus = mock(WarehausService.Client.class);
+        when(mockWarehaus.put(any(PutRequest.class), any(EzSecurityToken.class)))
+                .then(slow(new IngestStatus().setTimestamp(12345).setStatus(IngestStatusEnum.SUCCESS)));
+        when(mockPool.getClient(WarehausServiceConstants.SERVICE_NAME, WarehausService.Client.class))
+                .thenReturn(mockWarehaus);
+
+        mockToken = MockEzSecurityToken.getMockUserToken("Jon Doe", "TS", Sets.newHashSet("U", "FOUO"), null, false);
+        MockEzSecurityToken.populateAppInfo(mockToken, "content", "whatever");
+        mockSecurity = mock(EzbakeSecurityClient.class);
+        when(mockSecurity.fetchDerivedTokenForApp(mockToken, "warehaus"))
+                .thenReturn(new EzSecurityTokenWrapper(mockToken));
+        when(mockSecurity.fetchDerivedTokenForApp(mockToken, "ins")).thenReturn(new EzSecurityTokenWrapper(mockToken));
+
+        sequential = new ContentPublisherService(mockPool, mockSecurity, props(false));
+        async = new ContentPublisherService(mockPool, mockSecurity, props(true));
+    }
+
+    @After
+    public void tearDown() {
+        sequential.shutdown();
+        async.shutdown();
+    }
+
+    @Test
+    public void publish() throws TException {
+        Visibility visibility = new Visibility().setFormalVisibility("U");
+
+        long sequentialMillis = publishAll(sequential, visibility);
+        long asyncMillis = publishAll(async, visibility);
+
+        logger.info("{} publishes with {} ms services took {} ms sequential, {} ms with async stages", PUBLISHES,
+                SERVICE_MILLIS, sequentialMillis, asyncMillis);
+    }
+
+    private long publishAll(ContentPublisherService publisher, Visibility visibility) throws TException {
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < PUBLISHES; i++) {
+            PublishResult result = publisher.publish(publishData(i), visibility, mockToken);
+            Assert.assertEquals(12345, result.getWarehouseTimestamp());
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    private static PublishData publishData(int i) {
+        UpdateEntry entry = new UpdateEntry("DEV://contentpublisher/latency/" + i);
+        entry.setParsedData(ByteBuffer.wrap(("parsed data " + i).getBytes()));
+        PublishData data = new PublishData();
+        data.setEntry(entry);
+        data.setFeedname("publishContent");
+        return data;
+    }
+
+    private static EzProperties props(boolean asyncStages) throws Exception {
+        Properties props = new ClasspathConfigurationLoader().loadConfiguration();
+        EzProperties ezProps = new EzProperties(props, true);
+        ezProps.setProperty(EzBakePropertyConstants.EZBAKE_SECURITY_ID, "app");
+        // Every publish looks the topics up in INS
+        ezProps.setProperty(ContentPublisherService.INS_CACHE_TTL_MILLIS_KEY, "0");
+        ezProps.setProperty(ContentPublisherService.ASYNC_STAGES_KEY, Boolean.toString(asyncStages));
+        return ezProps;
+    }
+
+    private static <T> Answer<T> slow(final T answer) {
+        return new Answer<T>() {
+            @Override
+            public T answer(InvocationOnMock invocationOnMock) throws Throwable {
+                Thread.sleep(SERVICE_MILLIS);
+                return answer;
+            }
+        };
+    }
+}
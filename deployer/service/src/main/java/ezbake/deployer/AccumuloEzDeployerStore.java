@@ -22,7 +22,6 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import ezbake.deployer.configuration.EzDeployerConfiguration;
-import ezbake.deployer.utilities.ArtifactHelpers;
 import ezbake.services.deploy.thrift.ArtifactManifest;
 import ezbake.services.deploy.thrift.DeploymentArtifact;
 import ezbake.services.deploy.thrift.DeploymentException;
@@ -141,12 +140,12 @@ public class AccumuloEzDeployerStore extends EzDeployerStore {
 
     @Override
     public void updateDeploymentMetadata(DeploymentMetadata metadata) throws DeploymentException, TException {
-        DeploymentArtifact oldVersion = getArtifactFromStore(ArtifactHelpers.getAppId(metadata),
-                ArtifactHelpers.getServiceId(metadata), metadata.getVersion());
-        removeFromStore(oldVersion.getMetadata());
+        // Only the metadata changes, let the artifact writer move the artifact without copying it when it can
+        DeploymentMetadata oldMetadata = getLatestApplicationMetaDataFromStore(getFqAppId(metadata.getManifest()));
         metadata.setVersion(Long.toString(createVersionNumber()));
-        oldVersion.setMetadata(metadata);
-        writeToStore(metadata, oldVersion);
+        artifactWriter.updateArtifactMetadata(oldMetadata, metadata);
+        removeFromStore(oldMetadata, true);
+        writeToStore(metadata, null);
     }
 
     private void writeToStore(DeploymentMetadata metadata, DeploymentArtifact artifact) throws TException {
@@ -25,4 +25,13 @@ public interface ArtifactWriter {
     void deleteArtifact(DeploymentMetadata metadata) throws DeploymentException;
 
     DeploymentArtifact readArtifact(DeploymentMetadata metadata) throws DeploymentException;
+
+    /**
+     * Move the artifact of a version to a new version with new metadata, e.g. when its status changes
+     *
+     * @param oldMetadata - metadata the artifact was written with
+     * @param newMetadata - metadata for the artifact, including its new version
+     */
+    void updateArtifactMetadata(DeploymentMetadata oldMetadata, DeploymentMetadata newMetadata)
+            throws DeploymentException;
 }
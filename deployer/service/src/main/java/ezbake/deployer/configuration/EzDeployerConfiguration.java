@@ -103,6 +103,16 @@ public class EzDeployerConfiguration {
         return getLong(Keys.ACCUMULO_MAX_MEMORY_KEY);
     }
 
+    /**
+     * Whether artifacts are stored split into content addressed chunks, so versions of a service share the chunks
+     * they have in common
+     *
+     * @return true if artifacts should be stored deduplicated
+     */
+    public boolean isArtifactDedupeEnabled() {
+        return getBoolean(Keys.ARTIFACT_DEDUPE_KEY);
+    }
+
     /**
      * Gets a property from configuration for the given Key
      *
@@ -341,6 +351,7 @@ public class EzDeployerConfiguration {
         ACCUMULO_MAX_THREADS_KEY("accumulo.max-threads", Optional.of("5"), "The number of threads to tell accumulo to use for writing/reading"),
         ACCUMULO_MAX_LATENCY_KEY("accumulo.max-latency", Optional.of("10000"), "The max latency for the batchwriter during mutations"),
         ACCUMULO_MAX_MEMORY_KEY("accumulo.max-memory", Optional.of("10000000"), "The amount of memory to use before batchwriter is forced to flush"),
+        ARTIFACT_DEDUPE_KEY("ezDeploy.artifacts.dedupe", Optional.of("false"), "Store artifacts as content addressed chunks shared between versions"),
 
         // ThriftRunner configuration
         THRIFT_RUNNER_JAR_KEY("thriftrunner.jar.location", Optional.<String>absent(), "The location on disk to the thriftrunner jar file"),
@@ -0,0 +1,63 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.deployer.impl;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Storage for the {@link ChunkedArtifactWriter}: chunks addressed by the hash of their content and the manifests
+ * listing the chunks of each artifact version.
+ */
+public interface ChunkStore {
+    boolean hasChunk(String hash) throws IOException;
+
+    /**
+     * Store a chunk.  The chunk must not become visible under its hash until it is completely written, a partial
+     * chunk would be reused by every later artifact containing it.
+     */
+    void writeChunk(String hash, byte[] data, int offset, int length) throws IOException;
+
+    byte[] readChunk(String hash) throws IOException;
+
+    void deleteChunk(String hash) throws IOException;
+
+    /**
+     * @return when the chunk was last written in milliseconds since the epoch, or 0 if it isn't stored
+     */
+    long getChunkModificationTime(String hash) throws IOException;
+
+    /**
+     * @return the hashes of all stored chunks
+     */
+    List<String> listChunks() throws IOException;
+
+    /**
+     * @param name application, service and version the manifest is for, as built by the writer
+     */
+    void writeManifest(String name, byte[] manifest) throws IOException;
+
+    /**
+     * @return the manifest, or null if there isn't one with the name
+     */
+    byte[] readManifest(String name) throws IOException;
+
+    void deleteManifest(String name) throws IOException;
+
+    /**
+     * @return the names of all stored manifests
+     */
+    List<String> listManifests() throws IOException;
+}
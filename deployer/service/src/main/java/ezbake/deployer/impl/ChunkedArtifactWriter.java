@@ -0,0 +1,415 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.deployer.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import ezbake.deployer.ArtifactWriter;
+import ezbake.deployer.utilities.ArtifactHelpers;
+import ezbake.services.deploy.thrift.DeploymentArtifact;
+import ezbake.services.deploy.thrift.DeploymentException;
+import ezbake.services.deploy.thrift.DeploymentMetadata;
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Stores artifacts deduplicated: each artifact is split into content defined chunks, chunks are stored once by their
+ * hash and each version of a service gets a manifest listing its chunks.  Consecutive versions of a service usually
+ * only differ in a few files, so they share most of their chunks.
+ * <p/>
+ * Gzipped artifacts are chunked uncompressed, a change early in a compressed stream changes all the compressed bytes
+ * after it.  They are compressed again when read, so the bytes read back are an equivalent gzip stream of the same
+ * content rather than the original bytes.
+ * <p/>
+ * Chunks are reference counted by the manifests using them and deleted with the last one.  The counts are built from
+ * the manifests when first needed and kept in memory, so a store must only be written by one deployer at a time.
+ * Building them also deletes the chunks left behind by an interrupted write or delete, but only those older than a
+ * grace period: a chunk written by a write that is still running has no manifest yet and must not be swept.
+ * Artifacts without a manifest, e.g. written before this writer was used, are read from and deleted with the legacy
+ * writer, and moved into the chunk store when their metadata is updated.
+ */
+public class ChunkedArtifactWriter implements ArtifactWriter {
+    private static final Logger log = LoggerFactory.getLogger(ChunkedArtifactWriter.class);
+    private static final int MANIFEST_FORMAT = 1;
+    public static final long DEFAULT_ORPHAN_GRACE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final ChunkStore store;
+    private final ArtifactWriter legacyWriter;
+    private final ContentChunker chunker;
+    private final long orphanGraceMillis;
+    /**
+     * key: chunk hash, value: number of manifests using it.  Null until loaded.
+     */
+    private Map<String, Integer> references;
+
+    /**
+     * @param store        where the chunks and manifests are stored
+     * @param legacyWriter reads and deletes artifacts that were written before, may be null
+     */
+    public ChunkedArtifactWriter(ChunkStore store, ArtifactWriter legacyWriter) {
+        this(store, legacyWriter, new ContentChunker(), DEFAULT_ORPHAN_GRACE_MILLIS);
+    }
+
+    /**
+     * @param orphanGraceMillis how old a chunk without a manifest must be before it is deleted as left behind
+     */
+    public ChunkedArtifactWriter(ChunkStore store, ArtifactWriter legacyWriter, ContentChunker chunker,
+                                 long orphanGraceMillis) {
+        this.store = store;
+        this.legacyWriter = legacyWriter;
+        this.chunker = chunker;
+        this.orphanGraceMillis = orphanGraceMillis;
+    }
+
+    @Override
+    public synchronized void writeArtifact(DeploymentMetadata metadata, DeploymentArtifact artifact)
+            throws DeploymentException {
+        String name = manifestName(metadata);
+        try {
+            loadReferences();
+            Manifest previous = readManifest(name);
+            Manifest manifest = storeChunks(name, artifact);
+            store.writeManifest(name, manifest.toBytes());
+            retain(manifest.hashes);
+            if (previous != null) {
+                release(previous.hashes);
+            }
+        } catch (IOException | TException e) {
+            log.error("Unable to write artifact " + name, e);
+            throw new DeploymentException("Unable to write artifact " + name + ". " + e.getMessage());
+        }
+    }
+
+    @Override
+    public DeploymentArtifact readArtifact(DeploymentMetadata metadata) throws DeploymentException {
+        String name = manifestName(metadata);
+        try {
+            Manifest manifest = readManifest(name);
+            if (manifest == null) {
+                return readLegacyArtifact(metadata, name);
+            }
+            DeploymentArtifact artifact = new DeploymentArtifact();
+            artifact.setMetadata(manifest.metadata);
+            if (manifest.hasArtifact) {
+                artifact.setArtifact(readContent(manifest));
+            }
+            return artifact;
+        } catch (IOException | TException e) {
+            log.error("Unable to read artifact " + name, e);
+            throw new DeploymentException("Unable to read artifact " + name + ". " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void deleteArtifact(DeploymentMetadata metadata) throws DeploymentException {
+        String name = manifestName(metadata);
+        try {
+            Manifest manifest = readManifest(name);
+            if (manifest == null) {
+                if (legacyWriter != null) {
+                    legacyWriter.deleteArtifact(metadata);
+                } else {
+                    log.warn("Artifact {} didn't exist to delete", name);
+                }
+                return;
+            }
+            loadReferences();
+            store.deleteManifest(name);
+            release(manifest.hashes);
+        } catch (IOException | TException e) {
+            log.error("Unable to delete artifact " + name, e);
+            throw new DeploymentException("Unable to delete artifact " + name + ". " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a manifest for the new version pointing at the chunks of the old version, no chunk is read or written
+     */
+    @Override
+    public synchronized void updateArtifactMetadata(DeploymentMetadata oldMetadata, DeploymentMetadata newMetadata)
+            throws DeploymentException {
+        String oldName = manifestName(oldMetadata);
+        String newName = manifestName(newMetadata);
+        try {
+            Manifest manifest = readManifest(oldName);
+            if (manifest == null) {
+                if (legacyWriter == null) {
+                    throw new DeploymentException("Could not find artifact " + oldName);
+                }
+                DeploymentArtifact artifact = legacyWriter.readArtifact(oldMetadata);
+                artifact.setMetadata(newMetadata);
+                writeArtifact(newMetadata, artifact);
+                legacyWriter.deleteArtifact(oldMetadata);
+                log.info("Moved artifact {} into the chunk store as {}", oldName, newName);
+                return;
+            }
+            if (oldName.equals(newName)) {
+                manifest.metadata = newMetadata;
+                store.writeManifest(newName, manifest.toBytes());
+                return;
+            }
+            loadReferences();
+            Manifest previous = readManifest(newName);
+            manifest.metadata = newMetadata;
+            store.writeManifest(newName, manifest.toBytes());
+            retain(manifest.hashes);
+            store.deleteManifest(oldName);
+            release(manifest.hashes);
+            if (previous != null) {
+                release(previous.hashes);
+            }
+        } catch (IOException | TException e) {
+            log.error("Unable to update artifact " + oldName + " to " + newName, e);
+            throw new DeploymentException("Unable to update artifact " + oldName + " to " + newName + ". "
+                    + e.getMessage());
+        }
+    }
+
+    private DeploymentArtifact readLegacyArtifact(DeploymentMetadata metadata, String name)
+            throws DeploymentException {
+        if (legacyWriter == null) {
+            throw new DeploymentException("Could not find artifact " + name);
+        }
+        return legacyWriter.readArtifact(metadata);
+    }
+
+    /**
+     * Chunk the artifact and store the chunks that aren't stored yet
+     */
+    private Manifest storeChunks(String name, DeploymentArtifact artifact) throws IOException {
+        final Manifest manifest = new Manifest();
+        manifest.metadata = artifact.getMetadata();
+        manifest.hasArtifact = artifact.isSetArtifact();
+        if (!manifest.hasArtifact) {
+            return manifest;
+        }
+        byte[] data = artifact.getArtifact();
+        final Set<String> written = Sets.newHashSet();
+        final long[] writtenBytes = {0};
+        ContentChunker.ChunkHandler handler = new ContentChunker.ChunkHandler() {
+            @Override
+            public void onChunk(byte[] chunk, int offset, int length) throws IOException {
+                String hash = Hashing.sha256().hashBytes(chunk, offset, length).toString();
+                if (!references.containsKey(hash) && !written.contains(hash) && !store.hasChunk(hash)) {
+                    store.writeChunk(hash, chunk, offset, length);
+                    written.add(hash);
+                    writtenBytes[0] += length;
+                }
+                manifest.hashes.add(hash);
+                manifest.lengths.add(length);
+            }
+        };
+
+        manifest.gzipped = isGzipped(data);
+        if (manifest.gzipped) {
+            try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(data))) {
+                manifest.size = chunker.chunk(input, handler);
+            } catch (ZipException | EOFException e) {
+                // Not actually a gzip stream, store the bytes as they are
+                log.warn("Could not decompress artifact {}, storing it as is: {}", name, e.getMessage());
+                deleteUnreferenced(written);
+                written.clear();
+                writtenBytes[0] = 0;
+                manifest.hashes.clear();
+                manifest.lengths.clear();
+                manifest.gzipped = false;
+            }
+        }
+        if (!manifest.gzipped) {
+            manifest.size = chunker.chunk(new ByteArrayInputStream(data), handler);
+        }
+        log.info("Stored artifact {}: {} chunks, {} new, wrote {} of {} bytes", name, manifest.hashes.size(),
+                written.size(), writtenBytes[0], manifest.size);
+        return manifest;
+    }
+
+    private byte[] readContent(Manifest manifest) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream(
+                (int) (manifest.gzipped ? manifest.size / 2 : manifest.size));
+        if (manifest.gzipped) {
+            try (GZIPOutputStream output = new GZIPOutputStream(content, 64 * 1024)) {
+                writeChunks(manifest, output);
+            }
+        } else {
+            writeChunks(manifest, content);
+        }
+        return content.toByteArray();
+    }
+
+    private void writeChunks(Manifest manifest, OutputStream output) throws IOException {
+        for (int i = 0; i < manifest.hashes.size(); i++) {
+            byte[] chunk = store.readChunk(manifest.hashes.get(i));
+            if (chunk.length != manifest.lengths.get(i)) {
+                throw new IOException("Chunk " + manifest.hashes.get(i) + " has " + chunk.length
+                        + " bytes, expected " + manifest.lengths.get(i));
+            }
+            output.write(chunk);
+        }
+    }
+
+    /**
+     * Count the references of every chunk from the stored manifests and delete the chunks without one that are older
+     * than the grace period
+     */
+    private synchronized void loadReferences() throws IOException, TException {
+        if (references != null) {
+            return;
+        }
+        Map<String, Integer> counts = Maps.newHashMap();
+        List<String> names = store.listManifests();
+        for (String name : names) {
+            Manifest manifest = readManifest(name);
+            if (manifest != null) {
+                for (String hash : manifest.hashes) {
+                    Integer count = counts.get(hash);
+                    counts.put(hash, count == null ? 1 : count + 1);
+                }
+            }
+        }
+        long writtenBefore = System.currentTimeMillis() - orphanGraceMillis;
+        int orphans = 0;
+        for (String hash : store.listChunks()) {
+            if (!counts.containsKey(hash)) {
+                long modified = store.getChunkModificationTime(hash);
+                if (modified != 0 && modified < writtenBefore) {
+                    store.deleteChunk(hash);
+                    orphans++;
+                }
+            }
+        }
+        references = counts;
+        log.info("Loaded {} chunks referenced by {} manifests, deleted {} unreferenced chunks",
+                counts.size(), names.size(), orphans);
+    }
+
+    private void retain(List<String> hashes) {
+        for (String hash : hashes) {
+            Integer count = references.get(hash);
+            references.put(hash, count == null ? 1 : count + 1);
+        }
+    }
+
+    private void release(List<String> hashes) throws IOException {
+        for (String hash : hashes) {
+            Integer count = references.get(hash);
+            if (count == null || count <= 1) {
+                // a chunk can be listed more than once in a manifest, it is only deleted once
+                if (references.remove(hash) != null) {
+                    store.deleteChunk(hash);
+                }
+            } else {
+                references.put(hash, count - 1);
+            }
+        }
+    }
+
+    private void deleteUnreferenced(Set<String> hashes) throws IOException {
+        for (String hash : hashes) {
+            if (!references.containsKey(hash)) {
+                store.deleteChunk(hash);
+            }
+        }
+    }
+
+    private Manifest readManifest(String name) throws IOException, TException {
+        byte[] bytes = store.readManifest(name);
+        return bytes == null ? null : Manifest.fromBytes(bytes);
+    }
+
+    private static String manifestName(DeploymentMetadata metadata) {
+        return ArtifactHelpers.getFqAppId(metadata) + "/" + metadata.getVersion();
+    }
+
+    private static boolean isGzipped(byte[] data) {
+        return data.length > 2 && data[0] == (byte) GZIPInputStream.GZIP_MAGIC
+                && data[1] == (byte) (GZIPInputStream.GZIP_MAGIC >> 8);
+    }
+
+    /**
+     * The metadata of an artifact version and the chunks of its content, in order
+     */
+    private static class Manifest {
+        DeploymentMetadata metadata;
+        boolean hasArtifact;
+        boolean gzipped;
+        long size;
+        final List<String> hashes = Lists.newArrayList();
+        final List<Integer> lengths = Lists.newArrayList();
+
+        byte[] toBytes() throws IOException, TException {
+            byte[] serializedMetadata = new TSerializer(new TCompactProtocol.Factory()).serialize(metadata);
+            ByteArrayOutputStream bytes =
+                    new ByteArrayOutputStream(serializedMetadata.length + hashes.size() * 72 + 32);
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeInt(MANIFEST_FORMAT);
+            output.writeInt(serializedMetadata.length);
+            output.write(serializedMetadata);
+            output.writeBoolean(hasArtifact);
+            output.writeBoolean(gzipped);
+            output.writeLong(size);
+            output.writeInt(hashes.size());
+            for (int i = 0; i < hashes.size(); i++) {
+                output.writeUTF(hashes.get(i));
+                output.writeInt(lengths.get(i));
+            }
+            output.flush();
+            return bytes.toByteArray();
+        }
+
+        static Manifest fromBytes(byte[] bytes) throws IOException, TException {
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+            int format = input.readInt();
+            if (format != MANIFEST_FORMAT) {
+                throw new IOException("Unknown artifact manifest format " + format);
+            }
+            Manifest manifest = new Manifest();
+            byte[] serializedMetadata = new byte[input.readInt()];
+            input.readFully(serializedMetadata);
+            manifest.metadata = new DeploymentMetadata();
+            new TDeserializer(new TCompactProtocol.Factory()).deserialize(manifest.metadata, serializedMetadata);
+            manifest.hasArtifact = input.readBoolean();
+            manifest.gzipped = input.readBoolean();
+            manifest.size = input.readLong();
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                manifest.hashes.add(input.readUTF());
+                manifest.lengths.add(input.readInt());
+            }
+            return manifest;
+        }
+    }
+}
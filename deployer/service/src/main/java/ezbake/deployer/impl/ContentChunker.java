@@ -0,0 +1,119 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.deployer.impl;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Splits a stream into content defined chunks with a rolling (gear) hash.  A chunk ends where the hash of the last
+ * 64 bytes matches a mask, so an edit in one place of the stream only changes the chunks around the edit and the
+ * chunks after it line up with the chunks of the unedited stream again.
+ */
+public class ContentChunker {
+    public static final int DEFAULT_MIN_SIZE = 16 * 1024;
+    public static final int DEFAULT_AVERAGE_SIZE = 64 * 1024;
+    public static final int DEFAULT_MAX_SIZE = 256 * 1024;
+
+    /**
+     * Random values per byte value for the gear hash.  The seed is fixed, chunk boundaries (and so the chunks
+     * already stored) must stay the same between runs.
+     */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x45a4b43a8e5e5c2fL);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    public interface ChunkHandler {
+        void onChunk(byte[] data, int offset, int length) throws IOException;
+    }
+
+    private final int minSize;
+    private final int maxSize;
+    private final long mask;
+
+    public ContentChunker() {
+        this(DEFAULT_MIN_SIZE, DEFAULT_AVERAGE_SIZE, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param minSize     smallest chunk, except for the last chunk of a stream
+     * @param averageSize average number of bytes after the smallest chunk size to a chunk boundary, a power of 2
+     * @param maxSize     largest chunk
+     */
+    public ContentChunker(int minSize, int averageSize, int maxSize) {
+        Preconditions.checkArgument(Integer.bitCount(averageSize) == 1, "Average chunk size must be a power of 2");
+        Preconditions.checkArgument(0 < minSize && minSize < maxSize, "Chunk sizes must be 0 < min < max");
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        // The high bits of the hash depend on the most bytes, so use them for the boundary test
+        int bits = Integer.numberOfTrailingZeros(averageSize);
+        this.mask = bits == 0 ? 0 : -1L << (64 - bits);
+    }
+
+    /**
+     * Read the stream to its end, passing each chunk to the handler in order.  The data passed to the handler is only
+     * valid for the duration of the call.
+     *
+     * @param input   the stream to chunk, it is not closed
+     * @param handler gets the chunks
+     * @return the number of bytes read
+     */
+    public long chunk(InputStream input, ChunkHandler handler) throws IOException {
+        byte[] buffer = new byte[maxSize];
+        int filled = 0;
+        long total = 0;
+        boolean eof = false;
+        while (true) {
+            while (!eof && filled < buffer.length) {
+                int read = input.read(buffer, filled, buffer.length - filled);
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    filled += read;
+                }
+            }
+            if (filled == 0) {
+                return total;
+            }
+            int cut = findBoundary(buffer, filled);
+            handler.onChunk(buffer, 0, cut);
+            total += cut;
+            System.arraycopy(buffer, cut, buffer, 0, filled - cut);
+            filled -= cut;
+        }
+    }
+
+    private int findBoundary(byte[] buffer, int length) {
+        if (length <= minSize) {
+            return length;
+        }
+        long hash = 0;
+        for (int i = minSize; i < length; i++) {
+            hash = (hash << 1) + GEAR[buffer[i] & 0xff];
+            if ((hash & mask) == 0) {
+                return i + 1;
+            }
+        }
+        return length;
+    }
+}
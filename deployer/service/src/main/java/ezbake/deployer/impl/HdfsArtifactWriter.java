@@ -14,7 +14,6 @@
 
 package ezbake.deployer.impl;
 
-import com.google.common.io.ByteStreams;
 import com.google.inject.Inject;
 import ezbake.deployer.ArtifactWriter;
 import ezbake.deployer.utilities.ArtifactHelpers;
@@ -25,12 +24,14 @@ import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.thrift.TDeserializer;
 import org.apache.thrift.TException;
-import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TIOStreamTransport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 
 
@@ -38,6 +39,7 @@ public class HdfsArtifactWriter implements ArtifactWriter {
 
     private static final Logger logger = LoggerFactory.getLogger(HdfsArtifactWriter.class);
     private final String EZDEPLOYER_ARTIFACT_BASE_PATH = "/ezdeployer/artifacts/";
+    private static final int STREAM_BUFFER_SIZE = 1024 * 1024;
 
     FileSystem fs;
 
@@ -52,11 +54,15 @@ public class HdfsArtifactWriter implements ArtifactWriter {
         String version = metadata.getVersion();
         try {
             FSDataOutputStream output = fs.create(createPath(fqn, version), true);
-            TSerializer serializer = new TSerializer();
-            byte[] artifactBytes = serializer.serialize(artifact);
-            output.write(artifactBytes);
-            output.sync();
-            output.close();
+            try {
+                // Serialize straight to HDFS in chunks rather than into a second copy of the artifact
+                BufferedOutputStream buffered = new BufferedOutputStream(output, STREAM_BUFFER_SIZE);
+                artifact.write(new TBinaryProtocol(new TIOStreamTransport(buffered)));
+                buffered.flush();
+                output.sync();
+            } finally {
+                output.close();
+            }
         } catch (IOException e) {
             logger.error("Unable to write to " + fqn + " on HDFS", e);
             throw new DeploymentException("Unable to write to " + fqn + " on HDFS!" + e.getMessage());
@@ -74,11 +80,13 @@ public class HdfsArtifactWriter implements ArtifactWriter {
             if (!fs.exists(artifactPath)) {
                 throw new DeploymentException("Could not find artifact at " + artifactPath.toString());
             }
-            FSDataInputStream input = fs.open(artifactPath);
-            byte[] artifactBytes = ByteStreams.toByteArray(input);
-            input.close();
-            TDeserializer deserializer = new TDeserializer();
-            deserializer.deserialize(artifact, artifactBytes);
+            FSDataInputStream input = fs.open(artifactPath, STREAM_BUFFER_SIZE);
+            try {
+                artifact.read(new TBinaryProtocol(new TIOStreamTransport(
+                        new BufferedInputStream(input, STREAM_BUFFER_SIZE))));
+            } finally {
+                input.close();
+            }
         } catch (IOException e) {
             logger.error("Could not read data from : " + artifactPath.toString(), e);
             throw new DeploymentException(e.getMessage());
@@ -101,6 +109,18 @@ public class HdfsArtifactWriter implements ArtifactWriter {
         }
     }
 
+    @Override
+    public void updateArtifactMetadata(DeploymentMetadata oldMetadata, DeploymentMetadata newMetadata)
+            throws DeploymentException {
+        DeploymentArtifact artifact = readArtifact(oldMetadata);
+        artifact.setMetadata(newMetadata);
+        writeArtifact(newMetadata, artifact);
+        if (!createPath(ArtifactHelpers.getFqAppId(oldMetadata), oldMetadata.getVersion()).equals(
+                createPath(ArtifactHelpers.getFqAppId(newMetadata), newMetadata.getVersion()))) {
+            deleteArtifact(oldMetadata);
+        }
+    }
+
     private Path createPath(String fqn, String version) {
         return new Path(EZDEPLOYER_ARTIFACT_BASE_PATH + fqn + "/" + version + "/artifact");
     }
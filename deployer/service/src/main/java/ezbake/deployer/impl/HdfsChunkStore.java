@@ -0,0 +1,155 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.deployer.impl;
+
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A {@link ChunkStore} on HDFS, chunks are stored under /ezdeployer/chunks/ and manifests under
+ * /ezdeployer/manifests/.
+ */
+public class HdfsChunkStore implements ChunkStore {
+    private static final String CHUNK_BASE_PATH = "/ezdeployer/chunks/";
+    private static final String MANIFEST_BASE_PATH = "/ezdeployer/manifests/";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final FileSystem fs;
+
+    @Inject
+    public HdfsChunkStore(FileSystem fs) {
+        this.fs = fs;
+    }
+
+    @Override
+    public boolean hasChunk(String hash) throws IOException {
+        return fs.exists(chunkPath(hash));
+    }
+
+    @Override
+    public void writeChunk(String hash, byte[] data, int offset, int length) throws IOException {
+        writeAtomically(chunkPath(hash), data, offset, length);
+    }
+
+    @Override
+    public byte[] readChunk(String hash) throws IOException {
+        return read(chunkPath(hash));
+    }
+
+    @Override
+    public void deleteChunk(String hash) throws IOException {
+        fs.delete(chunkPath(hash), false);
+    }
+
+    @Override
+    public long getChunkModificationTime(String hash) throws IOException {
+        Path chunk = chunkPath(hash);
+        return fs.exists(chunk) ? fs.getFileStatus(chunk).getModificationTime() : 0;
+    }
+
+    @Override
+    public List<String> listChunks() throws IOException {
+        List<String> hashes = Lists.newArrayList();
+        for (FileStatus prefix : list(new Path(CHUNK_BASE_PATH))) {
+            if (prefix.isDirectory()) {
+                for (FileStatus chunk : list(prefix.getPath())) {
+                    if (isComplete(chunk)) {
+                        hashes.add(chunk.getPath().getName());
+                    }
+                }
+            }
+        }
+        return hashes;
+    }
+
+    @Override
+    public void writeManifest(String name, byte[] manifest) throws IOException {
+        writeAtomically(new Path(MANIFEST_BASE_PATH + name), manifest, 0, manifest.length);
+    }
+
+    @Override
+    public byte[] readManifest(String name) throws IOException {
+        Path manifest = new Path(MANIFEST_BASE_PATH + name);
+        return fs.exists(manifest) ? read(manifest) : null;
+    }
+
+    @Override
+    public void deleteManifest(String name) throws IOException {
+        fs.delete(new Path(MANIFEST_BASE_PATH + name), false);
+    }
+
+    @Override
+    public List<String> listManifests() throws IOException {
+        List<String> names = Lists.newArrayList();
+        for (FileStatus service : list(new Path(MANIFEST_BASE_PATH))) {
+            if (service.isDirectory()) {
+                for (FileStatus version : list(service.getPath())) {
+                    if (isComplete(version)) {
+                        names.add(service.getPath().getName() + "/" + version.getPath().getName());
+                    }
+                }
+            }
+        }
+        return names;
+    }
+
+    private Path chunkPath(String hash) {
+        return new Path(CHUNK_BASE_PATH + hash.substring(0, 2) + "/" + hash);
+    }
+
+    private void writeAtomically(Path target, byte[] data, int offset, int length) throws IOException {
+        Path temp = new Path(target.getParent(), target.getName() + "." + UUID.randomUUID() + TEMP_SUFFIX);
+        FSDataOutputStream output = fs.create(temp, true);
+        try {
+            output.write(data, offset, length);
+            output.sync();
+        } finally {
+            output.close();
+        }
+        // A rename doesn't replace an existing file
+        fs.delete(target, false);
+        if (!fs.rename(temp, target)) {
+            fs.delete(temp, false);
+            throw new IOException("Could not move " + temp + " to " + target);
+        }
+    }
+
+    private byte[] read(Path path) throws IOException {
+        FSDataInputStream input = fs.open(path);
+        try {
+            return IOUtils.toByteArray(input);
+        } finally {
+            input.close();
+        }
+    }
+
+    private FileStatus[] list(Path directory) throws IOException {
+        return fs.exists(directory) ? fs.listStatus(directory) : new FileStatus[0];
+    }
+
+    private static boolean isComplete(FileStatus file) {
+        return file.isFile() && !file.getPath().getName().endsWith(TEMP_SUFFIX);
+    }
+}
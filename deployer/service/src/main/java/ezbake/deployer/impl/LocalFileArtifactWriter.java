@@ -19,22 +19,23 @@ import ezbake.deployer.utilities.ArtifactHelpers;
 import ezbake.services.deploy.thrift.DeploymentArtifact;
 import ezbake.services.deploy.thrift.DeploymentException;
 import ezbake.services.deploy.thrift.DeploymentMetadata;
-import org.apache.commons.io.FileUtils;
-import org.apache.thrift.TDeserializer;
 import org.apache.thrift.TException;
-import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TIOStreamTransport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 
 public class LocalFileArtifactWriter implements ArtifactWriter {
     private static final Logger log = LoggerFactory.getLogger(LocalFileArtifactWriter.class);
     private final String baseDirectory;
-    private final TSerializer serializer = new TSerializer();
+    private static final int STREAM_BUFFER_SIZE = 1024 * 1024;
 
     public LocalFileArtifactWriter() {
         baseDirectory = System.getProperty("java.io.tmpdir") + File.separator;
@@ -46,11 +47,9 @@ public class LocalFileArtifactWriter implements ArtifactWriter {
         directory.mkdirs();
         File artifactBinary = new File(buildFilePath(metadata));
         log.info("Writing artifact to {}", artifactBinary.getAbsolutePath());
-        try {
-            byte[] bytes = serializer.serialize(artifact);
-            BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(artifactBinary, false));
-            bos.write(bytes);
-            bos.close();
+        try (BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(artifactBinary, false),
+                STREAM_BUFFER_SIZE)) {
+            artifact.write(new TBinaryProtocol(new TIOStreamTransport(bos)));
         } catch (TException ex) {
             log.error("Failed serialization", ex);
             throw new DeploymentException("Failed to serialize the artifact before writing. " + ex.getMessage());
@@ -65,10 +64,9 @@ public class LocalFileArtifactWriter implements ArtifactWriter {
         File artifactFile = new File(buildFilePath(metadata));
         DeploymentArtifact artifact = new DeploymentArtifact();
         if (artifactFile.exists()) {
-            TDeserializer deserializer = new TDeserializer();
-            try {
-                byte[] fileBytes = FileUtils.readFileToByteArray(artifactFile);
-                deserializer.deserialize(artifact, fileBytes);
+            try (BufferedInputStream input = new BufferedInputStream(new FileInputStream(artifactFile),
+                    STREAM_BUFFER_SIZE)) {
+                artifact.read(new TBinaryProtocol(new TIOStreamTransport(input)));
             } catch (Exception ex) {
                 log.error("Failed reading artifact", ex);
                 throw new DeploymentException("Failed to read artifact file from disk." + ex.getMessage());
@@ -91,6 +89,17 @@ public class LocalFileArtifactWriter implements ArtifactWriter {
         }
     }
 
+    @Override
+    public void updateArtifactMetadata(DeploymentMetadata oldMetadata, DeploymentMetadata newMetadata)
+            throws DeploymentException {
+        DeploymentArtifact artifact = readArtifact(oldMetadata);
+        artifact.setMetadata(newMetadata);
+        writeArtifact(newMetadata, artifact);
+        if (!buildFilePath(oldMetadata).equals(buildFilePath(newMetadata))) {
+            deleteArtifact(oldMetadata);
+        }
+    }
+
     private String buildDirectoryPath(DeploymentMetadata metadata) {
         String appName = ArtifactHelpers.getAppId(metadata);
         String serviceName = ArtifactHelpers.getServiceId(metadata);
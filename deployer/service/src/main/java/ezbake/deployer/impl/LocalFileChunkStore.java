@@ -0,0 +1,157 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.deployer.impl;
+
+import com.google.common.collect.Lists;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A {@link ChunkStore} in a directory of the local file system, chunks are stored under chunks/ and manifests under
+ * manifests/.
+ */
+public class LocalFileChunkStore implements ChunkStore {
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File chunkDirectory;
+    private final File manifestDirectory;
+
+    public LocalFileChunkStore(File baseDirectory) {
+        this.chunkDirectory = new File(baseDirectory, "chunks");
+        this.manifestDirectory = new File(baseDirectory, "manifests");
+    }
+
+    @Override
+    public boolean hasChunk(String hash) {
+        return chunkFile(hash).exists();
+    }
+
+    @Override
+    public void writeChunk(String hash, byte[] data, int offset, int length) throws IOException {
+        writeAtomically(chunkFile(hash), data, offset, length);
+    }
+
+    @Override
+    public byte[] readChunk(String hash) throws IOException {
+        return FileUtils.readFileToByteArray(chunkFile(hash));
+    }
+
+    @Override
+    public void deleteChunk(String hash) throws IOException {
+        File chunk = chunkFile(hash);
+        if (chunk.exists() && !chunk.delete()) {
+            throw new IOException("Could not delete chunk " + chunk.getAbsolutePath());
+        }
+    }
+
+    @Override
+    public long getChunkModificationTime(String hash) {
+        return chunkFile(hash).lastModified();
+    }
+
+    @Override
+    public List<String> listChunks() {
+        List<String> hashes = Lists.newArrayList();
+        for (File prefix : listDirectories(chunkDirectory)) {
+            for (File chunk : listFiles(prefix)) {
+                hashes.add(chunk.getName());
+            }
+        }
+        return hashes;
+    }
+
+    @Override
+    public void writeManifest(String name, byte[] manifest) throws IOException {
+        writeAtomically(new File(manifestDirectory, name), manifest, 0, manifest.length);
+    }
+
+    @Override
+    public byte[] readManifest(String name) throws IOException {
+        File manifest = new File(manifestDirectory, name);
+        return manifest.exists() ? FileUtils.readFileToByteArray(manifest) : null;
+    }
+
+    @Override
+    public void deleteManifest(String name) throws IOException {
+        File manifest = new File(manifestDirectory, name);
+        if (manifest.exists() && !manifest.delete()) {
+            throw new IOException("Could not delete manifest " + manifest.getAbsolutePath());
+        }
+    }
+
+    @Override
+    public List<String> listManifests() {
+        List<String> names = Lists.newArrayList();
+        for (File service : listDirectories(manifestDirectory)) {
+            for (File version : listFiles(service)) {
+                names.add(service.getName() + "/" + version.getName());
+            }
+        }
+        return names;
+    }
+
+    private File chunkFile(String hash) {
+        return Files.get(chunkDirectory, hash.substring(0, 2), hash);
+    }
+
+    /**
+     * Write to a temporary file next to the target and rename it, so the target either doesn't exist or is complete
+     */
+    private static void writeAtomically(File target, byte[] data, int offset, int length) throws IOException {
+        File directory = target.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Could not create directory " + directory.getAbsolutePath());
+        }
+        File temp = new File(directory, target.getName() + "." + UUID.randomUUID() + TEMP_SUFFIX);
+        try (FileOutputStream output = new FileOutputStream(temp)) {
+            output.write(data, offset, length);
+        }
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Could not move " + temp.getAbsolutePath() + " to " + target.getAbsolutePath());
+        }
+    }
+
+    private static List<File> listDirectories(File directory) {
+        List<File> directories = Lists.newArrayList();
+        File[] children = directory.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    directories.add(child);
+                }
+            }
+        }
+        return directories;
+    }
+
+    private static List<File> listFiles(File directory) {
+        List<File> files = Lists.newArrayList();
+        File[] children = directory.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isFile() && !child.getName().endsWith(TEMP_SUFFIX)) {
+                    files.add(child);
+                }
+            }
+        }
+        return files;
+    }
+}
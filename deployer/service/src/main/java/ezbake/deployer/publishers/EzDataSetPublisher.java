@@ -23,6 +23,7 @@ import ezbake.deployer.utilities.ArtifactDataEntry;
 import ezbake.services.deploy.thrift.DeploymentArtifact;
 import ezbake.services.deploy.thrift.DeploymentException;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
@@ -47,17 +48,28 @@ public class EzDataSetPublisher implements EzPublisher {
 
     @Override
     public void publish(DeploymentArtifact artifact, EzSecurityToken callerToken) throws DeploymentException {
+        List<ArtifactDataEntry> propertiesFiles = setupDatabase(artifact, callerToken);
+        if (!propertiesFiles.isEmpty()) {
+            ArtifactHelpers.addFilesToArtifact(artifact, propertiesFiles);
+        }
+        publisher.publish(artifact, callerToken);
+    }
+
+    /**
+     * Set up the database of the artifact, without adding the resulting properties files to it
+     *
+     * @return the properties files to add to the artifact, empty if none of the setups can handle its database
+     */
+    public List<ArtifactDataEntry> setupDatabase(DeploymentArtifact artifact, EzSecurityToken callerToken) throws DeploymentException {
         if (!artifact.getMetadata().getManifest().getDatabaseInfo().isSetDatabaseType()) {
             throw new DeploymentException("Expecting a database type for a dataset");
         }
         for (DatabaseSetup dbSetup : possibleSetups) {
             if (dbSetup.canSetupDatabase(artifact)) {
-                List<ArtifactDataEntry> propertiesFiles = dbSetup.setupDatabase(artifact, configuration, callerToken);
-                ArtifactHelpers.addFilesToArtifact(artifact, propertiesFiles);
-                break;
+                return dbSetup.setupDatabase(artifact, configuration, callerToken);
             }
         }
-        publisher.publish(artifact, callerToken);
+        return Collections.emptyList();
     }
 
     @Override
@@ -98,18 +98,19 @@ public class EzDeployPublisher implements EzPublisher {
      * @throws DeploymentException - on any exception
      */
     public void publish(DeploymentArtifact artifact, EzSecurityToken callerToken) throws DeploymentException {
-        fillInExtraFiles(artifact);
+        Collection<ArtifactDataEntry> injectFiles = collectExtraFiles(artifact);
         registerSecurityIDWithServiceDiscovery(artifact.getMetadata());
         EzPublisher publisher = publishers.get(getType(artifact));
         //If something is a dataset, the publisher should already be an EzDataSetPublisher, but we also
-        //allow apps that aren't datasets to get a database, so we need to use the DataSet publisher there too
+        //allow apps that aren't datasets to get a database, so we need to set it up here too
         if (ArtifactHelpers.getType(artifact) != ArtifactType.DataSet &&
                 artifact.getMetadata().getManifest().isSetDatabaseInfo()) {
             EzDataSetPublisher dataSetPublisher = new EzDataSetPublisher(publisher, possibleSetups, configuration);
-            dataSetPublisher.publish(artifact, callerToken);
-        } else {
-            publisher.publish(artifact, callerToken);
+            injectFiles.addAll(dataSetPublisher.setupDatabase(artifact, callerToken));
         }
+        // Rewriting the artifact is the expensive part, so all the files go in with a single pass over it
+        ArtifactHelpers.addFilesToArtifact(artifact, injectFiles);
+        publisher.publish(artifact, callerToken);
         //if artifact is purgable add it to the zookeeper purgeable list
         if (artifact.getMetadata().getManifest().getArtifactInfo().isPurgeable()) {
             setPurgeable(artifact);
@@ -127,13 +128,14 @@ public class EzDeployPublisher implements EzPublisher {
 
 
     /**
-     * This will retrieve the SSLCerts for the application, and inject it into the tar ball in the correct spot
+     * This will retrieve the SSLCerts for the application, and the files for the correct spots in the tar ball.
      * Also it will add to the config directory an application.properties.
      *
-     * @param artifact - The application artifact to inject the SSL Certs into
-     * @throws DeploymentException - On any errors generating/reading the application tar ball, or retrieving the SSL Certs
+     * @param artifact - The application artifact the SSL Certs are for
+     * @return the files to inject into the tar ball
+     * @throws DeploymentException - On any errors generating the files, or retrieving the SSL Certs
      */
-    private void fillInExtraFiles(DeploymentArtifact artifact) throws DeploymentException {
+    private Collection<ArtifactDataEntry> collectExtraFiles(DeploymentArtifact artifact) throws DeploymentException {
         Collection<ArtifactDataEntry> injectFiles = Lists.newArrayList();
 
         ArtifactTypeKey key = new ArtifactTypeKey(getType(artifact), getLanguage(artifact));
@@ -143,7 +145,7 @@ public class EzDeployPublisher implements EzPublisher {
                 injectFiles.addAll(files);
             }
         }
-        ArtifactHelpers.addFilesToArtifact(artifact, injectFiles);
+        return injectFiles;
     }
 
     private void checkCondition(String description, boolean exp) throws DeploymentException {
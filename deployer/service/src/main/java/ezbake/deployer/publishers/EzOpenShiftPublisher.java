@@ -41,10 +41,10 @@ import ezbake.deployer.configuration.EzDeployerConfiguration;
 import ezbake.deployer.impl.Files;
 import ezbake.deployer.impl.PosixFilePermission;
 import ezbake.deployer.publishers.openShift.DeployerOpenShiftConfigurationHelper;
+import ezbake.deployer.publishers.openShift.InstanceRollout;
 import ezbake.deployer.publishers.openShift.Rhc;
 import ezbake.deployer.publishers.openShift.RhcApplication;
 import ezbake.deployer.utilities.ArtifactHelpers;
-import ezbake.deployer.utilities.ArtifactDataEntry;
 import ezbake.deployer.utilities.ArtifactTypeKey;
 import ezbake.deployer.utilities.Utilities;
 import ezbake.reverseproxy.thrift.UpstreamServerRegistration;
@@ -55,6 +55,7 @@ import ezbake.services.deploy.thrift.Language;
 import ezbake.services.deploy.thrift.ResourceReq;
 import ezbake.services.deploy.thrift.ResourceRequirements;
 import ezbake.services.deploy.thrift.Scaling;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.reflections.Reflections;
 import org.reflections.scanners.ResourcesScanner;
@@ -67,6 +68,7 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -85,6 +87,8 @@ import java.util.*;
  * Update the application to the artifact's tarball.
  * Publish application to openshift (deploy/git push).  After this the web application should be visible from OpenShift.
  * <p/>
+ * The artifact is only extracted once, and then pushed to each instance as configured by {@link InstanceRollout}.
+ * <p/>
  * This class should be thread-safe.
  * <p/>
  * #################
@@ -126,6 +130,7 @@ public class EzOpenShiftPublisher implements EzPublisher {
                     PosixFilePermission.OTHERS_READ, PosixFilePermission.OTHERS_EXECUTE).build();
 
     private final static String APP_INSTANCE_NUM_SEPERATOR = "xx";
+    private final static String SECURITY_TOKEN_PROPS_FILE_NAME = "openshift.properties";
 
     private final static String EZBAKE_APP_NAME_ENV_VAR = "EZBAKE_APPLICATION_NAME";
     private final static String EZBAKE_SERVICE_NAME_ENV_VAR = "EZBAKE_SERVICE_NAME";
@@ -217,17 +222,12 @@ public class EzOpenShiftPublisher implements EzPublisher {
      * @throws DeploymentException
      */
     @Override
-    public void publish(DeploymentArtifact artifact, EzSecurityToken callerToken) throws DeploymentException {
-
-        // Add our security token
-        final String securityTokenPropsFileName = "openshift.properties";
-        Map<String, String> tokenMap = Maps.newHashMap();
-        tokenMap.put(EzBakePropertyConstants.EZBAKE_SHARED_SECRET_ENVIRONMENT_VARIABLE, "OPENSHIFT_SECRET_TOKEN");
+    public void publish(final DeploymentArtifact artifact, EzSecurityToken callerToken) throws DeploymentException {
 
         final String openShiftAppName = getOpenShiftAppName(artifact);
         final String openShiftDomainName = getOpenShiftDomainName(artifact);
 
-        Rhc rhc = createRhc();
+        final Rhc rhc = createRhc();
         final int numberOfInstances = getNumberOfInstances(artifact);
         List<RhcApplication> currentInstances = findAllApplicationInstances(openShiftAppName, openShiftDomainName);
         if (currentInstances.size() > 1) {
@@ -239,14 +239,72 @@ public class EzOpenShiftPublisher implements EzPublisher {
             }
         }
 
-        for (int i = 0; i < numberOfInstances; i++) {
-            tokenMap.put(EzBakePropertyConstants.EZBAKE_APPLICATION_INSTANCE_NUMBER, Integer.toString(i));
-            String contents = Joiner.on('\n').withKeyValueSeparator("=").join(tokenMap);
-            ArtifactDataEntry entry = Utilities.createConfCertDataEntry(securityTokenPropsFileName, contents.getBytes());
-            ArtifactHelpers.addFilesToArtifact(artifact, Collections.singletonList(entry));
+        // Every instance gets the same files, so only extract the artifact and inject our files once
+        final File applicationDirectory = Files.createTempDirectory(
+                openShiftConfigurationHelper.getGitCheckoutBaseDir(), "publish");
+        try {
+            prepareApplicationDirectory(artifact, applicationDirectory);
+            InstanceRollout.InstanceDeployer deployer = new InstanceRollout.InstanceDeployer() {
+                @Override
+                public void deploy(int instanceNumber) throws DeploymentException {
+                    pushApplicationInstance(rhc, artifact, applicationDirectory, openShiftAppName, openShiftDomainName,
+                            instanceNumber);
+                }
+            };
+            createInstanceRollout().rollout(openShiftAppName, numberOfInstances, deployer);
+        } finally {
+            FileUtils.deleteQuietly(applicationDirectory);
+        }
+    }
+
+    /**
+     * Create the rollout used to push the instances of an application, as configured by
+     * {@link DeployerOpenShiftConfigurationHelper#getRolloutParallelism()} and
+     * {@link DeployerOpenShiftConfigurationHelper#getRolloutMaxUnavailable()}
+     *
+     * @return the instance rollout
+     */
+    protected InstanceRollout createInstanceRollout() {
+        return new InstanceRollout(openShiftConfigurationHelper.getRolloutParallelism(),
+                openShiftConfigurationHelper.getRolloutMaxUnavailable());
+    }
 
-            pushApplicationInstance(rhc, artifact, openShiftAppName, openShiftDomainName, i);
+    /**
+     * Put everything that every instance of the application gets into a directory: the extracted artifact, and the
+     * scripts and resources injected by the deployer
+     *
+     * @param artifact  - The artifact to deploy
+     * @param directory - the directory to put the files into
+     * @throws DeploymentException on any errors extracting the artifact or injecting the files
+     */
+    private void prepareApplicationDirectory(DeploymentArtifact artifact, File directory) throws DeploymentException {
+        try {
+            RhcApplication.extractTarBall(artifact.getArtifact(), artifact.getMetadata().getVersion(), directory);
+        } catch (IOException e) {
+            log.error("Error extracting the artifact to " + directory.getAbsolutePath(), e);
+            throw new DeploymentException("Error extracting the artifact: " + e.getMessage());
+        }
+        injectSpecialScripts(directory);
+        if (artifact.getMetadata().getManifest().getArtifactType() != ArtifactType.WebApp) {
+            injectThriftRunnerFiles(directory);
         }
+        // All Openshift cartridges get this
+        injectListOfResources(securityActionHooks, OPENSHIFT_ACTION_HOOKS_PATH, directory);
+        injectListOfResources(Utilities.getResourcesFromClassPath(EzOpenShiftPublisher.class, OPENSHIFT_CRON_FILES),
+                OPENSHIFT_CRON_PATH, directory);
+    }
+
+    /**
+     * The properties for a single instance: our security token and the instance number
+     *
+     * @param instanceNum the instance number
+     * @return contents of the {@link #SECURITY_TOKEN_PROPS_FILE_NAME} file
+     */
+    private static byte[] getInstanceProperties(int instanceNum) {
+        Map<String, String> tokenMap = Maps.newHashMap();
+        tokenMap.put(EzBakePropertyConstants.EZBAKE_SHARED_SECRET_ENVIRONMENT_VARIABLE, "OPENSHIFT_SECRET_TOKEN");
+        tokenMap.put(EzBakePropertyConstants.EZBAKE_APPLICATION_INSTANCE_NUMBER, Integer.toString(instanceNum));
+        return Joiner.on('\n').withKeyValueSeparator("=").join(tokenMap).getBytes();
     }
 
     private int getNumberOfInstances(DeploymentArtifact artifact) {
@@ -402,29 +460,23 @@ public class EzOpenShiftPublisher implements EzPublisher {
      * This will create the openshift application (if 'fake scaling' this function maybe called multiple times)
      * The name would be like [serviceName]xx[##] if 'fake scaling'
      *
-     * @param rhc         - The openshift broker to push to
-     * @param artifact    - The artifact to deploy
-     * @param name        - The name of the service to push
-     * @param domainName  - the name of the domain to push too
-     * @param instanceNum the instance number to push
+     * @param rhc                  - The openshift broker to push to
+     * @param artifact             - The artifact to deploy
+     * @param applicationDirectory - the files to push, from {@link #prepareApplicationDirectory}
+     * @param name                 - The name of the service to push
+     * @param domainName           - the name of the domain to push too
+     * @param instanceNum          the instance number to push
      * @throws DeploymentException - on any errors pushing
      */
-    private void pushApplicationInstance(Rhc rhc, DeploymentArtifact artifact, String name, String domainName,
-                                         int instanceNum) throws DeploymentException {
-        ArtifactType artifactType = artifact.getMetadata().getManifest().getArtifactType();
+    private void pushApplicationInstance(Rhc rhc, DeploymentArtifact artifact, File applicationDirectory, String name,
+                                         String domainName, int instanceNum) throws DeploymentException {
         RhcApplication rhcApplication =
                 rhc.getOrCreateApplication(name + APP_INSTANCE_NUM_SEPERATOR + Integer.toString(instanceNum),
                         domainName, getCartridgeForArtifactType(artifact), ApplicationScale.NO_SCALE,
                         calculateGearProfile(artifact.getMetadata().getManifest().getArtifactInfo().getResourceRequirements()));
-        rhcApplication.updateWithTarBall(artifact.getArtifact(), artifact.getMetadata().getVersion());
-        injectSpecialScripts(rhcApplication);
-        if (artifactType != ArtifactType.WebApp) {
-            injectThriftRunnerFiles(rhcApplication);
-        }
-        // All Openshift cartridges get this
-        injectListOfResources(securityActionHooks, OPENSHIFT_ACTION_HOOKS_PATH, rhcApplication);
-        injectListOfResources(Utilities.getResourcesFromClassPath(EzOpenShiftPublisher.class, OPENSHIFT_CRON_FILES),
-                OPENSHIFT_CRON_PATH, rhcApplication);
+        rhcApplication.updateWithDirectory(applicationDirectory);
+        rhcApplication.addStreamAsFile(Files.get(Utilities.CONFIG_DIRECTORY, SECURITY_TOKEN_PROPS_FILE_NAME),
+                new ByteArrayInputStream(getInstanceProperties(instanceNum)));
         addLogstashCartridge(rhcApplication, ArtifactHelpers.getAppId(artifact), ArtifactHelpers.getServiceId(artifact));
         rhcApplication.publishChanges();
         maybeRegisterReverseProxy(artifact, rhcApplication.getApplicationInstance());
@@ -453,15 +505,15 @@ public class EzOpenShiftPublisher implements EzPublisher {
     /**
      * Injects the extra files into the application
      *
-     * @param rhcApplication - the openshift application to put the extra files into
+     * @param directory - the application directory to put the extra files into
      * @throws DeploymentException on any errors injecting
      */
-    private void injectSpecialScripts(RhcApplication rhcApplication) throws DeploymentException {
+    private void injectSpecialScripts(File directory) throws DeploymentException {
         for (String resourcePath : resourcesToInject) {
             InputStream resource = EzOpenShiftPublisher.class.getResourceAsStream("/" + resourcePath);
             try {
                 final File artifactPath = Files.relativize(EXTRA_FILES_BASEPATH, Files.get("/", resourcePath));
-                rhcApplication.addStreamAsFile(artifactPath, resource);
+                writeFile(directory, artifactPath, resource, null);
             } finally {
                 IOUtils.closeQuietly(resource);
             }
@@ -529,34 +581,35 @@ public class EzOpenShiftPublisher implements EzPublisher {
      * For the DIY version of thriftrunner apps, injects the thriftrunner binary and the start/stop control scripts from
      * the classpath in order to start the thriftrunner service
      *
-     * @param rhcApplication - the openshift application to put the script files into
+     * @param directory - the application directory to put the script files into
      * @throws DeploymentException on any errors injecting the script files or thriftrunner binary
      */
-    private void injectThriftRunnerFiles(RhcApplication rhcApplication) throws DeploymentException {
+    private void injectThriftRunnerFiles(File directory) throws DeploymentException {
         InputStream resource = getThriftRunnerBinary();
         try {
             if (resource != null)
-                rhcApplication.addStreamAsFile(thriftRunnerArtifactPath, resource);
+                writeFile(directory, thriftRunnerArtifactPath, resource, null);
         } catch (DeploymentException e) {
             log.error("Error injecting thrift runner binary into application bundle", e);
             throw new DeploymentException(e.getMessage());
         } finally {
             IOUtils.closeQuietly(resource);
         }
-        injectListOfResources(thriftRunnerControlScripts, OPENSHIFT_ACTION_HOOKS_PATH, rhcApplication);
-        injectListOfResources(thriftRunnerWWWFiles, THRIFT_RUNNER_EXTRA_FILES_PATH, rhcApplication);
+        injectListOfResources(thriftRunnerControlScripts, OPENSHIFT_ACTION_HOOKS_PATH, directory);
+        injectListOfResources(thriftRunnerWWWFiles, THRIFT_RUNNER_EXTRA_FILES_PATH, directory);
     }
 
     /**
      * This is the helper function that actually injects a list of resources from the classpath into the application
-     * This will be placed inside of the git repository for the OpenShift Application
+     * This will be placed inside of the application directory that is copied to the git repository of every instance
      *
-     * @param resources      - the list of resources to inject
-     * @param basePath       - the base path (relative to the git repository root) 'www' would go to gitProject/www/*
-     * @param rhcApplication - the openshift application to put the resources into
+     * @param resources - the list of resources to inject
+     * @param basePath  - the base path (relative to the application directory) 'www' would go to directory/www/*
+     * @param directory - the application directory to put the resources into
      * @throws DeploymentException on any errors injecting the resources into the application
      */
-    public void injectListOfResources(List<String> resources, File basePath, RhcApplication rhcApplication) throws DeploymentException {
+    public void injectListOfResources(List<String> resources, File basePath, File directory)
+            throws DeploymentException {
         InputStream resource;
         for (String resourcePathStr : resources) {
             resourcePathStr = Files.get("/", resourcePathStr).toString();
@@ -569,9 +622,9 @@ public class EzOpenShiftPublisher implements EzPublisher {
                 } else {
                     log.info("Adding: " + resourcePath.toString());
                     if (executableScripts.contains(resourcePath.toString())) {
-                        rhcApplication.addStreamAsFile(artifactPath, resource, executablePerms);
+                        writeFile(directory, artifactPath, resource, executablePerms);
                     } else {
-                        rhcApplication.addStreamAsFile(artifactPath, resource);
+                        writeFile(directory, artifactPath, resource, null);
                     }
                 }
             } finally {
@@ -580,6 +633,28 @@ public class EzOpenShiftPublisher implements EzPublisher {
         }
     }
 
+    /**
+     * Write a stream to a file of the application directory
+     *
+     * @param directory       - the application directory
+     * @param path            - path of the file, relative to the application directory
+     * @param contents        - the stream to write, not closed
+     * @param filePermissions - permissions to give the file, or null to keep the defaults
+     * @throws DeploymentException on any errors writing the file
+     */
+    private static void writeFile(File directory, File path, InputStream contents,
+                                  Set<PosixFilePermission> filePermissions) throws DeploymentException {
+        File resolvedPath = Files.resolve(directory, path);
+        try {
+            RhcApplication.copyInputStreamToFile(contents, resolvedPath);
+            if (filePermissions != null)
+                Files.setPosixFilePermissions(resolvedPath, filePermissions);
+        } catch (IOException e) {
+            log.error("Error writing to file: " + resolvedPath.toString(), e);
+            throw new DeploymentException("Error writing to file: " + resolvedPath.toString());
+        }
+    }
+
     /**
      * Get the Application Scale state based on the User request.  If Min and max != 1 its scaling mode
      *
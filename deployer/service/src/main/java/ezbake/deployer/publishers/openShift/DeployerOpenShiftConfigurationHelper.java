@@ -42,6 +42,8 @@ public class DeployerOpenShiftConfigurationHelper {
     public static final String OPENSHIFT_SSH_PASSPHRASE_KEY = "ezDeploy.openshift.ssh.passphrase";
     public static final String OPENSHIFT_GIT_CHECKOUT_BASE_DIR_KEY = "openshift.git.checkout.base";
     public static final String OPENSHIFT_TIMEOUT = "openshift.timeout";
+    public static final String OPENSHIFT_ROLLOUT_PARALLELISM_KEY = "openshift.rollout.parallelism";
+    public static final String OPENSHIFT_ROLLOUT_MAX_UNAVAILABLE_KEY = "openshift.rollout.max.unavailable";
     public static final String THIRFT_RUNNER_OPENSHIFT_CARTRIDGE_NAME_KEY = "thriftrunner.openshift.cartridge.name";
     public static final String THIRFT_RUNNER_OPENSHIFT_CARTRIDGE_URL_KEY = "thriftrunner.openshift.cartridge.url";
     public static final String JBOSSAS_OPENSHIFT_CARTRIDGE_NAME_KEY = "jbossas.openshift.cartridge.name";
@@ -139,6 +141,23 @@ public class DeployerOpenShiftConfigurationHelper {
         return configuration.getInteger(OPENSHIFT_TIMEOUT, 300000);
     }
 
+    /**
+     * Maximum number of instances of an application to push to OpenShift at the same time
+     * @return number of instances
+     */
+    public int getRolloutParallelism() {
+        return configuration.getInteger(OPENSHIFT_ROLLOUT_PARALLELISM_KEY, 4);
+    }
+
+    /**
+     * Maximum number of instances of an application being redeployed at the same time, if set the instances are
+     * rolled out and the rollout stops at the first instance that fails.  0 pushes every instance regardless
+     * @return number of instances, 0 if not a rolling rollout
+     */
+    public int getRolloutMaxUnavailable() {
+        return configuration.getInteger(OPENSHIFT_ROLLOUT_MAX_UNAVAILABLE_KEY, 0);
+    }
+
     /**
      * Return the cartridge configured for this artifact, according to the manifest
      *
@@ -0,0 +1,224 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.deployer.publishers.openShift;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import ezbake.services.deploy.thrift.DeploymentException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Rolls a deployment out to every instance of a 'fake scaled' OpenShift application.
+ * <p/>
+ * Instance 0 is always deployed first on its own.  It is the instance that creates the OpenShift domain on a first
+ * deployment, and a broken artifact fails there before any other instance is touched.  The remaining instances are
+ * then deployed concurrently by a bounded pool of workers:
+ * <ul>
+ * <li>parallel (maxUnavailable = 0) - up to parallelism instances at a time, an instance failing doesn't stop the
+ * others from being deployed</li>
+ * <li>rolling (maxUnavailable &gt; 0) - at most min(parallelism, maxUnavailable) instances are being redeployed at
+ * a time, and no further instance is started once one has failed</li>
+ * </ul>
+ * The time taken by each instance is logged, and returned, once the rollout is done.
+ */
+public class InstanceRollout {
+    private static final Logger log = LoggerFactory.getLogger(InstanceRollout.class);
+
+    /**
+     * Deploys a single instance of the application
+     */
+    public interface InstanceDeployer {
+        void deploy(int instanceNumber) throws DeploymentException;
+    }
+
+    /**
+     * The outcome of deploying a single instance
+     */
+    public static class InstanceResult {
+        private final int instanceNumber;
+        private final long elapsedMillis;
+        private final Exception error;
+        private final boolean skipped;
+
+        private InstanceResult(int instanceNumber, long elapsedMillis, Exception error, boolean skipped) {
+            this.instanceNumber = instanceNumber;
+            this.elapsedMillis = elapsedMillis;
+            this.error = error;
+            this.skipped = skipped;
+        }
+
+        public int getInstanceNumber() {
+            return instanceNumber;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /**
+         * @return the error the instance failed with, or null if it was deployed or skipped
+         */
+        public Exception getError() {
+            return error;
+        }
+
+        /**
+         * @return true if the instance wasn't deployed because a rolling rollout had already failed
+         */
+        public boolean isSkipped() {
+            return skipped;
+        }
+
+        public boolean isSuccessful() {
+            return error == null && !skipped;
+        }
+
+        @Override
+        public String toString() {
+            if (skipped) {
+                return instanceNumber + ": skipped";
+            }
+            return instanceNumber + ": " + elapsedMillis + " ms" + (error == null ? "" : " failed");
+        }
+    }
+
+    private final int parallelism;
+    private final int maxUnavailable;
+
+    /**
+     * @param parallelism    - maximum number of instances to deploy at the same time
+     * @param maxUnavailable - maximum number of instances being redeployed at the same time for a rolling rollout,
+     *                       0 to deploy in parallel
+     */
+    public InstanceRollout(int parallelism, int maxUnavailable) {
+        this.parallelism = Math.max(parallelism, 1);
+        this.maxUnavailable = Math.max(maxUnavailable, 0);
+    }
+
+    public boolean isRolling() {
+        return maxUnavailable > 0;
+    }
+
+    /**
+     * @return the number of instances deployed at the same time after the first one
+     */
+    public int getConcurrency() {
+        return isRolling() ? Math.min(parallelism, maxUnavailable) : parallelism;
+    }
+
+    /**
+     * Deploy instances 0 to numberOfInstances - 1.  This is a blocking call.
+     *
+     * @param name              - name of the application being deployed, for logging
+     * @param numberOfInstances - number of instances to deploy
+     * @param deployer          - deploys a single instance, called from multiple threads at the same time
+     * @return the result of each instance, by instance number
+     * @throws DeploymentException - if any instance failed to deploy
+     */
+    public List<InstanceResult> rollout(String name, int numberOfInstances, final InstanceDeployer deployer)
+            throws DeploymentException {
+        final long start = System.currentTimeMillis();
+        final InstanceResult[] results = new InstanceResult[numberOfInstances];
+
+        if (numberOfInstances > 0) {
+            results[0] = deploy(deployer, 0);
+            if (!results[0].isSuccessful()) {
+                for (int i = 1; i < numberOfInstances; i++) {
+                    results[i] = new InstanceResult(i, 0, null, true);
+                }
+                return finish(name, start, Arrays.asList(results));
+            }
+        }
+
+        if (numberOfInstances > 1) {
+            final AtomicBoolean halted = new AtomicBoolean(false);
+            ExecutorService workers = Executors.newFixedThreadPool(Math.min(getConcurrency(), numberOfInstances - 1),
+                    new ThreadFactoryBuilder().setNameFormat("openshift-rollout-" + name + "-%d").setDaemon(true)
+                            .build());
+            try {
+                List<Future<InstanceResult>> pending = Lists.newArrayList();
+                for (int i = 1; i < numberOfInstances; i++) {
+                    final int instanceNumber = i;
+                    pending.add(workers.submit(new Callable<InstanceResult>() {
+                        @Override
+                        public InstanceResult call() {
+                            if (halted.get()) {
+                                return new InstanceResult(instanceNumber, 0, null, true);
+                            }
+                            InstanceResult result = deploy(deployer, instanceNumber);
+                            if (!result.isSuccessful() && isRolling()) {
+                                halted.set(true);
+                            }
+                            return result;
+                        }
+                    }));
+                }
+                for (int i = 1; i < numberOfInstances; i++) {
+                    results[i] = pending.get(i - 1).get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DeploymentException("Interrupted while deploying the instances of " + name);
+            } catch (ExecutionException e) {
+                log.error("Unexpected error deploying the instances of " + name, e.getCause());
+                throw new DeploymentException("Unexpected error deploying the instances of " + name + ": "
+                        + e.getCause().getMessage());
+            } finally {
+                workers.shutdownNow();
+            }
+        }
+        return finish(name, start, Arrays.asList(results));
+    }
+
+    private static InstanceResult deploy(InstanceDeployer deployer, int instanceNumber) {
+        long start = System.currentTimeMillis();
+        try {
+            deployer.deploy(instanceNumber);
+            return new InstanceResult(instanceNumber, System.currentTimeMillis() - start, null, false);
+        } catch (DeploymentException | RuntimeException e) {
+            log.error("Error deploying instance " + instanceNumber, e);
+            return new InstanceResult(instanceNumber, System.currentTimeMillis() - start, e, false);
+        }
+    }
+
+    private List<InstanceResult> finish(String name, long start, List<InstanceResult> results)
+            throws DeploymentException {
+        log.info("{} rollout of {} to {} instance(s) took {} ms [{}]", isRolling() ? "Rolling" : "Parallel", name,
+                results.size(), System.currentTimeMillis() - start, Joiner.on(", ").join(results));
+
+        List<String> failures = Lists.newArrayList();
+        for (InstanceResult result : results) {
+            if (result.getError() != null) {
+                failures.add(result.getInstanceNumber() + " (" + result.getError().getMessage() + ")");
+            }
+        }
+        if (!failures.isEmpty()) {
+            throw new DeploymentException("Failed to deploy instance(s) " + Joiner.on(", ").join(failures)
+                    + " of " + name);
+        }
+        return results;
+    }
+}
@@ -18,7 +18,10 @@ import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
 import com.google.inject.Singleton;
 import ezbake.deployer.ArtifactWriter;
+import ezbake.deployer.configuration.EzDeployerConfiguration;
+import ezbake.deployer.impl.ChunkedArtifactWriter;
 import ezbake.deployer.impl.HdfsArtifactWriter;
+import ezbake.deployer.impl.HdfsChunkStore;
 import ezbake.deployer.publishers.EzAzkabanPublisher;
 import ezbake.deployer.publishers.EzDataSetPublisher;
 import ezbake.deployer.publishers.EzFrackPublisher;
@@ -47,8 +50,16 @@ public class OpenShiftDeployerModule extends AbstractModule {
         bind(EzPublisher.class).annotatedWith(EzPublisherMapping.Custom.class).to(EzOpenShiftPublisher.class);
         bind(EzPublisher.class).annotatedWith(EzPublisherMapping.Frack.class).to(EzFrackPublisher.class);
         bind(EzPublisher.class).annotatedWith(EzPublisherMapping.Batch.class).to(EzAzkabanPublisher.class);
-        bind(ArtifactWriter.class).to(HdfsArtifactWriter.class);
+    }
 
+    @Provides
+    @Singleton
+    ArtifactWriter provideArtifactWriter(EzDeployerConfiguration configuration, FileSystem fs) {
+        HdfsArtifactWriter hdfsWriter = new HdfsArtifactWriter(fs);
+        if (!configuration.isArtifactDedupeEnabled()) {
+            return hdfsWriter;
+        }
+        return new ChunkedArtifactWriter(new HdfsChunkStore(fs), hdfsWriter);
     }
 
     @Provides
@@ -65,6 +65,7 @@ import static org.apache.commons.io.FileUtils.openOutputStream;
  */
 public class RhcApplication {
     private static final Logger log = LoggerFactory.getLogger(RhcApplication.class);
+    private static final String VERSION_FILE_NAME = "deployed_version.txt";
 
     private Git gitRepo;
     private IApplication applicationInstance;
@@ -202,6 +203,21 @@ public class RhcApplication {
         addFilesToGitWorkingTree();
     }
 
+    /**
+     * Same as {@link #updateWithTarBall(byte[], String)}, but REPLACES the local copy with the contents of a
+     * directory that already holds everything to publish, as populated by
+     * {@link #extractTarBall(byte[], String, File)}.  This way an artifact published to several instances only has to
+     * be extracted once.  Executable files stay executable.
+     *
+     * @param directory - directory holding the files to publish.  It is not modified.
+     * @throws DeploymentException - On any errors updating the artifact. Including git errors.
+     */
+    public void updateWithDirectory(File directory) throws DeploymentException {
+        clearProjectDirectory();
+        copyDirectoryToWorkingTree(directory);
+        addFilesToGitWorkingTree();
+    }
+
 
     public void addStreamAsFile(File p, InputStream ios) throws DeploymentException {
         addStreamAsFile(p, ios, null);
@@ -347,7 +363,7 @@ public class RhcApplication {
     private void addVersionToWorkingTree(String version) throws DeploymentException {
 
         try {
-            FileUtils.writeStringToFile(new File(getGitRepoDir(), "deployed_version.txt"), version);
+            FileUtils.writeStringToFile(new File(getGitRepoDir(), VERSION_FILE_NAME), version);
         } catch (IOException e) {
             log.error("[" + getApplicationName() + "] Error writing version file to deployment git repo", e);
             throw new DeploymentException(e.getMessage());
@@ -369,33 +385,69 @@ public class RhcApplication {
     }
 
     private void writeTarFileToProjectDirectory(byte[] artifact) throws DeploymentException {
-        final File gitDbPath = gitRepo.getRepository().getDirectory();
-        final File projectDir = gitDbPath.getParentFile();
         try {
-            CompressorInputStream uncompressedInput = new GzipCompressorInputStream(new ByteArrayInputStream(artifact));
-            TarArchiveInputStream inputStream = new TarArchiveInputStream(uncompressedInput);
-
-            // copy the existing entries
-            TarArchiveEntry nextEntry;
-            while ((nextEntry = (TarArchiveEntry) inputStream.getNextEntry()) != null) {
-                File fileToWrite = new File(projectDir, nextEntry.getName());
-                if (nextEntry.isDirectory()) {
-                    fileToWrite.mkdirs();
-                } else {
-                    File house = fileToWrite.getParentFile();
-                    if (!house.exists()) {
-                        house.mkdirs();
+            extractTarGzFile(artifact, getGitRepoDir());
+        } catch (IOException e) {
+            log.error("[" + getApplicationName() + "]" + e.getMessage(), e);
+            throw new DeploymentException(e.getMessage());
+        }
+    }
+
+    private void copyDirectoryToWorkingTree(final File directory) throws DeploymentException {
+        final File projectDir = getGitRepoDir();
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<File>() {
+                public FileVisitResult visitFile(File file, BasicFileAttributes attrs) throws IOException {
+                    File fileToWrite = Files.resolve(projectDir, Files.relativize(directory, file));
+                    FileUtils.copyFile(file, fileToWrite);
+                    if (Files.isExecutable(file)) {
+                        fileToWrite.setExecutable(true, false);
                     }
-                    copyInputStreamToFile(inputStream, fileToWrite);
-                    Files.setPosixFilePermissions(fileToWrite, nextEntry.getMode());
+                    return FileVisitResult.CONTINUE;
                 }
-            }
+            });
         } catch (IOException e) {
-            log.error("[" + getApplicationName() + "]" + e.getMessage(), e);
+            log.error("[" + getApplicationName() + "]Error copying " + directory + " to " + projectDir, e);
             throw new DeploymentException(e.getMessage());
         }
     }
 
+    /**
+     * Extract a tar.gz artifact into a directory and stamp it with its version, the way
+     * {@link #updateWithTarBall(byte[], String)} does for the local copy.  The permissions of the files in the tar
+     * file are kept.
+     *
+     * @param artifact  - byte[] containing the tar.gz data for the artifact.
+     * @param version   - Version of the application to stamp this binary with.
+     * @param directory - directory to extract the artifact to
+     * @throws IOException - on any errors reading the artifact or writing the files
+     */
+    public static void extractTarBall(byte[] artifact, String version, File directory) throws IOException {
+        extractTarGzFile(artifact, directory);
+        FileUtils.writeStringToFile(new File(directory, VERSION_FILE_NAME), version);
+    }
+
+    private static void extractTarGzFile(byte[] artifact, File directory) throws IOException {
+        CompressorInputStream uncompressedInput = new GzipCompressorInputStream(new ByteArrayInputStream(artifact));
+        TarArchiveInputStream inputStream = new TarArchiveInputStream(uncompressedInput);
+
+        // copy the existing entries
+        TarArchiveEntry nextEntry;
+        while ((nextEntry = (TarArchiveEntry) inputStream.getNextEntry()) != null) {
+            File fileToWrite = new File(directory, nextEntry.getName());
+            if (nextEntry.isDirectory()) {
+                fileToWrite.mkdirs();
+            } else {
+                File house = fileToWrite.getParentFile();
+                if (!house.exists()) {
+                    house.mkdirs();
+                }
+                copyInputStreamToFile(inputStream, fileToWrite);
+                Files.setPosixFilePermissions(fileToWrite, nextEntry.getMode());
+            }
+        }
+    }
+
     /**
      * From apache common's FileUtils.... However, they CLOSE the input stream even though its not documented as such!
      *
@@ -0,0 +1,295 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package deployer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Sets;
+
+import ezbake.deployer.impl.ChunkedArtifactWriter;
+import ezbake.deployer.impl.Files;
+import ezbake.deployer.impl.LocalFileArtifactWriter;
+import ezbake.deployer.impl.LocalFileChunkStore;
+import ezbake.services.deploy.thrift.ArtifactType;
+import ezbake.services.deploy.thrift.DeploymentArtifact;
+import ezbake.services.deploy.thrift.DeploymentMetadata;
+import ezbake.services.deploy.thrift.DeploymentStatus;
+
+public class ChunkedArtifactWriterTest {
+    private static final Logger log = LoggerFactory.getLogger(ChunkedArtifactWriterTest.class);
+
+    private File storeDirectory;
+    private LocalFileChunkStore store;
+    private ChunkedArtifactWriter writer;
+
+    @Before
+    public void setUp() throws IOException {
+        storeDirectory = Files.createTempDirectory(Files.resolve(TestUtils.getTargetDir(), "test-output"), "chunks");
+        store = new LocalFileChunkStore(storeDirectory);
+        writer = new ChunkedArtifactWriter(store, null);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(storeDirectory);
+    }
+
+    @Test
+    public void testGzippedArtifactRoundTrip() throws Exception {
+        DeploymentArtifact artifact = TestUtils.createSampleDeploymentArtifact(ArtifactType.Thrift);
+        writer.writeArtifact(artifact.getMetadata(), artifact);
+
+        DeploymentArtifact read = writer.readArtifact(artifact.getMetadata());
+        assertEquals(artifact.getMetadata(), read.getMetadata());
+        // Compressed again on the way out, so compare the content
+        assertArrayEquals(gunzip(artifact.getArtifact()), gunzip(read.getArtifact()));
+        TestUtils.assertDeploymentArtifact(read, ArtifactType.Thrift);
+    }
+
+    @Test
+    public void testUncompressedArtifactRoundTrip() throws Exception {
+        byte[] data = randomBytes(new Random(1), 1024 * 1024);
+        DeploymentMetadata metadata = metadata(1);
+        writer.writeArtifact(metadata, new DeploymentArtifact(metadata, ByteBuffer.wrap(data)));
+
+        assertArrayEquals(data, writer.readArtifact(metadata).getArtifact());
+        assertTrue(store.listChunks().size() > 1);
+    }
+
+    @Test
+    public void testSharedChunksAreReferenceCounted() throws Exception {
+        byte[][] jars = randomJars(new Random(2), 8, 128 * 1024);
+        DeploymentMetadata first = metadata(1);
+        DeploymentMetadata second = metadata(2);
+        writer.writeArtifact(first, new DeploymentArtifact(first, syntheticArtifact(1, jars)));
+        int firstChunks = store.listChunks().size();
+        writer.writeArtifact(second, new DeploymentArtifact(second, syntheticArtifact(2, jars)));
+        int bothChunks = store.listChunks().size();
+        assertTrue("Versions should share most chunks", bothChunks < firstChunks + firstChunks / 4);
+
+        writer.deleteArtifact(first);
+        assertEquals(1, store.listManifests().size());
+        assertTrue(store.listChunks().size() < bothChunks);
+        assertArrayEquals(gunzip(syntheticArtifact(2, jars).array()),
+                gunzip(writer.readArtifact(second).getArtifact()));
+
+        writer.deleteArtifact(second);
+        assertEquals(0, store.listManifests().size());
+        assertEquals(0, store.listChunks().size());
+    }
+
+    @Test
+    public void testMetadataUpdateReusesChunks() throws Exception {
+        byte[][] jars = randomJars(new Random(3), 4, 128 * 1024);
+        DeploymentMetadata staged = metadata(1);
+        staged.setStatus(DeploymentStatus.Staged);
+        writer.writeArtifact(staged, new DeploymentArtifact(staged, syntheticArtifact(1, jars)));
+        Set<String> chunks = Sets.newHashSet(store.listChunks());
+
+        DeploymentMetadata deployed = metadata(2);
+        deployed.setStatus(DeploymentStatus.Deployed);
+        writer.updateArtifactMetadata(staged, deployed);
+
+        assertEquals(chunks, Sets.newHashSet(store.listChunks()));
+        assertEquals(1, store.listManifests().size());
+        DeploymentArtifact read = writer.readArtifact(deployed);
+        assertEquals(deployed, read.getMetadata());
+        assertArrayEquals(gunzip(syntheticArtifact(1, jars).array()), gunzip(read.getArtifact()));
+    }
+
+    @Test
+    public void testReferencesAreRebuiltFromManifests() throws Exception {
+        byte[][] jars = randomJars(new Random(4), 4, 128 * 1024);
+        DeploymentMetadata first = metadata(1);
+        DeploymentMetadata second = metadata(2);
+        writer.writeArtifact(first, new DeploymentArtifact(first, syntheticArtifact(1, jars)));
+        writer.writeArtifact(second, new DeploymentArtifact(second, syntheticArtifact(2, jars)));
+        // Left behind by an interrupted write
+        byte[] orphan = "not referenced by any manifest".getBytes();
+        store.writeChunk("00orphan", orphan, 0, orphan.length);
+        assertTrue(Files.get(storeDirectory, "chunks", "00", "00orphan")
+                .setLastModified(System.currentTimeMillis() - 2 * ChunkedArtifactWriter.DEFAULT_ORPHAN_GRACE_MILLIS));
+
+        ChunkedArtifactWriter restarted = new ChunkedArtifactWriter(store, null);
+        restarted.deleteArtifact(first);
+        assertFalse(store.hasChunk("00orphan"));
+        assertArrayEquals(gunzip(syntheticArtifact(2, jars).array()),
+                gunzip(restarted.readArtifact(second).getArtifact()));
+        restarted.deleteArtifact(second);
+        assertEquals(0, store.listChunks().size());
+    }
+
+    @Test
+    public void testRecentUnreferencedChunksAreKept() throws Exception {
+        byte[][] jars = randomJars(new Random(6), 2, 64 * 1024);
+        DeploymentMetadata first = metadata(1);
+        writer.writeArtifact(first, new DeploymentArtifact(first, syntheticArtifact(1, jars)));
+        // Just written by another write whose manifest isn't stored yet
+        byte[] pending = "not referenced by a manifest yet".getBytes();
+        store.writeChunk("00pending", pending, 0, pending.length);
+
+        ChunkedArtifactWriter restarted = new ChunkedArtifactWriter(store, null);
+        restarted.deleteArtifact(first);
+        assertTrue(store.hasChunk("00pending"));
+        assertEquals(1, store.listChunks().size());
+    }
+
+    @Test
+    public void testLegacyArtifactIsMovedOnUpdate() throws Exception {
+        LocalFileArtifactWriter legacyWriter = new LocalFileArtifactWriter();
+        ChunkedArtifactWriter chunkedWriter = new ChunkedArtifactWriter(store, legacyWriter);
+        DeploymentArtifact artifact = TestUtils.createSampleDeploymentArtifact(ArtifactType.Thrift);
+        DeploymentMetadata oldMetadata = artifact.getMetadata();
+        legacyWriter.writeArtifact(oldMetadata, artifact);
+        try {
+            assertArrayEquals(artifact.getArtifact(), chunkedWriter.readArtifact(oldMetadata).getArtifact());
+
+            DeploymentMetadata newMetadata = oldMetadata.deepCopy();
+            newMetadata.setVersion(Long.toString(TestUtils.sampleVersion + 1));
+            chunkedWriter.updateArtifactMetadata(oldMetadata, newMetadata);
+
+            assertFalse(legacyWriter.readArtifact(oldMetadata).isSetArtifact());
+            assertEquals(1, store.listManifests().size());
+            assertArrayEquals(gunzip(artifact.getArtifact()),
+                    gunzip(chunkedWriter.readArtifact(newMetadata).getArtifact()));
+        } finally {
+            legacyWriter.deleteArtifact(oldMetadata);
+        }
+    }
+
+    /**
+     * Write 50 versions of a synthetic service, the configuration changes in every version and one of its jars every
+     * 10 versions, and compare the bytes stored and the write time with a full copy of every version
+     */
+    @Test
+    public void testDedupeAcrossVersions() throws Exception {
+        int versions = 50;
+        Random random = new Random(5);
+        byte[][] jars = randomJars(random, 20, 256 * 1024);
+
+        File copyDirectory =
+                Files.createTempDirectory(Files.resolve(TestUtils.getTargetDir(), "test-output"), "copies");
+        long logicalBytes = 0;
+        long copyBytes = 0;
+        long chunkedNanos = 0;
+        long copyNanos = 0;
+        ByteBuffer last = null;
+        try {
+            for (int version = 0; version < versions; version++) {
+                if (version > 0 && version % 10 == 0) {
+                    jars[random.nextInt(jars.length)] = randomBytes(random, 256 * 1024);
+                }
+                ByteBuffer data = syntheticArtifact(version, jars);
+                logicalBytes += data.remaining();
+                DeploymentMetadata metadata = metadata(version);
+
+                long start = System.nanoTime();
+                writer.writeArtifact(metadata, new DeploymentArtifact(metadata, data));
+                chunkedNanos += System.nanoTime() - start;
+
+                // What storing a full copy of each version costs
+                File copy = new File(copyDirectory, version + ".artifact");
+                start = System.nanoTime();
+                FileUtils.writeByteArrayToFile(copy, data.array());
+                copyNanos += System.nanoTime() - start;
+                copyBytes += copy.length();
+                last = data;
+            }
+        } finally {
+            FileUtils.deleteQuietly(copyDirectory);
+        }
+
+        long storedBytes = FileUtils.sizeOfDirectory(new File(storeDirectory, "chunks"));
+        double ratio = (double) logicalBytes / storedBytes;
+        log.info("{} versions: {} artifact bytes, {} stored in {} chunks, dedupe ratio {}, chunked writes took {}ms, "
+                        + "full copies took {}ms ({} bytes)", versions, logicalBytes, storedBytes,
+                store.listChunks().size(), String.format("%.1f", ratio), chunkedNanos / 1000000,
+                copyNanos / 1000000, copyBytes);
+
+        assertTrue("Dedupe ratio was " + ratio, ratio > 5);
+        assertArrayEquals(gunzip(last.array()), gunzip(writer.readArtifact(metadata(versions - 1)).getArtifact()));
+    }
+
+    private static DeploymentMetadata metadata(int version) {
+        DeploymentMetadata metadata = TestUtils.createSampleApplicationMetadata(ArtifactType.Thrift);
+        metadata.setVersion(Long.toString(TestUtils.sampleVersion + version));
+        return metadata;
+    }
+
+    /**
+     * A tar.gz with a configuration file that changes per version followed by the jars
+     */
+    private static ByteBuffer syntheticArtifact(int version, byte[][] jars) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new GzipCompressorOutputStream(bos))) {
+            byte[] conf = (TestUtils.SAMPLE_CONF_DATA + "\nversion=" + version).getBytes();
+            addEntry(tar, TestUtils.CONFIG_DIRECTORY + "/app.conf", conf);
+            for (int i = 0; i < jars.length; i++) {
+                addEntry(tar, "lib/dependency-" + i + ".jar", jars[i]);
+            }
+        }
+        return ByteBuffer.wrap(bos.toByteArray());
+    }
+
+    private static void addEntry(TarArchiveOutputStream tar, String name, byte[] data) throws IOException {
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setSize(data.length);
+        entry.setModTime(0);
+        tar.putArchiveEntry(entry);
+        tar.write(data);
+        tar.closeArchiveEntry();
+    }
+
+    private static byte[][] randomJars(Random random, int count, int size) {
+        byte[][] jars = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            jars[i] = randomBytes(random, size);
+        }
+        return jars;
+    }
+
+    private static byte[] randomBytes(Random random, int size) {
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        return data;
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        return IOUtils.toByteArray(new GzipCompressorInputStream(new ByteArrayInputStream(data)));
+    }
+}
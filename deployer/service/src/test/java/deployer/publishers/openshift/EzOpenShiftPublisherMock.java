@@ -16,6 +16,7 @@ package deployer.publishers.openshift;
 
 import ezbake.deployer.publishers.EzOpenShiftPublisher;
 import ezbake.deployer.publishers.EzReverseProxyRegister;
+import ezbake.deployer.publishers.openShift.InstanceRollout;
 import ezbake.deployer.publishers.openShift.Rhc;
 import ezbake.services.deploy.thrift.DeploymentException;
 
@@ -24,10 +25,16 @@ import java.io.InputStream;
 
 class EzOpenShiftPublisherMock extends EzOpenShiftPublisher {
     private final Rhc rhc;
+    private final InstanceRollout rollout;
 
     public EzOpenShiftPublisherMock(Rhc rhc, EzReverseProxyRegister reverseProxyRegister) {
+        this(rhc, reverseProxyRegister, null);
+    }
+
+    public EzOpenShiftPublisherMock(Rhc rhc, EzReverseProxyRegister reverseProxyRegister, InstanceRollout rollout) {
         super();
         this.rhc = rhc;
+        this.rollout = rollout;
         setReverseProxyRegister(reverseProxyRegister);
     }
 
@@ -40,4 +47,9 @@ class EzOpenShiftPublisherMock extends EzOpenShiftPublisher {
     protected Rhc createRhc() {
         return rhc;
     }
+
+    @Override
+    protected InstanceRollout createInstanceRollout() {
+        return rollout != null ? rollout : super.createInstanceRollout();
+    }
 }
@@ -0,0 +1,238 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package deployer.publishers.openshift;
+
+import com.google.common.collect.Sets;
+import com.openshift.client.ApplicationScale;
+import com.openshift.client.IApplication;
+import com.openshift.client.IDomain;
+import com.openshift.client.IEnvironmentVariable;
+import com.openshift.client.IUser;
+import com.openshift.client.cartridge.EmbeddableCartridge;
+import com.openshift.client.cartridge.IEmbeddedCartridge;
+import com.openshift.client.cartridge.StandaloneCartridge;
+import com.openshift.internal.client.GearProfile;
+import deployer.TestUtils;
+import ezbake.configuration.constants.EzBakePropertyConstants;
+import ezbake.deployer.impl.Files;
+import ezbake.deployer.publishers.EzOpenShiftPublisher;
+import ezbake.deployer.publishers.EzReverseProxyRegister;
+import ezbake.deployer.publishers.openShift.InstanceRollout;
+import ezbake.deployer.publishers.openShift.Rhc;
+import ezbake.deployer.publishers.openShift.RhcApplication;
+import ezbake.services.deploy.thrift.ArtifactType;
+import ezbake.services.deploy.thrift.DeploymentArtifact;
+import ezbake.services.deploy.thrift.DeploymentException;
+import ezbake.thrift.ThriftTestUtils;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static deployer.TestUtils.AppDirs;
+import static deployer.TestUtils.createSampleDeploymentArtifact;
+import static deployer.TestUtils.makeNumberGits;
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.anyString;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class InstanceRolloutTest {
+    private static final long DEPLOY_MILLIS = 50;
+
+    @Test
+    public void testParallelRolloutIsBounded() throws DeploymentException {
+        RecordingDeployer deployer = new RecordingDeployer(-1);
+        List<InstanceRollout.InstanceResult> results = new InstanceRollout(3, 0).rollout("parallel", 10, deployer);
+
+        assertEquals(10, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(i, results.get(i).getInstanceNumber());
+            assertTrue(results.get(i).isSuccessful());
+            assertThat(results.get(i).getElapsedMillis(), greaterThanOrEqualTo(DEPLOY_MILLIS - 10));
+        }
+        assertEquals(10, deployer.deployed.size());
+        assertThat(deployer.maxConcurrent.get(), lessThanOrEqualTo(3));
+        assertThat(deployer.maxConcurrent.get(), greaterThan(1));
+        assertFalse("Instance 0 should be deployed on its own", deployer.overlappedFirst.get());
+    }
+
+    @Test
+    public void testRollingRolloutIsBoundedByMaxUnavailable() throws DeploymentException {
+        RecordingDeployer deployer = new RecordingDeployer(-1);
+        new InstanceRollout(4, 2).rollout("rolling", 8, deployer);
+
+        assertEquals(8, deployer.deployed.size());
+        assertThat(deployer.maxConcurrent.get(), lessThanOrEqualTo(2));
+    }
+
+    @Test
+    public void testParallelRolloutContinuesAfterFailure() {
+        RecordingDeployer deployer = new RecordingDeployer(2);
+        try {
+            new InstanceRollout(2, 0).rollout("parallel", 6, deployer);
+            fail("The failed instance should fail the rollout");
+        } catch (DeploymentException e) {
+            assertThat(e.getMessage(), containsString("instance(s) 2 "));
+        }
+        assertEquals(Sets.newHashSet(0, 1, 2, 3, 4, 5), deployer.deployed);
+    }
+
+    @Test
+    public void testRollingRolloutStopsAtFailure() {
+        RecordingDeployer deployer = new RecordingDeployer(2);
+        try {
+            new InstanceRollout(4, 1).rollout("rolling", 6, deployer);
+            fail("The failed instance should fail the rollout");
+        } catch (DeploymentException e) {
+            assertThat(e.getMessage(), containsString("instance(s) 2 "));
+        }
+        assertEquals(Sets.newHashSet(0, 1, 2), deployer.deployed);
+    }
+
+    @Test
+    public void testFailedFirstInstanceStopsRollout() {
+        RecordingDeployer deployer = new RecordingDeployer(0);
+        try {
+            new InstanceRollout(4, 0).rollout("parallel", 4, deployer);
+            fail("The failed instance should fail the rollout");
+        } catch (DeploymentException e) {
+            assertThat(e.getMessage(), containsString("instance(s) 0 "));
+        }
+        assertEquals(Collections.singleton(0), deployer.deployed);
+    }
+
+    /**
+     * Publish several instances at the same time, each to its own local bare git repository standing in for OpenShift
+     */
+    @Test
+    public void testParallelPublishToBareRepositories() throws Exception {
+        final int numberOfInstances = 5;
+        AppDirs[] theGits = makeNumberGits(numberOfInstances, "parallelRollout/openshiftMultipleInstances");
+
+        Rhc rhc = createMock(Rhc.class);
+        IApplication instance = createMock(IApplication.class);
+        IDomain domain = createMock(IDomain.class);
+        IUser mockUser = createMock(IUser.class);
+        EzReverseProxyRegister ezReverseProxyRegister = createMock(EzReverseProxyRegister.class);
+
+        expect(instance.getName()).andReturn("UnitTestApplication").anyTimes();
+        expect(domain.getUser()).andReturn(mockUser).anyTimes();
+        expect(mockUser.getRhlogin()).andReturn("UnitTestuser").anyTimes();
+        expect(rhc.listApplicationInstances(TestUtils.getOpenShiftAppName(), TestUtils.getOpenShiftDomainName()))
+                .andReturn(Collections.<RhcApplication>emptyList()).once();
+        for (int i = 0; i < numberOfInstances; i++) {
+            expect(rhc.getOrCreateApplication(TestUtils.buildOpenShiftAppName(i), TestUtils.getOpenShiftDomainName(),
+                    new StandaloneCartridge("java-thriftrunner"), ApplicationScale.NO_SCALE, GearProfile.SMALL))
+                    .andReturn(new RhcApplication(theGits[i].gitRepo, instance, domain, theGits[i].testDir, null))
+                    .once();
+        }
+        expect(instance.getEnvironmentVariables()).andReturn(new HashMap<String, IEnvironmentVariable>()).anyTimes();
+        expect(instance.addEnvironmentVariable(anyString(), anyString())).andReturn(null).anyTimes();
+        expect(instance.getEmbeddedCartridges()).andReturn(new ArrayList<IEmbeddedCartridge>()).anyTimes();
+        expect(instance.addEmbeddableCartridge(anyObject(EmbeddableCartridge.class))).andReturn(null).anyTimes();
+        replay(instance, domain, mockUser, ezReverseProxyRegister, rhc);
+
+        EzOpenShiftPublisher publisher = new EzOpenShiftPublisherMock(rhc, ezReverseProxyRegister,
+                new InstanceRollout(4, 0));
+        DeploymentArtifact deploymentArtifact = createSampleDeploymentArtifact(ArtifactType.Thrift,
+                (short) numberOfInstances);
+        publisher.publish(deploymentArtifact, ThriftTestUtils.generateTestSecurityToken("U"));
+        verify(instance, domain, mockUser, ezReverseProxyRegister, rhc);
+
+        for (int i = 0; i < numberOfInstances; i++) {
+            File testDir = theGits[i].testDir;
+            ObjectId pushed = theGits[i].remoteGit.getRepository().resolve("refs/heads/master");
+            assertNotNull("Instance " + i + " wasn't pushed", pushed);
+            assertEquals(theGits[i].gitRepo.getRepository().resolve("HEAD"), pushed);
+
+            String properties = FileUtils.readFileToString(Files.resolve(testDir, "config", "openshift.properties"));
+            assertThat(properties,
+                    containsString(EzBakePropertyConstants.EZBAKE_APPLICATION_INSTANCE_NUMBER + "=" + i));
+            assertEquals(TestUtils.SAMPLE_JAR_DATA,
+                    FileUtils.readFileToString(Files.resolve(testDir, "bin", "myApplication.jar")));
+            assertEquals(Long.toString(TestUtils.sampleVersion),
+                    FileUtils.readFileToString(Files.resolve(testDir, "deployed_version.txt")));
+            assertTrue("Start script should be executable",
+                    Files.isExecutable(Files.resolve(testDir, ".openshift", "action_hooks", "start")));
+        }
+    }
+
+    /**
+     * Deploys by sleeping, recording which instances were deployed and how many were deployed at the same time
+     */
+    private static class RecordingDeployer implements InstanceRollout.InstanceDeployer {
+        private final int failingInstance;
+        private final Set<Integer> deployed = Collections.synchronizedSet(Sets.<Integer>newHashSet());
+        private final AtomicInteger concurrent = new AtomicInteger();
+        private final AtomicInteger maxConcurrent = new AtomicInteger();
+        private final AtomicBoolean firstRunning = new AtomicBoolean();
+        private final AtomicBoolean overlappedFirst = new AtomicBoolean();
+
+        private RecordingDeployer(int failingInstance) {
+            this.failingInstance = failingInstance;
+        }
+
+        @Override
+        public void deploy(int instanceNumber) throws DeploymentException {
+            deployed.add(instanceNumber);
+            if (instanceNumber == 0) {
+                firstRunning.set(true);
+            } else if (firstRunning.get()) {
+                overlappedFirst.set(true);
+            }
+            int running = concurrent.incrementAndGet();
+            while (true) {
+                int max = maxConcurrent.get();
+                if (running <= max || maxConcurrent.compareAndSet(max, running)) {
+                    break;
+                }
+            }
+            try {
+                Thread.sleep(DEPLOY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                concurrent.decrementAndGet();
+                if (instanceNumber == 0) {
+                    firstRunning.set(false);
+                }
+            }
+            if (instanceNumber == failingInstance) {
+                throw new DeploymentException("Instance " + instanceNumber + " failed");
+            }
+        }
+    }
+}
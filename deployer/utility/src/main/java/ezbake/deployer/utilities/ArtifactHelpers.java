@@ -26,7 +26,6 @@ import org.apache.commons.compress.archivers.ArchiveInputStream;
 import org.apache.commons.compress.archivers.ArchiveStreamFactory;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
-import org.apache.commons.compress.compressors.CompressorInputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
@@ -35,6 +34,7 @@ import org.slf4j.LoggerFactory;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.List;
@@ -42,6 +42,7 @@ import java.util.zip.GZIPOutputStream;
 
 public class ArtifactHelpers {
     private static final Logger log = LoggerFactory.getLogger(ArtifactHelpers.class);
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
 
     private ArtifactHelpers() {
     }
@@ -156,22 +157,27 @@ public class ArtifactHelpers {
     }
 
     public static void addFilesToArtifact(DeploymentArtifact artifact, Iterable<ArtifactDataEntry> injectFiles) throws DeploymentException {
-        CompressorInputStream uncompressedInput = null;
-        ArchiveInputStream input = null;
-        ByteArrayOutputStream bos = null;
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(artifact.getArtifact().length);
+        addFilesToArtifact(new ByteArrayInputStream(artifact.getArtifact()), bos, injectFiles);
+        artifact.setArtifact(bos.toByteArray());
+    }
+
+    /**
+     * Copy a gzipped tar archive from the source to the destination in a single pass, adding the given entries on the
+     * way. Entries of the source with the same name as an added entry are left out. Only the copy buffers and the
+     * added entries are held in memory, whatever the size of the archive. Neither stream is closed.
+     *
+     * @param source      - gzipped tar archive to read
+     * @param destination - where to write the modified gzipped tar archive
+     * @param injectFiles - what entries to add
+     */
+    public static void addFilesToArtifact(InputStream source, OutputStream destination, Iterable<ArtifactDataEntry> injectFiles) throws DeploymentException {
         try {
-            uncompressedInput = new GzipCompressorInputStream(new ByteArrayInputStream(artifact.getArtifact()));
-            input = new TarArchiveInputStream(uncompressedInput);
-            bos = new ByteArrayOutputStream(artifact.getArtifact().length);
-            appendFilesInTarArchive(input, bos, injectFiles);
-            artifact.setArtifact(bos.toByteArray());
+            ArchiveInputStream input = new TarArchiveInputStream(new GzipCompressorInputStream(source));
+            appendFilesInTarArchive(input, destination, injectFiles);
         } catch (IOException ex) {
             log.error("IOException while attempting to add files to a deployment artifact.", ex);
             throw new DeploymentException(ex.getMessage());
-        } finally {
-            IOUtils.closeQuietly(uncompressedInput);
-            IOUtils.closeQuietly(input);
-            IOUtils.closeQuietly(bos);
         }
     }
 
@@ -191,16 +197,17 @@ public class ArtifactHelpers {
             for (ArtifactDataEntry entry : filesToAdd) {
                 newFiles.put(entry.getEntry().getName(), entry);
             }
-            GZIPOutputStream gzs = new GZIPOutputStream(output);
+            GZIPOutputStream gzs = new GZIPOutputStream(output, COPY_BUFFER_SIZE);
             TarArchiveOutputStream aos = (TarArchiveOutputStream) asf.createArchiveOutputStream(ArchiveStreamFactory.TAR, gzs);
             aos.setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
             // copy the existing entries
             ArchiveEntry nextEntry;
             while ((nextEntry = inputStream.getNextEntry()) != null) {
                 //If we're passing in the same file, don't copy into the new archive
                 if (!newFiles.containsKey(nextEntry.getName())) {
                     aos.putArchiveEntry(nextEntry);
-                    IOUtils.copy(inputStream, aos);
+                    IOUtils.copyLarge(inputStream, aos, buffer);
                     aos.closeArchiveEntry();
                 }
             }
@@ -212,11 +219,10 @@ public class ArtifactHelpers {
             }
             aos.finish();
             gzs.finish();
+            gzs.flush();
         } catch (ArchiveException | IOException e) {
             log.error(e.getMessage(), e);
             throw new DeploymentException(e.getMessage());
         }
     }
-
-
 }
@@ -0,0 +1,176 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package deployer.utilities;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.CountingInputStream;
+import ezbake.deployer.utilities.ArtifactDataEntry;
+import ezbake.deployer.utilities.ArtifactHelpers;
+import ezbake.services.deploy.thrift.DeploymentArtifact;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ArtifactHelpersTest {
+    private static final int MB = 1024 * 1024;
+
+    @Test
+    public void testAddFilesReplacesAndAppends() throws Exception {
+        Map<String, byte[]> original = new LinkedHashMap<>();
+        original.put("bin/app.jar", "jar".getBytes(Charsets.UTF_8));
+        original.put("config/application.properties", "old=true".getBytes(Charsets.UTF_8));
+        original.put("config/" + longName(), "long".getBytes(Charsets.UTF_8));
+
+        ByteArrayOutputStream tarball = new ByteArrayOutputStream();
+        writeTarball(tarball, original);
+        DeploymentArtifact artifact = new DeploymentArtifact();
+        artifact.setArtifact(tarball.toByteArray());
+
+        ArtifactHelpers.addFilesToArtifact(artifact, Lists.newArrayList(
+                entry("config/application.properties", "new=true"),
+                entry("config/ssl/app.jks", "cert")));
+
+        Map<String, byte[]> entries = readTarball(new ByteArrayInputStream(artifact.getArtifact()));
+        assertEquals(Lists.newArrayList("bin/app.jar", "config/" + longName(), "config/application.properties",
+                "config/ssl/app.jks"), Lists.newArrayList(entries.keySet()));
+        assertArrayEquals("jar".getBytes(Charsets.UTF_8), entries.get("bin/app.jar"));
+        assertArrayEquals("new=true".getBytes(Charsets.UTF_8), entries.get("config/application.properties"));
+        assertArrayEquals("cert".getBytes(Charsets.UTF_8), entries.get("config/ssl/app.jks"));
+    }
+
+    /**
+     * Inject files into a synthetic artifact, checking on every write to the destination how far reading the source
+     * is ahead of it.  Streaming only holds the copy and compression buffers, so the lag stays far below the size of
+     * the artifact.
+     */
+    @Test
+    public void testStreamingDoesNotBufferTheArtifact() throws Exception {
+        int sizeMb = 16;
+        ByteArrayOutputStream artifact = new ByteArrayOutputStream();
+        writeSyntheticArtifact(artifact, sizeMb);
+        final CountingInputStream source = new CountingInputStream(new ByteArrayInputStream(artifact.toByteArray()));
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        final long[] maxLag = {0};
+        OutputStream destination = new OutputStream() {
+            @Override
+            public void write(int b) {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                maxLag[0] = Math.max(maxLag[0], source.getCount() - written.size());
+                written.write(b, off, len);
+            }
+        };
+        List<ArtifactDataEntry> injected = Lists.newArrayList(
+                entry("config/ssl/app.jks", "cert"),
+                entry("config/application.properties", "application.name=bench"),
+                entry("requirements.txt", "ezbake"));
+
+        ArtifactHelpers.addFilesToArtifact(source, destination, injected);
+
+        assertEquals(artifact.size(), source.getCount());
+        Map<String, byte[]> entries = readTarball(new ByteArrayInputStream(written.toByteArray()));
+        assertEquals(sizeMb + injected.size(), entries.size());
+        assertArrayEquals("cert".getBytes(Charsets.UTF_8), entries.get("config/ssl/app.jks"));
+        assertTrue("artifact of " + artifact.size() + " bytes", artifact.size() > 4L * MB);
+        // the copy and compression buffers, whatever the size of the artifact
+        assertTrue("source read " + maxLag[0] + " bytes ahead of the destination", maxLag[0] < MB);
+    }
+
+    /**
+     * An artifact of 1 MB entries, half random and half text so it compresses like a real one
+     */
+    private static void writeSyntheticArtifact(OutputStream output, int sizeMb) throws IOException {
+        Random random = new Random(42);
+        byte[] data = new byte[MB];
+        byte[] text = "public class Example { int value = 42; }\n".getBytes(Charsets.UTF_8);
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new GZIPOutputStream(output, 64 * 1024))) {
+            for (int i = 0; i < sizeMb; i++) {
+                random.nextBytes(data);
+                for (int offset = data.length / 2; offset < data.length; offset += text.length) {
+                    System.arraycopy(text, 0, data, offset, Math.min(text.length, data.length - offset));
+                }
+                TarArchiveEntry entry = new TarArchiveEntry("lib/library-" + i + ".jar");
+                entry.setSize(data.length);
+                tar.putArchiveEntry(entry);
+                tar.write(data);
+                tar.closeArchiveEntry();
+            }
+        }
+    }
+
+    private static void writeTarball(OutputStream output, Map<String, byte[]> files) throws IOException {
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new GZIPOutputStream(output))) {
+            tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                TarArchiveEntry entry = new TarArchiveEntry(file.getKey());
+                entry.setSize(file.getValue().length);
+                tar.putArchiveEntry(entry);
+                tar.write(file.getValue());
+                tar.closeArchiveEntry();
+            }
+        }
+    }
+
+    /**
+     * @return key: entry name, value: contents of small entries, the first bytes of large ones
+     */
+    private static Map<String, byte[]> readTarball(InputStream input) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (TarArchiveInputStream tar = new TarArchiveInputStream(new GzipCompressorInputStream(input))) {
+            TarArchiveEntry entry;
+            byte[] buffer = new byte[1024];
+            while ((entry = tar.getNextTarEntry()) != null) {
+                int read = IOUtils.read(tar, buffer);
+                byte[] head = new byte[read];
+                System.arraycopy(buffer, 0, head, 0, read);
+                entries.put(entry.getName(), head);
+            }
+        }
+        return entries;
+    }
+
+    private static ArtifactDataEntry entry(String name, String contents) {
+        return new ArtifactDataEntry(new TarArchiveEntry(name), contents.getBytes(Charsets.UTF_8));
+    }
+
+    private static String longName() {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 12; i++) {
+            name.append("directory").append(i).append('/');
+        }
+        return name.append("file.txt").toString();
+    }
+}
@@ -40,6 +40,7 @@ import ezbake.groups.graph.frames.edge.BaseEdge.EdgeType;
 import ezbake.groups.graph.frames.vertex.BaseVertex;
 import ezbake.groups.graph.frames.vertex.Group;
 import ezbake.groups.graph.frames.vertex.User;
+import ezbake.groups.graph.query.ReachabilityQuery;
 import ezbake.groups.thrift.EzGroupsConstants;
 import ezbake.groups.thrift.GroupInheritancePermissions;
 import ezbake.groups.thrift.UserGroupPermissions;
@@ -59,10 +60,12 @@ import java.util.*;
 public class EzGroupsGraph implements Closeable {
     private static final Logger logger = LoggerFactory.getLogger(EzGroupsGraph.class);
     public static final String GROUP_NAME_SEP = EzGroupsConstants.GROUP_NAME_SEP;
+    public static final String REVERSE_REACHABILITY = "ezbake.groups.graph.reachability.reverse";
 
     private final GroupNameHelper gnh = new GroupNameHelper();
     private final TitanGraph graph;
     private final FramedGraphFactory framedGraphFactory;
+    private final ReachabilityQuery reachability;
     private GroupIDProvider idProvider;
 
     final Object commonGroupId;
@@ -87,6 +90,8 @@ public class EzGroupsGraph implements Closeable {
         }, new JavaHandlerModule());
 
         this.idProvider = idProvider;
+        this.reachability = new ReachabilityQuery(ezConfiguration == null ||
+                Boolean.parseBoolean(ezConfiguration.getProperty(REVERSE_REACHABILITY, Boolean.TRUE.toString())));
 
         commonGroupId = createCommonGroup();
         appGroupId = addSpecialGroup(Group.APP_GROUP);
@@ -1215,11 +1220,14 @@ public class EzGroupsGraph implements Closeable {
         Vertex parent = parents.next();
         Vertex child = children.next();
         
-        return new GroupInheritancePermissions( pathExists(parent, child.getId(), BaseEdge.EdgeType.DATA_ACCESS.toString()), 
-                pathExists(parent, child.getId(), BaseEdge.EdgeType.A_READ.toString()), 
-                pathExists(parent, child.getId(), BaseEdge.EdgeType.A_WRITE.toString()), 
-                pathExists(parent, child.getId(), BaseEdge.EdgeType.A_MANAGE.toString()), 
-                pathExists(parent, child.getId(), BaseEdge.EdgeType.A_CREATE_CHILD.toString()));
+        Set<BaseEdge.EdgeType> edges = edgesBetweenVertices(parent, child, BaseEdge.EdgeType.DATA_ACCESS,
+                BaseEdge.EdgeType.A_READ, BaseEdge.EdgeType.A_WRITE, BaseEdge.EdgeType.A_MANAGE,
+                BaseEdge.EdgeType.A_CREATE_CHILD);
+        return new GroupInheritancePermissions(edges.contains(BaseEdge.EdgeType.DATA_ACCESS),
+                edges.contains(BaseEdge.EdgeType.A_READ),
+                edges.contains(BaseEdge.EdgeType.A_WRITE),
+                edges.contains(BaseEdge.EdgeType.A_MANAGE),
+                edges.contains(BaseEdge.EdgeType.A_CREATE_CHILD));
     }
     
     public Set<BaseEdge.EdgeType> userPermissionsOnGroup(BaseVertex.VertexType type, String userPrincipal, String groupName) throws UserNotFoundException, VertexNotFoundException {
@@ -1239,14 +1247,7 @@ public class EzGroupsGraph implements Closeable {
         }
         Group group = groups.next();
 
-        Set<BaseEdge.EdgeType> edges = new HashSet<>();
-        for (BaseEdge.EdgeType edge : BaseEdge.EdgeType.values()) {
-            if (pathExists(owner.asVertex(), group.asVertex().getId(), edge.toString())) {
-                edges.add(edge);
-            }
-        }
-
-        return edges;
+        return edgesBetweenVertices(owner.asVertex(), group.asVertex(), BaseEdge.EdgeType.values());
     }
 
 
@@ -1440,7 +1441,7 @@ public class EzGroupsGraph implements Closeable {
     /**
      * Determine whether or not a path exists between two vertices along a particular edge
      *
-     * Breadth first search should be used, to search for a direct edge
+     * Breadth first search is used, visiting each vertex at most once
      *
      * @param source the source vertex (has out edge)
      * @param targetId Vertex ID of the destination vertex (has in edge)
@@ -1448,30 +1449,21 @@ public class EzGroupsGraph implements Closeable {
      * @return true if a path exists
      */
     public boolean pathExists(Vertex source, final Object targetId, String... edgeLabel) {
-        GremlinPipeline<Vertex, Vertex> pip = new GremlinPipeline<Vertex, Vertex>(source)
-                .as("find_create_child_path")
-                .outE(edgeLabel)
-                .gather().scatter()
-                .inV()
-                .loop("find_create_child_path", new PipeFunction<LoopPipe.LoopBundle<Vertex>, Boolean>() {
-                    @Override
-                    public Boolean compute(LoopPipe.LoopBundle<Vertex> loopBundle) {
-                        return !loopBundle.getObject().getId().equals(targetId);
-                    }
-                });
-        return pip.hasNext();
+        return reachability.pathExists(source, graph.getVertex(targetId), edgeLabel);
     }
 
+    /**
+     * Determine the edge types along which paths exist between two vertices, with a single traversal
+     *
+     * @param source the source vertex (has out edges)
+     * @param destination the destination vertex (has in edges)
+     * @param edgeLabels edge types to check
+     * @return the edge types along which a path exists
+     */
     public Set<BaseEdge.EdgeType> edgesBetweenVertices(Vertex source, final Vertex destination, BaseEdge.EdgeType... edgeLabels) {
-        Set<BaseEdge.EdgeType> edges = new HashSet<>();
-
-        for (BaseEdge.EdgeType edgeLabel : edgeLabels) {
-            logger.trace("Checking edge between {} and {}", source, destination);
-            if (pathExists(source, destination.getId(), edgeLabel.toString())) {
-                logger.trace("Path existed {}", edgeLabel);
-                edges.add(edgeLabel);
-            }
-        }
+        logger.trace("Checking edges between {} and {}", source, destination);
+        Set<BaseEdge.EdgeType> edges = reachability.reachableEdgeTypes(source, destination, Arrays.asList(edgeLabels));
+        logger.trace("Paths existed {}", edges);
         return edges;
     }
 
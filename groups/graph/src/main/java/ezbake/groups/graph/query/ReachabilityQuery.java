@@ -0,0 +1,183 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.groups.graph.query;
+
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Vertex;
+import ezbake.groups.graph.frames.edge.BaseEdge;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Answers whether paths exist between two vertices for several edge types at once, with a single breadth first
+ * search.  A path for an edge type is made only of edges of that type, and has at least one edge.
+ * <p/>
+ * Every vertex carries a bitmap of the edge types it has been reached by, and is only expanded again for edge types
+ * it hadn't been reached by, so each vertex is expanded at most once per edge type however many paths lead to it.
+ * Edge types stop being followed as soon as the target has been reached by them, and the search ends once the target
+ * has been reached by all of them.
+ * <p/>
+ * When reverse search is enabled the search runs backwards from the target, along in edges, if the target has fewer
+ * in edges of the requested types than the source has out edges.  Edges are only counted up to the point the answer
+ * is known, so a group with many members isn't counted in full on every check.
+ */
+public class ReachabilityQuery {
+    private static final int MAX_LABEL_SETS = 31;
+    // Beyond this many out edges the source is considered as wide as any target
+    private static final int MAX_COUNTED_DEGREE = 1000;
+
+    private final boolean reverseWhenSmaller;
+
+    public ReachabilityQuery(boolean reverseWhenSmaller) {
+        this.reverseWhenSmaller = reverseWhenSmaller;
+    }
+
+    /**
+     * Determine the edge types along which there is a path from the source to the target
+     *
+     * @param source the source vertex (has out edges)
+     * @param target the target vertex (has in edges)
+     * @param edgeTypes edge types to check
+     * @return the edge types along which a path exists
+     */
+    public Set<BaseEdge.EdgeType> reachableEdgeTypes(Vertex source, Vertex target,
+                                                     Collection<BaseEdge.EdgeType> edgeTypes) {
+        BaseEdge.EdgeType[] types = edgeTypes.toArray(new BaseEdge.EdgeType[edgeTypes.size()]);
+        String[][] labelSets = new String[types.length][];
+        for (int i = 0; i < types.length; i++) {
+            labelSets[i] = new String[]{types[i].toString()};
+        }
+
+        Set<BaseEdge.EdgeType> reachable = EnumSet.noneOf(BaseEdge.EdgeType.class);
+        int found = reachable(source, target, labelSets);
+        for (int i = 0; i < types.length; i++) {
+            if ((found & (1 << i)) != 0) {
+                reachable.add(types[i]);
+            }
+        }
+        return reachable;
+    }
+
+    /**
+     * Determine whether a path exists from the source to the target, each edge of which has one of the labels
+     *
+     * @param source the source vertex (has out edges)
+     * @param target the target vertex (has in edges)
+     * @param edgeLabels labels of the edges that may be traversed
+     * @return true if a path exists
+     */
+    public boolean pathExists(Vertex source, Vertex target, String... edgeLabels) {
+        return reachable(source, target, new String[][]{edgeLabels}) != 0;
+    }
+
+    /**
+     * @param labelSets the sets of labels to find paths for, a path for a set is made of edges with labels in the set
+     * @return bitmap of the label sets for which a path exists, bit i for labelSets[i]
+     */
+    int reachable(Vertex source, Vertex target, String[][] labelSets) {
+        if (labelSets.length == 0 || source == null || target == null) {
+            return 0;
+        }
+        if (labelSets.length > MAX_LABEL_SETS) {
+            throw new IllegalArgumentException("At most " + MAX_LABEL_SETS + " label sets can be searched at once");
+        }
+
+        Map<String, Integer> labelBits = new HashMap<>();
+        for (int i = 0; i < labelSets.length; i++) {
+            for (String label : labelSets[i]) {
+                Integer bits = labelBits.get(label);
+                labelBits.put(label, (bits == null ? 0 : bits) | (1 << i));
+            }
+        }
+        String[] labels = labelBits.keySet().toArray(new String[labelBits.size()]);
+
+        if (reverseWhenSmaller) {
+            int sourceDegree = degree(source, Direction.OUT, labels, MAX_COUNTED_DEGREE);
+            if (degree(target, Direction.IN, labels, sourceDegree) < sourceDegree) {
+                return search(target, source, Direction.IN, labels, labelBits, labelSets.length);
+            }
+        }
+        return search(source, target, Direction.OUT, labels, labelBits, labelSets.length);
+    }
+
+    /**
+     * Breadth first search from start, following edges in the given direction, for paths to end
+     */
+    private static int search(Vertex start, Vertex end, Direction direction, String[] labels,
+                              Map<String, Integer> labelBits, int labelSetCount) {
+        final int all = (1 << labelSetCount) - 1;
+        final Object endId = end.getId();
+        final Direction next = direction.opposite();
+
+        // Edge types each vertex has been reached by, and those it has been expanded for
+        Map<Object, Integer> reached = new HashMap<>();
+        Map<Object, Integer> expanded = new HashMap<>();
+        Deque<Vertex> queue = new ArrayDeque<>();
+
+        reached.put(start.getId(), all);
+        queue.add(start);
+        int found = 0;
+
+        while (!queue.isEmpty()) {
+            Vertex vertex = queue.poll();
+            Object id = vertex.getId();
+            Integer done = expanded.get(id);
+            // Only follow edge types this vertex hasn't been expanded for, and the target hasn't been reached by
+            int pending = reached.get(id) & ~(done == null ? 0 : done) & ~found;
+            if (pending == 0) {
+                continue;
+            }
+            expanded.put(id, (done == null ? 0 : done) | pending);
+
+            for (Edge edge : vertex.getEdges(direction, labels)) {
+                Integer edgeBits = labelBits.get(edge.getLabel());
+                int bits = edgeBits == null ? 0 : edgeBits & pending & ~found;
+                if (bits == 0) {
+                    continue;
+                }
+                Vertex neighbour = edge.getVertex(next);
+                Object neighbourId = neighbour.getId();
+                if (neighbourId.equals(endId)) {
+                    found |= bits;
+                    if (found == all) {
+                        return found;
+                    }
+                }
+                Integer previous = reached.get(neighbourId);
+                int before = previous == null ? 0 : previous;
+                if ((bits & ~before) != 0) {
+                    reached.put(neighbourId, before | bits);
+                    queue.add(neighbour);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the number of edges of the vertex with the labels, counted up to the limit
+     */
+    private static int degree(Vertex vertex, Direction direction, String[] labels, int limit) {
+        return (int) vertex.query().direction(direction).labels(labels).limit(limit).count();
+    }
+}
@@ -0,0 +1,173 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.groups.graph.query;
+
+import com.tinkerpop.blueprints.Graph;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.impls.tg.TinkerGraph;
+import com.tinkerpop.gremlin.java.GremlinPipeline;
+import com.tinkerpop.pipes.PipeFunction;
+import com.tinkerpop.pipes.branch.LoopPipe;
+import ezbake.groups.graph.frames.edge.BaseEdge;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Time of the per edge type gremlin traversal EzGroupsGraph.pathExists used to make, next to a single
+ * ReachabilityQuery in each direction, on deep and wide group hierarchies.  Only run with the benchmark profile.
+ */
+public class ReachabilityQueryBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger(ReachabilityQueryBenchmark.class);
+    private static final List<BaseEdge.EdgeType> ALL_TYPES = Arrays.asList(BaseEdge.EdgeType.values());
+    private static final int ITERATIONS = 5;
+
+    private Graph graph;
+
+    @Before
+    public void setUp() {
+        graph = new TinkerGraph();
+    }
+
+    /**
+     * Deep hierarchy: a chain of diamonds, where the per edge type gremlin traversal follows every one of the
+     * 2^depth paths.  A_MANAGE is missing from the last diamond, so that traversal never finds its target.
+     */
+    @Test
+    public void deepHierarchy() {
+        int depth = 14;
+        Vertex top = graph.addVertex(null);
+        Vertex current = top;
+        for (int level = 0; level < depth; level++) {
+            Vertex left = graph.addVertex(null);
+            Vertex right = graph.addVertex(null);
+            Vertex bottom = graph.addVertex(null);
+            boolean last = level == depth - 1;
+            for (Vertex side : new Vertex[]{left, right}) {
+                addEdges(current, side, BaseEdge.EdgeType.values());
+                addEdges(side, bottom, last ? allBut(BaseEdge.EdgeType.A_MANAGE) : BaseEdge.EdgeType.values());
+            }
+            current = bottom;
+        }
+
+        benchmark("deep", top, current, EnumSet.copyOf(Arrays.asList(allBut(BaseEdge.EdgeType.A_MANAGE))));
+    }
+
+    /**
+     * Wide hierarchy: a user with data access to a group with width children, each with width children.  The user
+     * is also a member of each child group directly.
+     */
+    @Test
+    public void wideHierarchy() {
+        int width = 40;
+        Vertex user = graph.addVertex(null);
+        Vertex root = graph.addVertex(null);
+        addEdges(user, root, BaseEdge.EdgeType.DATA_ACCESS, BaseEdge.EdgeType.A_READ);
+        Vertex target = null;
+        for (int i = 0; i < width; i++) {
+            Vertex child = graph.addVertex(null);
+            addEdges(root, child, BaseEdge.EdgeType.DATA_ACCESS, BaseEdge.EdgeType.A_READ);
+            addEdges(user, child, BaseEdge.EdgeType.DATA_ACCESS);
+            for (int j = 0; j < width; j++) {
+                Vertex grandChild = graph.addVertex(null);
+                addEdges(child, grandChild, BaseEdge.EdgeType.DATA_ACCESS, BaseEdge.EdgeType.A_READ);
+                target = grandChild;
+            }
+        }
+
+        benchmark("wide", user, target, EnumSet.of(BaseEdge.EdgeType.DATA_ACCESS, BaseEdge.EdgeType.A_READ));
+    }
+
+    private void benchmark(String name, Vertex source, Vertex target, Set<BaseEdge.EdgeType> expected) {
+        Set<BaseEdge.EdgeType> legacy = null;
+        Set<BaseEdge.EdgeType> forward = null;
+        Set<BaseEdge.EdgeType> reverse = null;
+
+        // Warm up both before timing
+        legacyEdgeTypes(source, target);
+        new ReachabilityQuery(true).reachableEdgeTypes(source, target, ALL_TYPES);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            legacy = legacyEdgeTypes(source, target);
+        }
+        long legacyNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            forward = new ReachabilityQuery(false).reachableEdgeTypes(source, target, ALL_TYPES);
+        }
+        long forwardNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            reverse = new ReachabilityQuery(true).reachableEdgeTypes(source, target, ALL_TYPES);
+        }
+        long reverseNanos = System.nanoTime() - start;
+
+        logger.info("{} hierarchy, {} iterations: gremlin per edge type {} ms, single traversal {} ms, " +
+                "with reverse search {} ms", name, ITERATIONS, legacyNanos / 1000000, forwardNanos / 1000000,
+                reverseNanos / 1000000);
+        Assert.assertEquals(expected, legacy);
+        Assert.assertEquals(expected, forward);
+        Assert.assertEquals(expected, reverse);
+    }
+
+    private void addEdges(Vertex from, Vertex to, BaseEdge.EdgeType... types) {
+        for (BaseEdge.EdgeType type : types) {
+            from.addEdge(type.toString(), to);
+        }
+    }
+
+    private static BaseEdge.EdgeType[] allBut(BaseEdge.EdgeType excluded) {
+        Set<BaseEdge.EdgeType> types = EnumSet.allOf(BaseEdge.EdgeType.class);
+        types.remove(excluded);
+        return types.toArray(new BaseEdge.EdgeType[types.size()]);
+    }
+
+    /**
+     * The traversal EzGroupsGraph.pathExists used to make, once per edge type
+     */
+    private static Set<BaseEdge.EdgeType> legacyEdgeTypes(Vertex source, final Vertex target) {
+        Set<BaseEdge.EdgeType> edges = new HashSet<>();
+        for (BaseEdge.EdgeType type : BaseEdge.EdgeType.values()) {
+            boolean exists = new GremlinPipeline<Vertex, Vertex>(source)
+                    .as("find_create_child_path")
+                    .outE(type.toString())
+                    .gather().scatter()
+                    .inV()
+                    .loop("find_create_child_path", new PipeFunction<LoopPipe.LoopBundle<Vertex>, Boolean>() {
+                        @Override
+                        public Boolean compute(LoopPipe.LoopBundle<Vertex> loopBundle) {
+                            return !loopBundle.getObject().getId().equals(target.getId());
+                        }
+                    }).hasNext();
+            if (exists) {
+                edges.add(type);
+            }
+        }
+        return edges;
+    }
+
+}
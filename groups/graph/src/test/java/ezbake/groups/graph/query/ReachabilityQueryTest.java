@@ -0,0 +1,155 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.groups.graph.query;
+
+import com.google.common.collect.Sets;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Graph;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.impls.tg.TinkerGraph;
+import ezbake.groups.graph.frames.edge.BaseEdge;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class ReachabilityQueryTest {
+    private static final List<BaseEdge.EdgeType> ALL_TYPES = Arrays.asList(BaseEdge.EdgeType.values());
+
+    private Graph graph;
+
+    @Before
+    public void setUp() {
+        graph = new TinkerGraph();
+    }
+
+    @Test
+    public void testEdgeTypesAreFollowedSeparately() {
+        Vertex v1 = graph.addVertex(null);
+        Vertex v2 = graph.addVertex(null);
+        Vertex v3 = graph.addVertex(null);
+        addEdges(v1, v2, BaseEdge.EdgeType.A_READ, BaseEdge.EdgeType.DATA_ACCESS);
+        addEdges(v2, v3, BaseEdge.EdgeType.A_WRITE, BaseEdge.EdgeType.DATA_ACCESS);
+
+        for (boolean reverse : new boolean[]{false, true}) {
+            ReachabilityQuery query = new ReachabilityQuery(reverse);
+            Assert.assertEquals(EnumSet.of(BaseEdge.EdgeType.DATA_ACCESS),
+                    query.reachableEdgeTypes(v1, v3, ALL_TYPES));
+            Assert.assertEquals(EnumSet.of(BaseEdge.EdgeType.A_READ, BaseEdge.EdgeType.DATA_ACCESS),
+                    query.reachableEdgeTypes(v1, v2, ALL_TYPES));
+            Assert.assertTrue(query.reachableEdgeTypes(v3, v1, ALL_TYPES).isEmpty());
+
+            // A path for several labels may mix them
+            Assert.assertTrue(query.pathExists(v1, v3, BaseEdge.EdgeType.A_READ.toString(),
+                    BaseEdge.EdgeType.A_WRITE.toString()));
+            Assert.assertFalse(query.pathExists(v1, v3, BaseEdge.EdgeType.A_READ.toString()));
+        }
+    }
+
+    @Test
+    public void testPathToSelfNeedsACycle() {
+        Vertex v1 = graph.addVertex(null);
+        Vertex v2 = graph.addVertex(null);
+        addEdges(v1, v2, BaseEdge.EdgeType.A_READ, BaseEdge.EdgeType.A_MANAGE);
+        addEdges(v2, v1, BaseEdge.EdgeType.A_READ);
+
+        ReachabilityQuery query = new ReachabilityQuery(true);
+        Assert.assertEquals(EnumSet.of(BaseEdge.EdgeType.A_READ), query.reachableEdgeTypes(v1, v1, ALL_TYPES));
+        Assert.assertTrue(query.reachableEdgeTypes(graph.addVertex(null), v1, ALL_TYPES).isEmpty());
+    }
+
+    @Test
+    public void testCyclesWithoutTargetTerminate() {
+        Vertex v1 = graph.addVertex(null);
+        Vertex v2 = graph.addVertex(null);
+        Vertex v3 = graph.addVertex(null);
+        Vertex target = graph.addVertex(null);
+        addEdges(v1, v2, BaseEdge.EdgeType.A_READ);
+        addEdges(v2, v3, BaseEdge.EdgeType.A_READ);
+        addEdges(v3, v1, BaseEdge.EdgeType.A_READ);
+        addEdges(v3, target, BaseEdge.EdgeType.A_WRITE);
+
+        Assert.assertFalse(new ReachabilityQuery(false).pathExists(v1, target, BaseEdge.EdgeType.A_READ.toString()));
+        Assert.assertFalse(new ReachabilityQuery(true).pathExists(v1, target, BaseEdge.EdgeType.A_READ.toString()));
+    }
+
+    /**
+     * Compare both search directions with a reference search, one edge type at a time, on random graphs with cycles
+     */
+    @Test
+    public void testMatchesReferenceOnRandomGraphs() {
+        Random random = new Random(7);
+        BaseEdge.EdgeType[] types = BaseEdge.EdgeType.values();
+        for (int round = 0; round < 20; round++) {
+            Graph randomGraph = new TinkerGraph();
+            Vertex[] vertices = new Vertex[30];
+            for (int i = 0; i < vertices.length; i++) {
+                vertices[i] = randomGraph.addVertex(null);
+            }
+            for (int i = 0; i < 80; i++) {
+                addEdges(vertices[random.nextInt(vertices.length)], vertices[random.nextInt(vertices.length)],
+                        types[random.nextInt(types.length)]);
+            }
+
+            for (int i = 0; i < 30; i++) {
+                Vertex source = vertices[random.nextInt(vertices.length)];
+                Vertex target = vertices[random.nextInt(vertices.length)];
+                Set<BaseEdge.EdgeType> expected = EnumSet.noneOf(BaseEdge.EdgeType.class);
+                for (BaseEdge.EdgeType type : types) {
+                    if (referencePathExists(source, target, type.toString())) {
+                        expected.add(type);
+                    }
+                }
+                for (boolean reverse : new boolean[]{false, true}) {
+                    Assert.assertEquals(expected,
+                            new ReachabilityQuery(reverse).reachableEdgeTypes(source, target, ALL_TYPES));
+                }
+            }
+        }
+    }
+
+    private void addEdges(Vertex from, Vertex to, BaseEdge.EdgeType... types) {
+        for (BaseEdge.EdgeType type : types) {
+            from.addEdge(type.toString(), to);
+        }
+    }
+
+    private static boolean referencePathExists(Vertex source, Vertex target, String label) {
+        Set<Object> visited = Sets.newHashSet();
+        List<Vertex> stack = new ArrayList<>();
+        stack.add(source);
+        while (!stack.isEmpty()) {
+            Vertex vertex = stack.remove(stack.size() - 1);
+            for (Edge edge : vertex.getEdges(Direction.OUT, label)) {
+                Vertex next = edge.getVertex(Direction.IN);
+                if (next.getId().equals(target.getId())) {
+                    return true;
+                }
+                if (visited.add(next.getId())) {
+                    stack.add(next);
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,263 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.ins.thrift.impl;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Sets;
+
+import ezbake.common.ins.INSUtility;
+import ezbake.ins.thrift.gen.AppService;
+import ezbake.ins.thrift.gen.Application;
+import ezbake.ins.thrift.gen.ApplicationSummary;
+import ezbake.ins.thrift.gen.BroadcastTopic;
+import ezbake.ins.thrift.gen.FeedPipeline;
+import ezbake.ins.thrift.gen.ListenerPipeline;
+import ezbake.ins.thrift.gen.WebApplicationLink;
+
+/**
+ * Immutable snapshot of all application registrations, indexed for the lookups INS serves without a user token.
+ * A new snapshot is built whenever the registry version changes and swapped in as a whole, so readers never lock.
+ *
+ * Everything handed out is a copy; callers are free to modify the returned objects.
+ */
+public class ApplicationRegistry {
+    private final String version;
+    private final Map<String, Application> applicationsById;
+    private final Map<String, Map<String, String>> uriPrefixesByApp;
+    private final Map<String, Map<String, Set<String>>> feedTopicsByApp;
+    private final Map<String, Set<WebApplicationLink>> webAppsByUriPrefix;
+    private final Map<String, Set<AppService>> appsByIntent;
+    private final Set<String> uriPrefixes;
+    private final Set<String> appBroadcastTopicNames;
+    private final Set<ApplicationSummary> summaries;
+
+    private ApplicationRegistry(String version, Map<String, Application> applicationsById,
+                                Map<String, Map<String, String>> uriPrefixesByApp,
+                                Map<String, Map<String, Set<String>>> feedTopicsByApp,
+                                Map<String, Set<WebApplicationLink>> webAppsByUriPrefix,
+                                Map<String, Set<AppService>> appsByIntent, Set<String> uriPrefixes,
+                                Set<String> appBroadcastTopicNames, Set<ApplicationSummary> summaries) {
+        this.version = version;
+        this.applicationsById = applicationsById;
+        this.uriPrefixesByApp = uriPrefixesByApp;
+        this.feedTopicsByApp = feedTopicsByApp;
+        this.webAppsByUriPrefix = webAppsByUriPrefix;
+        this.appsByIntent = appsByIntent;
+        this.uriPrefixes = uriPrefixes;
+        this.appBroadcastTopicNames = appBroadcastTopicNames;
+        this.summaries = summaries;
+    }
+
+    /**
+     * Build a snapshot of the given applications
+     *
+     * @param version      the registry version the applications were read at
+     * @param applications all registered applications
+     * @return the snapshot
+     */
+    public static ApplicationRegistry build(String version, Collection<Application> applications) {
+        Map<String, Application> byId = new HashMap<>();
+        Map<String, Map<String, String>> uriPrefixesByApp = new HashMap<>();
+        Map<String, Map<String, Set<String>>> feedTopicsByApp = new HashMap<>();
+        Map<String, Set<WebApplicationLink>> webApps = new HashMap<>();
+        Map<String, Set<AppService>> intents = new HashMap<>();
+        Set<String> prefixes = new HashSet<>();
+        Set<String> topics = new HashSet<>();
+        Set<ApplicationSummary> summaries = new HashSet<>();
+
+        for (Application app : applications) {
+            byId.put(app.getId(), app);
+
+            Map<String, String> appPrefixes = new HashMap<>();
+            if (app.isSetCategories()) {
+                for (Map.Entry<String, String> entry : app.getCategories().entrySet()) {
+                    String uriPrefix = INSUtility.buildUriPrefix(entry.getValue(), entry.getKey());
+                    prefixes.add(uriPrefix);
+                    if (!Strings.isNullOrEmpty(entry.getValue())) {
+                        appPrefixes.put(entry.getKey(), uriPrefix);
+                    }
+                }
+            }
+            uriPrefixesByApp.put(app.getId(), Collections.unmodifiableMap(appPrefixes));
+
+            if (app.isSetWebApp() && app.getWebApp().isSetUrnMap()) {
+                for (Map.Entry<String, WebApplicationLink> entry : app.getWebApp().getUrnMap().entrySet()) {
+                    if (entry.getValue() == null) {
+                        continue;
+                    }
+                    WebApplicationLink link = new WebApplicationLink(entry.getValue());
+                    link.setAppName(app.getAppName());
+                    String requiredGroup = app.getWebApp().getRequiredGroupName();
+                    if (app.getWebApp().isSetRequiredGroupName() && !requiredGroup.trim().isEmpty()) {
+                        link.setRequiredGroupName(requiredGroup);
+                    }
+                    getOrCreate(webApps, entry.getKey()).add(link);
+                }
+            }
+
+            if (app.isSetIntentServiceMap()) {
+                for (Map.Entry<String, String> entry : app.getIntentServiceMap().entrySet()) {
+                    getOrCreate(intents, entry.getKey()).add(new AppService(app.getAppName(), entry.getValue()));
+                }
+            }
+
+            Map<String, Set<String>> feedTopics = new HashMap<>();
+            if (app.isSetFeedPipelines()) {
+                for (FeedPipeline feed : app.getFeedPipelines()) {
+                    addTopicNames(feed.getBroadcastTopics(), topics);
+                    addFeedTopics(feed.getFeedName(), feed.getBroadcastTopics(), feedTopics);
+                }
+            }
+            if (app.isSetListenerPipelines()) {
+                for (ListenerPipeline listener : app.getListenerPipelines()) {
+                    addTopicNames(listener.getBroadcastTopics(), topics);
+                    addFeedTopics(listener.getFeedName(), listener.getBroadcastTopics(), feedTopics);
+                }
+            }
+            feedTopicsByApp.put(app.getId(), immutable(feedTopics));
+
+            ApplicationSummary summary = new ApplicationSummary().setAppName(app.getAppName()).
+                    setId(app.getId()).setPoc(app.getPoc()).
+                    setSponsoringOrganization(app.getSponsoringOrganization());
+            if (app.isSetWebApp()) {
+                summary.setExternalUri(app.getWebApp().getExternalUri());
+            }
+            summaries.add(summary);
+        }
+
+        return new ApplicationRegistry(version, Collections.unmodifiableMap(byId),
+                Collections.unmodifiableMap(uriPrefixesByApp), Collections.unmodifiableMap(feedTopicsByApp),
+                immutable(webApps), immutable(intents),
+                Collections.unmodifiableSet(prefixes), Collections.unmodifiableSet(topics),
+                Collections.unmodifiableSet(summaries));
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * @return a copy of the application, or null if it is not registered
+     */
+    public Application getApplication(String appId) {
+        Application app = applicationsById.get(appId);
+        return app == null ? null : new Application(app);
+    }
+
+    /**
+     * @return the URI prefix for the category key of the application, or null if the application or category is not
+     * registered
+     */
+    public String getURIPrefix(String appId, String categoryKey) {
+        Map<String, String> appPrefixes = uriPrefixesByApp.get(appId);
+        return appPrefixes == null ? null : appPrefixes.get(categoryKey);
+    }
+
+    /**
+     * @return the broadcast topics of the application's feed and listener pipelines for the feed, the feed name is
+     * matched ignoring case, or null if the application is not registered
+     */
+    public Set<String> getTopicsForFeed(String appId, String feedName) {
+        Map<String, Set<String>> feedTopics = feedTopicsByApp.get(appId);
+        if (feedTopics == null) {
+            return null;
+        }
+        Set<String> topics = new HashSet<>();
+        if (feedName != null) {
+            Set<String> registered = feedTopics.get(feedName.toLowerCase(Locale.ENGLISH));
+            if (registered != null) {
+                topics.addAll(registered);
+            }
+        }
+        return topics;
+    }
+
+    public Set<String> getURIPrefixes() {
+        return Sets.newHashSet(uriPrefixes);
+    }
+
+    public Set<WebApplicationLink> getWebAppsForUriPrefix(String uriPrefix) {
+        Set<WebApplicationLink> links = new HashSet<>();
+        Set<WebApplicationLink> registered = webAppsByUriPrefix.get(uriPrefix);
+        if (registered != null) {
+            for (WebApplicationLink link : registered) {
+                links.add(new WebApplicationLink(link));
+            }
+        }
+        return links;
+    }
+
+    public Set<AppService> getAppsThatSupportIntent(String intentName) {
+        Set<AppService> services = new HashSet<>();
+        Set<AppService> registered = appsByIntent.get(intentName);
+        if (registered != null) {
+            for (AppService service : registered) {
+                services.add(new AppService(service));
+            }
+        }
+        return services;
+    }
+
+    public Set<String> getAppBroadcastTopicNames() {
+        return Sets.newHashSet(appBroadcastTopicNames);
+    }
+
+    public Set<ApplicationSummary> getAllApplicationsSummary() {
+        Set<ApplicationSummary> result = new HashSet<>();
+        for (ApplicationSummary summary : summaries) {
+            result.add(new ApplicationSummary(summary));
+        }
+        return result;
+    }
+
+    private static void addTopicNames(Set<BroadcastTopic> broadcastTopics, Set<String> names) {
+        if (broadcastTopics != null) {
+            for (BroadcastTopic topic : broadcastTopics) {
+                names.add(topic.getName());
+            }
+        }
+    }
+
+    private static void addFeedTopics(String feedName, Set<BroadcastTopic> broadcastTopics,
+                                      Map<String, Set<String>> feedTopics) {
+        if (feedName != null && broadcastTopics != null) {
+            addTopicNames(broadcastTopics, getOrCreate(feedTopics, feedName.toLowerCase(Locale.ENGLISH)));
+        }
+    }
+
+    private static <T> Set<T> getOrCreate(Map<String, Set<T>> map, String key) {
+        Set<T> values = map.get(key);
+        if (values == null) {
+            values = new HashSet<>();
+            map.put(key, values);
+        }
+        return values;
+    }
+
+    private static <T> Map<String, Set<T>> immutable(Map<String, Set<T>> map) {
+        for (Map.Entry<String, Set<T>> entry : map.entrySet()) {
+            entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(map);
+    }
+}
@@ -19,6 +19,10 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.thrift.TBase;
 import org.apache.thrift.TException;
@@ -36,6 +40,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import ezbake.base.thrift.EzBakeBaseThriftService;
 import ezbake.base.thrift.EzSecurityToken;
@@ -78,6 +83,7 @@ public class InternalNameServiceHandler extends EzBakeBaseThriftService implemen
     public static final String INSMode = "ins.use.dev.mode";
     public static final String DefaultVisibilityProperty = "ins.default.visibility";
     public static final String DevModePrefix = "DEV";
+    public static final String RegistryRefreshSecondsProperty = "ins.registry.refresh.seconds";
 
     private static final Logger logger = LoggerFactory.getLogger(InternalNameServiceHandler.class);
 
@@ -86,6 +92,9 @@ public class InternalNameServiceHandler extends EzBakeBaseThriftService implemen
     private static final String SystemTopicIndex = "Ins_SystemTopic";
     private static final String FeedIndex = "Ins_Feed";
     private static final String ApplicationIndex = "Ins_App";
+    private static final short ApplicationPageSize = 1000;
+    private static final String RegistryVersionIndex = "Ins_RegistryVersion";
+    private static final String RegistryVersionId = "version";
 
     private static final String AllowedUsersField = "allowedUsers";
     private static final String CategoriesField = "categories";
@@ -104,6 +113,9 @@ public class InternalNameServiceHandler extends EzBakeBaseThriftService implemen
     private String applicationSecurityId;
     private String deployerSecurityId;
     private boolean inDevMode = false;
+    private boolean useFakeToken = false;
+    private volatile ApplicationRegistry registry;
+    private ScheduledExecutorService registryRefresher;
 
     /**
      * default constructor for thrift runner
@@ -158,6 +170,7 @@ public class InternalNameServiceHandler extends EzBakeBaseThriftService implemen
         for (FeedPipeline pipeline : application.getFeedPipelines()) {
             addDocument(application.getId() + "_" + pipeline.getFeedName(), FeedIndex, getThriftJson(pipeline), ezSecurityToken);
         }
+        registryChanged();
         return true;
     }
 
@@ -177,6 +190,7 @@ public class InternalNameServiceHandler extends EzBakeBaseThriftService implemen
         for (FeedPipeline pipeline : application.getFeedPipelines()) {
             delete(application.getId() + "_" + pipeline.getFeedName(), FeedIndex, ezSecurityToken);
         }
+        registryChanged();
         return true;
     }
 
@@ -300,6 +314,12 @@ public class InternalNameServiceHandler extends EzBakeBaseThriftService implemen
             }
             application = getApplication(appId, token);
         } else {
+            ApplicationRegistry current = registry;
+            Set<String> registered = current != null ? current.getTopicsForFeed(appId, feedName) : null;
+            if (registered != null) {
+                return registered;
+            }
+            // Not in the local registry, it may have been registered through another INS instance since the refresh
             application = getApplication(appId);
         }
 
@@ -354,6 +374,15 @@ public class InternalNameServiceHandler extends EzBakeBaseThriftService implemen
             return INSUtility.buildUriPrefix(DevModePrefix, categoryKey);
         }
 
+        ApplicationRegistry current = registry;
+        if (current != null) {
+            String uriPrefix = current.getURIPrefix(appId, categoryKey);
+            if (uriPrefix != null) {
+                return uriPrefix;
+            }
+        }
+
+        // Not in the local registry, it may have been registered through another INS instance since the last refresh
         Application application = getApplication(appId, getSecurityToken());
         String category = application.getCategories().get(categoryKey);
         if (!Strings.isNullOrEmpty(category)) {
@@ -373,6 +402,11 @@ public class InternalNameServiceHandler extends EzBakeBaseThriftService implemen
     public Set<String> getURIPrefixes() throws TException {
         logger.trace("Getting URI Prefixes");
         devModeUnsupported();
+        ApplicationRegistry current = registry;
+        if (current != null) {
+            return current.getURIPrefixes();
+        }
+
         Set<String> uris = Sets.newHashSet();
         Set<Application> apps = getApplications(getExistsQuery(CategoriesField, ""), getSecurityToken());
 
@@ -403,6 +437,11 @@ public class InternalNameServiceHandler extends EzBakeBaseThriftService implemen
         }
 
         String uriPrefix = INSUtility.getUriPrefix(uri);
+        ApplicationRegistry current = registry;
+        if (current != null) {
+            return current.getWebAppsForUriPrefix(uriPrefix);
+        }
+
         Set<WebApplicationLink> webApps = Sets.newHashSet();
         Set<Application> apps = getApplications(getExistsQuery(UrnMapField + ".", uriPrefix), getSecurityToken());
 
@@ -521,6 +560,7 @@ public class InternalNameServiceHandler extends EzBakeBaseThriftService implemen
         try {
             Application application = objectMapper.readValue(exportedApplication, Application.class);
             addDocument(application.id, ApplicationIndex, exportedApplication, securityToken);
+            registryChanged();
             return application;
         } catch (Exception ex) {
             throw new TException("Not a valid application export", ex);
@@ -543,6 +583,11 @@ public class InternalNameServiceHandler extends EzBakeBaseThriftService implemen
             return result;
         }
 
+        ApplicationRegistry current = registry;
+        if (current != null) {
+            return current.getAppsThatSupportIntent(intentName);
+        }
+
         Set<Application> apps = getApplications(getExistsQuery(IntentServiceMapField + ".", intentName), getSecurityToken());
         for (Application app : apps) {
             result.add(new AppService(app.getAppName(), app.getIntentServiceMap().get(intentName)));
@@ -619,8 +664,13 @@ public class InternalNameServiceHandler extends EzBakeBaseThriftService implemen
      */
     @Override
     public Set<ApplicationSummary> getAllApplicationsSummary() throws TException {
+        ApplicationRegistry current = registry;
+        if (current != null) {
+            return current.getAllApplicationsSummary();
+        }
+
         Set<ApplicationSummary> result = new HashSet<>();
-        Set<Application> allApps = getApplications("*", getSecurityToken());
+        Set<Application> allApps = getAllApplications(getSecurityToken());
 
         for (Application app : allApps) {
             ApplicationSummary summary = new ApplicationSummary().setAppName(app.getAppName()).
@@ -644,6 +694,7 @@ public class InternalNameServiceHandler extends EzBakeBaseThriftService implemen
         objectMapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
         EzProperties configuration = new EzProperties(getConfigurationProperties(), true);
         inDevMode = configuration.getBoolean(INSMode, false);
+        useFakeToken = configuration.getBoolean("ezbake.security.fake.token", false);
         EzBakeApplicationConfigurationHelper appHelper = new EzBakeApplicationConfigurationHelper(configuration);
         if (Strings.isNullOrEmpty(appHelper.getApplicationName())) {
             //Might not have a config file for this service.
@@ -668,11 +719,32 @@ public class InternalNameServiceHandler extends EzBakeBaseThriftService implemen
             } finally {
                 pool.returnToPool(elasticService);
             }
+
+            long refreshSeconds = configuration.getLong(RegistryRefreshSecondsProperty, 60);
+            registryRefresher = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ins-registry-refresh-%d").build());
+            registryRefresher.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refreshRegistry(false);
+                    } catch (Exception e) {
+                        logger.error("Failed to refresh the application registry", e);
+                    }
+                }
+            }, 0, refreshSeconds, TimeUnit.SECONDS);
         }
 
         return new InternalNameService.Processor(this);
     }
 
+    @Override
+    public void shutdown() {
+        if (registryRefresher != null) {
+            registryRefresher.shutdownNow();
+        }
+    }
+
     @Override
     public boolean ping() {
         if (inDevMode) {
@@ -745,6 +817,29 @@ public class InternalNameServiceHandler extends EzBakeBaseThriftService implemen
     protected Set<Application> getApplications(String query, EzSecurityToken token) throws TException {
         SearchResult results = search(new Query(query), ApplicationIndex, token);
         Set<Application> applications = Sets.newHashSet();
+        readApplications(results, applications);
+        return applications;
+    }
+
+    /**
+     * Get every application, a page at a time since a single query only returns the first page
+     */
+    @VisibleForTesting
+    protected Set<Application> getAllApplications(EzSecurityToken token) throws TException {
+        Set<Application> applications = Sets.newHashSet();
+        int offset = 0;
+        while (true) {
+            Query query = new Query("*").setPage(new Page().setPageSize(ApplicationPageSize).setOffset(offset));
+            SearchResult results = search(query, ApplicationIndex, token);
+            readApplications(results, applications);
+            offset += results.getMatchingDocumentsSize();
+            if (results.getMatchingDocumentsSize() == 0 || offset >= results.getTotalHits()) {
+                return applications;
+            }
+        }
+    }
+
+    private void readApplications(SearchResult results, Set<Application> applications) throws TException {
         for (Document doc : results.getMatchingDocuments()) {
             String json = doc.get_jsonObject();
             try {
@@ -754,7 +849,6 @@ public class InternalNameServiceHandler extends EzBakeBaseThriftService implemen
                 throw new TException(ex);
             }
         }
-        return applications;
     }
 
 
@@ -778,6 +872,16 @@ public class InternalNameServiceHandler extends EzBakeBaseThriftService implemen
 
     }
 
+    private void forceIndexRefresh(EzSecurityToken token) throws TException {
+        //Use the pool again
+        EzElastic.Client elasticService = getElasticServiceClient();
+        try {
+            elasticService.forceIndexRefresh(getElasticServiceToken(token));
+        } finally {
+            pool.returnToPool(elasticService);
+        }
+    }
+
     private void delete(String id, String index, EzSecurityToken token) throws TException {
         //Use the pool again
         EzElastic.Client elasticService = getElasticServiceClient();
@@ -803,7 +907,7 @@ public class InternalNameServiceHandler extends EzBakeBaseThriftService implemen
     }
 
     private EzSecurityToken getElasticServiceToken(EzSecurityToken origToken) throws TException {
-        if (new EzProperties(getConfigurationProperties(), true).getBoolean("ezbake.security.fake.token", false)) {
+        if (useFakeToken) {
             return ThriftTestUtils.generateTestSecurityToken(applicationSecurityId, applicationSecurityId, Lists.newArrayList("U"));
         } else {
             return securityClient.fetchDerivedTokenForApp(origToken, applicationSecurityId);
@@ -817,7 +921,7 @@ public class InternalNameServiceHandler extends EzBakeBaseThriftService implemen
      */
     @VisibleForTesting
     protected EzSecurityToken getSecurityToken() {
-        if (new EzProperties(getConfigurationProperties(), true).getBoolean("ezbake.security.fake.token", false)) {
+        if (useFakeToken) {
             return ThriftTestUtils.generateTestSecurityToken(applicationSecurityId, applicationSecurityId, Lists.newArrayList("U"));
         } else {
             try {
@@ -927,6 +1031,68 @@ public class InternalNameServiceHandler extends EzBakeBaseThriftService implemen
     }
 
 
+    /**
+     * Publish a new registry version so every INS instance rebuilds its snapshot, then rebuild ours right away so
+     * the caller reads its own write.
+     */
+    private void registryChanged() {
+        if (registryRefresher == null) {
+            return;
+        }
+        registry = null;
+        try {
+            addDocument(RegistryVersionId, RegistryVersionIndex,
+                    objectMapper.writeValueAsString(new RegistryVersionDocument(UUID.randomUUID().toString())),
+                    getSecurityToken());
+            refreshRegistry(true);
+        } catch (Exception e) {
+            // Reads go to elastic until the next scheduled refresh succeeds
+            logger.error("Failed to rebuild the application registry", e);
+        }
+    }
+
+    /**
+     * Rebuild the local registry snapshot if the published registry version has changed
+     *
+     * @param force rebuild even if the version has not changed
+     */
+    private synchronized void refreshRegistry(boolean force) throws TException {
+        EzSecurityToken token = getSecurityToken();
+        String version = "";
+        String versionDoc = get(RegistryVersionId, RegistryVersionIndex, token);
+        if (!Strings.isNullOrEmpty(versionDoc)) {
+            try {
+                version = objectMapper.readValue(versionDoc, RegistryVersionDocument.class).version;
+            } catch (Exception ex) {
+                throw new TException(ex);
+            }
+        }
+
+        ApplicationRegistry current = registry;
+        if (!force && current != null && version.equals(current.getVersion())) {
+            return;
+        }
+        // The version is read in real time but the applications are searched, make every write the version
+        // stands for searchable first.  An application saved while paging publishes a new version, so the next
+        // refresh picks it up.
+        forceIndexRefresh(token);
+        registry = ApplicationRegistry.build(version, getAllApplications(token));
+        logger.info("Rebuilt application registry at version {}", version);
+    }
+
+    private static class RegistryVersionDocument {
+        @SuppressWarnings("unused") //needed for serialization
+        public RegistryVersionDocument() {
+
+        }
+
+        public RegistryVersionDocument(String version) {
+            this.version = version;
+        }
+
+        public String version;
+    }
+
     private static class CategoryDocument {
         @SuppressWarnings("unused") //needed for serialization
         public CategoryDocument() {
@@ -954,6 +1120,11 @@ public class InternalNameServiceHandler extends EzBakeBaseThriftService implemen
     }
 
     private Set<String> getAppBroadcastTopicNames() {
+        ApplicationRegistry current = registry;
+        if (current != null) {
+            return current.getAppBroadcastTopicNames();
+        }
+
         Set<String> result = new HashSet<>();
         Set<Application> apps;
         Set<BroadcastTopic> topics = new HashSet<>();
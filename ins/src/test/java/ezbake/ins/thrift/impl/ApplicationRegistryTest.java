@@ -0,0 +1,118 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.ins.thrift.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import ezbake.ins.thrift.gen.AppService;
+import ezbake.ins.thrift.gen.Application;
+import ezbake.ins.thrift.gen.BroadcastTopic;
+import ezbake.ins.thrift.gen.FeedPipeline;
+import ezbake.ins.thrift.gen.ListenerPipeline;
+import ezbake.ins.thrift.gen.WebApplication;
+import ezbake.ins.thrift.gen.WebApplicationLink;
+import ezbake.query.intents.IntentType;
+
+public class ApplicationRegistryTest {
+
+    @Test
+    public void testLookups() {
+        ApplicationRegistry registry = ApplicationRegistry.build("1", Lists.newArrayList(
+                getTestApplication("1234", "My App", "CNN"), getTestApplication("5678", "Other App", "Twitter")));
+
+        assertEquals("1", registry.getVersion());
+        assertEquals("NEWS://CNN/", registry.getURIPrefix("1234", "CNN"));
+        assertNull(registry.getURIPrefix("1234", "Twitter"));
+        assertNull(registry.getURIPrefix("9999", "CNN"));
+        assertEquals(Sets.newHashSet("NEWS://CNN/", "NEWS://Twitter/"), registry.getURIPrefixes());
+
+        WebApplicationLink link = Iterables.getOnlyElement(registry.getWebAppsForUriPrefix("NEWS://CNN/"));
+        assertEquals("My App", link.getAppName());
+        assertEquals("admins", link.getRequiredGroupName());
+        assertTrue(registry.getWebAppsForUriPrefix("NEWS://FOX/").isEmpty());
+
+        Set<AppService> services = registry.getAppsThatSupportIntent(IntentType.ACTIVITY.name());
+        assertEquals(Sets.newHashSet(new AppService("My App", "Service1"), new AppService("Other App", "Service1")), services);
+        assertTrue(registry.getAppsThatSupportIntent(IntentType.IMAGE.name()).isEmpty());
+
+        assertEquals(Sets.newHashSet("CNN", "Twitter", "CNN-Norm", "Twitter-Norm"), registry.getAppBroadcastTopicNames());
+        assertEquals(Sets.newHashSet("CNN"), registry.getTopicsForFeed("1234", "cnn"));
+        assertEquals(Sets.newHashSet("CNN-Norm"), registry.getTopicsForFeed("1234", "CNN-Index"));
+        assertTrue(registry.getTopicsForFeed("1234", "Twitter").isEmpty());
+        assertNull(registry.getTopicsForFeed("9999", "CNN"));
+        assertEquals(2, registry.getAllApplicationsSummary().size());
+    }
+
+    @Test
+    public void testReturnsCopies() {
+        ApplicationRegistry registry = ApplicationRegistry.build("1", Lists.newArrayList(getTestApplication("1234", "My App", "CNN")));
+
+        registry.getApplication("1234").getCategories().clear();
+        Iterables.getOnlyElement(registry.getWebAppsForUriPrefix("NEWS://CNN/")).setAppName("changed");
+        registry.getURIPrefixes().clear();
+        registry.getTopicsForFeed("1234", "CNN").clear();
+
+        assertEquals("NEWS://CNN/", registry.getURIPrefix("1234", "CNN"));
+        assertEquals("My App", Iterables.getOnlyElement(registry.getWebAppsForUriPrefix("NEWS://CNN/")).getAppName());
+        assertEquals(1, registry.getURIPrefixes().size());
+        assertEquals(Sets.newHashSet("CNN"), registry.getTopicsForFeed("1234", "CNN"));
+    }
+
+    private Application getTestApplication(String id, String name, String feedName) {
+        Application a = new Application();
+        a.setId(id);
+        a.setAppName(name);
+        a.setPoc("Unit Tester");
+
+        HashMap<String, String> categories = Maps.newHashMap();
+        categories.put(feedName, "NEWS");
+        a.setCategories(categories);
+
+        FeedPipeline feed = new FeedPipeline();
+        feed.setFeedName(feedName);
+        feed.setBroadcastTopics(Sets.newHashSet(new BroadcastTopic().setName(feedName)));
+        a.setFeedPipelines(Sets.newHashSet(feed));
+
+        ListenerPipeline listener = new ListenerPipeline();
+        listener.setFeedName(feedName + "-Index");
+        listener.setBroadcastTopics(Sets.newHashSet(new BroadcastTopic().setName(feedName + "-Norm")));
+        a.setListenerPipelines(Sets.newHashSet(listener));
+
+        WebApplication webApp = new WebApplication();
+        Map<String, WebApplicationLink> urnMap = new HashMap<>();
+        urnMap.put("NEWS://" + feedName + "/", new WebApplicationLink().setWebUrl("https://apps.some.domain.com/" + feedName));
+        webApp.setUrnMap(urnMap);
+        webApp.setRequiredGroupName("admins");
+        a.setWebApp(webApp);
+
+        Map<String, String> intentServiceMap = Maps.newHashMap();
+        intentServiceMap.put(IntentType.ACTIVITY.name(), "Service1");
+        a.setIntentServiceMap(intentServiceMap);
+        return a;
+    }
+}
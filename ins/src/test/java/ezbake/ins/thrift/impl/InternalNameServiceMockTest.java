@@ -14,30 +14,43 @@
 
 package ezbake.ins.thrift.impl;
 
+import static org.easymock.EasyMock.anyObject;
 import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.createMockBuilder;
 import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
 import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.same;
 import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.easymock.EasyMockRunner;
+import org.easymock.IAnswer;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 import ezbake.base.thrift.EzSecurityToken;
+import ezbake.data.elastic.thrift.Document;
+import ezbake.data.elastic.thrift.EzElastic;
+import ezbake.data.elastic.thrift.Page;
+import ezbake.data.elastic.thrift.Query;
+import ezbake.data.elastic.thrift.SearchResult;
 import ezbake.ins.thrift.gen.Application;
 import ezbake.ins.thrift.gen.BroadcastTopic;
 import ezbake.ins.thrift.gen.FeedPipeline;
+import ezbake.ins.thrift.gen.InternalNameServiceConstants;
 import ezbake.ins.thrift.gen.JobRegistration;
 import ezbake.ins.thrift.gen.ListenerPipeline;
 import ezbake.ins.thrift.gen.WebApplication;
@@ -144,6 +157,46 @@ public class InternalNameServiceMockTest {
         verify(tested, mockClient);
     }
 
+    @Test
+    public void testGetAllApplicationsReadsEveryPage() throws Exception {
+        final int total = 2500;
+        EzbakeSecurityClient mockClient = createMockBuilder(EzbakeSecurityClient.class)
+                .addMockedMethod("fetchDerivedTokenForApp", EzSecurityToken.class, String.class)
+                .createMock();
+        ThriftClientPool mockPool = createMock(ThriftClientPool.class);
+        EzElastic.Client elastic = createMock(EzElastic.Client.class);
+        EzSecurityToken securityTokenMock = createMock(EzSecurityToken.class);
+        InternalNameServiceHandler tested = new InternalNameServiceHandler(mockClient, mockPool, "");
+
+        expect(mockClient.fetchDerivedTokenForApp(securityTokenMock, "")).andReturn(securityTokenMock).anyTimes();
+        expect(mockPool.getClient(InternalNameServiceConstants.SERVICE_NAME, "documentService",
+                EzElastic.Client.class)).andReturn(elastic).anyTimes();
+        mockPool.returnToPool(elastic);
+        expectLastCall().anyTimes();
+        final List<Page> pages = Lists.newArrayList();
+        expect(elastic.query(anyObject(Query.class), same(securityTokenMock))).andAnswer(new IAnswer<SearchResult>() {
+            @Override
+            public SearchResult answer() throws Throwable {
+                Page page = ((Query) getCurrentArguments()[0]).getPage();
+                pages.add(page);
+                SearchResult result = new SearchResult().setTotalHits(total);
+                List<Document> documents = Lists.newArrayList();
+                int offset = (int) page.getOffset();
+                for (int i = offset; i < Math.min(offset + page.getPageSize(), total); i++) {
+                    documents.add(new Document().set_jsonObject("{\"id\":\"" + i + "\",\"appName\":\"app" + i
+                            + "\"}"));
+                }
+                return result.setMatchingDocuments(documents);
+            }
+        }).anyTimes();
+        replay(mockClient, mockPool, elastic);
+
+        Set<Application> applications = tested.getAllApplications(securityTokenMock);
+        assertEquals(total, applications.size());
+        assertEquals(3, pages.size());
+        assertEquals(2000, pages.get(2).getOffset());
+    }
+
     private Application getTestApplication() {
         Application a = new Application();
         a.setAppName("My App");
@@ -60,6 +60,10 @@ public class Client implements ExternalDataSource {
 
     private RedisUtils redisUtils;
 
+    // Redis cost of the batches returned by this client, logged on close
+    private long batches;
+    private long batchRoundTrips;
+
     /**
      *
      */
@@ -182,35 +186,41 @@ public class Client implements ExternalDataSource {
         TGetNextResult result = new TGetNextResult();
         result.setStatus(getOkStatus());
 
+        long roundTripsBefore = RedisUtils.getThreadRoundTrips();
+        ImpalaAppToken appToken;
         GetPageResult pageResult;
 
         try {
-            pageResult = getAppHandler().getNext(scanHandle);
-            result.setEos(pageResult.isEos());
+            // read the scan state once and hand it to the app handler
+            appToken = redisUtils.getImpalaAppToken(scanHandle);
         } catch (TException e) {
-            appLog.error("getNext() failed", e);
+            appLog.error("getImpalaAppToken() failed", e);
             result.setStatus(getFailedStatus(TStatusCode.INTERNAL_ERROR, e.getMessage()));
-
             return result;
         }
 
-        ImpalaAppToken appToken;
-        TRowBatch tRowBatch;
-
         try {
-            appToken = redisUtils.getImpalaAppToken(scanHandle);
+            pageResult = getAppHandler().getNext(appToken);
+            result.setEos(pageResult.isEos());
         } catch (TException e) {
-            appLog.error("getImpalaAppToken() failed", e);
+            appLog.error("getNext() failed", e);
             result.setStatus(getFailedStatus(TStatusCode.INTERNAL_ERROR, e.getMessage()));
+
             return result;
         }
 
-        tRowBatch = generateTRowBatch(pageResult, appToken.getTableSchema());
+        TRowBatch tRowBatch = generateTRowBatch(pageResult, appToken.getTableSchema());
         result.setRows(tRowBatch);
 
         // increment the offset to prepare for next getNext()
         redisUtils.incrementImpalaAppTokenOffSet(scanHandle, tRowBatch.getNum_rows());
 
+        long roundTrips = RedisUtils.getThreadRoundTrips() - roundTripsBefore;
+        batches++;
+        batchRoundTrips += roundTrips;
+        appLog.debug("batch {} of scan {} returned {} rows using {} Redis round trips", batches, scanHandle,
+                tRowBatch.getNum_rows(), roundTrips);
+
         return result;
     }
 
@@ -285,6 +295,7 @@ public class Client implements ExternalDataSource {
         result.setStatus(getOkStatus());
 
         appLog.info("close called with params: {}", params.toString());
+        appLog.info("{} batches used {} Redis round trips", batches, batchRoundTrips);
 
         // mark the entry in Redis as closed using the scan handle
         if (!redisUtils.closeImpalaAppToken(params.getScan_handle())) {
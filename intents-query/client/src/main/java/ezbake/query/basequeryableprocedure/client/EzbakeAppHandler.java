@@ -123,8 +123,18 @@ public class EzbakeAppHandler {
      * @return
      */
     public GetPageResult getNext(String scanHandle) throws TException {
+        return getNext(redisUtils.getImpalaAppToken(scanHandle));
+    }
+
+    /**
+     * Get the next page of the scan described by an app token the caller has already read
+     *
+     * @param token
+     * @return
+     */
+    public GetPageResult getNext(ImpalaAppToken token) throws TException {
         BaseQueryableProcedure.Client c = null;
-        ImpalaAppToken token = redisUtils.getImpalaAppToken(scanHandle);
+        String scanHandle = token.getScanHandle();
         GetPageResult pageResult = null;
 
         appLog.info("getNext with the scanHandle: {}, offset: {}", scanHandle, token.getOffset());
@@ -183,7 +183,7 @@ public class ClientTest extends EasyMockSupport {
         redisUtilsMock.incrementImpalaAppTokenOffSet(scanHandle, 1);
         replay(redisUtilsMock);
 
-        expect(appHandlerMock.getNext(scanHandle)).andReturn(pageresult);
+        expect(appHandlerMock.getNext(appToken)).andReturn(pageresult);
         replay(appHandlerMock);
         client.setAppHandler(appHandlerMock);
 
@@ -240,7 +240,7 @@ public class ClientTest extends EasyMockSupport {
         redisUtilsMock.incrementImpalaAppTokenOffSet(scanHandle, 1);
         replay(redisUtilsMock);
 
-        expect(appHandlerMock.getNext(scanHandle)).andReturn(pageresult);
+        expect(appHandlerMock.getNext(appToken)).andReturn(pageresult);
         replay(appHandlerMock);
         client.setAppHandler(appHandlerMock);
 
@@ -28,18 +28,56 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
-
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 public class RedisUtils {
     private static Logger appLog = LoggerFactory.getLogger(RedisUtils.class);
 
+    public static final String SCAN_TTL_SECONDS = "intents.scan.ttl.seconds";
+    public static final String SECURITY_TOKEN_TTL_SECONDS = "intents.security.token.ttl.seconds";
+
+    // Advances the offset of a scan that is still open, in one round trip
+    private static final String INCREMENT_OFFSET_SCRIPT =
+            "if redis.call('exists', KEYS[1]) == 1 then return redis.call('hincrby', KEYS[1], ARGV[1], ARGV[2]) end " +
+            "return nil";
+
+    private static final int MAX_CACHED_SCANS = 1024;
+
     private static JedisPool jedisPool = null;
 
+    // Everything about an open scan but its offset and closed flag is fixed at open, so it is only read from Redis
+    // once per process and scan handle
+    private static final Map<String, ImpalaAppToken> scanStates = Collections.synchronizedMap(
+            new LinkedHashMap<String, ImpalaAppToken>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ImpalaAppToken> eldest) {
+                    return size() > MAX_CACHED_SCANS;
+                }
+            });
+
+    private static final AtomicLong roundTrips = new AtomicLong();
+    private static final ThreadLocal<long[]> threadRoundTrips = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
     private TDeserializer deserializer;
+    private int scanTtlSeconds;
+    private int securityTokenTtlSeconds;
 
     /**
      * Constructor
@@ -53,6 +91,28 @@ public class RedisUtils {
 
         jedisPool = new JedisPool(redisHost, redisPort);
         deserializer = new TDeserializer();
+        scanTtlSeconds = Integer.parseInt(configuration.getProperties().getProperty(SCAN_TTL_SECONDS, "3600"));
+        securityTokenTtlSeconds = Integer.parseInt(
+                configuration.getProperties().getProperty(SECURITY_TOKEN_TTL_SECONDS, "600"));
+    }
+
+    /**
+     * @return the number of Redis round trips made by all RedisUtils in this process
+     */
+    public static long getRoundTrips() {
+        return roundTrips.get();
+    }
+
+    /**
+     * @return the number of Redis round trips made by the calling thread, to measure the cost of an operation
+     */
+    public static long getThreadRoundTrips() {
+        return threadRoundTrips.get()[0];
+    }
+
+    private static void roundTrip() {
+        roundTrips.incrementAndGet();
+        threadRoundTrips.get()[0]++;
     }
 
     /**
@@ -66,9 +126,29 @@ public class RedisUtils {
     public void put(byte[] key, byte[] value) {
         Jedis jedis = jedisPool.getResource();
         jedis.set(key, value);
+        roundTrip();
         jedis.close();
     }
 
+    /**
+     * put
+     * <p/>
+     * Store into Redis the value byte array using the key byte array, expiring it after the given time
+     *
+     * @param key        - byte array representing key
+     * @param value      - byte array representing value
+     * @param ttlSeconds - seconds until the key expires
+     */
+    public void put(byte[] key, byte[] value, int ttlSeconds) {
+        Jedis jedis = jedisPool.getResource();
+        try {
+            jedis.setex(key, ttlSeconds, value);
+            roundTrip();
+        } finally {
+            jedis.close();
+        }
+    }
+
     /**
      * put
      * <p/>
@@ -92,6 +172,7 @@ public class RedisUtils {
     public byte[] get(byte[] key) {
         Jedis jedis = jedisPool.getResource();
         byte[] result = jedis.get(key);
+        roundTrip();
         jedis.close();
         return result;
     }
@@ -115,6 +196,43 @@ public class RedisUtils {
         return resultString;
     }
 
+    /**
+     * storeSecurityToken
+     * <p/>
+     * Store the EzSecurityToken in Redis under the secUuid key. Opening a scan consumes the token, the security token
+     * TTL only cleans up tokens no scan was opened for.
+     *
+     * @param secUuid       - String key to store the EzSecurityToken under
+     * @param securityToken - the EzSecurityToken
+     */
+    public void storeSecurityToken(String secUuid, EzSecurityToken securityToken) throws TException {
+        put(secUuid.getBytes(), new TSerializer().serialize(securityToken), securityTokenTtlSeconds);
+    }
+
+    /**
+     * storeSecurityTokens
+     * <p/>
+     * Store the EzSecurityToken in Redis under each of the secUuid keys in one round trip, so each scan of a query
+     * can consume its own copy
+     *
+     * @param secUuids      - String keys to store the EzSecurityToken under
+     * @param securityToken - the EzSecurityToken
+     */
+    public void storeSecurityTokens(List<String> secUuids, EzSecurityToken securityToken) throws TException {
+        byte[] serialized = new TSerializer().serialize(securityToken);
+        Jedis jedis = jedisPool.getResource();
+        try {
+            Pipeline pipeline = jedis.pipelined();
+            for (String secUuid : secUuids) {
+                pipeline.setex(secUuid.getBytes(), securityTokenTtlSeconds, serialized);
+            }
+            pipeline.sync();
+            roundTrip();
+        } finally {
+            jedis.close();
+        }
+    }
+
     /**
      * retrieveSecurityToken
      * <p/>
@@ -129,6 +247,7 @@ public class RedisUtils {
 
         try {
             byte[] result = jedis.get(secUuid.getBytes());
+            roundTrip();
 
             if (result != null) {
                 securityToken = new EzSecurityToken();
@@ -141,19 +260,51 @@ public class RedisUtils {
         return securityToken;
     }
 
+    /**
+     * takeSecurityToken
+     * <p/>
+     * Retrieve the EzSecurityToken stored under the secUuid key and delete it in the same transaction, so the token
+     * can only be used once
+     *
+     * @param secUuid - String key value EzSecurityToken is stored under
+     * @return EzSecurityToken or null if not found or already taken
+     */
+    public EzSecurityToken takeSecurityToken(String secUuid) throws TException {
+        EzSecurityToken securityToken = null;
+        Jedis jedis = jedisPool.getResource();
+
+        try {
+            Transaction transaction = jedis.multi();
+            Response<byte[]> result = transaction.get(secUuid.getBytes());
+            transaction.del(secUuid.getBytes());
+            transaction.exec();
+            roundTrip();
+
+            if (result.get() != null) {
+                securityToken = new EzSecurityToken();
+                deserializer.deserialize(securityToken, result.get());
+            }
+        } finally {
+            jedis.close();
+        }
+
+        return securityToken;
+    }
+
     public boolean deleteSecurityToken(String secUuid) {
         boolean result = true;
         Jedis jedis = jedisPool.getResource();
 
-        if (jedis.exists(secUuid)) {
+        try {
             long count = jedis.del(secUuid);
+            roundTrip();
             if (count < 0) {
                 result = false;
             }
+        } finally {
+            jedis.close();
         }
 
-        jedis.close();
-
         return result;
     }
 
@@ -200,8 +351,10 @@ public class RedisUtils {
         // if the secUUID is in the table schema then we need to send a ColumnData object
         // back with NULL values to appease Impala
         boolean secUuidColumnDataInResultSet = checkTableSchemaForSecUuid(tableSchema);
-        EzSecurityToken securityToken = retrieveSecurityToken(secUuid);
-        deleteSecurityToken(secUuid);
+        EzSecurityToken securityToken = takeSecurityToken(secUuid);
+        if (securityToken == null) {
+            throw new TException("No security token for secUuid " + secUuid + ", it expired or was already used");
+        }
 
         appToken.setScanHandle(scanHandle);
         appToken.setTableName(tableName);
@@ -212,43 +365,55 @@ public class RedisUtils {
         appToken.setPredicates(predicates);
         appToken.setUserToken(securityToken);
 
+        TSerializer serializer = new TSerializer();
+        TBinaryPredicateList wrapper = new TBinaryPredicateList();
+        wrapper.setPredicates(predicates);
+
+        Map<byte[], byte[]> fields = new HashMap<>();
+        fields.put(Constants.TABLE_NAME_STR.getBytes(), tableName.getBytes());
+        fields.put(Constants.OFFSET_STR.getBytes(), Integer.toString(appToken.getOffset()).getBytes());
+        fields.put(Constants.BATCHSIZE_STR.getBytes(), Integer.toString(batchSize).getBytes());
+        fields.put(Constants.CLOSED_STR.getBytes(), Boolean.FALSE.toString().getBytes());
+        fields.put(Constants.SECUUID_IN_RESULT_SET_STRING.getBytes(),
+                Boolean.toString(secUuidColumnDataInResultSet).getBytes());
+        fields.put(Constants.TABLESCHEMA_STR.getBytes(), serializer.serialize(tableSchema));
+        fields.put(Constants.USER_AUTHS_STR.getBytes(), serializer.serialize(securityToken));
+        fields.put(Constants.PREDICATES_STR.getBytes(), serializer.serialize(wrapper));
+
         Jedis jedis = jedisPool.getResource();
 
         try {
-            jedis.hset(scanHandle, Constants.TABLE_NAME_STR, tableName);
-            jedis.hset(scanHandle, Constants.OFFSET_STR, Integer.toString(appToken.getOffset()));
-            jedis.hset(scanHandle, Constants.BATCHSIZE_STR, new Integer(batchSize).toString());
-            jedis.hset(scanHandle, Constants.CLOSED_STR, Boolean.FALSE.toString());
-            jedis.hset(scanHandle, Constants.SECUUID_IN_RESULT_SET_STRING, Boolean.toString(secUuidColumnDataInResultSet));
-
-            TSerializer serializer = new TSerializer();
-            byte[] tableSchemaBytes = serializer.serialize(tableSchema);
-            jedis.hset(scanHandle.getBytes(), Constants.TABLESCHEMA_STR.getBytes(), tableSchemaBytes);
-
-            byte[] securityTokenBytes = serializer.serialize(securityToken);
-            jedis.hset(scanHandle.getBytes(), Constants.USER_AUTHS_STR.getBytes(), securityTokenBytes);
-
-            TBinaryPredicateList wrapper = new TBinaryPredicateList();
-            wrapper.setPredicates(predicates);
-
-            byte[] predicateBytes = serializer.serialize(wrapper);
-            jedis.hset(scanHandle.getBytes(), Constants.PREDICATES_STR.getBytes(), predicateBytes);
-
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.hmset(scanHandle.getBytes(), fields);
+            pipeline.expire(scanHandle.getBytes(), scanTtlSeconds);
+            pipeline.sync();
+            roundTrip();
         } finally {
             jedis.close();
         }
 
-        return appToken;
+        scanStates.put(scanHandle, appToken);
+        return copyScanState(appToken, 0, false);
     }
 
-    // increment the offset by page size
+    /**
+     * incrementImpalaAppTokenOffSet
+     * <p/>
+     * Increment the offset of an open scan by page size. Scans that have been closed are left alone.
+     *
+     * @param scanHandle - used as the key in Redis where the app token is stored
+     * @param value      - number of rows to advance the offset by
+     */
     public void incrementImpalaAppTokenOffSet(String scanHandle, long value) {
+        appLog.info("increment offset by " + value);
         Jedis jedis = jedisPool.getResource();
-        if (jedis.exists(scanHandle)) {
-            appLog.info("increment offset by " + value);
-            jedis.hincrBy(scanHandle, Constants.OFFSET_STR, value);
+        try {
+            jedis.eval(INCREMENT_OFFSET_SCRIPT, Collections.singletonList(scanHandle),
+                    Arrays.asList(Constants.OFFSET_STR, Long.toString(value)));
+            roundTrip();
+        } finally {
+            jedis.close();
         }
-        jedis.close();
     }
 
     /**
@@ -259,17 +424,16 @@ public class RedisUtils {
      */
     public boolean closeImpalaAppToken(String scanhandle) {
         appLog.info("Closing the ImpalaAppToken");
-        boolean result = true;
+        scanStates.remove(scanhandle);
         Jedis jedis = jedisPool.getResource();
 
-        if (jedis.exists(scanhandle)) {
-            jedis.del(scanhandle.getBytes());
-        } else {
-            result = false;
+        try {
+            boolean result = jedis.del(scanhandle.getBytes()) > 0;
+            roundTrip();
+            return result;
+        } finally {
+            jedis.close();
         }
-
-        jedis.close();
-        return result;
     }
 
     /**
@@ -282,13 +446,31 @@ public class RedisUtils {
      */
     public ImpalaAppToken getImpalaAppToken(String scanHandle) throws TException {
         appLog.info("getImpalaAppToken using scanHandle: {}", scanHandle);
-        ImpalaAppToken appToken = new ImpalaAppToken();
-        appToken.setScanHandle(scanHandle);
+        ImpalaAppToken scanState = scanStates.get(scanHandle);
         Jedis jedis = jedisPool.getResource();
 
-        Map<byte[], byte[]> m = jedis.hgetAll(scanHandle.getBytes());
-
         try {
+            if (scanState != null) {
+                // Only the offset and closed flag change after open
+                List<byte[]> values = jedis.hmget(scanHandle.getBytes(), Constants.OFFSET_STR.getBytes(),
+                        Constants.CLOSED_STR.getBytes());
+                roundTrip();
+                if (values.get(0) == null) {
+                    scanStates.remove(scanHandle);
+                    throw new TException("No open scan for scan handle " + scanHandle);
+                }
+                return copyScanState(scanState, convertBytesToInteger(values.get(0)),
+                        values.get(1) != null && convertBytesToBoolean(values.get(1)));
+            }
+
+            Map<byte[], byte[]> m = jedis.hgetAll(scanHandle.getBytes());
+            roundTrip();
+            if (m.isEmpty()) {
+                throw new TException("No open scan for scan handle " + scanHandle);
+            }
+
+            ImpalaAppToken appToken = new ImpalaAppToken();
+            appToken.setScanHandle(scanHandle);
             String tablename = new String(m.get(Constants.TABLE_NAME_STR.getBytes()));
             appToken.setTableName(tablename);
             appToken.setClosed(convertBytesToBoolean(m.get(Constants.CLOSED_STR.getBytes())));
@@ -298,9 +480,33 @@ public class RedisUtils {
             appToken.setTableSchema(convertBytesToTableSchema(m.get(Constants.TABLESCHEMA_STR.getBytes())));
             appToken.setUserToken(convertBytesToEzSecurityToken(m.get(Constants.USER_AUTHS_STR.getBytes())));
             appToken.setSecUuidInResultSet(convertBytesToBoolean(m.get(Constants.SECUUID_IN_RESULT_SET_STRING.getBytes())));
+
+            scanStates.put(scanHandle, appToken);
+            return copyScanState(appToken, appToken.getOffset(), appToken.isClosed());
         } finally {
             jedis.close();
         }
+    }
+
+    /**
+     * Helper method to create the app token of a scan from its cached state
+     *
+     * @param scanState
+     * @param offset
+     * @param closed
+     * @return ImpalaAppToken
+     */
+    private ImpalaAppToken copyScanState(ImpalaAppToken scanState, int offset, boolean closed) {
+        ImpalaAppToken appToken = new ImpalaAppToken();
+        appToken.setScanHandle(scanState.getScanHandle());
+        appToken.setTableName(scanState.getTableName());
+        appToken.setBatchsize(scanState.getBatchsize());
+        appToken.setPredicates(scanState.getPredicates());
+        appToken.setTableSchema(scanState.getTableSchema());
+        appToken.setUserToken(scanState.getUserToken());
+        appToken.setSecUuidInResultSet(scanState.isSecUuidInResultSet());
+        appToken.setOffset(offset);
+        appToken.setClosed(closed);
         return appToken;
     }
 
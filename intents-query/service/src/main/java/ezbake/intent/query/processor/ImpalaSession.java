@@ -0,0 +1,71 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.intent.query.processor;
+
+import com.cloudera.impala.thrift.ImpalaHiveServer2Service;
+import org.apache.hive.service.cli.thrift.TCloseSessionReq;
+import org.apache.hive.service.cli.thrift.TSessionHandle;
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An open Impala connection and session, owned by the {@link ImpalaSessionPool} it was borrowed from.
+ */
+public class ImpalaSession {
+    private static final Logger appLog = LoggerFactory.getLogger(ImpalaSession.class);
+
+    private final TTransport transport;
+    private final ImpalaHiveServer2Service.Client client;
+    private final TSessionHandle sessionHandle;
+    private volatile long lastUsed;
+
+    ImpalaSession(TTransport transport, ImpalaHiveServer2Service.Client client, TSessionHandle sessionHandle) {
+        this.transport = transport;
+        this.client = client;
+        this.sessionHandle = sessionHandle;
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    public ImpalaHiveServer2Service.Client getClient() {
+        return client;
+    }
+
+    public TSessionHandle getSessionHandle() {
+        return sessionHandle;
+    }
+
+    long getLastUsed() {
+        return lastUsed;
+    }
+
+    void touch() {
+        lastUsed = System.currentTimeMillis();
+    }
+
+    void close() {
+        if (client != null && sessionHandle != null) {
+            try {
+                client.CloseSession(new TCloseSessionReq(sessionHandle));
+            } catch (TException e) {
+                appLog.error("failed close session", e);
+            }
+        }
+        if (transport != null) {
+            transport.close();
+        }
+    }
+}
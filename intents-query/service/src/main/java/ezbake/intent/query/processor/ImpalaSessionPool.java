@@ -0,0 +1,282 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.intent.query.processor;
+
+import com.cloudera.impala.thrift.ImpalaHiveServer2Service;
+import org.apache.hive.service.cli.thrift.TGetInfoReq;
+import org.apache.hive.service.cli.thrift.TGetInfoResp;
+import org.apache.hive.service.cli.thrift.TGetInfoType;
+import org.apache.hive.service.cli.thrift.TOpenSessionReq;
+import org.apache.hive.service.cli.thrift.TOpenSessionResp;
+import org.apache.hive.service.cli.thrift.TProtocolVersion;
+import org.apache.hive.service.cli.thrift.TStatus;
+import org.apache.hive.service.cli.thrift.TStatusCode;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransportException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of open Impala sessions. At most maxSessions sessions are borrowed or idle at a time; borrowers wait for
+ * a session to be released once the pool is exhausted.
+ *
+ * Sessions that sat idle longer than the validation interval are health checked before they are handed out, and a
+ * background task closes sessions that have been idle longer than the idle timeout.
+ */
+public class ImpalaSessionPool {
+    private static final Logger appLog = LoggerFactory.getLogger(ImpalaSessionPool.class);
+
+    private final String host;
+    private final int port;
+    private final int socketTimeoutMillis;
+    private final int maxSessions;
+    private final long idleTimeoutMillis;
+    private final long validateAfterMillis;
+
+    private final Semaphore permits;
+    // Most recently used first, so that surplus sessions stay idle long enough to be evicted
+    private final LinkedBlockingDeque<ImpalaSession> idle = new LinkedBlockingDeque<>();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed;
+
+    private final AtomicInteger openSessions = new AtomicInteger();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong healthCheckFailures = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+
+    public ImpalaSessionPool(String host, int port, int socketTimeoutMillis, int maxSessions, long idleTimeoutMillis,
+                             long validateAfterMillis) {
+        this.host = host;
+        this.port = port;
+        this.socketTimeoutMillis = socketTimeoutMillis;
+        this.maxSessions = maxSessions;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validateAfterMillis = validateAfterMillis;
+        this.permits = new Semaphore(maxSessions, true);
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "impala-session-evictor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long evictionInterval = Math.max(1000, idleTimeoutMillis / 2);
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                evictIdle();
+            }
+        }, evictionInterval, evictionInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrow a session, opening a new one if no idle session is available. The session must be handed back with
+     * {@link #release(ImpalaSession, boolean)}.
+     *
+     * @param timeout how long to wait for a session if all of them are in use
+     * @param unit unit of the timeout
+     * @return an open session
+     * @throws TException if no session became available in time or a new session could not be opened
+     */
+    public ImpalaSession borrow(long timeout, TimeUnit unit) throws TException {
+        if (closed) {
+            throw new TException("Impala session pool is closed");
+        }
+
+        try {
+            if (!permits.tryAcquire()) {
+                waits.incrementAndGet();
+                if (!permits.tryAcquire(timeout, unit)) {
+                    throw new TException("Timed out waiting for one of " + maxSessions + " Impala sessions");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TException("Interrupted waiting for an Impala session", e);
+        }
+
+        try {
+            ImpalaSession session;
+            while ((session = idle.pollFirst()) != null) {
+                if (System.currentTimeMillis() - session.getLastUsed() < validateAfterMillis || isHealthy(session)) {
+                    session.touch();
+                    return session;
+                }
+                appLog.info("Discarding Impala session that failed its health check");
+                healthCheckFailures.incrementAndGet();
+                discard(session);
+            }
+
+            session = openSession();
+            openSessions.incrementAndGet();
+            created.incrementAndGet();
+            return session;
+        } catch (TException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Hand a borrowed session back to the pool
+     *
+     * @param session the borrowed session
+     * @param broken whether the session's connection failed, in which case it is closed instead of reused
+     */
+    public void release(ImpalaSession session, boolean broken) {
+        try {
+            if (broken || closed) {
+                discard(session);
+            } else {
+                session.touch();
+                idle.offerFirst(session);
+                if (closed && idle.remove(session)) {
+                    discard(session);
+                }
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Close all idle sessions and stop handing out new ones. Borrowed sessions are closed when they are released.
+     */
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        ImpalaSession session;
+        while ((session = idle.pollFirst()) != null) {
+            discard(session);
+        }
+    }
+
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    public int getOpenSessions() {
+        return openSessions.get();
+    }
+
+    public int getIdleSessions() {
+        return idle.size();
+    }
+
+    public int getActiveSessions() {
+        return maxSessions - permits.availablePermits();
+    }
+
+    public long getCreatedSessions() {
+        return created.get();
+    }
+
+    public long getEvictedSessions() {
+        return evicted.get();
+    }
+
+    public long getHealthCheckFailures() {
+        return healthCheckFailures.get();
+    }
+
+    /**
+     * @return how many borrowers found the pool exhausted and had to wait
+     */
+    public long getWaits() {
+        return waits.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("active=%d idle=%d open=%d max=%d created=%d evicted=%d healthCheckFailures=%d waits=%d",
+                getActiveSessions(), getIdleSessions(), getOpenSessions(), maxSessions, getCreatedSessions(),
+                getEvictedSessions(), getHealthCheckFailures(), getWaits());
+    }
+
+    /**
+     * Close sessions that have been idle longer than the idle timeout
+     */
+    void evictIdle() {
+        long now = System.currentTimeMillis();
+        for (ImpalaSession session : idle) {
+            // A concurrent borrow may have taken the session already
+            if (now - session.getLastUsed() >= idleTimeoutMillis && idle.remove(session)) {
+                evicted.incrementAndGet();
+                discard(session);
+            }
+        }
+    }
+
+    protected ImpalaSession openSession() throws TException {
+        TSocket transport = new TSocket(host, port);
+        transport.setTimeout(socketTimeoutMillis);
+        ImpalaHiveServer2Service.Client client =
+                new ImpalaHiveServer2Service.Client.Factory().getClient(new TBinaryProtocol(transport));
+
+        try {
+            transport.open();
+        } catch (TTransportException e) {
+            appLog.error("open transport exception: ", e);
+            transport.close();
+            throw new TException(e);
+        }
+
+        TOpenSessionReq openReq = new TOpenSessionReq();
+        openReq.setClient_protocol(TProtocolVersion.HIVE_CLI_SERVICE_PROTOCOL_V1);
+
+        try {
+            TOpenSessionResp openResp = client.OpenSession(openReq);
+            TStatus status = openResp.getStatus();
+            if (status.getStatusCode() == TStatusCode.ERROR_STATUS) {
+                throw new TException("failed open session: " + status.toString());
+            }
+            return new ImpalaSession(transport, client, openResp.getSessionHandle());
+        } catch (TException e) {
+            appLog.error("open session error: ", e);
+            transport.close();
+            throw e;
+        }
+    }
+
+    protected boolean isHealthy(ImpalaSession session) {
+        try {
+            TGetInfoResp resp = session.getClient().GetInfo(
+                    new TGetInfoReq(session.getSessionHandle(), TGetInfoType.CLI_SERVER_NAME));
+            return resp.getStatus().getStatusCode() != TStatusCode.ERROR_STATUS;
+        } catch (TException | RuntimeException e) {
+            appLog.debug("Impala session health check failed", e);
+            return false;
+        }
+    }
+
+    private void discard(ImpalaSession session) {
+        openSessions.decrementAndGet();
+        session.close();
+    }
+}
@@ -0,0 +1,106 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.intent.query.processor;
+
+import org.apache.thrift.TException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-process cache of the applications supporting each intent, refreshed from INS once an entry is older than the
+ * refresh interval. Every intent carries a version that changes whenever its application list does, so anything
+ * derived from an application list (query templates, resume positions) can tell when it is stale.
+ */
+public class IntentAppCatalog {
+    private final InsService insService;
+    private final long refreshMillis;
+    private final ConcurrentMap<String, Apps> entries = new ConcurrentHashMap<>();
+
+    /**
+     * The applications supporting an intent at a given version
+     */
+    public static class Apps {
+        private final List<String> appNames;
+        private final long version;
+        private final long loadedAt;
+
+        Apps(List<String> appNames, long version, long loadedAt) {
+            this.appNames = appNames;
+            this.version = version;
+            this.loadedAt = loadedAt;
+        }
+
+        public List<String> getAppNames() {
+            return appNames;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+    }
+
+    /**
+     * @param insService where to look up applications, or null to use a single "testapp"
+     * @param refreshMillis how long a cached application list is used before it is looked up again
+     */
+    public IntentAppCatalog(InsService insService, long refreshMillis) {
+        this.insService = insService;
+        this.refreshMillis = refreshMillis;
+    }
+
+    /**
+     * @return the applications supporting the intent, sorted by name
+     */
+    public Apps getApps(String intentName) throws TException {
+        Apps cached = entries.get(intentName);
+        long now = System.currentTimeMillis();
+        if (cached != null && now - cached.loadedAt < refreshMillis) {
+            return cached;
+        }
+
+        List<String> appNames = new ArrayList<>(loadAppNames(intentName));
+        Collections.sort(appNames);
+        appNames = Collections.unmodifiableList(appNames);
+
+        long version = 0;
+        if (cached != null) {
+            version = cached.appNames.equals(appNames) ? cached.version : cached.version + 1;
+        }
+        Apps apps = new Apps(appNames, version, now);
+        entries.put(intentName, apps);
+        return apps;
+    }
+
+    /**
+     * Look the intent up again on the next request, e.g. after an application registration changed
+     */
+    public void invalidate(String intentName) {
+        Apps cached = entries.get(intentName);
+        if (cached != null) {
+            entries.replace(intentName, cached, new Apps(cached.appNames, cached.version, 0));
+        }
+    }
+
+    protected List<String> loadAppNames(String intentName) throws TException {
+        if (insService == null) {
+            return Collections.singletonList("testapp");
+        }
+        return insService.getAppNames(intentName);
+    }
+}
@@ -16,147 +16,238 @@ package ezbake.intent.query.processor;
 
 import com.cloudera.impala.thrift.ImpalaHiveServer2Service;
 import org.apache.hive.service.cli.thrift.TCloseOperationReq;
-import org.apache.hive.service.cli.thrift.TCloseSessionReq;
 import org.apache.hive.service.cli.thrift.TExecuteStatementReq;
 import org.apache.hive.service.cli.thrift.TExecuteStatementResp;
+import org.apache.hive.service.cli.thrift.TFetchOrientation;
 import org.apache.hive.service.cli.thrift.TFetchResultsReq;
 import org.apache.hive.service.cli.thrift.TFetchResultsResp;
-import org.apache.hive.service.cli.thrift.TOpenSessionReq;
-import org.apache.hive.service.cli.thrift.TOpenSessionResp;
 import org.apache.hive.service.cli.thrift.TOperationHandle;
-import org.apache.hive.service.cli.thrift.TProtocolVersion;
 import org.apache.hive.service.cli.thrift.TRow;
 import org.apache.hive.service.cli.thrift.TRowSet;
-import org.apache.hive.service.cli.thrift.TSessionHandle;
+import org.apache.hive.service.cli.thrift.TStatus;
+import org.apache.hive.service.cli.thrift.TStatusCode;
 import org.apache.thrift.TException;
-import org.apache.thrift.protocol.TBinaryProtocol;
-import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransportException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.List;
-
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs queries against Impala on sessions borrowed from an {@link ImpalaSessionPool}. Results are fetched in fixed
+ * size batches, either handed to a {@link RowHandler} as they arrive or collected into a list.
+ */
 public class IntentImpalaClient {
-    private static String host = "localhost";
-    private static int port = 21050;
+    public static final String IMPALA_HOST = "intents.impala.host";
+    public static final String IMPALA_PORT = "intents.impala.port";
+    public static final String IMPALA_TIMEOUT_MILLIS = "intents.impala.timeout.ms";
+    public static final String POOL_MAX_SESSIONS = "intents.impala.pool.max.sessions";
+    public static final String POOL_IDLE_TIMEOUT_SECONDS = "intents.impala.pool.idle.timeout.seconds";
+    public static final String POOL_VALIDATE_AFTER_SECONDS = "intents.impala.pool.validate.after.seconds";
+    public static final String FETCH_SIZE = "intents.impala.fetch.size";
+
     private Logger appLog = LoggerFactory.getLogger(IntentImpalaClient.class);
 
-    public IntentImpalaClient() {
-    }
+    private final ImpalaSessionPool sessionPool;
+    private final int fetchSize;
+    private final int borrowTimeoutMillis;
 
-    public void shutdown() {
+    private final PhaseTimer connectTimer = new PhaseTimer();
+    private final PhaseTimer executeTimer = new PhaseTimer();
+    private final PhaseTimer fetchTimer = new PhaseTimer();
 
+    /**
+     * Receives the rows of a query one batch at a time
+     */
+    public interface RowHandler {
+        void handleRows(List<TRow> rows) throws TException;
     }
 
-    public List<TRow> queryImpala(String qryString) throws TException {
+    /**
+     * Count, total and maximum latency of one phase of running a query
+     */
+    public static class PhaseTimer {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+        }
 
-        List<TRow> resultRows;
+        public long getCount() {
+            return count.get();
+        }
 
-        TSocket transport = new TSocket(host, port);
+        public long getTotalMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(totalNanos.get());
+        }
 
-        transport.setTimeout(60000);
-        TBinaryProtocol protocol = new TBinaryProtocol(transport);
-        ImpalaHiveServer2Service.Client client = new ImpalaHiveServer2Service.Client.Factory().getClient(protocol);
+        public long getMaxMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+        }
 
-        try {
-            transport.open();
-        } catch (TTransportException e) {
-            appLog.error("open transport exception: ", e);
-            transport.close();
-            throw new TException(e);
+        public double getMeanMillis() {
+            long n = count.get();
+            return n == 0 ? 0 : totalNanos.get() / (n * 1e6);
         }
 
-        TOpenSessionReq openReq = new TOpenSessionReq();
-        openReq.setClient_protocol(TProtocolVersion.HIVE_CLI_SERVICE_PROTOCOL_V1);
-        //openReq.setUsername(username);
-        //openReq.setPassword(password);
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.1fms max=%dms", getCount(), getMeanMillis(), getMaxMillis());
+        }
+    }
 
-        TOpenSessionResp openResp;
-        org.apache.hive.service.cli.thrift.TStatus status;
+    public IntentImpalaClient() {
+        this(new Properties());
+    }
 
-        try {
-            openResp = client.OpenSession(openReq);
-            status = openResp.getStatus();
-            if (status.getStatusCode() == org.apache.hive.service.cli.thrift.TStatusCode.ERROR_STATUS) {
-                throw new TException("failed open session: " + status.toString());
-            }
-        } catch (TException e) {
-            appLog.error("open session error: ", e);
-            closeConnection(transport, client, null, null);
-            throw e;
-        }
+    public IntentImpalaClient(Properties configuration) {
+        this(configuration, new ImpalaSessionPool(
+                configuration.getProperty(IMPALA_HOST, "localhost"),
+                Integer.parseInt(configuration.getProperty(IMPALA_PORT, "21050")),
+                Integer.parseInt(configuration.getProperty(IMPALA_TIMEOUT_MILLIS, "60000")),
+                Integer.parseInt(configuration.getProperty(POOL_MAX_SESSIONS, "8")),
+                TimeUnit.SECONDS.toMillis(Long.parseLong(configuration.getProperty(POOL_IDLE_TIMEOUT_SECONDS, "300"))),
+                TimeUnit.SECONDS.toMillis(Long.parseLong(configuration.getProperty(POOL_VALIDATE_AFTER_SECONDS, "30")))));
+    }
 
+    IntentImpalaClient(Properties configuration, ImpalaSessionPool sessionPool) {
+        this.sessionPool = sessionPool;
+        this.fetchSize = Integer.parseInt(configuration.getProperty(FETCH_SIZE, "1024"));
+        this.borrowTimeoutMillis = Integer.parseInt(configuration.getProperty(IMPALA_TIMEOUT_MILLIS, "60000"));
+    }
 
-        TSessionHandle sessHandle = openResp.getSessionHandle();
-        TOperationHandle stmtHandle = null;
+    public void shutdown() {
+        appLog.info("Impala session pool: {}", sessionPool);
+        sessionPool.close();
+    }
 
-        TExecuteStatementReq execReq = new TExecuteStatementReq(sessHandle, qryString);
-        try {
-            TExecuteStatementResp execResp = client.ExecuteStatement(execReq);
-            status = execResp.getStatus();
-            if (status.getStatusCode() == org.apache.hive.service.cli.thrift.TStatusCode.ERROR_STATUS) {
-                throw new TException("failed execute statement: " + status.toString());
+    /**
+     * Run the query and collect all of its rows
+     */
+    public List<TRow> queryImpala(String qryString) throws TException {
+        final List<TRow> resultRows = new ArrayList<>();
+        queryImpala(qryString, new RowHandler() {
+            @Override
+            public void handleRows(List<TRow> rows) {
+                resultRows.addAll(rows);
             }
+        });
+        appLog.info(String.format("Total rows returned = %d", resultRows.size()));
+        return resultRows;
+    }
 
-            stmtHandle = execResp.getOperationHandle();
+    /**
+     * Run the query and hand its rows to the handler in batches of at most the configured fetch size, without
+     * holding the whole result set in memory
+     *
+     * @return the number of rows fetched
+     */
+    public long queryImpala(String qryString, RowHandler handler) throws TException {
+        long start = System.nanoTime();
+        ImpalaSession session = sessionPool.borrow(borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+        long executeStart = System.nanoTime();
+        connectTimer.record(executeStart - start);
+
+        ImpalaHiveServer2Service.Client client = session.getClient();
+        TOperationHandle stmtHandle = null;
+        boolean broken = false;
+        long rowCount = 0;
+        try {
+            TExecuteStatementReq execReq = new TExecuteStatementReq(session.getSessionHandle(), qryString);
+            try {
+                TExecuteStatementResp execResp = client.ExecuteStatement(execReq);
+                checkStatus(execResp.getStatus(), "failed execute statement: ");
+
+                stmtHandle = execResp.getOperationHandle();
+                if (stmtHandle == null) {
+                    throw new TException("failed get operation handle");
+                }
+            } catch (TException e) {
+                appLog.error("ExecuteStatement exception: ", e);
+                throw e;
+            }
+            long fetchStart = System.nanoTime();
+            executeTimer.record(fetchStart - executeStart);
 
-            if (stmtHandle == null) {
-                throw new TException("failed get operation handle");
+            TFetchResultsReq fetchReq = new TFetchResultsReq(stmtHandle, TFetchOrientation.FETCH_NEXT, fetchSize);
+            try {
+                boolean hasMoreRows = true;
+                while (hasMoreRows) {
+                    TFetchResultsResp resultsResp = client.FetchResults(fetchReq);
+                    checkStatus(resultsResp.getStatus(), "failed fetch results: ");
+
+                    TRowSet resultsSet = resultsResp.getResults();
+                    List<TRow> rows = resultsSet == null ? null : resultsSet.getRows();
+                    if (rows == null || rows.isEmpty()) {
+                        break;
+                    }
+                    rowCount += rows.size();
+                    handler.handleRows(rows);
+                    hasMoreRows = resultsResp.isHasMoreRows();
+                }
+            } catch (TException e) {
+                appLog.error("FetchResults exception: ", e);
+                throw e;
             }
+            fetchTimer.record(System.nanoTime() - fetchStart);
         } catch (TException e) {
-            appLog.error("ExecuteStatement exception: ", e);
-            closeConnection(transport, client, stmtHandle, sessHandle);
+            broken = e instanceof TTransportException;
             throw e;
+        } finally {
+            if (stmtHandle != null && !broken) {
+                broken = !closeOperation(client, stmtHandle);
+            }
+            sessionPool.release(session, broken);
+            appLog.debug("Impala query took {}ms for {} rows, pool {}",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), rowCount, sessionPool);
         }
 
-        TFetchResultsReq fetchReq = new TFetchResultsReq();
-        fetchReq.setOperationHandle(stmtHandle);
-//        fetchReq.setMaxRows(100);
-//        fetchReq.setOrientation(org.apache.hive.service.cli.thrift.TFetchOrientation.FETCH_NEXT);
-
-        try {
-            TFetchResultsResp resultsResp = client.FetchResults(fetchReq);
+        return rowCount;
+    }
 
-            status = resultsResp.getStatus();
-            if (status.getStatusCode() == org.apache.hive.service.cli.thrift.TStatusCode.ERROR_STATUS) {
-                throw new TException("failed fetch results: " + status.toString());
-            }
+    public ImpalaSessionPool getSessionPool() {
+        return sessionPool;
+    }
 
-            TRowSet resultsSet = resultsResp.getResults();
-            resultRows = resultsSet.getRows();
-            appLog.info(String.format("Total rows returned = %d", resultRows.size()));
+    /**
+     * @return latencies of borrowing (and, if needed, opening) a session
+     */
+    public PhaseTimer getConnectTimer() {
+        return connectTimer;
+    }
 
-            closeConnection(transport, client, stmtHandle, sessHandle);
-        } catch (TException e) {
-            appLog.error("FetchResults exception: ", e);
-            closeConnection(transport, client, stmtHandle, sessHandle);
-            throw e;
-        }
+    public PhaseTimer getExecuteTimer() {
+        return executeTimer;
+    }
 
-        return resultRows;
+    public PhaseTimer getFetchTimer() {
+        return fetchTimer;
     }
 
-    public void closeConnection(TSocket transport, ImpalaHiveServer2Service.Client client, TOperationHandle stmtHandle, TSessionHandle sessHandle) {
-        if (client != null && stmtHandle != null) {
-            try {
-                TCloseOperationReq closeReq = new TCloseOperationReq(stmtHandle);
-                client.CloseOperation(closeReq);
-            } catch (TException e) {
-                appLog.error("failed close operation", e);
-            }
+    private static void checkStatus(TStatus status, String message) throws TException {
+        if (status.getStatusCode() == TStatusCode.ERROR_STATUS) {
+            throw new TException(message + status.toString());
         }
+    }
 
-        if (client != null && sessHandle != null) {
-            try {
-                TCloseSessionReq closeConnectionReq = new TCloseSessionReq(sessHandle);
-                client.CloseSession(closeConnectionReq);
-            } catch (TException e) {
-                appLog.error("failed close session", e);
-            }
-        }
-        if (transport != null) {
-            transport.close();
+    private boolean closeOperation(ImpalaHiveServer2Service.Client client, TOperationHandle stmtHandle) {
+        try {
+            client.CloseOperation(new TCloseOperationReq(stmtHandle));
+            return true;
+        } catch (TException e) {
+            appLog.error("failed close operation", e);
+            return false;
         }
     }
 }
@@ -15,11 +15,16 @@
 package ezbake.intent.query.processor;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import ezbake.query.intents.FieldSort;
 import ezbake.query.intents.MissingOrder;
 import ezbake.query.intents.SortOrder;
+import org.apache.hive.service.cli.thrift.TRow;
 import org.apache.thrift.TException;
 
 import ezbake.base.thrift.EzSecurityToken;
@@ -30,166 +35,260 @@ import ezbake.query.intents.IntentType;
 import ezbake.query.intents.Predicate;
 import ezbake.query.intents.Query;
 
+/**
+ * Generates a UNION ALL over the tables of every application supporting the queried intent. The applications come
+ * from an {@link IntentAppCatalog} and the generated SQL is cached as a {@link QueryTemplate} per query shape, so
+ * repeated queries only fill in their values.
+ *
+ * Paged queries resume from a {@link ResumePosition} when one is available for the requested page, so that deep pages
+ * filter on the sort columns instead of sorting and discarding every earlier row with OFFSET.
+ */
 public class QueryGeneratorImpl implements QueryGenerator {
+    public static final String APPS_REFRESH_SECONDS = "intents.query.apps.refresh.seconds";
 
     private static final String SECUUID = "secuuid";
+    private static final int MAX_TEMPLATES = 256;
 
-    private final InsService insService;
+    private final IntentAppCatalog appCatalog;
     private final SecurityStorage securityStorage;
+    private final Map<String, QueryTemplate> templates = Collections.synchronizedMap(
+            new LinkedHashMap<String, QueryTemplate>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, QueryTemplate> eldest) {
+                    return size() > MAX_TEMPLATES;
+                }
+            });
+
+    /**
+     * A column the paged results are sorted on
+     */
+    private static class SortColumn {
+        final String name;
+        // position in the requested columns, and so in the result rows
+        final int index;
+        final boolean descending;
+        final boolean nullsFirst;
+
+        SortColumn(String name, int index, boolean descending, boolean nullsFirst) {
+            this.name = name;
+            this.index = index;
+            this.descending = descending;
+            this.nullsFirst = nullsFirst;
+        }
+    }
 
     public QueryGeneratorImpl(final EzConfiguration configuration, SecurityStorage securityStorage) {
-        if (configuration != null) {
-            insService = new InsService(configuration);
-        } else {
-            insService = null;
-        }
+        this(securityStorage, new IntentAppCatalog(configuration != null ? new InsService(configuration) : null,
+                TimeUnit.SECONDS.toMillis(configuration != null ? Long.parseLong(
+                        configuration.getProperties().getProperty(APPS_REFRESH_SECONDS, "60")) : 60)));
+    }
 
+    public QueryGeneratorImpl(SecurityStorage securityStorage, IntentAppCatalog appCatalog) {
+        this.appCatalog = appCatalog;
         this.securityStorage = securityStorage;
     }
 
     @Override
     public String generateSQLString(Query query, EzSecurityToken token) throws TException {
-        String sqlString = generateMainSqlString(query, token);
+        return generateSQLString(query, token, null);
+    }
 
+    /**
+     * Generate the SQL for a query, resuming a paged query from the given position if it is the position of the
+     * requested page and was read from the current applications
+     *
+     * @param position where the requested page starts, or null to page with OFFSET
+     */
+    public String generateSQLString(Query query, EzSecurityToken token, ResumePosition position) throws TException {
+        IntentType primaryTable = query.getPrimaryQuery().getIntent();
+        IntentAppCatalog.Apps apps = appCatalog.getApps(primaryTable.name());
+
+        List<SortColumn> resumeColumns = null;
+        if (position != null && query.isSetPage() && position.getOffset() == query.getPage().getOffset()
+                && position.getAppsVersion() == apps.getVersion()) {
+            resumeColumns = getSortColumns(query);
+            if (resumeColumns != null && resumeColumns.size() != position.getSortValues().size()) {
+                resumeColumns = null;
+            }
+        }
+
+        String key = getTemplateKey(query, apps.getAppNames(), resumeColumns != null);
+        QueryTemplate template = templates.get(key);
+        if (template == null) {
+            template = generateTemplate(query, apps.getAppNames(), resumeColumns);
+            templates.put(key, template);
+        }
+
+        long limit = 0;
+        long offset = 0;
         if (query.isSetPage()) {
-            return generatePagingSQLString(query, sqlString);
+            limit = query.getPage().getPageSize();
+            offset = resumeColumns != null ? position.getSkip() : query.getPage().getOffset();
         }
-        return sqlString;
-    }
+        List<String> resumeValues = resumeColumns != null ? position.getSortValues() : Collections.<String>emptyList();
 
-    private String generateMainSqlString(Query query, EzSecurityToken token) throws TException {
-        IntentType primaryTable = query.getPrimaryQuery().getIntent();
+        // Each union branch opens its own scan, which consumes the token stored under its uuid
+        List<String> secUuids = securityStorage.storeTokens(token, template.getSecUuidCount());
+        return template.fill(getPredicateValues(query), secUuids, resumeValues, limit, offset);
+    }
 
-        List<String> appNames = new ArrayList<>();
-        if (insService != null) {
-            appNames = insService.getAppNames(primaryTable.name());
+    /**
+     * Work out where the page after the given rows starts
+     *
+     * @param query the paged query the rows were returned for
+     * @param rows the rows of the requested page
+     * @param position the position the page was read from, if any
+     * @return the position of the next page, or null if the query can't be resumed from it and has to use OFFSET
+     */
+    public ResumePosition nextPosition(Query query, List<TRow> rows, ResumePosition position) throws TException {
+        if (!query.isSetPage() || rows == null || rows.isEmpty() || rows.size() < query.getPage().getPageSize()) {
+            return null;
+        }
+        List<SortColumn> sortColumns = getSortColumns(query);
+        if (sortColumns == null) {
+            return null;
+        }
+        List<String> last = getSortValues(rows.get(rows.size() - 1), sortColumns);
+        if (last == null) {
+            return null;
+        }
 
-        } else {
-            appNames.add("testapp");
+        long skip = 0;
+        for (int i = rows.size() - 1; i >= 0 && last.equals(getSortValues(rows.get(i), sortColumns)); --i) {
+            skip++;
         }
+        if (skip == rows.size()) {
+            // The whole page ties on the sort columns, only resumable if we know how many rows tied before it
+            if (position == null || position.getOffset() != query.getPage().getOffset()
+                    || !position.getSortValues().equals(last)) {
+                return null;
+            }
+            skip += position.getSkip();
+        }
+
+        long appsVersion = appCatalog.getApps(query.getPrimaryQuery().getIntent().name()).getVersion();
+        return new ResumePosition(query.getPage().getOffset() + rows.size(), appsVersion, last, skip);
+    }
 
-        StringBuilder sb = new StringBuilder();
+    private QueryTemplate generateTemplate(Query query, List<String> appNames, List<SortColumn> resumeColumns) {
+        IntentType primaryTable = query.getPrimaryQuery().getIntent();
+        QueryTemplate template = new QueryTemplate();
         int appSize = appNames.size();
+        boolean union = appSize > 1;
+
+        if (query.isSetPage() && union) {
+            // use a sub query
+            template.append("SELECT ");
+            appendSelectColumns(template, query);
+            template.append(" FROM (");
+        }
 
         for (int i = 0; i < appSize; i++) {
             String tableName = appNames.get(i) + "_" + primaryTable.name();
-            sb.append(generateSqlStringForTable(tableName, query, token));
+            generateSqlStringForTable(template, tableName, i, query, resumeColumns);
 
             if (i < appSize - 1) {
-                sb.append(" UNION ALL ");
+                template.append(" UNION ALL ");
             }
         }
 
-        return sb.toString();
-    }
-
-    private String generatePagingSQLString(Query query, String sqlString) {
-        StringBuilder sb = new StringBuilder();
-
-        if (sqlString.contains("UNION ALL")) {
-            // use a sub query
-            sb.append("SELECT ");
-            appendSelectColumns(sb, query);
-            sb.append(" FROM (");
-            sb.append(sqlString);
-            sb.append(") t");
-        } else {
-            sb.append(sqlString);
+        if (query.isSetPage()) {
+            if (union) {
+                template.append(") t");
+            }
+            appendPaging(template, query);
         }
+        return template.build();
+    }
 
-        sb.append(" ORDER BY ");
+    private void appendPaging(QueryTemplate template, Query query) {
+        template.append(" ORDER BY ");
 
         if (query.isSetSortCriteria()) {
             List<FieldSort> sortCriterias = query.getSortCriteria();
             int sortCount = sortCriterias.size();
             for (int i = 0; i < sortCount; i++) {
                 FieldSort sort = sortCriterias.get(i);
-                sb.append(sort.getField());
+                template.append(sort.getField());
                 if (sort.isSetOrder() && sort.getOrder() == SortOrder.DESCENDING) {
-                    sb.append(" DESC");
+                    template.append(" DESC");
                 } else {
-                    sb.append(" ASC");
+                    template.append(" ASC");
                 }
 
                 if (sort.isSetMissing() && sort.getMissing() == MissingOrder.FIRST) {
-                    sb.append(" NULLS FIRST");
+                    template.append(" NULLS FIRST");
                 } else {
-                    sb.append(" NULLS LAST");
+                    template.append(" NULLS LAST");
                 }
 
                 if (i < sortCount - 1) {
-                    sb.append(", ");
+                    template.append(", ");
                 }
             }
 
         } else {
             // default to order by 1 column
-            sb.append("1 ASC");
+            template.append("1 ASC");
         }
 
-        if (query.isSetPage()) {
-            sb.append(" LIMIT ");
-            sb.append(query.getPage().getPageSize());
-            sb.append(" OFFSET ");
-            sb.append(query.getPage().getOffset());
-        }
-        return sb.toString();
+        template.append(" LIMIT ").slot(QueryTemplate.SlotType.LIMIT)
+                .append(" OFFSET ").slot(QueryTemplate.SlotType.OFFSET);
     }
 
-    private void appendSelectColumns(StringBuilder sb, Query query) {
+    private void appendSelectColumns(QueryTemplate template, Query query) {
         int columnCount = query.getRequestedColumnsSize();
         for (int i = 0; i < columnCount; i++) {
-            sb.append(query.getRequestedColumns().get(i));
+            template.append(query.getRequestedColumns().get(i));
             if (i < columnCount - 1) {
-                sb.append(",");
+                template.append(",");
             }
         }
     }
 
-    private StringBuilder generateSqlStringForTable(String tableName, Query query, EzSecurityToken token) throws TException {
-        StringBuilder sb = new StringBuilder("SELECT ");
-        appendSelectColumns(sb, query);
-        sb.append(" FROM ");
-        sb.append(tableName);
+    private void generateSqlStringForTable(QueryTemplate template, String tableName, int branch, Query query,
+                                           List<SortColumn> resumeColumns) {
+        template.append("SELECT ");
+        appendSelectColumns(template, query);
+        template.append(" FROM ");
+        template.append(tableName);
+        template.append(" WHERE ");
 
         if (query.getPrimaryQuery().isSetPredicates()) {
-            sb.append(" WHERE ");
-
             int predicateCount = query.getPrimaryQuery().getPredicates().size();
 
             // ( col1 OR col2) AND (col3 OR col4)
+            int valueIndex = 0;
             for (int i = 0; i < predicateCount; i++) {
                 List<Predicate> orPredicates = query.getPrimaryQuery().getPredicates().get(i);
 
-                constructOrClause(sb, orPredicates);
+                valueIndex = constructOrClause(template, orPredicates, valueIndex);
 
                 if (i < predicateCount - 1) {
-                    sb.append(" AND ");
+                    template.append(" AND ");
                 }
             }
 
             // append secuuid
             if (predicateCount > 0) {
-                sb.append(" AND ");
+                template.append(" AND ");
             }
-            sb.append(SECUUID + " = '");
-            sb.append(securityStorage.storeToken(token));
-            sb.append("'");
-        } else {
-            sb.append(" WHERE ");
-            sb.append(SECUUID + " = '");
-            sb.append(securityStorage.storeToken(token));
-            sb.append("'");
         }
+        template.append(SECUUID + " = '");
+        template.slot(QueryTemplate.SlotType.SECUUID, branch);
+        template.append("'");
 
-        return sb;
+        if (resumeColumns != null) {
+            template.append(" AND ");
+            appendResumeClause(template, resumeColumns, 0);
+        }
     }
 
-    private void constructOrClause(StringBuilder sb, List<Predicate> predicates) {
+    private int constructOrClause(QueryTemplate template, List<Predicate> predicates, int valueIndex) {
         int predicateCount = predicates.size();
 
         if (predicateCount > 1) {
-            sb.append("(");
+            template.append("(");
         }
 
         for (int i = 0; i < predicateCount; i++) {
@@ -197,18 +296,134 @@ public class QueryGeneratorImpl implements QueryGenerator {
             // Binary
             if (predicate.isSet(1)) {
                 BinaryPredicate binaryPredicate = predicate.getBinaryPredicate();
-                sb.append(binaryPredicate.getColumnName() + " ");
-                sb.append(Conversions.convertOperatorToString(binaryPredicate.getBinaryOperator()) + " ");
-                sb.append(Conversions.convertColValueToObject(binaryPredicate.getValue()));
+                template.append(binaryPredicate.getColumnName() + " ");
+                template.append(Conversions.convertOperatorToString(binaryPredicate.getBinaryOperator()) + " ");
+                template.slot(QueryTemplate.SlotType.PREDICATE, valueIndex++);
 
                 if (i < predicateCount - 1) {
-                    sb.append(" OR ");
+                    template.append(" OR ");
                 }
             }
         }
 
         if (predicateCount > 1) {
-            sb.append(")");
+            template.append(")");
+        }
+        return valueIndex;
+    }
+
+    /**
+     * Rows sorting at or after the resume position:
+     * (c1 after v1 OR (c1 = v1 AND (c2 after v2 OR (c2 = v2 AND ...)))), where the last column also matches ties
+     */
+    private void appendResumeClause(QueryTemplate template, List<SortColumn> columns, int i) {
+        SortColumn column = columns.get(i);
+        template.append("(").append(column.name).append(column.descending ? " < " : " > ")
+                .slot(QueryTemplate.SlotType.RESUME_VALUE, i);
+        if (!column.nullsFirst) {
+            template.append(" OR ").append(column.name).append(" IS NULL");
+        }
+        template.append(" OR ");
+        if (i < columns.size() - 1) {
+            template.append("(").append(column.name).append(" = ").slot(QueryTemplate.SlotType.RESUME_VALUE, i)
+                    .append(" AND ");
+            appendResumeClause(template, columns, i + 1);
+            template.append(")");
+        } else {
+            template.append(column.name).append(" = ").slot(QueryTemplate.SlotType.RESUME_VALUE, i);
+        }
+        template.append(")");
+    }
+
+    private String getTemplateKey(Query query, List<String> appNames, boolean resume) {
+        StringBuilder key = new StringBuilder();
+        key.append(query.getPrimaryQuery().getIntent()).append('|').append(appNames).append('|')
+                .append(query.getRequestedColumns()).append('|');
+        if (query.getPrimaryQuery().isSetPredicates()) {
+            for (List<Predicate> orPredicates : query.getPrimaryQuery().getPredicates()) {
+                key.append('(');
+                for (Predicate predicate : orPredicates) {
+                    if (predicate.isSet(1)) {
+                        BinaryPredicate binaryPredicate = predicate.getBinaryPredicate();
+                        key.append(binaryPredicate.getColumnName()).append(' ')
+                                .append(binaryPredicate.getBinaryOperator()).append(',');
+                    } else {
+                        key.append("-,");
+                    }
+                }
+                key.append(')');
+            }
+        }
+        key.append('|');
+        if (query.isSetPage()) {
+            key.append(query.getSortCriteria()).append('|').append(resume);
+        }
+        return key.toString();
+    }
+
+    private List<String> getPredicateValues(Query query) {
+        List<String> values = new ArrayList<>();
+        if (query.getPrimaryQuery().isSetPredicates()) {
+            for (List<Predicate> orPredicates : query.getPrimaryQuery().getPredicates()) {
+                for (Predicate predicate : orPredicates) {
+                    if (predicate.isSet(1)) {
+                        values.add(String.valueOf(
+                                Conversions.convertColValueToObject(predicate.getBinaryPredicate().getValue())));
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return the sort columns of a paged query, or null if a sort column isn't one of the requested columns
+     */
+    private List<SortColumn> getSortColumns(Query query) {
+        List<String> requested = query.getRequestedColumns();
+        if (requested == null || requested.isEmpty()) {
+            return null;
+        }
+
+        List<SortColumn> columns = new ArrayList<>();
+        if (!query.isSetSortCriteria()) {
+            // ORDER BY 1 ASC, which sorts nulls last
+            columns.add(new SortColumn(requested.get(0), 0, false, false));
+            return columns;
+        }
+
+        for (FieldSort sort : query.getSortCriteria()) {
+            int index = -1;
+            for (int i = 0; i < requested.size() && index < 0; i++) {
+                if (requested.get(i).equalsIgnoreCase(sort.getField())) {
+                    index = i;
+                }
+            }
+            if (index < 0) {
+                return null;
+            }
+            columns.add(new SortColumn(sort.getField(), index,
+                    sort.isSetOrder() && sort.getOrder() == SortOrder.DESCENDING,
+                    sort.isSetMissing() && sort.getMissing() == MissingOrder.FIRST));
+        }
+        return columns;
+    }
+
+    /**
+     * @return SQL literals of the row's sort column values, or null if any of them is null or can't be expressed
+     */
+    private static List<String> getSortValues(TRow row, List<SortColumn> columns) {
+        List<String> values = new ArrayList<>(columns.size());
+        for (SortColumn column : columns) {
+            if (row.getColValsSize() <= column.index) {
+                return null;
+            }
+            String literal = Conversions.convertColumnValueToLiteral(row.getColVals().get(column.index));
+            if (literal == null) {
+                return null;
+            }
+            values.add(literal);
         }
+        return values;
     }
 }
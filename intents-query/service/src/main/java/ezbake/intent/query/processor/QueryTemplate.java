@@ -0,0 +1,112 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.intent.query.processor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generated SQL with slots for the values that differ between queries of the same shape: predicate values, the
+ * security uuid of each union branch, the resume position and the page bounds.
+ */
+class QueryTemplate {
+    enum SlotType { PREDICATE, SECUUID, RESUME_VALUE, LIMIT, OFFSET }
+
+    private static class Slot {
+        final SlotType type;
+        final int index;
+
+        Slot(SlotType type, int index) {
+            this.type = type;
+            this.index = index;
+        }
+    }
+
+    private final List<Object> parts = new ArrayList<>();
+    private final StringBuilder text = new StringBuilder();
+    private int length;
+    private int secUuidCount;
+
+    QueryTemplate append(Object value) {
+        text.append(value);
+        return this;
+    }
+
+    QueryTemplate slot(SlotType type) {
+        return slot(type, 0);
+    }
+
+    QueryTemplate slot(SlotType type, int index) {
+        flush();
+        parts.add(new Slot(type, index));
+        if (type == SlotType.SECUUID) {
+            secUuidCount = Math.max(secUuidCount, index + 1);
+        }
+        return this;
+    }
+
+    QueryTemplate build() {
+        flush();
+        return this;
+    }
+
+    /**
+     * @return the number of security uuids the SQL needs, one per union branch
+     */
+    int getSecUuidCount() {
+        return secUuidCount;
+    }
+
+    /**
+     * @return the SQL with every slot filled in
+     */
+    String fill(List<String> predicateValues, List<String> secuuids, List<String> resumeValues, long limit,
+                long offset) {
+        StringBuilder sb = new StringBuilder(length + 64);
+        for (Object part : parts) {
+            if (part instanceof String) {
+                sb.append((String) part);
+                continue;
+            }
+            Slot slot = (Slot) part;
+            switch (slot.type) {
+                case PREDICATE:
+                    sb.append(predicateValues.get(slot.index));
+                    break;
+                case SECUUID:
+                    sb.append(secuuids.get(slot.index));
+                    break;
+                case RESUME_VALUE:
+                    sb.append(resumeValues.get(slot.index));
+                    break;
+                case LIMIT:
+                    sb.append(limit);
+                    break;
+                case OFFSET:
+                    sb.append(offset);
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+
+    private void flush() {
+        if (text.length() > 0) {
+            length += text.length();
+            parts.add(text.toString());
+            text.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.intent.query.processor;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Where the next page of a sorted query starts: the sort column values of the last row returned so far, and how many
+ * rows at the end of the results shared exactly those values and therefore have to be skipped again.
+ */
+public class ResumePosition {
+    private final long offset;
+    private final long appsVersion;
+    private final List<String> sortValues;
+    private final long skip;
+
+    /**
+     * @param offset the page offset this position resumes at
+     * @param appsVersion version of the intent's applications the results were read from
+     * @param sortValues SQL literals of the sort column values of the last row returned
+     * @param skip number of rows returned so far with exactly these sort column values
+     */
+    public ResumePosition(long offset, long appsVersion, List<String> sortValues, long skip) {
+        this.offset = offset;
+        this.appsVersion = appsVersion;
+        this.sortValues = Collections.unmodifiableList(sortValues);
+        this.skip = skip;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getAppsVersion() {
+        return appsVersion;
+    }
+
+    public List<String> getSortValues() {
+        return sortValues;
+    }
+
+    public long getSkip() {
+        return skip;
+    }
+
+    @Override
+    public String toString() {
+        return "ResumePosition{offset=" + offset + ", appsVersion=" + appsVersion + ", sortValues=" + sortValues +
+                ", skip=" + skip + "}";
+    }
+}
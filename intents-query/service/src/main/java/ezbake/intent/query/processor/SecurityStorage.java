@@ -17,9 +17,18 @@ package ezbake.intent.query.processor;
 import ezbake.base.thrift.EzSecurityToken;
 import org.apache.thrift.TException;
 
+import java.util.List;
+
 /**
  * Created by fyan on 12/11/14.
  */
 public interface SecurityStorage {
     String storeToken(EzSecurityToken securityToken) throws TException;
+
+    /**
+     * Store the token under several uuids, each of which can be used once
+     *
+     * @return count new uuids
+     */
+    List<String> storeTokens(EzSecurityToken securityToken, int count) throws TException;
 }
@@ -18,6 +18,9 @@ import ezbake.base.thrift.EzSecurityToken;
 import ezbake.intent.query.utils.Conversions;
 import org.apache.thrift.TException;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Created by fyan on 12/11/14.
  */
@@ -27,4 +30,13 @@ public class SecurityStorageEmptyImpl implements SecurityStorage {
     public String storeToken(EzSecurityToken securityToken) throws TException {
         return Conversions.generateUUID();
     }
+
+    @Override
+    public List<String> storeTokens(EzSecurityToken securityToken, int count) throws TException {
+        List<String> uuids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            uuids.add(Conversions.generateUUID());
+        }
+        return uuids;
+    }
 }
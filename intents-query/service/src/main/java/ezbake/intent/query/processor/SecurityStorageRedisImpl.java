@@ -19,7 +19,9 @@ import ezbake.configuration.EzConfiguration;
 import ezbake.intent.query.utils.Conversions;
 import ezbake.intents.common.RedisUtils;
 import org.apache.thrift.TException;
-import org.apache.thrift.TSerializer;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Created by fyan on 12/11/14.
@@ -35,10 +37,24 @@ public class SecurityStorageRedisImpl implements SecurityStorage {
     public String storeToken(EzSecurityToken securityToken) throws TException {
         try {
             String uuid = Conversions.generateUUID();
-            redisUtils.put(uuid.getBytes(), new TSerializer().serialize(securityToken));
+            redisUtils.storeSecurityToken(uuid, securityToken);
             return uuid;
         } catch (Exception e) {
             throw new TException(e);
         }
     }
+
+    @Override
+    public List<String> storeTokens(EzSecurityToken securityToken, int count) throws TException {
+        try {
+            List<String> uuids = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                uuids.add(Conversions.generateUUID());
+            }
+            redisUtils.storeSecurityTokens(uuids, securityToken);
+            return uuids;
+        } catch (Exception e) {
+            throw new TException(e);
+        }
+    }
 }
\ No newline at end of file
@@ -16,10 +16,14 @@ package ezbake.intent.query.service;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import ezbake.query.intents.QueryResult;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.hive.service.cli.thrift.TRow;
 import org.apache.thrift.TException;
 import org.apache.thrift.TProcessor;
 import org.apache.thrift.meta_data.FieldMetaData;
@@ -34,6 +38,7 @@ import ezbake.base.thrift.EzSecurityTokenException;
 import ezbake.configuration.EzConfiguration;
 import ezbake.intent.query.processor.IntentImpalaClient;
 import ezbake.intent.query.processor.QueryGeneratorImpl;
+import ezbake.intent.query.processor.ResumePosition;
 import ezbake.intent.query.processor.SecurityStorageRedisImpl;
 import ezbake.intent.query.thrift.IntentsQueryService;
 import ezbake.query.intents.Activity;
@@ -68,6 +73,16 @@ public class QueryService extends EzBakeBaseThriftService implements IntentsQuer
     private IntentImpalaClient impalaClient = null;
     private EzbakeSecurityClient ezbakeSecurityClient;
 
+    private static final int MAX_RESUME_POSITIONS = 10000;
+    // Where the next page of recently paged queries starts, keyed by caller, query and page offset
+    private final Map<String, ResumePosition> resumePositions = Collections.synchronizedMap(
+            new LinkedHashMap<String, ResumePosition>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ResumePosition> eldest) {
+                    return size() > MAX_RESUME_POSITIONS;
+                }
+            });
+
     @Override
     public QueryResult query(Query query, EzSecurityToken securityToken) throws TException {
         validateSecurityToken(securityToken);
@@ -79,13 +94,28 @@ public class QueryService extends EzBakeBaseThriftService implements IntentsQuer
         }
 
         try {
+            String pagingKey = null;
+            ResumePosition position = null;
+            if (query.isSetPage()) {
+                pagingKey = getPagingKey(query, securityToken);
+                position = resumePositions.get(pagingKey + query.getPage().getOffset());
+            }
+
             //generate SQL string
-            String sqlString = queryGenerator.generateSQLString(query, securityToken);
+            String sqlString = queryGenerator.generateSQLString(query, securityToken, position);
             appLog.info("Generated SQL String: " + sqlString);
 
             QueryResult result = new QueryResult();
             //call impala client with the query to hand over query to impala for processing
-            result.setResultSet( impalaClient.queryImpala(sqlString));
+            List<TRow> rows = impalaClient.queryImpala(sqlString);
+            result.setResultSet(rows);
+
+            if (pagingKey != null) {
+                ResumePosition next = queryGenerator.nextPosition(query, rows, position);
+                if (next != null) {
+                    resumePositions.put(pagingKey + next.getOffset(), next);
+                }
+            }
 
             if(query.isSetPage()){
                 result.setOffset(query.getPage().getOffset());
@@ -159,12 +189,22 @@ public class QueryService extends EzBakeBaseThriftService implements IntentsQuer
         final EzConfiguration configuration = new EzConfiguration();
 
         this.queryGenerator = new QueryGeneratorImpl(configuration, new SecurityStorageRedisImpl(configuration));
-        this.impalaClient = new IntentImpalaClient();
+        this.impalaClient = new IntentImpalaClient(configuration.getProperties());
         this.ezbakeSecurityClient = new EzbakeSecurityClient(configuration.getProperties());
 
         appLog.info("Successfully Initialized Query Service");
     }
 
+    /**
+     * Identifies a paged query independent of the requested page. Includes the caller's authorizations, since they
+     * decide which rows the query returns.
+     */
+    private static String getPagingKey(Query query, EzSecurityToken token) {
+        Query pageless = query.deepCopy();
+        pageless.unsetPage();
+        return token.getValidity().getIssuedTo() + "|" + token.getAuthorizations() + "|" + pageless + "|";
+    }
+
     private void validateSecurityToken(EzSecurityToken token) throws EzSecurityTokenException {
         this.ezbakeSecurityClient.validateReceivedToken(token);
     }
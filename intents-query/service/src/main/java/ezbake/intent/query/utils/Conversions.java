@@ -16,6 +16,7 @@ package ezbake.intent.query.utils;
 
 import ezbake.query.intents.BinaryOperator;
 import ezbake.query.intents.ColumnValue;
+import org.apache.hive.service.cli.thrift.TColumnValue;
 
 import java.util.UUID;
 
@@ -74,6 +75,38 @@ public class Conversions {
         return obj;
     }
 
+    /**
+     * Convert a value of an Impala result row to a SQL literal
+     *
+     * @return the literal, or null if the value is null or has no literal (NaN, infinity)
+     */
+    public static String convertColumnValueToLiteral(TColumnValue colval) {
+        if (colval.isSetBoolVal()) {
+            return colval.getBoolVal().isSetValue() ? String.valueOf(colval.getBoolVal().isValue()) : null;
+        } else if (colval.isSetByteVal()) {
+            return colval.getByteVal().isSetValue() ? String.valueOf(colval.getByteVal().getValue()) : null;
+        } else if (colval.isSetI16Val()) {
+            return colval.getI16Val().isSetValue() ? String.valueOf(colval.getI16Val().getValue()) : null;
+        } else if (colval.isSetI32Val()) {
+            return colval.getI32Val().isSetValue() ? String.valueOf(colval.getI32Val().getValue()) : null;
+        } else if (colval.isSetI64Val()) {
+            return colval.getI64Val().isSetValue() ? String.valueOf(colval.getI64Val().getValue()) : null;
+        } else if (colval.isSetDoubleVal()) {
+            if (!colval.getDoubleVal().isSetValue()) {
+                return null;
+            }
+            double value = colval.getDoubleVal().getValue();
+            return Double.isNaN(value) || Double.isInfinite(value) ? null : String.valueOf(value);
+        } else if (colval.isSetStringVal()) {
+            if (!colval.getStringVal().isSetValue()) {
+                return null;
+            }
+            String value = colval.getStringVal().getValue();
+            return "'" + value.replace("\\", "\\\\").replace("'", "\\'") + "'";
+        }
+        return null;
+    }
+
     public static String generateUUID() {
         String uuid = "";
 
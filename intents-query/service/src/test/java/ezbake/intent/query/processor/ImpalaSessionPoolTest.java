@@ -0,0 +1,124 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.intent.query.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.thrift.TException;
+import org.junit.After;
+import org.junit.Test;
+
+public class ImpalaSessionPoolTest {
+    private StubPool pool;
+
+    /**
+     * Pool handing out sessions without a connection behind them
+     */
+    private static class StubPool extends ImpalaSessionPool {
+        boolean healthy = true;
+
+        StubPool(int maxSessions, long idleTimeoutMillis, long validateAfterMillis) {
+            super("localhost", 0, 0, maxSessions, idleTimeoutMillis, validateAfterMillis);
+        }
+
+        @Override
+        protected ImpalaSession openSession() {
+            return new ImpalaSession(null, null, null);
+        }
+
+        @Override
+        protected boolean isHealthy(ImpalaSession session) {
+            return healthy;
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testReusesReleasedSession() throws TException {
+        pool = new StubPool(2, 60000, 60000);
+
+        ImpalaSession session = pool.borrow(1, TimeUnit.SECONDS);
+        assertEquals(1, pool.getActiveSessions());
+        pool.release(session, false);
+        assertEquals(0, pool.getActiveSessions());
+        assertEquals(1, pool.getIdleSessions());
+
+        assertSame(session, pool.borrow(1, TimeUnit.SECONDS));
+        assertEquals(1, pool.getCreatedSessions());
+    }
+
+    @Test
+    public void testBrokenSessionIsDiscarded() throws TException {
+        pool = new StubPool(2, 60000, 60000);
+
+        ImpalaSession session = pool.borrow(1, TimeUnit.SECONDS);
+        pool.release(session, true);
+        assertEquals(0, pool.getOpenSessions());
+
+        assertNotSame(session, pool.borrow(1, TimeUnit.SECONDS));
+        assertEquals(2, pool.getCreatedSessions());
+    }
+
+    @Test(expected = TException.class)
+    public void testBorrowTimesOutWhenExhausted() throws TException {
+        pool = new StubPool(1, 60000, 60000);
+
+        pool.borrow(1, TimeUnit.SECONDS);
+        try {
+            pool.borrow(50, TimeUnit.MILLISECONDS);
+        } finally {
+            assertEquals(1, pool.getWaits());
+        }
+    }
+
+    @Test
+    public void testUnhealthyIdleSessionIsReplaced() throws TException {
+        pool = new StubPool(1, 60000, 0);
+
+        ImpalaSession session = pool.borrow(1, TimeUnit.SECONDS);
+        pool.release(session, false);
+
+        pool.healthy = false;
+        assertNotSame(session, pool.borrow(1, TimeUnit.SECONDS));
+        assertEquals(1, pool.getHealthCheckFailures());
+        assertEquals(1, pool.getOpenSessions());
+    }
+
+    @Test
+    public void testIdleSessionsAreEvicted() throws Exception {
+        pool = new StubPool(2, 10, 60000);
+
+        ImpalaSession first = pool.borrow(1, TimeUnit.SECONDS);
+        ImpalaSession second = pool.borrow(1, TimeUnit.SECONDS);
+        pool.release(first, false);
+        pool.release(second, false);
+        Thread.sleep(20);
+
+        pool.evictIdle();
+        assertEquals(2, pool.getEvictedSessions());
+        assertEquals(0, pool.getOpenSessions());
+        assertEquals(0, pool.getIdleSessions());
+    }
+}
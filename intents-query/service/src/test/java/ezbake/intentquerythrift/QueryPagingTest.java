@@ -0,0 +1,221 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.intentquerythrift;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.hive.service.cli.thrift.TColumnValue;
+import org.apache.hive.service.cli.thrift.TRow;
+import org.apache.hive.service.cli.thrift.TStringValue;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ezbake.base.thrift.EzSecurityToken;
+import ezbake.intent.query.processor.IntentAppCatalog;
+import ezbake.intent.query.processor.QueryGeneratorImpl;
+import ezbake.intent.query.processor.ResumePosition;
+import ezbake.intent.query.processor.SecurityStorageEmptyImpl;
+import ezbake.query.intents.IntentType;
+import ezbake.query.intents.Page;
+import ezbake.query.intents.Query;
+import ezbake.query.intents.QueryAtom;
+import ezbake.security.test.MockEzSecurityToken;
+
+public class QueryPagingTest {
+    private static final Logger log = LoggerFactory.getLogger(QueryPagingTest.class);
+    private static final int APP_COUNT = 20;
+    private static final Pattern SECUUID = Pattern.compile("secuuid = '([^']*)'");
+
+    private QueryGeneratorImpl qgImpl;
+    private int appLookups;
+    private EzSecurityToken token = MockEzSecurityToken.getMockAppToken("test", "test");
+
+    @Before
+    public void setUp() {
+        appLookups = 0;
+        IntentAppCatalog catalog = new IntentAppCatalog(null, 60000) {
+            @Override
+            protected List<String> loadAppNames(String intentName) {
+                appLookups++;
+                List<String> apps = new ArrayList<>();
+                for (int i = 0; i < APP_COUNT; i++) {
+                    apps.add(String.format("app%02d", i));
+                }
+                return apps;
+            }
+        };
+        qgImpl = new QueryGeneratorImpl(new SecurityStorageEmptyImpl(), catalog);
+    }
+
+    @Test
+    public void unionPageTest() throws Exception {
+        String res = qgImpl.generateSQLString(pageQuery(0, 10), token);
+
+        assertTrue(res.startsWith("SELECT ABC,DEF FROM (SELECT ABC,DEF FROM app00_PERSON WHERE secuuid = '"));
+        assertTrue(res.endsWith(") t ORDER BY 1 ASC LIMIT 10 OFFSET 0"));
+        assertEquals(APP_COUNT - 1, res.split(" UNION ALL ").length - 1);
+
+        // Each union branch opens its own scan, which consumes the token stored under its own uuid
+        Set<String> uuids = new HashSet<>();
+        Matcher matcher = SECUUID.matcher(res);
+        while (matcher.find()) {
+            uuids.add(matcher.group(1));
+        }
+        assertEquals(APP_COUNT, uuids.size());
+    }
+
+    @Test
+    public void appsAreCachedTest() throws Exception {
+        String first = qgImpl.generateSQLString(pageQuery(0, 10), token);
+        String second = qgImpl.generateSQLString(pageQuery(10, 10), token);
+
+        assertEquals(1, appLookups);
+        assertTrue(second.endsWith("LIMIT 10 OFFSET 10"));
+        assertEquals(stripUuids(first).replace("OFFSET 0", "OFFSET 10"), stripUuids(second));
+    }
+
+    @Test
+    public void resumePositionTest() throws Exception {
+        Query query = pageQuery(0, 3);
+        List<TRow> page = rows("a", "b", "b");
+
+        ResumePosition position = qgImpl.nextPosition(query, page, null);
+        assertNotNull(position);
+        assertEquals(3, position.getOffset());
+        assertEquals(2, position.getSkip());
+
+        String res = qgImpl.generateSQLString(pageQuery(3, 3), token, position);
+        assertTrue(res.contains("AND (ABC > 'b' OR ABC IS NULL OR ABC = 'b')"));
+        assertTrue(res.endsWith("LIMIT 3 OFFSET 2"));
+
+        // A position for another page is ignored
+        res = qgImpl.generateSQLString(pageQuery(6, 3), token, position);
+        assertTrue(!res.contains("ABC > 'b'"));
+        assertTrue(res.endsWith("LIMIT 3 OFFSET 6"));
+    }
+
+    @Test
+    public void resumePositionNotAvailableTest() throws Exception {
+        // Last page
+        assertNull(qgImpl.nextPosition(pageQuery(0, 3), rows("a", "b"), null));
+        // Whole page ties and the ties before it are unknown
+        assertNull(qgImpl.nextPosition(pageQuery(3, 3), rows("b", "b", "b"), null));
+        // Null sort value
+        List<TRow> page = rows("a", "b");
+        page.add(new TRow(Collections.singletonList(TColumnValue.stringVal(new TStringValue()))));
+        assertNull(qgImpl.nextPosition(pageQuery(0, 3), page, null));
+    }
+
+    /**
+     * Page through a synthetic union of 20 applications, comparing keyset pages against OFFSET pages and how many
+     * sorted rows each strategy has to produce to serve every page
+     */
+    @Test
+    public void deepPagingTest() throws Exception {
+        int rowsPerApp = 500;
+        int pageSize = 25;
+        List<String> union = new ArrayList<>();
+        for (int app = 0; app < APP_COUNT; app++) {
+            for (int i = 0; i < rowsPerApp; i++) {
+                // lots of ties across applications and pages
+                union.add(String.format("v%05d", i / 7));
+            }
+        }
+        Collections.sort(union);
+
+        long offsetRows = 0;
+        long keysetRows = 0;
+        long generateNanos = 0;
+        ResumePosition position = null;
+        for (int offset = 0; offset < union.size(); offset += pageSize) {
+            Query query = pageQuery(offset, pageSize);
+            long start = System.nanoTime();
+            String sql = qgImpl.generateSQLString(query, token, position);
+            generateNanos += System.nanoTime() - start;
+
+            List<String> expected = union.subList(offset, Math.min(offset + pageSize, union.size()));
+            offsetRows += offset + expected.size();
+
+            List<String> page;
+            if (position == null) {
+                assertTrue(sql.endsWith("OFFSET " + offset));
+                keysetRows += offset + expected.size();
+                page = expected;
+            } else {
+                // Execute the resume predicate against the synthetic union
+                String resumeValue = position.getSortValues().get(0);
+                assertTrue(sql.contains("ABC > " + resumeValue));
+                List<String> remaining = new ArrayList<>();
+                for (String value : union) {
+                    if (("'" + value + "'").compareTo(resumeValue) >= 0) {
+                        remaining.add(value);
+                    }
+                }
+                keysetRows += position.getSkip() + pageSize;
+                page = remaining.subList((int) position.getSkip(),
+                        (int) Math.min(position.getSkip() + pageSize, remaining.size()));
+            }
+            assertEquals(expected, page);
+
+            position = qgImpl.nextPosition(query, rows(page.toArray(new String[page.size()])), position);
+        }
+
+        log.info("{} pages over {} apps: OFFSET sorts {} rows, resuming sorts {} rows, generating SQL took {}ms",
+                union.size() / pageSize, APP_COUNT, offsetRows, keysetRows, generateNanos / 1000000);
+        assertTrue(keysetRows < offsetRows / 10);
+    }
+
+    private static Query pageQuery(int offset, int pageSize) {
+        Query q = new Query();
+        List<String> reqCols = new ArrayList<>();
+        reqCols.add("ABC");
+        reqCols.add("DEF");
+        q.setRequestedColumns(reqCols);
+
+        QueryAtom maintable = new QueryAtom();
+        maintable.setIntent(IntentType.PERSON);
+        q.setPrimaryQuery(maintable);
+        q.setPage(new Page(offset, (short) pageSize));
+        return q;
+    }
+
+    private static List<TRow> rows(String... values) {
+        List<TRow> rows = new ArrayList<>();
+        for (String value : values) {
+            List<TColumnValue> columns = new ArrayList<>();
+            columns.add(TColumnValue.stringVal(new TStringValue().setValue(value)));
+            columns.add(TColumnValue.stringVal(new TStringValue().setValue("def")));
+            rows.add(new TRow(columns));
+        }
+        return rows;
+    }
+
+    private static String stripUuids(String sql) {
+        return SECUUID.matcher(sql).replaceAll("secuuid = ''");
+    }
+}
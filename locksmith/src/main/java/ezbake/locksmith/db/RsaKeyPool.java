@@ -0,0 +1,212 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.locksmith.db;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ezbake.crypto.RSAKeyCrypto;
+
+/**
+ * Pool of pre-generated RSA private keys (PEM encoded), so that callers don't pay for key generation on the request
+ * thread. Once the pool drops below the low water mark a background thread generates keys until it reaches the high
+ * water mark again. Keys are only held in memory; a key is persisted when it is handed out and assigned an id.
+ *
+ * The pooled keys are private key material sitting in the heap, so the pool holds at most {@link #MAX_SIZE} keys and
+ * a key that has not been handed out within the maximum age is dropped and replaced by a new one.
+ *
+ * If the pool is empty, keys are generated on the calling thread.
+ */
+public class RsaKeyPool implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(RsaKeyPool.class);
+
+    public static final int MAX_SIZE = 1000;
+
+    private final int lowWaterMark;
+    private final int highWaterMark;
+    private final long maxAgeNanos;
+    private final Ticker ticker;
+    private final LinkedBlockingQueue<PooledKey> keys;
+    private final AtomicBoolean filling = new AtomicBoolean(false);
+    private final ScheduledExecutorService filler;
+
+    private static class PooledKey {
+        final String pem;
+        final long generatedNanos;
+
+        PooledKey(String pem, long generatedNanos) {
+            this.pem = pem;
+            this.generatedNanos = generatedNanos;
+        }
+    }
+
+    /**
+     * @param lowWaterMark refill the pool when it holds fewer than this many keys
+     * @param highWaterMark the number of keys to refill the pool to, at most {@link #MAX_SIZE}
+     * @param maxAge how long a key may wait in the pool before it is dropped
+     */
+    public RsaKeyPool(int lowWaterMark, int highWaterMark, long maxAge, TimeUnit unit) {
+        this(lowWaterMark, highWaterMark, maxAge, unit, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    RsaKeyPool(int lowWaterMark, int highWaterMark, long maxAge, TimeUnit unit, Ticker ticker) {
+        if (highWaterMark <= 0 || highWaterMark > MAX_SIZE || lowWaterMark < 0 || lowWaterMark > highWaterMark) {
+            throw new IllegalArgumentException("Invalid RSA key pool water marks: low " + lowWaterMark + ", high " +
+                    highWaterMark);
+        }
+        if (maxAge <= 0) {
+            throw new IllegalArgumentException("Invalid RSA key pool maximum age: " + maxAge + " " + unit);
+        }
+        this.lowWaterMark = lowWaterMark;
+        this.highWaterMark = highWaterMark;
+        this.maxAgeNanos = unit.toNanos(maxAge);
+        this.ticker = ticker;
+        this.keys = new LinkedBlockingQueue<>(highWaterMark);
+        this.filler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("rsa-key-pool-%d").setDaemon(true).build());
+        // Drop expired keys even while nobody takes any
+        long purgeMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(maxAgeNanos) / 2);
+        filler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                purgeExpired();
+            }
+        }, purgeMillis, purgeMillis, TimeUnit.MILLISECONDS);
+        fill();
+    }
+
+    /**
+     * Take a key from the pool, generating one on the calling thread if the pool is empty
+     *
+     * @return a PEM encoded RSA private key that has not been handed out before
+     */
+    public String take() {
+        PooledKey key = keys.poll();
+        while (key != null && isExpired(key)) {
+            key = keys.poll();
+        }
+        if (keys.size() < lowWaterMark) {
+            fill();
+        }
+        if (key == null) {
+            log.debug("RSA key pool is empty, generating a key on the request thread");
+            return generate();
+        }
+        return key.pem;
+    }
+
+    /**
+     * @return the number of keys currently in the pool
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    /**
+     * @return whether the background thread is currently refilling the pool
+     */
+    public boolean isFilling() {
+        return filling.get();
+    }
+
+    @Override
+    public void close() {
+        filler.shutdownNow();
+        keys.clear();
+    }
+
+    /**
+     * Wait for a running refill to finish, for tests
+     */
+    boolean awaitFilled(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (filling.get() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        return !filling.get();
+    }
+
+    /**
+     * Drop the keys that have been in the pool longer than the maximum age, and refill the pool
+     *
+     * @return the number of keys dropped
+     */
+    @VisibleForTesting
+    int purgeExpired() {
+        int purged = 0;
+        Iterator<PooledKey> pooled = keys.iterator();
+        while (pooled.hasNext()) {
+            if (isExpired(pooled.next())) {
+                pooled.remove();
+                purged++;
+            }
+        }
+        if (purged > 0) {
+            log.debug("Dropped {} expired keys from the RSA key pool", purged);
+        }
+        if (keys.size() < lowWaterMark) {
+            fill();
+        }
+        return purged;
+    }
+
+    private boolean isExpired(PooledKey key) {
+        return ticker.read() - key.generatedNanos > maxAgeNanos;
+    }
+
+    private void fill() {
+        if (!filling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            filler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (!Thread.currentThread().isInterrupted() && keys.size() < highWaterMark) {
+                            if (!keys.offer(new PooledKey(generate(), ticker.read()))) {
+                                break;
+                            }
+                        }
+                        log.debug("RSA key pool filled to {} keys", keys.size());
+                    } catch (RuntimeException e) {
+                        log.error("Failed to fill the RSA key pool", e);
+                    } finally {
+                        filling.set(false);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            // Rejected after close
+            filling.set(false);
+        }
+    }
+
+    private static String generate() {
+        return new RSAKeyCrypto().getPrivatePEM();
+    }
+}
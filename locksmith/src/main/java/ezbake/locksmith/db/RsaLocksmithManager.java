@@ -14,11 +14,20 @@
 
 package ezbake.locksmith.db;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.mongodb.*;
 
+import ezbake.common.properties.EzProperties;
 import ezbake.security.lock.smith.thrift.KeyExistsException;
 import ezbake.security.lock.smith.thrift.KeyNotFoundException;
 import ezbake.crypto.RSAKeyCrypto;
@@ -28,56 +37,135 @@ import org.slf4j.LoggerFactory;
 public class RsaLocksmithManager extends AbstractLocksmithManager {
     public static final Logger logger = LoggerFactory.getLogger(RsaLocksmithManager.class);
 
+    public static final String POOL_LOW_WATER_MARK = "locksmith.rsa.pool.low";
+    public static final String POOL_HIGH_WATER_MARK = "locksmith.rsa.pool.high";
+    public static final String POOL_MAX_AGE_SECONDS = "locksmith.rsa.pool.max.age.seconds";
+    public static final String CACHE_SIZE = "locksmith.rsa.cache.size";
+    public static final String CACHE_TTL_SECONDS = "locksmith.rsa.cache.ttl.seconds";
+
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final RsaKeyPool keyPool;
+    // Holds private key data in the heap, so it is bounded in size and expires entries.  Keys may also be removed or
+    // claimed by other locksmith instances, the TTL bounds how long this one serves stale keys.
+    private final Cache<String, KeyRecord> keyCache;
+
 	public RsaLocksmithManager(String tableName, Properties ezConfig) {
 		super(tableName, ezConfig);
+        EzProperties props = new EzProperties(ezConfig, true);
+
+        int highWaterMark = props.getInteger(POOL_HIGH_WATER_MARK, 20);
+        keyPool = highWaterMark > 0 ? new RsaKeyPool(props.getInteger(POOL_LOW_WATER_MARK, 5), highWaterMark,
+                props.getLong(POOL_MAX_AGE_SECONDS, 3600), TimeUnit.SECONDS) : null;
+        keyCache = CacheBuilder.newBuilder()
+                .maximumSize(props.getLong(CACHE_SIZE, 1000))
+                .expireAfterWrite(props.getLong(CACHE_TTL_SECONDS, 300), TimeUnit.SECONDS)
+                .build();
+        ensureUniqueKeyIds();
 	}
 
+    /**
+     * Key data, ownership and the derived public key of a stored key
+     */
+    private static class KeyRecord {
+        final byte[] keyData;
+        final String owner;
+        final Set<String> sharedWith;
+        volatile String publicKey;
+
+        KeyRecord(byte[] keyData, String owner, String... sharedWith) {
+            this.keyData = keyData;
+            this.owner = owner;
+            this.sharedWith = sharedWith == null ? Collections.<String>emptySet() :
+                    Collections.unmodifiableSet(new HashSet<>(Arrays.asList(sharedWith)));
+        }
+
+        KeyRecord(DBObject obj) {
+            keyData = (byte[]) obj.get(KEY_DATA);
+            owner = (String) obj.get(KEY_OWNER);
+            Object access = obj.get(ACCESS_LIST);
+            Set<String> shared = new HashSet<>();
+            if (access instanceof Collection) {
+                for (Object user : (Collection<?>) access) {
+                    shared.add((String) user);
+                }
+            }
+            sharedWith = Collections.unmodifiableSet(shared);
+        }
+
+        boolean visibleTo(String user) {
+            return user == null || user.equals(owner) || sharedWith.contains(user);
+        }
+
+        String getPublicKey() {
+            if (publicKey == null) {
+                publicKey = RSAKeyCrypto.getPublicFromPrivatePEM(new String(keyData));
+            }
+            return publicKey;
+        }
+    }
+
 	@Override
 	public byte[] generateKey(String keyId, String owner, String... sharedwith) throws KeyExistsException {
-		byte[] data = new RSAKeyCrypto().getPrivatePEM().getBytes();
-		return insertKey(keyId, data, owner, sharedwith);
+		String pem = keyPool != null ? keyPool.take() : new RSAKeyCrypto().getPrivatePEM();
+		return insertKey(keyId, pem.getBytes(), owner, sharedwith);
 	}
 
+    /**
+     * Insert the key, or take ownership of an existing key that has no owner yet. Inserting is a single upsert that
+     * only sets fields when it creates the document and returns the document it found, if any; only claiming an
+     * unowned key takes a second, conditional update.
+     *
+     * @return the inserted key, or the existing key if ownership was taken
+     */
 	@Override
 	public byte[] insertKey(String keyId, byte[] keyData, String owner, String... sharedWith) throws KeyExistsException {
-        byte[] insertedKey = keyData;
-
-		if(!keyExists(keyId)) {
-			BasicDBObject doc = new BasicDBObject(KEY_ID, keyId)
-                    .append(KEY_DATA, keyData)
-                    .append(KEY_OWNER, owner)
-                    .append(ACCESS_LIST, sharedWith);
+        DBCollection coll = mongoService.getMongoDB().getCollection(getTableName());
+        DBObject insert = new BasicDBObjectBuilder().push("$setOnInsert")
+                .add(KEY_DATA, keyData)
+                .add(KEY_OWNER, owner)
+                .add(ACCESS_LIST, sharedWith)
+                .pop().get();
+
+        DBObject existing;
+        try {
+            existing = coll.findAndModify(new BasicDBObject(KEY_ID, keyId), null, null, false, insert, false, true);
+        } catch (MongoException e) {
+            if (e.getCode() == DUPLICATE_KEY) {
+                throw new KeyExistsException("The keyId [" + keyId + "] Already Exists.");
+            }
+            throw e;
+        } finally {
+            keyCache.invalidate(keyId);
+        }
 
-			mongoService.insertDocumentIntoCollection(getTableName(), doc);
-		} else {
-            // Try to claim ownership
-            DBObject keyQuery = keyQuery(keyId);
-            DBObject projection = new BasicDBObject(KEY_OWNER, 1).append(KEY_DATA, 1);
+        if (existing == null) {
+            keyCache.put(keyId, new KeyRecord(keyData, owner, sharedWith));
+            return keyData;
+        }
 
-            Iterator<DBObject> it = mongoService.findInCollection(getTableName(), keyQuery, projection).iterator();
-            if (it.hasNext()) {
-                DBObject obj = it.next();
-                String keyOwner = (String) obj.get(KEY_OWNER);
-                insertedKey = (byte[]) obj.get(KEY_DATA);
-                if (keyOwner == null) {
-                    // Take ownership
-                    DBObject upd = new BasicDBObjectBuilder().push("$set").add(KEY_OWNER, owner).pop().get();
-                    DBCollection coll = mongoService.getMongoDB().getCollection(getTableName());
-                    coll.update(keyQuery, upd);
-                } else {
-                    throw new KeyExistsException("The keyId [" + keyId + "] Already Exists.");
-                }
-            }
+        // Try to claim ownership
+        DBObject claimed = null;
+        if (existing.get(KEY_OWNER) == null) {
+            DBObject upd = new BasicDBObjectBuilder().push("$set").add(KEY_OWNER, owner).pop().get();
+            claimed = coll.findAndModify(new BasicDBObject(KEY_ID, keyId).append(KEY_OWNER, null), null, null, false,
+                    upd, true, false);
+        }
+        if (claimed == null) {
+            throw new KeyExistsException("The keyId [" + keyId + "] Already Exists.");
         }
-        return insertedKey;
+        KeyRecord record = new KeyRecord(claimed);
+        keyCache.put(keyId, record);
+        return record.keyData;
 	}
 
 	@Override
 	public void removeKey(String keyId, String owner) throws KeyNotFoundException {
-		
+
 		if(keyExists(keyId)) {
 			BasicDBObject doc = new BasicDBObject(KEY_ID, keyId).append(KEY_OWNER, owner);
 			mongoService.removeDocumentFromCollection(getTableName(), doc);
+			keyCache.invalidate(keyId);
 		} else {
             throw new KeyNotFoundException("The KeyId [" + keyId + "] Does Not Exist");
         }
@@ -85,39 +173,61 @@ public class RsaLocksmithManager extends AbstractLocksmithManager {
 
 	@Override
 	public byte[] getKey(String keyId, String owner) throws KeyNotFoundException {
-		byte[] result = null;
-		
-        BasicDBObject projection = new BasicDBObject();
-        projection.put(KEY_ID, 1);
-        projection.put(KEY_DATA, 1);
-
-        DBCursor cursor = mongoService.findInCollection(getTableName(), keyQuery(keyId, owner), projection);
-        Iterator<DBObject> it = cursor.iterator();
-
-        if(it.hasNext()) {
-            DBObject obj = it.next();
-            result = (byte[])obj.get(KEY_DATA);
-        } else {
+        KeyRecord record = getRecord(keyId);
+        if (record == null || !record.visibleTo(owner)) {
             throw new KeyNotFoundException("No key found for key ID: "+keyId+", Owner: "+owner);
         }
-
-		return result;
+		return record.keyData;
 	}
 
 	public String getPublicKey(String keyId) throws KeyExistsException {
-        // Get the key
-        DBObject keyQuery = new BasicDBObjectBuilder().add(KEY_ID, keyId).get();
-        DBObject projection = new BasicDBObjectBuilder().add(KEY_DATA, 1).get();
-
-        Iterator<DBObject> keyIt = mongoService.findInCollection(getTableName(), keyQuery, projection).iterator();
-        byte[] key;
-        if (keyIt.hasNext()) {
-             key = (byte[]) keyIt.next().get(KEY_DATA);
-        } else {
-            key = generateKey(keyId, null);
+        KeyRecord record = getRecord(keyId);
+        if (record == null) {
+            try {
+                generateKey(keyId, null);
+            } catch (KeyExistsException e) {
+                // Lost a race with an owner claiming the key, use theirs
+                logger.debug("Key {} was created concurrently", keyId);
+            }
+            record = getRecord(keyId);
+            if (record == null) {
+                throw new KeyExistsException("The keyId [" + keyId + "] could not be generated");
+            }
         }
 
-        return RSAKeyCrypto.getPublicFromPrivatePEM(new String(key));
+        return record.getPublicKey();
 	}
-	
+
+    @Override
+    public void close() {
+        if (keyPool != null) {
+            keyPool.close();
+        }
+        super.close();
+    }
+
+    private KeyRecord getRecord(String keyId) {
+        KeyRecord record = keyCache.getIfPresent(keyId);
+        if (record == null) {
+            DBObject projection = new BasicDBObject(KEY_DATA, 1).append(KEY_OWNER, 1).append(ACCESS_LIST, 1);
+            Iterator<DBObject> it = mongoService.findInCollection(getTableName(), keyQuery(keyId), projection).iterator();
+            if (it.hasNext()) {
+                record = new KeyRecord(it.next());
+                keyCache.put(keyId, record);
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Concurrent upserts of the same key id only turn into a duplicate key error with a unique index
+     */
+    private void ensureUniqueKeyIds() {
+        try {
+            mongoService.getMongoDB().getCollection(getTableName())
+                    .createIndex(new BasicDBObject(KEY_ID, 1), new BasicDBObject("unique", true));
+        } catch (MongoException e) {
+            logger.warn("Unable to create a unique index on {} of {}", KEY_ID, getTableName(), e);
+        }
+    }
 }
@@ -0,0 +1,61 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.locksmith.db;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ezbake.crypto.RSAKeyCrypto;
+
+/**
+ * p99 latency of handing out a key with and without a filled pool.  Only run with the benchmark profile.
+ */
+public class RsaKeyPoolBenchmark {
+    private static Logger log = LoggerFactory.getLogger(RsaKeyPoolBenchmark.class);
+    private static final int SAMPLES = 100;
+
+    @Test
+    public void generateKey() throws InterruptedException {
+        long[] unpooled = new long[SAMPLES];
+        for (int i = 0; i < SAMPLES; ++i) {
+            long start = System.nanoTime();
+            new RSAKeyCrypto().getPrivatePEM();
+            unpooled[i] = System.nanoTime() - start;
+        }
+
+        long[] pooled = new long[SAMPLES];
+        try (RsaKeyPool pool = new RsaKeyPool(0, SAMPLES, 1, TimeUnit.HOURS)) {
+            pool.awaitFilled(30, TimeUnit.MINUTES);
+            for (int i = 0; i < SAMPLES; ++i) {
+                long start = System.nanoTime();
+                pool.take();
+                pooled[i] = System.nanoTime() - start;
+            }
+        }
+
+        log.info("generateKey p99: {}us unpooled, {}us pooled", TimeUnit.NANOSECONDS.toMicros(p99(unpooled)),
+                TimeUnit.NANOSECONDS.toMicros(p99(pooled)));
+    }
+
+    private static long p99(long[] latencies) {
+        long[] sorted = Arrays.copyOf(latencies, latencies.length);
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(sorted.length * 0.99) - 1];
+    }
+}
@@ -0,0 +1,110 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.locksmith.db;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+
+import ezbake.crypto.RSAKeyCrypto;
+
+public class RsaKeyPoolTest {
+    @Test
+    public void testFillsToHighWaterMark() throws InterruptedException {
+        try (RsaKeyPool pool = new RsaKeyPool(2, 5, 1, TimeUnit.HOURS)) {
+            Assert.assertTrue(pool.awaitFilled(1, TimeUnit.MINUTES));
+            Assert.assertEquals(5, pool.size());
+        }
+    }
+
+    @Test
+    public void testKeysAreDistinctAndValid() throws Exception {
+        try (RsaKeyPool pool = new RsaKeyPool(1, 3, 1, TimeUnit.HOURS)) {
+            Set<String> keys = new HashSet<>();
+            for (int i = 0; i < 6; ++i) {
+                String pem = pool.take();
+                new RSAKeyCrypto(pem, true);
+                keys.add(pem);
+            }
+            Assert.assertEquals(6, keys.size());
+        }
+    }
+
+    @Test
+    public void testRefillsBelowLowWaterMark() throws InterruptedException {
+        try (RsaKeyPool pool = new RsaKeyPool(3, 4, 1, TimeUnit.HOURS)) {
+            Assert.assertTrue(pool.awaitFilled(1, TimeUnit.MINUTES));
+
+            // Still at the low water mark, no refill
+            pool.take();
+            Assert.assertFalse(pool.isFilling());
+            Assert.assertEquals(3, pool.size());
+
+            pool.take();
+            Assert.assertTrue(pool.awaitFilled(1, TimeUnit.MINUTES));
+            Assert.assertEquals(4, pool.size());
+        }
+    }
+
+    @Test
+    public void testGeneratesOnCallerWhenClosed() {
+        RsaKeyPool pool = new RsaKeyPool(1, 1, 1, TimeUnit.HOURS);
+        pool.close();
+        Assert.assertNotNull(pool.take());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidWaterMarks() {
+        new RsaKeyPool(5, 2, 1, TimeUnit.HOURS);
+    }
+
+    @Test
+    public void testDropsExpiredKeys() throws InterruptedException {
+        FakeTicker ticker = new FakeTicker();
+        try (RsaKeyPool pool = new RsaKeyPool(0, 2, 1, TimeUnit.MINUTES, ticker)) {
+            Assert.assertTrue(pool.awaitFilled(1, TimeUnit.MINUTES));
+            Assert.assertEquals(0, pool.purgeExpired());
+            Assert.assertEquals(2, pool.size());
+
+            ticker.advance(2, TimeUnit.MINUTES);
+            Assert.assertEquals(2, pool.purgeExpired());
+            Assert.assertEquals(0, pool.size());
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testPoolSizeIsBounded() {
+        new RsaKeyPool(0, RsaKeyPool.MAX_SIZE + 1, 1, TimeUnit.HOURS);
+    }
+
+    private static class FakeTicker extends Ticker {
+        private final AtomicLong nanos = new AtomicLong();
+
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+
+        void advance(long time, TimeUnit unit) {
+            nanos.addAndGet(unit.toNanos(time));
+        }
+    }
+}
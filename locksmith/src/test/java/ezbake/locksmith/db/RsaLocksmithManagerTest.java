@@ -23,6 +23,7 @@ import ezbake.configuration.ClasspathConfigurationLoader;
 import ezbake.configuration.EzConfiguration;
 import org.junit.After;
 import org.junit.Assert;
+import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -45,13 +46,19 @@ public class RsaLocksmithManagerTest extends BaseTest {
 	public static void init() throws Exception {
         ezConfig = new EzConfiguration(new ClasspathConfigurationLoader());
         BaseTest.init();
-        rsaManager =  new RsaLocksmithManager("rsa_keys", ezConfig.getProperties());
 		mongoService = new MongoDBService(ezConfiguration);
 	}
+
+	@Before
+	public void setUp() {
+		// New manager per test, so that its key cache does not outlive the dropped collection
+		rsaManager = new RsaLocksmithManager("rsa_keys", ezConfig.getProperties());
+	}
 	
 	@After
 	public void clean() throws KeyNotFoundException {
 		mongoService.dropCollectionFromDb(rsaManager.getTableName());
+		rsaManager.close();
 	}
 
 	@Test
@@ -151,4 +158,28 @@ public class RsaLocksmithManagerTest extends BaseTest {
 
         rsaManager.generateKey(keyId, "John");
     }
+
+    @Test(expected=KeyNotFoundException.class)
+    public void testRemovedKeyNotServedFromCache() throws KeyExistsException, KeyNotFoundException {
+        String keyId = "cached key";
+        rsaManager.generateKey(keyId, "TEST");
+        Assert.assertNotNull(rsaManager.getKey(keyId, "TEST"));
+
+        rsaManager.removeKey(keyId, "TEST");
+        rsaManager.getKey(keyId, "TEST");
+    }
+
+    @Test
+    public void testSharedKeyVisibleFromCache() throws KeyExistsException, KeyNotFoundException {
+        String keyId = "shared key";
+        byte[] key = rsaManager.generateKey(keyId, "TEST", "FRIEND");
+
+        Assert.assertArrayEquals(key, rsaManager.getKey(keyId, "FRIEND"));
+        try {
+            rsaManager.getKey(keyId, "ANOTHER_USER");
+            Assert.fail("Key should not be visible to users it is not shared with");
+        } catch (KeyNotFoundException e) {
+            // expected
+        }
+    }
 }
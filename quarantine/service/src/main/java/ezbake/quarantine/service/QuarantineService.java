@@ -16,6 +16,7 @@ package ezbake.quarantine.service;
 
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
+import com.google.common.base.Predicate;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
@@ -30,6 +31,8 @@ import ezbake.data.elastic.common.VisibilityFilterConfig;
 import ezbake.quarantine.service.util.ElasticsearchUtility;
 import ezbake.quarantine.service.util.EncryptionUtility;
 import ezbake.quarantine.service.util.IDGenerationUtility;
+import ezbake.quarantine.service.util.PipeCounters;
+import ezbake.quarantine.service.util.StatusUpdater;
 import ezbake.quarantine.service.util.TokenUtility;
 import ezbake.quarantine.thrift.*;
 import ezbake.security.client.EzSecurityTokenWrapper;
@@ -51,6 +54,8 @@ import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.deletebyquery.DeleteByQueryResponse;
 import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetRequestBuilder;
 import org.elasticsearch.action.get.MultiGetResponse;
 import org.elasticsearch.action.index.IndexRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
@@ -80,7 +85,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This service is used to place content that failed ingest into Quarantine.
@@ -88,11 +97,17 @@ import java.util.concurrent.ExecutionException;
 public class QuarantineService extends EzBakeBaseThriftService implements Quarantine.Iface {
     private static final Logger log = LoggerFactory.getLogger(QuarantineService.class);
     public static final String SYSTEM_VISIBILITY_PROP = "quarantine.system.visibility";
+    public static final String COUNTERS_ENABLED_PROP = "quarantine.counters.enabled";
+    public static final String COUNTERS_RECONCILE_SECONDS_PROP = "quarantine.counters.reconcile.seconds";
     private Client elastic;
     private EzbakeSecurityClient security;
     private String quarantineSecurityId;
     private boolean forceRefresh;
     private ElasticsearchUtility utility;
+    private StatusUpdater statusUpdater;
+    private final ConcurrentMap<String, StatusUpdater.Progress> statusUpdates = Maps.newConcurrentMap();
+    private PipeCounters counters;
+    private ScheduledExecutorService counterReconciler;
     private static AuditLogger auditLogger;
 
     private static final VisibilityFilterConfig READ_CONFIG = new VisibilityFilterConfig(ElasticsearchUtility.OBJECT_METADATA_VISIBILITY, Sets.newHashSet(Permission.READ));
@@ -145,12 +160,37 @@ public class QuarantineService extends EzBakeBaseThriftService implements Quaran
             client.addTransportAddress(new InetSocketTransportAddress(host, port));
         }
         elastic = client;
+        statusUpdater = new StatusUpdater(elastic);
         boolean indexExists = elastic.admin().indices().prepareExists(ElasticsearchUtility.QUARANTINE_ELASTIC_INDEX).get().isExists();
         if (!indexExists) {
             elastic.admin().indices().prepareCreate(ElasticsearchUtility.QUARANTINE_ELASTIC_INDEX)
                     .addMapping(ElasticsearchUtility.METADATA_TYPE, ElasticsearchUtility.getMetadataMapping()).get();
         }
         forceRefresh = props.getBoolean(EzBakePropertyConstants.ELASTICSEARCH_FORCE_REFRESH_ON_PUT, false);
+
+        // setup the in-process counters used for the per pipe summaries
+        if (props.getBoolean(COUNTERS_ENABLED_PROP, false)) {
+            counters = new PipeCounters();
+            long reconcileSeconds = props.getLong(COUNTERS_RECONCILE_SECONDS_PROP, 300);
+            counterReconciler = Executors.newSingleThreadScheduledExecutor();
+            counterReconciler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        counters.reconcile(elastic);
+                    } catch (Exception e) {
+                        log.error("Could not reconcile quarantine counters", e);
+                    }
+                }
+            }, 0, reconcileSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        if (counterReconciler != null) {
+            counterReconciler.shutdownNow();
+        }
     }
 
     /**
@@ -189,11 +229,18 @@ public class QuarantineService extends EzBakeBaseThriftService implements Quaran
                         .setRefresh(forceRefresh);
                 ElasticsearchUtility.addScriptToUpdateRequest(builder, newValue, status, error);
                 builder.get();
+                if (counters != null) {
+                    PipeCounters.Key oldKey = PipeCounters.Key.fromSource(getResponse.getSource());
+                    counters.move(oldKey, oldKey.withStatusAndEvent(status, error), id, EventType.ERROR, timestamp);
+                }
             } else {
-                String newDoc = utility.getDocumentFromObject(qo, token, status, error, EventType.ERROR, timestamp, additionalMetadata);
+                Map<String, Object> newDoc = utility.getDocumentMapFromObject(qo, token, status, error, EventType.ERROR, timestamp, additionalMetadata);
                 elastic.prepareIndex(ElasticsearchUtility.QUARANTINE_ELASTIC_INDEX, ElasticsearchUtility.METADATA_TYPE, id)
                                             .setRefresh(forceRefresh)
-                                            .setSource(newDoc).execute().actionGet();
+                                            .setSource(utility.toJson(newDoc)).execute().actionGet();
+                if (counters != null) {
+                    counters.add(PipeCounters.Key.fromSource(newDoc), id, EventType.ERROR, timestamp);
+                }
             }
         } catch (NoSuchAlgorithmException e) {
             log.error("Could not instantiate message digest instance", e);
@@ -244,6 +291,10 @@ public class QuarantineService extends EzBakeBaseThriftService implements Quaran
         auditArgs.put("statuses", Joiner.on(',').join(statuses));
         auditLog(token, AuditEventType.FileObjectAccess, auditArgs);
 
+        if (counters != null && counters.isAvailable(pipelineId)) {
+            return counters.getObjectCountPerPipe(pipelineId, statuses, getCounterFilter(token, true));
+        }
+
         Set<EventWithCount> results = Sets.newHashSet();
         SearchResponse response = elastic.prepareSearch(ElasticsearchUtility.QUARANTINE_ELASTIC_INDEX)
                                             .setTypes(ElasticsearchUtility.METADATA_TYPE)
@@ -384,6 +435,10 @@ public class QuarantineService extends EzBakeBaseThriftService implements Quaran
         auditArgs.put("statuses", Joiner.on(',').join(statuses));
         auditLog(token, AuditEventType.FileObjectAccess, auditArgs);
 
+        if (counters != null && counters.isAvailable(pipelineId)) {
+            return counters.getEventCountPerPipe(pipelineId, pipeId, statuses, getCounterFilter(token, true));
+        }
+
         Set<EventWithCount> results = Sets.newHashSet();
 
         SearchResponse response = elastic.prepareSearch(ElasticsearchUtility.QUARANTINE_ELASTIC_INDEX)
@@ -564,24 +619,59 @@ public class QuarantineService extends EzBakeBaseThriftService implements Quaran
             log.error("Attempted to update ID that was in {} state", ObjectStatus.CANNOT_BE_REINGESTED);
             throw new InvalidUpdateException(String.format("Cannot update set of IDs because the old status of this request is %s.", ObjectStatus.CANNOT_BE_REINGESTED));
         }
+        validateNewStatus(newStatus);
 
-        long countForThisPipe = getCountPerPipe(pipelineId, pipeId, Sets.newHashSet(oldStatus), token);
-        IdsResponse idsAndStatuses = getObjectsForPipeAndEvent(pipelineId, pipeId, oldEvent, Sets.newHashSet(oldStatus), 0, (int)countForThisPipe, token);
-        List<String> ids = Lists.transform(idsAndStatuses.getIds(), new Function<IdAndStatus, String>() {
-            @Override
-            public String apply(IdAndStatus input) {
-                return input.getId();
+        StatusUpdater.Progress progress = new StatusUpdater.Progress();
+        String progressKey = getStatusUpdateKey(pipelineId, pipeId, oldEvent);
+        statusUpdates.put(progressKey, progress);
+        long timestamp = System.currentTimeMillis();
+        try {
+            statusUpdater.updateStatus(utility.addSecurityIdQuery(token, QueryBuilders.boolQuery().must(QueryBuilders.matchQuery(ElasticsearchUtility.OBJECT_PIPE, pipeId))
+                            .must(QueryBuilders.matchQuery(ElasticsearchUtility.OBJECT_PIPELINE, pipelineId))
+                            .must(QueryBuilders.inQuery(ElasticsearchUtility.OBJECT_STATUS, Sets.newHashSet(oldStatus)))
+                            .must(QueryBuilders.matchQuery(ElasticsearchUtility.OBJECT_LATEST_EVENT, oldEvent))),
+                    ElasticUtils.getVisibilityFilter(token, READ_CONFIG), newStatus, updateComment, timestamp, progress);
+            if (counters != null) {
+                counters.moveAll(pipelineId, pipeId, oldStatus, oldEvent, newStatus, updateComment, timestamp, getCounterFilter(token, true));
+            }
+        } catch (TException e) {
+            if (counters != null) {
+                counters.markDirty(pipelineId);
             }
-        });
-        updateStatusById(ids, newStatus, updateComment, token);
+            throw e;
+        } finally {
+            statusUpdates.remove(progressKey, progress);
+        }
+        log.info("Updated status of event {} on {}/{}: {}", oldEvent, pipelineId, pipeId, progress);
     }
 
-    private void updateStatusById(List<String> ids, ObjectStatus status, String updateComment, EzSecurityToken token) throws TException, InvalidUpdateException {
-        long newTimestamp = System.currentTimeMillis();
+    /**
+     * Get the progress of a running updateStatusOfEvent call, so that long running status changes can be polled.
+     *
+     * @param pipelineId the pipeline of the event being updated
+     * @param pipeId the pipe of the event being updated
+     * @param event the event text being updated
+     * @return the progress of the update, or null if no update is running for this event
+     */
+    public StatusUpdater.Progress getStatusUpdateProgress(String pipelineId, String pipeId, String event) {
+        return statusUpdates.get(getStatusUpdateKey(pipelineId, pipeId, event));
+    }
 
+    private static String getStatusUpdateKey(String pipelineId, String pipeId, String event) {
+        return Joiner.on('|').join(pipelineId, pipeId, event);
+    }
+
+    private static void validateNewStatus(ObjectStatus status) throws InvalidUpdateException {
         if (status == ObjectStatus.CANNOT_BE_REINGESTED) {
             throw new InvalidUpdateException(String.format("%s is not a valid status for update", status.toString()));
         }
+    }
+
+    private void updateStatusById(List<String> ids, ObjectStatus status, String updateComment, EzSecurityToken token) throws TException, InvalidUpdateException {
+        long newTimestamp = System.currentTimeMillis();
+
+        validateNewStatus(status);
+        Map<String, PipeCounters.Key> counterKeys = getCounterKeys(ids);
 
         try {
             BulkRequestBuilder builder = new BulkRequestBuilder(elastic);
@@ -614,11 +704,95 @@ public class QuarantineService extends EzBakeBaseThriftService implements Quaran
                 }
             }
         } catch (InterruptedException | ExecutionException e) {
+            markDirty(counterKeys);
             log.error("Exception thrown while attempting to update the status", e);
             throw new TException("Failed to execute update", e);
+        } catch (TException e) {
+            markDirty(counterKeys);
+            throw e;
+        }
+
+        if (counters != null) {
+            for (Map.Entry<String, PipeCounters.Key> entry : counterKeys.entrySet()) {
+                PipeCounters.Key key = entry.getValue();
+                counters.move(key, key.withStatusAndEvent(status, updateComment), entry.getKey(), EventType.STATUS_UPDATE, newTimestamp);
+            }
+        }
+    }
+
+    /**
+     * Look up the counter buckets the given objects currently belong to, so that the counters can be moved after a
+     * write. Returns an empty map if the counters are disabled.
+     */
+    private Map<String, PipeCounters.Key> getCounterKeys(List<String> ids) {
+        Map<String, PipeCounters.Key> keys = Maps.newHashMap();
+        if (counters == null || ids.isEmpty()) {
+            return keys;
+        }
+
+        MultiGetRequestBuilder request = elastic.prepareMultiGet();
+        for (String id : ids) {
+            request.add(new MultiGetRequest.Item(ElasticsearchUtility.QUARANTINE_ELASTIC_INDEX, ElasticsearchUtility.METADATA_TYPE, id)
+                    .fields(PipeCounters.KEY_FIELDS));
+        }
+        for (MultiGetItemResponse item : request.get().getResponses()) {
+            GetResponse get = item.getResponse();
+            if (get != null && get.isExists()) {
+                Map<String, Object> fields = Maps.newHashMap();
+                for (String field : PipeCounters.KEY_FIELDS) {
+                    if (get.getField(field) != null) {
+                        fields.put(field, get.getField(field).getValue());
+                    }
+                }
+                keys.put(get.getId(), PipeCounters.Key.fromSource(fields));
+            }
+        }
+        return keys;
+    }
+
+    private void markDirty(Map<String, PipeCounters.Key> counterKeys) {
+        if (counters == null) {
+            return;
+        }
+        for (PipeCounters.Key key : counterKeys.values()) {
+            counters.markDirty(key.getPipelineId());
         }
     }
 
+    /**
+     * Filter the counter buckets down to those the token could see through the equivalent Elasticsearch query.
+     *
+     * @param token the token of the caller
+     * @param checkVisibility whether to apply the metadata visibility filter in addition to the security ID check
+     */
+    private Predicate<PipeCounters.Key> getCounterFilter(final EzSecurityToken token, final boolean checkVisibility) {
+        final String securityId = TokenUtility.getSecurityId(token);
+        final boolean allSecurityIds = securityId.equals(quarantineSecurityId);
+        final Map<String, Boolean> permissions = Maps.newHashMap();
+        return new Predicate<PipeCounters.Key>() {
+            @Override
+            public boolean apply(PipeCounters.Key key) {
+                if (!allSecurityIds && !securityId.equals(key.getSecurityId())) {
+                    return false;
+                }
+                if (!checkVisibility) {
+                    return true;
+                }
+                Boolean permitted = permissions.get(key.getMetadataVisibility());
+                if (permitted == null) {
+                    try {
+                        permitted = utility.hasPermission(key.getMetadataVisibility(), token);
+                    } catch (TException e) {
+                        log.warn("Could not check permissions on quarantine counter visibility", e);
+                        permitted = false;
+                    }
+                    permissions.put(key.getMetadataVisibility(), permitted);
+                }
+                return permitted;
+            }
+        };
+    }
+
     @Override
     public ByteBuffer exportData(List<String> ids, String key, EzSecurityToken token) throws ObjectNotQuarantinedException, TException {
         TokenUtility.validateToken(security, token);
@@ -658,6 +832,7 @@ public class QuarantineService extends EzBakeBaseThriftService implements Quaran
             importResult.setDuplicateRecords(0);
             importResult.setRecordsImported(0);
             BulkRequestBuilder bulkRequestBuilder = elastic.prepareBulk();
+            Map<String, PipeCounters.Key> importedKeys = Maps.newHashMap();
             for (QuarantineResult result : list.getResults()) {
                 log.info("Importing ID {}", result.getId());
                 String id = result.getId();
@@ -671,15 +846,19 @@ public class QuarantineService extends EzBakeBaseThriftService implements Quaran
                     importResult.setDuplicateRecords(importResult.getDuplicateRecords() + 1);
                 } catch (ObjectNotQuarantinedException e) {
                     log.debug("Importing {} quarantine events for {}", result.getEventsSize(), id);
+                    Map<String, Object> newDoc = utility.getDocumentMapFromObject(object, token, status, events);
                     bulkRequestBuilder.add(new IndexRequestBuilder(elastic).setIndex(ElasticsearchUtility.QUARANTINE_ELASTIC_INDEX)
                                                     .setType(ElasticsearchUtility.METADATA_TYPE)
-                                                    .setId(id).setSource(utility.getDocumentFromObject(object, token, status, events)));
+                                                    .setId(id).setSource(utility.toJson(newDoc)));
+                    importedKeys.put(id, PipeCounters.Key.fromSource(newDoc));
 
                     importResult.setRecordsImported(importResult.getRecordsImported() + 1);
                 }
             }
             if (bulkRequestBuilder.numberOfActions() > 0) {
                 elastic.bulk(bulkRequestBuilder.request().refresh(forceRefresh)).get();
+                // Leave counting the imported objects and their event histories to the next reconciliation
+                markDirty(importedKeys);
             }
             return importResult;
         } catch (InterruptedException | ExecutionException e) {
@@ -701,6 +880,7 @@ public class QuarantineService extends EzBakeBaseThriftService implements Quaran
             auditLog(token, AuditEventType.FileObjectDelete, auditArgs);
         }
 
+        Map<String, PipeCounters.Key> counterKeys = getCounterKeys(ids);
         try {
             BulkRequestBuilder builder = new BulkRequestBuilder(elastic);
             for (int i = 0; i < ids.size(); i++) {
@@ -714,9 +894,16 @@ public class QuarantineService extends EzBakeBaseThriftService implements Quaran
                 elastic.bulk(builder.request().refresh(true)).get();
             }
         } catch (InterruptedException | ExecutionException e) {
+            markDirty(counterKeys);
             log.error("Exception thrown while attempting to delete objects", e);
             throw new TException("Failed to execute delete", e);
         }
+
+        if (counters != null) {
+            for (Map.Entry<String, PipeCounters.Key> entry : counterKeys.entrySet()) {
+                counters.remove(entry.getValue(), entry.getKey());
+            }
+        }
     }
 
     @Override
@@ -739,6 +926,9 @@ public class QuarantineService extends EzBakeBaseThriftService implements Quaran
                             .must(QueryBuilders.matchQuery(ElasticsearchUtility.OBJECT_STATUS, status))
                             .must(QueryBuilders.matchQuery(ElasticsearchUtility.OBJECT_LATEST_EVENT, eventText))))
                     .execute().actionGet();
+        if (counters != null) {
+            counters.removeAll(pipelineId, pipeId, status, eventText, getCounterFilter(token, false));
+        }
     }
 
     /**
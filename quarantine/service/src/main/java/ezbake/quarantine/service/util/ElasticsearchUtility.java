@@ -116,12 +116,21 @@ public class ElasticsearchUtility {
      * @throws TException
      */
     public String getDocumentFromObject(QuarantinedObject qo, EzSecurityToken token, ObjectStatus status, String eventText, EventType type, long timestamp, AdditionalMetadata metadata) throws TException {
+        return toJson(getDocumentMapFromObject(qo, token, status, eventText, type, timestamp, metadata));
+    }
+
+    /**
+     * Single event version of {@link #getDocumentMapFromObject(QuarantinedObject, EzSecurityToken, ObjectStatus, List)}.
+     *
+     * @throws TException
+     */
+    public Map<String, Object> getDocumentMapFromObject(QuarantinedObject qo, EzSecurityToken token, ObjectStatus status, String eventText, EventType type, long timestamp, AdditionalMetadata metadata) throws TException {
         QuarantineEvent event = new QuarantineEvent()
                 .setEvent(eventText)
                 .setAdditionalMetadata(metadata)
                 .setTimestamp(timestamp)
                 .setType(type);
-        return getDocumentFromObject(qo, token, status, Lists.newArrayList(event));
+        return getDocumentMapFromObject(qo, token, status, Lists.newArrayList(event));
     }
 
     /**
@@ -131,6 +140,16 @@ public class ElasticsearchUtility {
      * @throws TException
      */
     public String getDocumentFromObject(QuarantinedObject qo, EzSecurityToken token, ObjectStatus status, List<QuarantineEvent> objectEvents) throws TException {
+        return toJson(getDocumentMapFromObject(qo, token, status, objectEvents));
+    }
+
+    /**
+     * Same as {@link #getDocumentFromObject(QuarantinedObject, EzSecurityToken, ObjectStatus, List)}, but returns the
+     * document before it is converted to JSON so callers can read back computed fields such as the metadata visibility.
+     *
+     * @throws TException
+     */
+    public Map<String, Object> getDocumentMapFromObject(QuarantinedObject qo, EzSecurityToken token, ObjectStatus status, List<QuarantineEvent> objectEvents) throws TException {
         EzGroups.Client groupClient = null;
         try {
             // Use the groups service to attribute group permissions to the metadata that we put into Quarantine.
@@ -180,12 +199,16 @@ public class ElasticsearchUtility {
                 events.add(eventMap);
             }
             newDocumentMap.put(OBJECT_EVENTS, events);
-            return gson.toJson(newDocumentMap);
+            return newDocumentMap;
         } finally {
             pool.returnToPool(groupClient);
         }
     }
 
+    public String toJson(Map<String, Object> document) {
+        return gson.toJson(document);
+    }
+
     public BoolQueryBuilder addSecurityIdQuery(EzSecurityToken token, BoolQueryBuilder query) {
         if (!TokenUtility.getSecurityId(token).equals(quarantineSecurityId)) {
             query.must(QueryBuilders.matchQuery(ElasticsearchUtility.OBJECT_SECURITY_ID, TokenUtility.getSecurityId(token)));
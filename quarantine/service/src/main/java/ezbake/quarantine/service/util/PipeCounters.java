@@ -0,0 +1,405 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.quarantine.service.util;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Maps;
+import com.google.common.collect.ObjectArrays;
+import com.google.common.collect.Sets;
+import ezbake.quarantine.thrift.EventType;
+import ezbake.quarantine.thrift.EventWithCount;
+import ezbake.quarantine.thrift.ObjectStatus;
+import ezbake.quarantine.thrift.QuarantineEvent;
+import org.apache.thrift.TException;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process object counts for the quarantine summary queries, kept per (security ID, pipeline, pipe, status,
+ * latest event, metadata visibility). The counters are updated on the service write paths and periodically rebuilt
+ * from the index. Visibility is part of the key, so reads can apply the same permission checks as the Elasticsearch
+ * visibility filter without touching the index.
+ *
+ * Until the first reconciliation completes, and for any pipeline whose counters could not be maintained exactly
+ * (writes racing a reconciliation, removal of a bucket's latest object, failed bulk requests), {@link #isAvailable}
+ * returns false and callers should fall back to querying Elasticsearch.
+ */
+public class PipeCounters {
+    private static final Logger log = LoggerFactory.getLogger(PipeCounters.class);
+    private static final TimeValue SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+    private static final int RECONCILE_PAGE_SIZE = 1000;
+
+    public static final class Key {
+        private final String securityId;
+        private final String pipelineId;
+        private final String pipeId;
+        private final ObjectStatus status;
+        private final String latestEvent;
+        private final String metadataVisibility;
+
+        public Key(String securityId, String pipelineId, String pipeId, ObjectStatus status, String latestEvent, String metadataVisibility) {
+            this.securityId = securityId;
+            this.pipelineId = pipelineId;
+            this.pipeId = pipeId;
+            this.status = status;
+            this.latestEvent = latestEvent;
+            this.metadataVisibility = metadataVisibility;
+        }
+
+        /**
+         * Build a key from the stored fields of a quarantine document.
+         */
+        public static Key fromSource(Map<String, Object> source) {
+            return new Key((String) source.get(ElasticsearchUtility.OBJECT_SECURITY_ID),
+                    (String) source.get(ElasticsearchUtility.OBJECT_PIPELINE),
+                    (String) source.get(ElasticsearchUtility.OBJECT_PIPE),
+                    ObjectStatus.valueOf((String) source.get(ElasticsearchUtility.OBJECT_STATUS)),
+                    (String) source.get(ElasticsearchUtility.OBJECT_LATEST_EVENT),
+                    (String) source.get(ElasticsearchUtility.OBJECT_METADATA_VISIBILITY));
+        }
+
+        public Key withStatusAndEvent(ObjectStatus newStatus, String newEvent) {
+            return new Key(securityId, pipelineId, pipeId, newStatus, newEvent, metadataVisibility);
+        }
+
+        public String getSecurityId() {
+            return securityId;
+        }
+
+        public String getPipelineId() {
+            return pipelineId;
+        }
+
+        public String getMetadataVisibility() {
+            return metadataVisibility;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return status == other.status &&
+                    Objects.equal(securityId, other.securityId) &&
+                    Objects.equal(pipelineId, other.pipelineId) &&
+                    Objects.equal(pipeId, other.pipeId) &&
+                    Objects.equal(latestEvent, other.latestEvent) &&
+                    Objects.equal(metadataVisibility, other.metadataVisibility);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(securityId, pipelineId, pipeId, status, latestEvent, metadataVisibility);
+        }
+    }
+
+    private static final class Bucket {
+        private final AtomicLong count = new AtomicLong();
+        private volatile QuarantineEvent latest;
+
+        synchronized void offer(QuarantineEvent event) {
+            if (latest == null || event.getTimestamp() >= latest.getTimestamp()) {
+                latest = event;
+            }
+        }
+    }
+
+    /**
+     * Stored fields that make up a counter key.
+     */
+    public static final String[] KEY_FIELDS = new String[] {
+            ElasticsearchUtility.OBJECT_SECURITY_ID, ElasticsearchUtility.OBJECT_PIPELINE, ElasticsearchUtility.OBJECT_PIPE,
+            ElasticsearchUtility.OBJECT_STATUS, ElasticsearchUtility.OBJECT_LATEST_EVENT,
+            ElasticsearchUtility.OBJECT_METADATA_VISIBILITY
+    };
+
+    /**
+     * Fields the reconciliation reads from each document; everything else (notably the content) is left out.
+     */
+    private static final String[] RECONCILE_FIELDS = ObjectArrays.concat(KEY_FIELDS, ElasticsearchUtility.OBJECT_EVENTS);
+
+    private volatile ConcurrentMap<Key, Bucket> buckets;
+    private final Set<String> dirtyPipelines = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> touchedDuringReconcile = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile boolean reconciling;
+
+    /**
+     * Start counting from an empty index, without a reconciliation.
+     */
+    @VisibleForTesting
+    void initializeEmpty() {
+        buckets = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return true if the counters for the pipeline can be served without querying Elasticsearch
+     */
+    public boolean isAvailable(String pipelineId) {
+        return buckets != null && !dirtyPipelines.contains(pipelineId);
+    }
+
+    /**
+     * Record that an object entered the given bucket with the given latest event.
+     */
+    public void add(Key key, String id, EventType type, long timestamp) {
+        touch(key.pipelineId);
+        ConcurrentMap<Key, Bucket> current = buckets;
+        if (current == null) {
+            return;
+        }
+        getOrCreate(current, key).offer(toEvent(key, id, type, timestamp));
+    }
+
+    /**
+     * Record that an object left the given bucket.
+     */
+    public void remove(Key key, String id) {
+        touch(key.pipelineId);
+        ConcurrentMap<Key, Bucket> current = buckets;
+        if (current == null) {
+            return;
+        }
+        Bucket bucket = current.get(key);
+        if (bucket == null || bucket.count.decrementAndGet() < 0) {
+            markDirty(key.pipelineId);
+            return;
+        }
+        QuarantineEvent latest = bucket.latest;
+        if (latest != null && latest.getId() != null && latest.getId().equals(id) && bucket.count.get() > 0) {
+            // The summary event of this bucket has gone, we don't know which object replaces it
+            markDirty(key.pipelineId);
+        }
+    }
+
+    /**
+     * Record that an object moved from one bucket to another.
+     */
+    public void move(Key from, Key to, String id, EventType type, long timestamp) {
+        remove(from, id);
+        add(to, id, type, timestamp);
+    }
+
+    /**
+     * Move every visible object in the matching buckets to the new status and event, as done by a status update
+     * of a whole event.
+     */
+    public void moveAll(String pipelineId, String pipeId, ObjectStatus oldStatus, String oldEvent, ObjectStatus newStatus,
+                        String newEvent, long timestamp, Predicate<Key> filter) {
+        touch(pipelineId);
+        ConcurrentMap<Key, Bucket> current = buckets;
+        if (current == null) {
+            return;
+        }
+        for (Map.Entry<Key, Bucket> entry : current.entrySet()) {
+            Key key = entry.getKey();
+            if (matches(key, pipelineId, pipeId, oldStatus, oldEvent) && filter.apply(key)) {
+                Bucket bucket = entry.getValue();
+                long moved = bucket.count.getAndSet(0);
+                if (moved <= 0) {
+                    continue;
+                }
+                QuarantineEvent latest = bucket.latest;
+                Bucket target = getOrCreate(current, key.withStatusAndEvent(newStatus, newEvent), moved);
+                target.offer(toEvent(key.withStatusAndEvent(newStatus, newEvent),
+                        latest != null ? latest.getId() : null, EventType.STATUS_UPDATE, timestamp));
+            }
+        }
+    }
+
+    /**
+     * Drop every object in the matching buckets, as done by a delete of a whole event.
+     */
+    public void removeAll(String pipelineId, String pipeId, ObjectStatus status, String event, Predicate<Key> filter) {
+        touch(pipelineId);
+        ConcurrentMap<Key, Bucket> current = buckets;
+        if (current == null) {
+            return;
+        }
+        for (Map.Entry<Key, Bucket> entry : current.entrySet()) {
+            if (matches(entry.getKey(), pipelineId, pipeId, status, event) && filter.apply(entry.getKey())) {
+                entry.getValue().count.set(0);
+            }
+        }
+    }
+
+    /**
+     * Stop serving the pipeline from the counters until the next reconciliation.
+     */
+    public void markDirty(String pipelineId) {
+        log.debug("Quarantine counters for pipeline {} are dirty until the next reconciliation", pipelineId);
+        dirtyPipelines.add(pipelineId);
+    }
+
+    /**
+     * Counterpart of the per pipe summary query: one entry per pipe of the pipeline, with the total count and the
+     * most recent event.
+     */
+    public Set<EventWithCount> getObjectCountPerPipe(String pipelineId, Set<ObjectStatus> statuses, Predicate<Key> filter) {
+        Map<String, EventWithCount> results = Maps.newHashMap();
+        for (Map.Entry<Key, Bucket> entry : buckets.entrySet()) {
+            Key key = entry.getKey();
+            if (key.pipelineId.equals(pipelineId) && statuses.contains(key.status)) {
+                accumulate(results, key.pipeId, key, entry.getValue(), filter);
+            }
+        }
+        return Sets.newHashSet(results.values());
+    }
+
+    /**
+     * Counterpart of the per event summary query: one entry per latest event of the pipe, with the total count and
+     * the most recent event.
+     */
+    public Set<EventWithCount> getEventCountPerPipe(String pipelineId, String pipeId, Set<ObjectStatus> statuses, Predicate<Key> filter) {
+        Map<String, EventWithCount> results = Maps.newHashMap();
+        for (Map.Entry<Key, Bucket> entry : buckets.entrySet()) {
+            Key key = entry.getKey();
+            if (key.pipelineId.equals(pipelineId) && key.pipeId.equals(pipeId) && statuses.contains(key.status)) {
+                accumulate(results, key.latestEvent, key, entry.getValue(), filter);
+            }
+        }
+        return Sets.newHashSet(results.values());
+    }
+
+    /**
+     * Rebuild all counters from the index. Pipelines written while the rebuild is running stay dirty until the next
+     * reconciliation, since the scan may or may not have seen those writes.
+     */
+    public void reconcile(Client elastic) throws TException {
+        long start = System.currentTimeMillis();
+        touchedDuringReconcile.clear();
+        reconciling = true;
+        String scrollId = null;
+        try {
+            ConcurrentMap<Key, Bucket> rebuilt = new ConcurrentHashMap<>();
+            elastic.admin().indices().prepareRefresh(ElasticsearchUtility.QUARANTINE_ELASTIC_INDEX).get();
+            SearchResponse response = elastic.prepareSearch(ElasticsearchUtility.QUARANTINE_ELASTIC_INDEX)
+                    .setTypes(ElasticsearchUtility.METADATA_TYPE)
+                    .setSearchType(SearchType.SCAN)
+                    .setScroll(SCROLL_KEEP_ALIVE)
+                    .setQuery(QueryBuilders.matchAllQuery())
+                    .setFetchSource(RECONCILE_FIELDS, null)
+                    .setSize(RECONCILE_PAGE_SIZE)
+                    .get();
+            scrollId = response.getScrollId();
+            long documents = 0;
+            while (true) {
+                response = elastic.prepareSearchScroll(scrollId).setScroll(SCROLL_KEEP_ALIVE).get();
+                scrollId = response.getScrollId();
+                SearchHit[] hits = response.getHits().getHits();
+                if (hits.length == 0) {
+                    break;
+                }
+                for (SearchHit hit : hits) {
+                    Map<String, Object> source = hit.getSource();
+                    List<Map<String, Object>> events = (List<Map<String, Object>>) source.get(ElasticsearchUtility.OBJECT_EVENTS);
+                    Map<String, Object> event = events.get(events.size() - 1);
+                    Key key = Key.fromSource(source);
+                    getOrCreate(rebuilt, key).offer(toEvent(key, hit.getId(),
+                            EventType.valueOf((String) event.get(ElasticsearchUtility.EVENT_TYPE)),
+                            ElasticsearchUtility.getTimeFromString((String) event.get(ElasticsearchUtility.EVENT_TIME))));
+                }
+                documents += hits.length;
+            }
+
+            synchronized (this) {
+                reconciling = false;
+                buckets = rebuilt;
+                dirtyPipelines.clear();
+                dirtyPipelines.addAll(touchedDuringReconcile);
+            }
+            log.info("Reconciled quarantine counters from {} documents in {} ms, {} pipelines dirty", documents,
+                    System.currentTimeMillis() - start, dirtyPipelines.size());
+        } finally {
+            reconciling = false;
+            if (scrollId != null) {
+                elastic.prepareClearScroll().addScrollId(scrollId).execute();
+            }
+        }
+    }
+
+    private void touch(String pipelineId) {
+        if (reconciling) {
+            synchronized (this) {
+                if (reconciling) {
+                    touchedDuringReconcile.add(pipelineId);
+                }
+            }
+        }
+    }
+
+    private static boolean matches(Key key, String pipelineId, String pipeId, ObjectStatus status, String event) {
+        return key.status == status && key.pipelineId.equals(pipelineId) && key.pipeId.equals(pipeId) &&
+                Objects.equal(key.latestEvent, event);
+    }
+
+    private static void accumulate(Map<String, EventWithCount> results, String groupBy, Key key, Bucket bucket, Predicate<Key> filter) {
+        long count = bucket.count.get();
+        QuarantineEvent latest = bucket.latest;
+        if (count <= 0 || latest == null || !filter.apply(key)) {
+            return;
+        }
+        EventWithCount result = results.get(groupBy);
+        if (result == null) {
+            results.put(groupBy, new EventWithCount().setCount(count).setStatus(key.status).setEvent(new QuarantineEvent(latest)));
+        } else {
+            result.setCount(result.getCount() + count);
+            if (latest.getTimestamp() > result.getEvent().getTimestamp()) {
+                result.setStatus(key.status).setEvent(new QuarantineEvent(latest));
+            }
+        }
+    }
+
+    private static Bucket getOrCreate(ConcurrentMap<Key, Bucket> map, Key key) {
+        return getOrCreate(map, key, 1);
+    }
+
+    private static Bucket getOrCreate(ConcurrentMap<Key, Bucket> map, Key key, long delta) {
+        Bucket bucket = map.get(key);
+        if (bucket == null) {
+            Bucket created = new Bucket();
+            bucket = map.putIfAbsent(key, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        bucket.count.addAndGet(delta);
+        return bucket;
+    }
+
+    private static QuarantineEvent toEvent(Key key, String id, EventType type, long timestamp) {
+        return new QuarantineEvent().setEvent(key.latestEvent).setType(type).setTimestamp(timestamp)
+                .setPipeId(key.pipeId).setPipelineId(key.pipelineId).setId(id);
+    }
+}
@@ -0,0 +1,215 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.quarantine.service.util;
+
+import com.google.common.collect.Maps;
+import ezbake.quarantine.thrift.EventType;
+import ezbake.quarantine.thrift.ObjectStatus;
+import org.apache.thrift.TException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.action.update.UpdateRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.FilterBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.SearchHit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Applies a status update to every quarantined object matching a query without ever holding the full id set in
+ * memory. Ids are streamed from a scan/scroll search and written back in bulk requests, with at most a fixed number
+ * of bulk requests in flight at a time. The index is refreshed once after the last bulk request completes.
+ */
+public class StatusUpdater {
+    private static final Logger log = LoggerFactory.getLogger(StatusUpdater.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+    private static final TimeValue SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+
+    private final Client elastic;
+    private final int batchSize;
+    private final int maxInFlight;
+
+    public StatusUpdater(Client elastic) {
+        this(elastic, DEFAULT_BATCH_SIZE, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public StatusUpdater(Client elastic, int batchSize, int maxInFlight) {
+        this.elastic = elastic;
+        this.batchSize = batchSize;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Progress of a single status update, safe to read from other threads while the update is running.
+     */
+    public static class Progress {
+        private final AtomicLong total = new AtomicLong(-1);
+        private final AtomicLong submitted = new AtomicLong();
+        private final AtomicLong updated = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private volatile boolean done;
+
+        /**
+         * @return the number of objects matching the update, or -1 if the first page has not been fetched yet
+         */
+        public long getTotal() {
+            return total.get();
+        }
+
+        public long getSubmitted() {
+            return submitted.get();
+        }
+
+        public long getUpdated() {
+            return updated.get();
+        }
+
+        public long getFailed() {
+            return failed.get();
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d/%d updated, %d failed%s", getUpdated(), getTotal(), getFailed(), done ? " (done)" : "");
+        }
+    }
+
+    /**
+     * Update the status of all objects matched by the query and filter.
+     *
+     * @param query query selecting the objects to update
+     * @param filter visibility filter applied to the matched objects
+     * @param status the new status
+     * @param updateComment comment recorded on the status update event
+     * @param timestamp time of the status update event
+     * @param progress tracker updated as the update proceeds
+     * @throws TException if any bulk request fails
+     */
+    public void updateStatus(QueryBuilder query, FilterBuilder filter, ObjectStatus status, String updateComment,
+                             long timestamp, Progress progress) throws TException {
+        Map<String, Object> newValue = Maps.newHashMap();
+        newValue.put(ElasticsearchUtility.EVENT_TEXT, updateComment);
+        newValue.put(ElasticsearchUtility.EVENT_TYPE, EventType.STATUS_UPDATE.toString());
+        newValue.put(ElasticsearchUtility.EVENT_TIME, ElasticsearchUtility.getTimeString(timestamp));
+
+        final Semaphore inFlight = new Semaphore(maxInFlight);
+        final AtomicReference<String> firstFailure = new AtomicReference<>();
+        String scrollId = null;
+        try {
+            SearchResponse response = elastic.prepareSearch(ElasticsearchUtility.QUARANTINE_ELASTIC_INDEX)
+                    .setTypes(ElasticsearchUtility.METADATA_TYPE)
+                    .setSearchType(SearchType.SCAN)
+                    .setScroll(SCROLL_KEEP_ALIVE)
+                    .setQuery(query)
+                    .setPostFilter(filter)
+                    .setNoFields()
+                    .setSize(batchSize)
+                    .get();
+            progress.total.set(response.getHits().getTotalHits());
+            scrollId = response.getScrollId();
+
+            while (firstFailure.get() == null) {
+                response = elastic.prepareSearchScroll(scrollId).setScroll(SCROLL_KEEP_ALIVE).get();
+                scrollId = response.getScrollId();
+                SearchHit[] hits = response.getHits().getHits();
+                if (hits.length == 0) {
+                    break;
+                }
+
+                BulkRequestBuilder builder = elastic.prepareBulk();
+                for (SearchHit hit : hits) {
+                    UpdateRequestBuilder update = elastic.prepareUpdate(ElasticsearchUtility.QUARANTINE_ELASTIC_INDEX,
+                            ElasticsearchUtility.METADATA_TYPE, hit.getId());
+                    ElasticsearchUtility.addScriptToUpdateRequest(update, newValue, status, updateComment);
+                    builder.add(update);
+                }
+                submit(builder, hits.length, inFlight, firstFailure, progress);
+            }
+
+            // Wait for the outstanding bulk requests before refreshing
+            inFlight.acquire(maxInFlight);
+            inFlight.release(maxInFlight);
+            elastic.admin().indices().prepareRefresh(ElasticsearchUtility.QUARANTINE_ELASTIC_INDEX).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TException("Interrupted while updating status", e);
+        } finally {
+            if (scrollId != null) {
+                elastic.prepareClearScroll().addScrollId(scrollId).execute();
+            }
+            progress.done = true;
+        }
+
+        if (firstFailure.get() != null) {
+            throw new TException("Failed to update items: " + firstFailure.get());
+        }
+    }
+
+    private void submit(BulkRequestBuilder builder, final int size, final Semaphore inFlight,
+                        final AtomicReference<String> firstFailure, final Progress progress) throws InterruptedException {
+        inFlight.acquire();
+        progress.submitted.addAndGet(size);
+        elastic.bulk(builder.request(), new ActionListener<BulkResponse>() {
+            @Override
+            public void onResponse(BulkResponse response) {
+                try {
+                    if (response.hasFailures()) {
+                        int failures = 0;
+                        for (BulkItemResponse item : response.getItems()) {
+                            if (item.isFailed()) {
+                                failures++;
+                            }
+                        }
+                        progress.failed.addAndGet(failures);
+                        progress.updated.addAndGet(size - failures);
+                        firstFailure.compareAndSet(null, response.buildFailureMessage());
+                    } else {
+                        progress.updated.addAndGet(size);
+                    }
+                } finally {
+                    inFlight.release();
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                try {
+                    log.error("Bulk status update request failed", e);
+                    progress.failed.addAndGet(size);
+                    firstFailure.compareAndSet(null, String.valueOf(e));
+                } finally {
+                    inFlight.release();
+                }
+            }
+        });
+    }
+}
@@ -1176,6 +1176,26 @@ public class QuarantineServiceTest {
         service.updateStatusOfEvent(pipelineId, pipeId, ObjectStatus.CANNOT_BE_REINGESTED, ObjectStatus.APPROVED_FOR_REINGEST, error, "some update", fouoToken);
     }
 
+    @Test
+    public void testUpdateStatusOfEvent() throws TException, ObjectNotQuarantinedException, UnsupportedEncodingException, NoSuchAlgorithmException, InvalidUpdateException, InterruptedException {
+        String pipelineId = "ingest_pipeline";
+        String pipeId = "test_pipe";
+        String error = "SOMETHING BROKE!";
+
+        for (int i = 0; i < 5; i++) {
+            service.sendToQuarantine(createObject(pipelineId, pipeId, ("content " + i).getBytes(), "A"), error, null, fouoToken);
+        }
+        service.sendToQuarantine(createObject(pipelineId, pipeId, "other error content".getBytes(), "A"), "OTHER ERROR", null, fouoToken);
+
+        service.updateStatusOfEvent(pipelineId, pipeId, ObjectStatus.QUARANTINED, ObjectStatus.APPROVED_FOR_REINGEST, error, "approving", fouoToken);
+        assertNull("No update should be in progress", service.getStatusUpdateProgress(pipelineId, pipeId, error));
+
+        assertEquals("All objects with the event were approved", 5, service.getCountPerPipe(pipelineId, pipeId, Sets.newHashSet(ObjectStatus.APPROVED_FOR_REINGEST), fouoToken));
+        assertEquals("Object with a different event was not updated", 1, service.getCountPerPipe(pipelineId, pipeId, Sets.newHashSet(ObjectStatus.QUARANTINED), fouoToken));
+        IdsResponse ids = service.getObjectsForPipeAndEvent(pipelineId, pipeId, "approving", Sets.newHashSet(ObjectStatus.APPROVED_FOR_REINGEST), 0, 10, fouoToken);
+        assertEquals("Latest event is the status update", 5, ids.getIdsSize());
+    }
+
     @Test
     public void testChangeStatusOfObjectAndGetCounts() throws TException, ObjectNotQuarantinedException, UnsupportedEncodingException, NoSuchAlgorithmException, InvalidUpdateException, InterruptedException {
         String pipelineId = "ingest_pipeline";
@@ -0,0 +1,170 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.quarantine.service.util;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
+import ezbake.quarantine.thrift.EventType;
+import ezbake.quarantine.thrift.EventWithCount;
+import ezbake.quarantine.thrift.ObjectStatus;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PipeCountersTest {
+    private static final String PIPELINE = "pipeline";
+    private static final String PIPE = "pipe";
+    private static final Predicate<PipeCounters.Key> ALL = Predicates.alwaysTrue();
+
+    private PipeCounters counters;
+
+    @Before
+    public void setUp() {
+        counters = new PipeCounters();
+        counters.initializeEmpty();
+    }
+
+    @Test
+    public void testNotAvailableBeforeReconcile() {
+        assertFalse(new PipeCounters().isAvailable(PIPELINE));
+        assertTrue(counters.isAvailable(PIPELINE));
+    }
+
+    @Test
+    public void testObjectCountPerPipe() {
+        counters.add(key(PIPE, ObjectStatus.QUARANTINED, "error", "vis"), "1", EventType.ERROR, 1);
+        counters.add(key(PIPE, ObjectStatus.QUARANTINED, "other error", "vis"), "2", EventType.ERROR, 3);
+        counters.add(key(PIPE + "2", ObjectStatus.QUARANTINED, "error", "vis"), "3", EventType.ERROR, 2);
+        counters.add(key(PIPE, ObjectStatus.APPROVED_FOR_REINGEST, "approved", "vis"), "4", EventType.STATUS_UPDATE, 4);
+
+        Set<EventWithCount> results = counters.getObjectCountPerPipe(PIPELINE, Sets.newHashSet(ObjectStatus.QUARANTINED), ALL);
+        assertEquals("One result per pipe", 2, results.size());
+        for (EventWithCount result : results) {
+            if (result.getEvent().getPipeId().equals(PIPE)) {
+                assertEquals(2, result.getCount());
+                assertEquals("Latest event is reported", "other error", result.getEvent().getEvent());
+                assertEquals("2", result.getEvent().getId());
+            } else {
+                assertEquals(1, result.getCount());
+                assertEquals("3", result.getEvent().getId());
+            }
+        }
+    }
+
+    @Test
+    public void testFilterIsApplied() {
+        counters.add(key(PIPE, ObjectStatus.QUARANTINED, "error", "low"), "1", EventType.ERROR, 1);
+        counters.add(key(PIPE, ObjectStatus.QUARANTINED, "error", "high"), "2", EventType.ERROR, 2);
+
+        Set<EventWithCount> results = counters.getEventCountPerPipe(PIPELINE, PIPE, Sets.newHashSet(ObjectStatus.QUARANTINED), new Predicate<PipeCounters.Key>() {
+            @Override
+            public boolean apply(PipeCounters.Key input) {
+                return input.getMetadataVisibility().equals("low");
+            }
+        });
+        EventWithCount result = Iterables.getOnlyElement(results);
+        assertEquals(1, result.getCount());
+        assertEquals("1", result.getEvent().getId());
+    }
+
+    @Test
+    public void testMoveAllForEventUpdate() {
+        for (int i = 0; i < 5; i++) {
+            counters.add(key(PIPE, ObjectStatus.QUARANTINED, "error", "vis"), Integer.toString(i), EventType.ERROR, i);
+        }
+        counters.moveAll(PIPELINE, PIPE, ObjectStatus.QUARANTINED, "error", ObjectStatus.APPROVED_FOR_REINGEST, "approving", 10, ALL);
+
+        assertTrue(counters.getEventCountPerPipe(PIPELINE, PIPE, Sets.newHashSet(ObjectStatus.QUARANTINED), ALL).isEmpty());
+        EventWithCount result = Iterables.getOnlyElement(counters.getEventCountPerPipe(PIPELINE, PIPE, Sets.newHashSet(ObjectStatus.APPROVED_FOR_REINGEST), ALL));
+        assertEquals(5, result.getCount());
+        assertEquals(ObjectStatus.APPROVED_FOR_REINGEST, result.getStatus());
+        assertEquals(EventType.STATUS_UPDATE, result.getEvent().getType());
+        assertEquals("approving", result.getEvent().getEvent());
+    }
+
+    @Test
+    public void testRemoveLatestMarksDirty() {
+        PipeCounters.Key key = key(PIPE, ObjectStatus.QUARANTINED, "error", "vis");
+        counters.add(key, "1", EventType.ERROR, 1);
+        counters.add(key, "2", EventType.ERROR, 2);
+
+        counters.remove(key, "1");
+        assertTrue("Removing an older object keeps the counters exact", counters.isAvailable(PIPELINE));
+        counters.add(key, "3", EventType.ERROR, 3);
+        counters.remove(key, "3");
+        assertFalse("Removing the latest object leaves the summary unknown", counters.isAvailable(PIPELINE));
+    }
+
+    @Test
+    public void testRemoveAll() {
+        counters.add(key(PIPE, ObjectStatus.QUARANTINED, "error", "vis"), "1", EventType.ERROR, 1);
+        counters.add(key(PIPE, ObjectStatus.QUARANTINED, "other", "vis"), "2", EventType.ERROR, 2);
+        counters.removeAll(PIPELINE, PIPE, ObjectStatus.QUARANTINED, "error", ALL);
+
+        EventWithCount result = Iterables.getOnlyElement(counters.getEventCountPerPipe(PIPELINE, PIPE, Sets.newHashSet(ObjectStatus.QUARANTINED), ALL));
+        assertEquals("other", result.getEvent().getEvent());
+    }
+
+    @Test
+    public void testConcurrentMoves() throws InterruptedException {
+        final PipeCounters.Key quarantined = key(PIPE, ObjectStatus.QUARANTINED, "error", "vis");
+        final PipeCounters.Key approved = quarantined.withStatusAndEvent(ObjectStatus.APPROVED_FOR_REINGEST, "approving");
+        final int threads = 8;
+        final int perThread = 1000;
+        for (int i = 0; i < threads * perThread; i++) {
+            counters.add(quarantined, "id" + i, EventType.ERROR, 0);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        counters.move(quarantined, approved, "id" + (thread * perThread + i), EventType.STATUS_UPDATE, 1);
+                        counters.getObjectCountPerPipe(PIPELINE, Sets.newHashSet(ObjectStatus.QUARANTINED), ALL);
+                    }
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+        EventWithCount result = Iterables.getOnlyElement(counters.getEventCountPerPipe(PIPELINE, PIPE, Sets.newHashSet(ObjectStatus.APPROVED_FOR_REINGEST, ObjectStatus.QUARANTINED), ALL));
+        assertEquals(threads * perThread, result.getCount());
+        assertEquals(ObjectStatus.APPROVED_FOR_REINGEST, result.getStatus());
+    }
+
+    private static PipeCounters.Key key(String pipe, ObjectStatus status, String event, String visibility) {
+        return new PipeCounters.Key("securityId", PIPELINE, pipe, status, event, visibility);
+    }
+}
@@ -17,6 +17,7 @@ package ezbake.replay;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import ezbake.base.thrift.DateTime;
 import ezbake.base.thrift.EzBakeBaseThriftService;
@@ -36,18 +37,20 @@ import ezbake.util.AuditLogger;
 import ezbake.util.AuditLoggerConfigurator;
 import ezbake.warehaus.*;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.thrift.TException;
 import org.apache.thrift.TProcessor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class BroadcasterReplay extends EzBakeBaseThriftService implements ReplayService.Iface {
     private static Logger logger = LoggerFactory.getLogger(BroadcasterReplay.class);
@@ -58,21 +61,57 @@ public class BroadcasterReplay extends EzBakeBaseThriftService implements Replay
     private static AuditLogger auditLogger;
     private static int REPLAY_INTERVAL_DEFAULT = 30; // 30 mins
 
+    public static final String FETCH_THREADS_KEY = "replay.fetch.threads";
+    public static final String FETCH_BATCH_SIZE_KEY = "replay.fetch.batch.size";
+    public static final String FETCH_WINDOW_KEY = "replay.fetch.window";
+    public static final String PROGRESS_INTERVAL_MILLIS_KEY = "replay.progress.interval.ms";
+    public static final String PROGRESS_INTERVAL_COUNT_KEY = "replay.progress.interval.count";
+    public static final String JOB_THREADS_KEY = "replay.jobs.threads";
+    public static final String JOBS_RUNNING_PER_USER_KEY = "replay.jobs.running.per.user";
+    public static final String JOBS_QUEUED_PER_USER_KEY = "replay.jobs.queued.per.user";
+    public static final String STORE_DIRECTORY_KEY = "replay.store.directory";
+    public static final String TOPIC_KEY_TTL_MILLIS_KEY = "replay.topic.key.ttl.ms";
+    public static final String TOKEN_EXPIRED_STATUS = "token expired, please request the replay again";
+
+    // Shared by all replays, bounds the load all replays together put on the warehaus
+    private ExecutorService fetchExecutor;
+    private ReplayJobManager jobManager;
+    private SharedBroadcasters broadcasters;
+
     public void replay(String uri, DateTime start, DateTime finish, EzSecurityToken token, 
             String groupId, String topic, boolean replayLatestOnly, GetDataType type, int replayIntervalMinutes)
             throws org.apache.thrift.TException {
         TokenUtils.validateSecurityToken(token, props);
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(uri), "uriPrefix cannot be null or empty!");
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(topic), "handle cannot be null or empty!");
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(groupId), "groupId cannot be null or empty!");
         String dn = token.getTokenPrincipal().getPrincipal();
         HashMap<String, String> auditArgs = Maps.newHashMap();
         auditArgs.put("action", "replay");
         auditArgs.put("uri", uri);
         auditArgs.put("topic", topic);
         auditLog(token, AuditEventType.FileObjectAccess, auditArgs);
-        run(groupId, uri, start, finish, topic, dn, replayLatestOnly, type, replayIntervalMinutes, token);
+
+        // The date of the request identifies the replay in the user's history
+        ReplayRequest request = new ReplayRequest(new Date().getTime(), dn, groupId, uri, start, finish, topic,
+                replayLatestOnly, type, replayIntervalMinutes, token);
+        historyData.addJob(request);
+        try {
+            jobManager.submit(request, new ReplayCheckpoint());
+        } catch (TException e) {
+            historyData.removeEntry(dn, Long.toString(request.getId()));
+            throw e;
+        }
     }
 
     @Override
     public void shutdown() {
+        if (jobManager != null) {
+            jobManager.shutdown();
+        }
+        if (fetchExecutor != null) {
+            fetchExecutor.shutdownNow();
+        }
         if (pool != null) {
              pool.close();
         }
@@ -82,9 +121,41 @@ public class BroadcasterReplay extends EzBakeBaseThriftService implements Replay
     public TProcessor getThriftProcessor() {
         props = new EzProperties(getConfigurationProperties(), true);
         pool = new ThriftClientPool(props);
-        securityClient = new EzbakeSecurityClient(props);
+        if (securityClient == null) {
+            securityClient = new EzbakeSecurityClient(props);
+        }
         AuditLoggerConfigurator.setAdditivity(true);
         auditLogger = AuditLogger.getAuditLogger(BroadcasterReplay.class);
+        fetchExecutor = Executors.newFixedThreadPool(props.getInteger(FETCH_THREADS_KEY, 8),
+                new ThreadFactoryBuilder().setNameFormat("replay-fetch-%d").setDaemon(true).build());
+
+        String storeDirectory = props.getProperty(STORE_DIRECTORY_KEY);
+        if (!Strings.isNullOrEmpty(storeDirectory)) {
+            try {
+                historyData = new HistoryData(new ReplayJobStore(new File(storeDirectory)));
+            } catch (IOException e) {
+                throw new RuntimeException("Could not open replay store " + storeDirectory, e);
+            }
+        }
+        broadcasters = new SharedBroadcasters(new SharedBroadcasters.Factory() {
+            @Override
+            public String retrieveKey(EzSecurityToken token, String topic) throws TException {
+                return retrieveTopicKey(token, topic);
+            }
+
+            @Override
+            public EzBroadcaster create(String groupId, String key, String topic) {
+                return createBroadcaster(groupId, key, topic);
+            }
+        }, props.getLong(TOPIC_KEY_TTL_MILLIS_KEY, 10 * 60 * 1000));
+        jobManager = new ReplayJobManager(new ReplayJobManager.Runner() {
+            @Override
+            public void run(ReplayRequest request, ReplayCheckpoint checkpoint) {
+                BroadcasterReplay.this.run(request, checkpoint);
+            }
+        }, props.getInteger(JOB_THREADS_KEY, 4), props.getInteger(JOBS_RUNNING_PER_USER_KEY, 2),
+                props.getInteger(JOBS_QUEUED_PER_USER_KEY, 50));
+        resumeUnfinished();
         return new ReplayService.Processor(this);
     }
 
@@ -131,79 +202,90 @@ public class BroadcasterReplay extends EzBakeBaseThriftService implements Replay
         historyData.removeEntry(userDn, timestampString);
     }
 
-    protected void run(String groupId, String uriPrefix, DateTime start, DateTime finish,
-                       String handle, String userDn, boolean replayLatestOnly, GetDataType type, 
-                       int replayIntervalMinutes, EzSecurityToken token) {
-        Preconditions.checkArgument(!Strings.isNullOrEmpty(uriPrefix), "uriPrefix cannot be null or empty!");
-        Preconditions.checkArgument(!Strings.isNullOrEmpty(handle), "handle cannot be null or empty!");
-        Preconditions.checkArgument(!Strings.isNullOrEmpty(groupId), "groupId cannot be null or empty!");
+    /**
+     * Run a replay, on one of the job manager's threads
+     *
+     * @param checkpoint - where to resume the replay from, empty for a new replay
+     */
+    protected void run(ReplayRequest request, ReplayCheckpoint checkpoint) {
+        final String handle = request.getTopic();
+        String userDn = request.getUserDn();
+        long dateEntry = request.getId();
         WarehausService.Client warehaus = null;
         List<DatedURI> listResults;
 
         // Use this to keep track of if the client has been returned to the pool (and closed)
         boolean returned = false;
 
-        long dateEntry = new Date().getTime();
-        long msgCounter = 0;
+        RequestHistory requestHistory = historyData.getEntry(userDn, dateEntry);
+        if (requestHistory == null) {
+            logger.info("Replay {} was removed from the history before it ran", request);
+            historyData.finishJob(userDn, dateEntry);
+            return;
+        }
         EzBroadcaster ezbroadcaster = null;
-        RequestHistory requestHistory = null;
-        
-        try {
-            EzSecurityToken warehausToken = securityClient.fetchDerivedTokenForApp(token, pool.getSecurityId(WarehausServiceConstants.SERVICE_NAME));
-            ezbroadcaster = getBroadcaster(token, groupId, handle);
+        ReplayProgress progress = new ReplayProgress(historyData, userDn, dateEntry, requestHistory, checkpoint,
+                props.getLong(PROGRESS_INTERVAL_MILLIS_KEY, 1000),
+                props.getLong(PROGRESS_INTERVAL_COUNT_KEY, 1000));
 
+        if (!isValid(request.getToken())) {
+            // Only the user's own token may read the warehaus for them, there is no token to resume with
+            logger.info("Replay {} has no valid user token, it has to be requested again", request);
+            progress.failed(TOKEN_EXPIRED_STATUS);
+            return;
+        }
+
+        try {
+            EzSecurityToken warehausToken = fetchTokenForApp(request.getToken(),
+                    pool.getSecurityId(WarehausServiceConstants.SERVICE_NAME));
+            ezbroadcaster = broadcasters.acquire(request.getToken(), request.getGroupId(), handle);
 
-            String startTime = convertThriftTime(start);
-            String finishTime = convertThriftTime(finish);
+            ReplayPipeline pipeline = new ReplayPipeline(fetchExecutor, new WarehausBatchFetcher(pool, warehausToken),
+                    props.getInteger(FETCH_BATCH_SIZE_KEY, 100), props.getInteger(FETCH_WINDOW_KEY, 4));
+            final EzBroadcaster broadcaster = ezbroadcaster;
+            final ReplayProgress replayProgress = progress;
+            ReplayPipeline.Listener listener = new ReplayPipeline.Listener() {
+                @Override
+                public void onPayload(DatedURI uri, BinaryReplay payload) throws IOException {
+                    // The broadcaster is shared with other replays on the same topic
+                    synchronized (broadcaster) {
+                        broadcaster.broadcast(handle, uri.getVisibility(), payload.getPacket());
+                    }
+                    replayProgress.broadcast(TimeUtil.convertFromThriftDateTime(uri.getTimestamp()), uri.getUri());
+                }
+            };
 
-            requestHistory = historyData.addBroadcast(groupId, uriPrefix, startTime, finishTime, handle, userDn, dateEntry);
-            
+            int replayIntervalMinutes = request.getReplayIntervalMinutes();
             if (replayIntervalMinutes == 0) {
                 replayIntervalMinutes = REPLAY_INTERVAL_DEFAULT;
             }
-            long startMillis = TimeUtil.convertFromThriftDateTime(start);
-            long finishMillis = TimeUtil.convertFromThriftDateTime(finish);
+            long startMillis = TimeUtil.convertFromThriftDateTime(request.getStart());
+            long finishMillis = TimeUtil.convertFromThriftDateTime(request.getFinish());
+            if (checkpoint.getTimestamp() > startMillis) {
+                logger.info("Resuming replay {} from {}", request, checkpoint);
+                startMillis = Math.min(checkpoint.getTimestamp(), finishMillis);
+            }
             long replayIntervalMillis = replayIntervalMinutes * 60 * 1000; // minutes to millis
             long replayInterval = (finishMillis - startMillis) > replayIntervalMillis ? replayIntervalMillis : (finishMillis - startMillis);
             long endMillis = startMillis + replayInterval;
-            int cumulativeTotal = 0;
-            
+
             while (endMillis <= finishMillis) {
                 warehaus = pool.getClient(WarehausServiceConstants.SERVICE_NAME, WarehausService.Client.class);
                 returned = false;
-                listResults = warehaus.replay(uriPrefix, replayLatestOnly,
+                listResults = warehaus.replay(request.getUriPrefix(), request.isReplayLatestOnly(),
                         TimeUtil.convertToThriftDateTime(startMillis), 
-                        TimeUtil.convertToThriftDateTime(endMillis), type, warehausToken);
+                        TimeUtil.convertToThriftDateTime(endMillis), request.getType(), warehausToken);
 
                 // Return to pool to ensure the connection isn't dropped
                 pool.returnToPool(warehaus);
                 returned = true;
-                cumulativeTotal = cumulativeTotal + listResults.size();
-    
-                requestHistory.setTotal(Integer.toString(cumulativeTotal));
-                requestHistory.setStatus("broadcasting");
-                historyData.updateEntry(userDn, dateEntry, requestHistory);
-                logger.debug("timestamp " + String.valueOf(dateEntry) + " list results size=" + String.valueOf(cumulativeTotal));
-
-                for (DatedURI result : listResults) {
-                    String resultUri = result.getUri();
-                    DateTime versionDate = result.getTimestamp();
-                    long version = TimeUtil.convertFromThriftDateTime(versionDate);
-                    try {
-                        warehaus = pool.getClient(WarehausServiceConstants.SERVICE_NAME, WarehausService.Client.class);
-                        returned = false;
-                        BinaryReplay replayResult = warehaus.getParsed(resultUri, version, warehausToken);
-                        pool.returnToPool(warehaus);
-                        returned = true;
-
-                        ezbroadcaster.broadcast(handle, result.getVisibility(), replayResult.getPacket());
-                        requestHistory.setCount(Long.toString(++msgCounter));
-                        requestHistory.setLastBroadcast(convertThriftTime(TimeUtil.convertToThriftDateTime(version)));
-                        historyData.updateEntry(userDn, dateEntry, requestHistory);
-                    } catch (EntryNotInWarehausException e) {
-                        logger.warn("Entry not found for URI {}", resultUri);
-                    }
-                }
+                // Leave out whatever was broadcast before the replay was interrupted
+                listResults = checkpoint.remaining(listResults);
+                progress.found(listResults.size());
+                logger.debug("timestamp " + String.valueOf(dateEntry) + " list results size=" + String.valueOf(listResults.size()));
+
+                pipeline.replay(listResults, listener);
+                progress.setFetchWaitMillis(pipeline.getFetchWaitMillis());
                 if (endMillis == finishMillis) {
                     break;
                 }
@@ -214,28 +296,23 @@ public class BroadcasterReplay extends EzBakeBaseThriftService implements Replay
                 }
             }
             logger.debug("replay complete");
-
-            requestHistory.setTotal(Integer.toString(cumulativeTotal));
-            if (cumulativeTotal == 0) {
-                logger.warn("Replay query returned no results.");
-                requestHistory.setStatus("no matches");
-            } else {
-                requestHistory.setStatus("complete");
-            }
-            historyData.updateEntry(userDn, dateEntry, requestHistory);
+            progress.complete();
         } catch (TException ex) {
-            updateStatus(requestHistory, ex.getMessage(), userDn, dateEntry);
+            stopped(progress, ex.getMessage());
             logger.error("TException caught msg:", ex);
         } catch (IOException ex) {
-            updateStatus(requestHistory, ex.getMessage(), userDn, dateEntry);
+            stopped(progress, ex.getMessage());
             logger.error("IOException caught:", ex);
+        } catch (RuntimeException ex) {
+            stopped(progress, ex.getMessage());
+            logger.error("Replay failed:", ex);
         } finally {
             if (pool != null && warehaus != null && !returned) {
                 pool.returnToPool(warehaus);
             }
             try {
                 if (ezbroadcaster != null) {
-                    ezbroadcaster.close();
+                    broadcasters.release(request.getGroupId(), handle);
                 }
             } catch (IOException ex) {
                 logger.error("Issue closing broadcaster", ex);
@@ -243,16 +320,35 @@ public class BroadcasterReplay extends EzBakeBaseThriftService implements Replay
         }
     }
 
-    private void updateStatus(RequestHistory request, String status, String userDn, long date) {
-        if (!StringUtils.isEmpty(status)) {
-            if (request != null) {
-                request.setStatus(status);
+    /**
+     * Record why the replay stopped.  A replay stopped by the service shutting down is resumed on the next start.
+     */
+    private void stopped(ReplayProgress progress, String status) {
+        if (jobManager.isShutdown()) {
+            progress.interrupted();
+        } else {
+            progress.failed(status);
+        }
+    }
+
+    /**
+     * Queue the replays that were still running or queued when the service last stopped
+     */
+    private void resumeUnfinished() {
+        for (ReplayJobStore.Record record : historyData.getUnfinishedJobs()) {
+            try {
+                jobManager.submit(record.getRequest(), record.getCheckpoint());
+            } catch (TException e) {
+                logger.error("Could not resume replay " + record.getRequest(), e);
+                RequestHistory history = record.getHistory();
+                history.setStatus(e.getMessage());
+                historyData.updateEntry(record.getUserDn(), record.getDate(), history);
+                historyData.finishJob(record.getUserDn(), record.getDate());
             }
         }
-        historyData.updateEntry(userDn, date, request);
     }
 
-    private String convertThriftTime(DateTime datetime)
+    static String convertThriftTime(DateTime datetime)
     {
         String returnTime = "";
         if (datetime != null) {
@@ -263,20 +359,47 @@ public class BroadcasterReplay extends EzBakeBaseThriftService implements Replay
         return returnTime;
     }
 
-    private EzBroadcaster getBroadcaster(EzSecurityToken token, String groupId, String topic) {
+    private String retrieveTopicKey(EzSecurityToken token, String topic) throws TException {
+        if (!props.getBoolean(EzBroadcaster.PRODUCTION_MODE, true) && !OpenShiftUtil.inOpenShiftContainer()) {
+            return null;
+        }
+        EzLocksmith.Client locksmith = null;
+        try {
+            locksmith = pool.getClient(EzLocksmithConstants.SERVICE_NAME, EzLocksmith.Client.class);
+            String locksmithSecurityId = pool.getSecurityId(EzLocksmithConstants.SERVICE_NAME);
+            return locksmith.retrievePublicKey(fetchTokenForApp(token, locksmithSecurityId), topic, null);
+        } finally {
+            pool.returnToPool(locksmith);
+        }
+    }
+
+    /**
+     * Get a token to call another service with for a replay, derived from the token of the user who requested it
+     *
+     * @throws TException if the user's token is missing or has expired
+     */
+    private EzSecurityToken fetchTokenForApp(EzSecurityToken userToken, String securityId) throws TException {
+        if (!isValid(userToken)) {
+            throw new TException(TOKEN_EXPIRED_STATUS);
+        }
+        return securityClient.fetchDerivedTokenForApp(userToken, securityId);
+    }
+
+    /**
+     * The user's token only lasts a few minutes and isn't stored, so a replay resumed after a restart, or one whose
+     * token expired while it waited in the queue, can't be run
+     */
+    private static boolean isValid(EzSecurityToken userToken) {
+        return userToken != null && userToken.getValidity().getNotAfter() > System.currentTimeMillis();
+    }
+
+    private EzBroadcaster createBroadcaster(String groupId, String key, String topic) {
         EzBroadcaster ezbroadcaster = null;
         if (props.getBoolean(EzBroadcaster.PRODUCTION_MODE, true) || OpenShiftUtil.inOpenShiftContainer()) {
-            EzLocksmith.Client locksmith = null;
-            try {
-                locksmith = pool.getClient(EzLocksmithConstants.SERVICE_NAME, EzLocksmith.Client.class);
-                String locksmithSecurityId = pool.getSecurityId(EzLocksmithConstants.SERVICE_NAME);
-                String key = locksmith.retrievePublicKey(securityClient.fetchDerivedTokenForApp(token, locksmithSecurityId), topic, null);
-                ezbroadcaster = EzBroadcaster.create(props, groupId, key, topic, false);
-            } catch (TException e) {
-                throw new RuntimeException("Could not initialize broadcaster without key from locksmith", e);
-            } finally {
-                pool.returnToPool(locksmith);
+            if (key == null) {
+                throw new RuntimeException("Could not initialize broadcaster without key from locksmith");
             }
+            ezbroadcaster = EzBroadcaster.create(props, groupId, key, topic, false);
         } else {
             ezbroadcaster = EzBroadcaster.create(getConfigurationProperties(), groupId);
         }
@@ -20,15 +20,122 @@ import org.apache.thrift.TException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * The replay history of every user.  With a {@link ReplayJobStore} the history is also kept on disk, together with
+ * the request and checkpoint of every replay that hasn't finished yet, so those can be resumed after a restart.
+ */
 public class HistoryData {
     private final Lock lock = new ReentrantLock();
     private final Map<String, ReplayHistory> users = Maps.newHashMap();
+    private final Map<String, ReplayRequest> requests = Maps.newHashMap();
+    private final Map<String, ReplayCheckpoint> checkpoints = Maps.newHashMap();
+    private final ReplayJobStore store;
     private Logger logger = LoggerFactory.getLogger(HistoryData.class);
 
+    public HistoryData() {
+        this(null);
+    }
+
+    /**
+     * @param store - where the history is kept, loaded straight away, or null to only keep it in memory
+     */
+    public HistoryData(ReplayJobStore store) {
+        this.store = store;
+        if (store != null) {
+            for (ReplayJobStore.Record record : store.load()) {
+                ReplayHistory replayHistory = users.get(record.getUserDn());
+                if (replayHistory == null) {
+                    replayHistory = new ReplayHistory();
+                    users.put(record.getUserDn(), replayHistory);
+                }
+                replayHistory.putToReplayHistory(Long.toString(record.getDate()), record.getHistory());
+                if (record.isActive()) {
+                    requests.put(key(record.getUserDn(), record.getDate()), record.getRequest());
+                    checkpoints.put(key(record.getUserDn(), record.getDate()), record.getCheckpoint());
+                }
+            }
+            logger.info("Loaded replay history of {} users, {} unfinished replays", users.size(), requests.size());
+        }
+    }
+
+    /**
+     * Add the history entry of a replay that is about to be queued, and keep the request until the replay finishes
+     */
+    public RequestHistory addJob(ReplayRequest request) {
+        lock.lock();
+        try {
+            String key = key(request.getUserDn(), request.getId());
+            requests.put(key, request);
+            checkpoints.put(key, new ReplayCheckpoint());
+            return addBroadcast(request.getGroupId(), request.getUriPrefix(),
+                    BroadcasterReplay.convertThriftTime(request.getStart()),
+                    BroadcasterReplay.convertThriftTime(request.getFinish()), request.getTopic(),
+                    request.getUserDn(), request.getId());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Update the history entry of a running replay together with its checkpoint
+     */
+    public void checkpoint(String userDn, long date, RequestHistory history, ReplayCheckpoint checkpoint) {
+        lock.lock();
+        try {
+            String key = key(userDn, date);
+            if (requests.containsKey(key)) {
+                checkpoints.put(key, checkpoint.copy());
+            }
+            updateEntry(userDn, date, history);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The replay finished, whether it completed or failed, so it won't be resumed
+     */
+    public void finishJob(String userDn, long date) {
+        lock.lock();
+        try {
+            String key = key(userDn, date);
+            if (requests.remove(key) != null) {
+                checkpoints.remove(key);
+                persist(userDn, date);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the replays that haven't finished, with their last checkpoint
+     */
+    public List<ReplayJobStore.Record> getUnfinishedJobs() {
+        lock.lock();
+        try {
+            List<ReplayJobStore.Record> records = Lists.newArrayList();
+            for (Map.Entry<String, ReplayRequest> entry : requests.entrySet()) {
+                ReplayRequest request = entry.getValue();
+                ReplayHistory replayHistory = users.get(request.getUserDn());
+                RequestHistory history = replayHistory == null ? null
+                        : replayHistory.getReplayHistory().get(Long.toString(request.getId()));
+                if (history != null) {
+                    records.add(new ReplayJobStore.Record(request.getUserDn(), request.getId(), history.deepCopy(),
+                            request, checkpoints.get(entry.getKey()).copy()));
+                }
+            }
+            return records;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     public RequestHistory addBroadcast(String groupId, String uri, String start, String finish,
                              String topic, String userDn, long date) {
         RequestHistory history = new RequestHistory();
@@ -89,6 +196,7 @@ public class HistoryData {
                     toUpdate.setUri(history.getUri());
                 }
             }
+            persist(userDn, date);
         } finally {
             lock.unlock();
         }
@@ -104,6 +212,21 @@ public class HistoryData {
         }
     }
 
+    /**
+     * @return a copy of the history entry, or null if there is none
+     */
+    public RequestHistory getEntry(String userDn, long date) {
+        lock.lock();
+        try {
+            ReplayHistory replayHistory = users.get(userDn);
+            RequestHistory history = replayHistory == null ? null
+                    : replayHistory.getReplayHistory().get(Long.toString(date));
+            return history == null ? null : history.deepCopy();
+        } finally {
+            lock.unlock();
+        }
+    }
+
     public void removeEntry(String userDn, String timestamp) {
         lock.lock();
         try {
@@ -114,10 +237,41 @@ public class HistoryData {
                     users.remove(userDn);
                 }
             }
+            long date = Long.parseLong(timestamp);
+            requests.remove(key(userDn, date));
+            checkpoints.remove(key(userDn, date));
+            if (store != null) {
+                store.delete(userDn, date);
+            }
         } finally {
             lock.unlock();
         }
     }
+
+    /**
+     * Write the entry to the store, must hold the lock
+     */
+    private void persist(String userDn, long date) {
+        if (store == null) {
+            return;
+        }
+        ReplayHistory replayHistory = users.get(userDn);
+        RequestHistory history = replayHistory == null ? null
+                : replayHistory.getReplayHistory().get(Long.toString(date));
+        if (history == null) {
+            return;
+        }
+        String key = key(userDn, date);
+        try {
+            store.save(new ReplayJobStore.Record(userDn, date, history, requests.get(key), checkpoints.get(key)));
+        } catch (IOException e) {
+            logger.error("Could not store replay history of " + userDn + " for " + date, e);
+        }
+    }
+
+    private static String key(String userDn, long date) {
+        return userDn + "/" + date;
+    }
 }
 
 
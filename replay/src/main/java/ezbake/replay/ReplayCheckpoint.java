@@ -0,0 +1,107 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.replay;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import ezbake.data.common.TimeUtil;
+import ezbake.warehaus.DatedURI;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The last message broadcast by a replay, so an interrupted replay can carry on where it stopped.  The warehaus lists
+ * replayed URIs in timestamp order, but URIs with the same timestamp come in any order, so every URI broadcast at the
+ * last timestamp is kept.
+ */
+public class ReplayCheckpoint {
+    private long timestamp;
+    private final Set<String> uris;
+
+    public ReplayCheckpoint() {
+        this(-1, Collections.<String>emptySet());
+    }
+
+    public ReplayCheckpoint(long timestamp, Set<String> uris) {
+        this.timestamp = timestamp;
+        this.uris = Sets.newHashSet(uris);
+    }
+
+    /**
+     * Record that a message was broadcast
+     *
+     * @param version - version of the broadcast message
+     * @param uri     - URI of the broadcast message
+     */
+    public void broadcast(long version, String uri) {
+        if (version > timestamp) {
+            timestamp = version;
+            uris.clear();
+        }
+        if (version == timestamp) {
+            uris.add(uri);
+        }
+    }
+
+    /**
+     * @return whether the URI was broadcast before the checkpoint was taken
+     */
+    public boolean isBroadcast(DatedURI uri) {
+        long version = TimeUtil.convertFromThriftDateTime(uri.getTimestamp());
+        return version < timestamp || version == timestamp && uris.contains(uri.getUri());
+    }
+
+    /**
+     * @return the URIs that weren't broadcast before the checkpoint was taken, in the same order
+     */
+    public List<DatedURI> remaining(List<DatedURI> listed) {
+        if (timestamp < 0) {
+            return listed;
+        }
+        List<DatedURI> remaining = Lists.newArrayListWithCapacity(listed.size());
+        for (DatedURI uri : listed) {
+            if (!isBroadcast(uri)) {
+                remaining.add(uri);
+            }
+        }
+        return remaining;
+    }
+
+    /**
+     * @return the timestamp of the last broadcast message, -1 if nothing was broadcast
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the URIs broadcast at the last timestamp
+     */
+    public Set<String> getUris() {
+        return Collections.unmodifiableSet(uris);
+    }
+
+    public ReplayCheckpoint copy() {
+        return new ReplayCheckpoint(timestamp, uris);
+    }
+
+    @Override
+    public String toString() {
+        return timestamp + " " + uris;
+    }
+}
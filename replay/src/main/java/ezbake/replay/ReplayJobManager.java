@@ -0,0 +1,229 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.replay;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.thrift.TException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs replays in the background on a bounded number of threads.  Each user can only have a few replays running at a
+ * time, the rest wait in a queue per user.  Whenever a thread frees up the users with queued replays take turns,
+ * the user whose last replay started longest ago going first, so a user queueing many replays doesn't hold up
+ * everybody else.
+ */
+public class ReplayJobManager {
+    private static Logger logger = LoggerFactory.getLogger(ReplayJobManager.class);
+
+    /**
+     * Runs a single replay, any failure is expected to be recorded in the replay's history
+     */
+    public interface Runner {
+        void run(ReplayRequest request, ReplayCheckpoint checkpoint);
+    }
+
+    private static class Job {
+        private final ReplayRequest request;
+        private final ReplayCheckpoint checkpoint;
+        private final long queuedMillis = System.currentTimeMillis();
+
+        private Job(ReplayRequest request, ReplayCheckpoint checkpoint) {
+            this.request = request;
+            this.checkpoint = checkpoint;
+        }
+    }
+
+    private final Runner runner;
+    private final int maxRunning;
+    private final int maxRunningPerUser;
+    private final int maxQueuedPerUser;
+    private final ExecutorService executor;
+
+    // Guarded by this
+    private final Map<String, Deque<Job>> queued = Maps.newLinkedHashMap();
+    private final Map<String, Long> lastStarted = Maps.newHashMap();
+    private final Multiset<String> running = HashMultiset.create();
+    private long started = 0;
+    private long completed = 0;
+    private long queueWaitMillis = 0;
+    private boolean shutdown = false;
+
+    /**
+     * @param runner            - runs the replays
+     * @param maxRunning        - maximum number of replays running at the same time
+     * @param maxRunningPerUser - maximum number of replays of a single user running at the same time
+     * @param maxQueuedPerUser  - maximum number of replays of a single user waiting to run
+     */
+    public ReplayJobManager(Runner runner, int maxRunning, int maxRunningPerUser, int maxQueuedPerUser) {
+        this.runner = runner;
+        this.maxRunning = Math.max(maxRunning, 1);
+        this.maxRunningPerUser = Math.max(maxRunningPerUser, 1);
+        this.maxQueuedPerUser = Math.max(maxQueuedPerUser, 1);
+        this.executor = Executors.newFixedThreadPool(this.maxRunning,
+                new ThreadFactoryBuilder().setNameFormat("replay-job-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Queue a replay, it runs as soon as the quotas allow
+     *
+     * @param checkpoint - where to resume the replay from, empty for a new replay
+     * @throws TException if the user already has too many replays queued or the manager is shut down
+     */
+    public synchronized void submit(ReplayRequest request, ReplayCheckpoint checkpoint) throws TException {
+        if (shutdown) {
+            throw new TException("Replay service is shutting down");
+        }
+        String userDn = request.getUserDn();
+        Deque<Job> userQueue = queued.get(userDn);
+        if (userQueue == null) {
+            userQueue = new ArrayDeque<>();
+        }
+        if (userQueue.size() >= maxQueuedPerUser) {
+            throw new TException(String.format("User already has %d replays waiting to run", userQueue.size()));
+        }
+        if (userQueue.isEmpty()) {
+            queued.put(userDn, userQueue);
+        }
+        userQueue.addLast(new Job(request, checkpoint));
+        logger.debug("Queued replay {}, {} running, {} users waiting", request, running.size(), queued.size());
+        dispatch();
+    }
+
+    /**
+     * Stop taking replays and interrupt the running ones.  Queued replays are dropped, the history store keeps them
+     * so they are resumed on the next start.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            queued.clear();
+        }
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                logger.warn("Replays did not stop within 30 seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized boolean isShutdown() {
+        return shutdown;
+    }
+
+    public synchronized int getRunning() {
+        return running.size();
+    }
+
+    public synchronized int getRunning(String userDn) {
+        return running.count(userDn);
+    }
+
+    public synchronized int getQueued() {
+        int total = 0;
+        for (Deque<Job> userQueue : queued.values()) {
+            total += userQueue.size();
+        }
+        return total;
+    }
+
+    public synchronized int getQueued(String userDn) {
+        Deque<Job> userQueue = queued.get(userDn);
+        return userQueue == null ? 0 : userQueue.size();
+    }
+
+    public synchronized long getCompleted() {
+        return completed;
+    }
+
+    /**
+     * @return average time replays waited in the queue before running
+     */
+    public synchronized long getAverageQueueWaitMillis() {
+        return completed == 0 ? 0 : queueWaitMillis / completed;
+    }
+
+    /**
+     * Start queued replays while there are threads free, taking the next replay of the user under quota whose last
+     * replay started longest ago.  Must hold the lock.
+     */
+    private void dispatch() {
+        while (!shutdown && running.size() < maxRunning) {
+            String next = null;
+            for (String userDn : queued.keySet()) {
+                if (running.count(userDn) < maxRunningPerUser
+                        && (next == null || getLastStarted(userDn) < getLastStarted(next))) {
+                    next = userDn;
+                }
+            }
+            if (next == null) {
+                return;
+            }
+            Deque<Job> userQueue = queued.get(next);
+            start(userQueue.removeFirst());
+            if (userQueue.isEmpty()) {
+                queued.remove(next);
+            }
+        }
+    }
+
+    private long getLastStarted(String userDn) {
+        Long last = lastStarted.get(userDn);
+        return last == null ? 0 : last;
+    }
+
+    private void start(final Job job) {
+        running.add(job.request.getUserDn());
+        lastStarted.put(job.request.getUserDn(), ++started);
+        final long waited = System.currentTimeMillis() - job.queuedMillis;
+        logger.debug("Starting replay {} after {} ms in the queue", job.request, waited);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runner.run(job.request, job.checkpoint);
+                } catch (RuntimeException e) {
+                    logger.error("Replay " + job.request + " failed", e);
+                } finally {
+                    finished(job, waited);
+                }
+            }
+        });
+    }
+
+    private synchronized void finished(Job job, long waited) {
+        String userDn = job.request.getUserDn();
+        running.remove(userDn);
+        if (running.count(userDn) == 0 && !queued.containsKey(userDn)) {
+            lastStarted.remove(userDn);
+        }
+        completed++;
+        queueWaitMillis += waited;
+        dispatch();
+    }
+}
@@ -0,0 +1,237 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.replay;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import ezbake.base.thrift.DateTime;
+import ezbake.data.common.TimeUtil;
+import ezbake.thrift.ThriftUtils;
+import ezbake.warehaus.GetDataType;
+import org.apache.thrift.TBase;
+import org.apache.thrift.TException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Keeps the replay history on disk, one file per replay, so it outlives the service.  While a replay is running its
+ * file also holds the request and the last checkpoint, which is what lets the replay be resumed after a restart.
+ * The user's security token is not stored, so a replay that was running or queued when the service stopped fails
+ * when it is resumed and the user has to request it again.  Files are replaced atomically, so a crash leaves either
+ * the old or the new record.
+ */
+public class ReplayJobStore {
+    private static Logger logger = LoggerFactory.getLogger(ReplayJobStore.class);
+    private static final String SUFFIX = ".replay";
+
+    /**
+     * The stored state of a replay
+     */
+    public static class Record {
+        private final String userDn;
+        private final long date;
+        private final RequestHistory history;
+        private final ReplayRequest request;
+        private final ReplayCheckpoint checkpoint;
+
+        /**
+         * @param request    - the request while the replay is running, null once it has finished
+         * @param checkpoint - the last checkpoint while the replay is running
+         */
+        public Record(String userDn, long date, RequestHistory history, ReplayRequest request,
+                      ReplayCheckpoint checkpoint) {
+            this.userDn = userDn;
+            this.date = date;
+            this.history = history;
+            this.request = request;
+            this.checkpoint = checkpoint;
+        }
+
+        public String getUserDn() {
+            return userDn;
+        }
+
+        public long getDate() {
+            return date;
+        }
+
+        public RequestHistory getHistory() {
+            return history;
+        }
+
+        public ReplayRequest getRequest() {
+            return request;
+        }
+
+        public ReplayCheckpoint getCheckpoint() {
+            return checkpoint;
+        }
+
+        public boolean isActive() {
+            return request != null;
+        }
+    }
+
+    private final File directory;
+
+    public ReplayJobStore(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create replay store " + directory);
+        }
+        this.directory = directory;
+    }
+
+    public void save(Record record) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("user", record.getUserDn());
+        props.setProperty("date", Long.toString(record.getDate()));
+        props.setProperty("history", encode(record.getHistory()));
+        ReplayRequest request = record.getRequest();
+        if (request != null) {
+            props.setProperty("request.groupId", request.getGroupId());
+            props.setProperty("request.uriPrefix", request.getUriPrefix());
+            setTime(props, "request.start", request.getStart());
+            setTime(props, "request.finish", request.getFinish());
+            props.setProperty("request.topic", request.getTopic());
+            props.setProperty("request.latestOnly", Boolean.toString(request.isReplayLatestOnly()));
+            if (request.getType() != null) {
+                props.setProperty("request.type", request.getType().name());
+            }
+            props.setProperty("request.interval", Integer.toString(request.getReplayIntervalMinutes()));
+            ReplayCheckpoint checkpoint = record.getCheckpoint();
+            if (checkpoint != null && checkpoint.getTimestamp() >= 0) {
+                props.setProperty("checkpoint.timestamp", Long.toString(checkpoint.getTimestamp()));
+                int i = 0;
+                for (String uri : checkpoint.getUris()) {
+                    props.setProperty("checkpoint.uri." + i++, uri);
+                }
+            }
+        }
+
+        File file = file(record.getUserDn(), record.getDate());
+        File temp = new File(directory, file.getName() + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            props.store(out, null);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void delete(String userDn, long date) {
+        File file = file(userDn, date);
+        if (file.exists() && !file.delete()) {
+            logger.warn("Could not delete replay record {}", file);
+        }
+    }
+
+    /**
+     * @return every stored replay, records that can't be read are logged and skipped
+     */
+    public List<Record> load() {
+        List<Record> records = Lists.newArrayList();
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        if (files == null) {
+            return records;
+        }
+        for (File file : files) {
+            try {
+                records.add(read(file));
+            } catch (IOException | TException | RuntimeException e) {
+                logger.error("Could not read replay record " + file, e);
+            }
+        }
+        return records;
+    }
+
+    private Record read(File file) throws IOException, TException {
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            props.load(in);
+        }
+        String userDn = props.getProperty("user");
+        long date = Long.parseLong(props.getProperty("date"));
+        RequestHistory history = ThriftUtils.deserialize(RequestHistory.class, decode(props.getProperty("history")));
+        if (props.getProperty("request.groupId") == null) {
+            return new Record(userDn, date, history, null, null);
+        }
+
+        String type = props.getProperty("request.type");
+        ReplayRequest request = new ReplayRequest(date, userDn, props.getProperty("request.groupId"),
+                props.getProperty("request.uriPrefix"),
+                getTime(props, "request.start"), getTime(props, "request.finish"),
+                props.getProperty("request.topic"), Boolean.parseBoolean(props.getProperty("request.latestOnly")),
+                type == null ? null : GetDataType.valueOf(type),
+                Integer.parseInt(props.getProperty("request.interval")), null);
+        ReplayCheckpoint checkpoint = new ReplayCheckpoint();
+        String timestamp = props.getProperty("checkpoint.timestamp");
+        if (timestamp != null) {
+            Set<String> uris = Sets.newHashSet();
+            for (int i = 0; props.getProperty("checkpoint.uri." + i) != null; i++) {
+                uris.add(props.getProperty("checkpoint.uri." + i));
+            }
+            checkpoint = new ReplayCheckpoint(Long.parseLong(timestamp), uris);
+        }
+        return new Record(userDn, date, history, request, checkpoint);
+    }
+
+    private File file(String userDn, long date) {
+        String user = Hashing.sha1().hashBytes(userDn.getBytes(Charsets.UTF_8)).toString();
+        return new File(directory, date + "-" + user + SUFFIX);
+    }
+
+    private static void setTime(Properties props, String name, DateTime time) {
+        if (time != null) {
+            props.setProperty(name, Long.toString(TimeUtil.convertFromThriftDateTime(time)));
+        }
+    }
+
+    private static DateTime getTime(Properties props, String name) {
+        String time = props.getProperty(name);
+        return time == null ? null : TimeUtil.convertToThriftDateTime(Long.parseLong(time));
+    }
+
+    private static String encode(TBase<?, ?> value) throws IOException {
+        try {
+            return BaseEncoding.base64().encode(ThriftUtils.serialize(value));
+        } catch (TException e) {
+            throw new IOException("Could not serialize " + value.getClass().getSimpleName(), e);
+        }
+    }
+
+    private static byte[] decode(String value) {
+        return BaseEncoding.base64().decode(value);
+    }
+}
@@ -0,0 +1,178 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.replay;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import ezbake.warehaus.BinaryReplay;
+import ezbake.warehaus.DatedURI;
+import org.apache.thrift.TException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches the payloads of replayed URIs ahead of them being broadcast.  The URIs are fetched in batches, with up to
+ * window batches being fetched at the same time, while the payloads are handed to the listener in the order of the
+ * URIs.  A pipeline belongs to a single replay, but the executor fetching the batches can be shared.
+ */
+public class ReplayPipeline {
+    private static Logger logger = LoggerFactory.getLogger(ReplayPipeline.class);
+
+    /**
+     * Fetches the payloads of a batch of URIs.  A batch never holds the same URI twice.
+     */
+    public interface Fetcher {
+        /**
+         * @return the payloads by URI, URIs that aren't in the warehaus are left out
+         */
+        Map<String, BinaryReplay> fetch(List<DatedURI> batch) throws TException;
+    }
+
+    /**
+     * Receives the payloads, in order, on the thread that called {@link #replay(List, Listener)}
+     */
+    public interface Listener {
+        void onPayload(DatedURI uri, BinaryReplay payload) throws IOException;
+    }
+
+    private final ExecutorService executor;
+    private final Fetcher fetcher;
+    private final int batchSize;
+    private final int window;
+
+    private long fetchWaitNanos = 0;
+    private long missing = 0;
+
+    /**
+     * @param executor  - executor fetching the batches
+     * @param fetcher   - fetches a batch of URIs
+     * @param batchSize - maximum number of URIs fetched at once
+     * @param window    - maximum number of batches being fetched ahead of the one being broadcast
+     */
+    public ReplayPipeline(ExecutorService executor, Fetcher fetcher, int batchSize, int window) {
+        this.executor = executor;
+        this.fetcher = fetcher;
+        this.batchSize = Math.max(batchSize, 1);
+        this.window = Math.max(window, 1);
+    }
+
+    /**
+     * Fetch the payloads of the URIs and hand them to the listener in the order of the URIs.  URIs missing from the
+     * warehaus are skipped.  This is a blocking call.
+     */
+    public void replay(List<DatedURI> uris, Listener listener) throws TException, IOException {
+        List<List<DatedURI>> batches = split(uris);
+        Deque<Future<Map<String, BinaryReplay>>> pending = new ArrayDeque<>();
+        int next = 0;
+        try {
+            for (List<DatedURI> batch : batches) {
+                while (next < batches.size() && pending.size() < window) {
+                    pending.addLast(submit(batches.get(next++)));
+                }
+                Map<String, BinaryReplay> payloads = await(pending.removeFirst());
+                for (DatedURI uri : batch) {
+                    BinaryReplay payload = payloads.get(uri.getUri());
+                    if (payload == null) {
+                        logger.warn("Entry not found for URI {}", uri.getUri());
+                        missing++;
+                    } else {
+                        listener.onPayload(uri, payload);
+                    }
+                }
+            }
+        } finally {
+            for (Future<Map<String, BinaryReplay>> future : pending) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * @return the time spent waiting for a batch to be fetched, i.e. how long broadcasting was held up by the warehaus
+     */
+    public long getFetchWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(fetchWaitNanos);
+    }
+
+    /**
+     * @return the number of URIs skipped because they weren't in the warehaus
+     */
+    public long getMissing() {
+        return missing;
+    }
+
+    /**
+     * Split the URIs into batches of at most batchSize, starting a new batch whenever a URI repeats
+     */
+    List<List<DatedURI>> split(List<DatedURI> uris) {
+        List<List<DatedURI>> batches = Lists.newArrayList();
+        List<DatedURI> batch = Lists.newArrayList();
+        Set<String> batchUris = Sets.newHashSet();
+        for (DatedURI uri : uris) {
+            if (batch.size() == batchSize || !batchUris.add(uri.getUri())) {
+                batches.add(batch);
+                batch = Lists.newArrayList();
+                batchUris.clear();
+                batchUris.add(uri.getUri());
+            }
+            batch.add(uri);
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    private Future<Map<String, BinaryReplay>> submit(final List<DatedURI> batch) {
+        return executor.submit(new Callable<Map<String, BinaryReplay>>() {
+            @Override
+            public Map<String, BinaryReplay> call() throws TException {
+                return fetcher.fetch(batch);
+            }
+        });
+    }
+
+    private Map<String, BinaryReplay> await(Future<Map<String, BinaryReplay>> future) throws TException {
+        long start = System.nanoTime();
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TException("Interrupted while fetching from the warehaus", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TException) {
+                throw (TException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new TException(cause);
+        } finally {
+            fetchWaitNanos += System.nanoTime() - start;
+        }
+    }
+}
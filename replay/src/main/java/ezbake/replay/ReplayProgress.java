@@ -0,0 +1,186 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.replay;
+
+import ezbake.data.common.TimeUtil;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks the progress of a single replay and records it in the {@link HistoryData}.  Broadcasts are counted locally
+ * and only written to the history every flushCount messages or flushMillis milliseconds, whichever comes first.
+ * Changes of the total or the status are written straight away.  Each write puts a copy of the request history, so
+ * readers of the history never see one that is being updated, together with the checkpoint of the replay.
+ * <p/>
+ * Only used from the thread running the replay.
+ */
+public class ReplayProgress {
+    private static Logger logger = LoggerFactory.getLogger(ReplayProgress.class);
+
+    private final HistoryData historyData;
+    private final String userDn;
+    private final long dateEntry;
+    private final RequestHistory requestHistory;
+    private final ReplayCheckpoint checkpoint;
+    private final long flushMillis;
+    private final long flushCount;
+
+    private final long startMillis = System.currentTimeMillis();
+    private long total;
+    private long count;
+    private long lastFlushMillis = startMillis;
+    private long lastFlushCount;
+    private long flushes = 0;
+    private long fetchWaitMillis = 0;
+
+    /**
+     * @param requestHistory - history entry of the replay, a resumed replay carries on counting from its count
+     * @param checkpoint     - checkpoint of the replay, empty unless the replay is resumed
+     */
+    public ReplayProgress(HistoryData historyData, String userDn, long dateEntry, RequestHistory requestHistory,
+                          ReplayCheckpoint checkpoint, long flushMillis, long flushCount) {
+        this.historyData = historyData;
+        this.userDn = userDn;
+        this.dateEntry = dateEntry;
+        this.requestHistory = requestHistory.deepCopy();
+        this.checkpoint = checkpoint.copy();
+        this.flushMillis = flushMillis;
+        this.flushCount = Math.max(flushCount, 1);
+        this.count = NumberUtils.toLong(requestHistory.getCount(), 0);
+        this.total = count;
+        this.lastFlushCount = count;
+    }
+
+    /**
+     * More URIs were found to replay
+     */
+    public void found(int uris) {
+        total += uris;
+        requestHistory.setTotal(Long.toString(total));
+        requestHistory.setStatus("broadcasting");
+        flush();
+    }
+
+    /**
+     * A message was broadcast
+     *
+     * @param version - version of the broadcast message
+     * @param uri     - URI of the broadcast message
+     */
+    public void broadcast(long version, String uri) {
+        count++;
+        checkpoint.broadcast(version, uri);
+        if (count - lastFlushCount >= flushCount || System.currentTimeMillis() - lastFlushMillis >= flushMillis) {
+            flush();
+        }
+    }
+
+    /**
+     * @param fetchWaitMillis - time broadcasting has waited for the warehaus so far
+     */
+    public void setFetchWaitMillis(long fetchWaitMillis) {
+        this.fetchWaitMillis = fetchWaitMillis;
+    }
+
+    /**
+     * The replay ran to the end
+     */
+    public void complete() {
+        if (total == 0) {
+            logger.warn("Replay query returned no results.");
+            requestHistory.setStatus("no matches");
+        } else {
+            requestHistory.setStatus("complete");
+        }
+        flush();
+        historyData.finishJob(userDn, dateEntry);
+        logger.info("Replay {} of {} for {} finished: {}", dateEntry, requestHistory.getUri(), userDn, this);
+    }
+
+    /**
+     * The replay stopped on an error
+     *
+     * @param status - status to record, the status isn't changed if empty
+     */
+    public void failed(String status) {
+        if (!StringUtils.isEmpty(status)) {
+            requestHistory.setStatus(status);
+        }
+        flush();
+        historyData.finishJob(userDn, dateEntry);
+        logger.info("Replay {} of {} for {} failed: {}", dateEntry, requestHistory.getUri(), userDn, this);
+    }
+
+    /**
+     * The replay was stopped by the service shutting down, it is resumed from the checkpoint on the next start
+     */
+    public void interrupted() {
+        requestHistory.setStatus("interrupted");
+        flush();
+        logger.info("Replay {} of {} for {} interrupted at {}: {}", dateEntry, requestHistory.getUri(), userDn,
+                checkpoint, this);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return number of URIs found but not broadcast yet
+     */
+    public long getBacklog() {
+        return total - count;
+    }
+
+    /**
+     * @return messages broadcast per second since the replay started
+     */
+    public double getThroughput() {
+        long elapsed = Math.max(System.currentTimeMillis() - startMillis, 1);
+        return count * 1000.0 / elapsed;
+    }
+
+    public long getFetchWaitMillis() {
+        return fetchWaitMillis;
+    }
+
+    /**
+     * @return number of times the progress was written to the history
+     */
+    public long getFlushes() {
+        return flushes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d/%d broadcast, %.1f msg/s, backlog %d, waited %d ms on warehaus, %d history updates",
+                count, total, getThroughput(), getBacklog(), fetchWaitMillis, flushes);
+    }
+
+    private void flush() {
+        requestHistory.setCount(Long.toString(count));
+        if (checkpoint.getTimestamp() >= 0) {
+            requestHistory.setLastBroadcast(
+                    BroadcasterReplay.convertThriftTime(TimeUtil.convertToThriftDateTime(checkpoint.getTimestamp())));
+        }
+        historyData.checkpoint(userDn, dateEntry, requestHistory.deepCopy(), checkpoint);
+        lastFlushMillis = System.currentTimeMillis();
+        lastFlushCount = count;
+        flushes++;
+        logger.debug("Replay {} progress: {}", dateEntry, this);
+    }
+}
@@ -0,0 +1,107 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.replay;
+
+import ezbake.base.thrift.DateTime;
+import ezbake.base.thrift.EzSecurityToken;
+import ezbake.warehaus.GetDataType;
+
+/**
+ * A replay requested by a user.  The id is the date the replay was requested, which is also the key of its entry in
+ * the user's history.
+ */
+public class ReplayRequest {
+    private final long id;
+    private final String userDn;
+    private final String groupId;
+    private final String uriPrefix;
+    private final DateTime start;
+    private final DateTime finish;
+    private final String topic;
+    private final boolean replayLatestOnly;
+    private final GetDataType type;
+    private final int replayIntervalMinutes;
+    private final EzSecurityToken token;
+
+    public ReplayRequest(long id, String userDn, String groupId, String uriPrefix, DateTime start, DateTime finish,
+                         String topic, boolean replayLatestOnly, GetDataType type, int replayIntervalMinutes,
+                         EzSecurityToken token) {
+        this.id = id;
+        this.userDn = userDn;
+        this.groupId = groupId;
+        this.uriPrefix = uriPrefix;
+        this.start = start;
+        this.finish = finish;
+        this.topic = topic;
+        this.replayLatestOnly = replayLatestOnly;
+        this.type = type;
+        this.replayIntervalMinutes = replayIntervalMinutes;
+        this.token = token;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getUserDn() {
+        return userDn;
+    }
+
+    public String getGroupId() {
+        return groupId;
+    }
+
+    public String getUriPrefix() {
+        return uriPrefix;
+    }
+
+    public DateTime getStart() {
+        return start;
+    }
+
+    public DateTime getFinish() {
+        return finish;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public boolean isReplayLatestOnly() {
+        return replayLatestOnly;
+    }
+
+    public GetDataType getType() {
+        return type;
+    }
+
+    public int getReplayIntervalMinutes() {
+        return replayIntervalMinutes;
+    }
+
+    /**
+     * @return the token of the user who requested the replay, null for a replay loaded after a restart, which
+     *         can't be run without the user's token
+     */
+    public EzSecurityToken getToken() {
+        return token;
+    }
+
+    @Override
+    public String toString() {
+        return id + " " + uriPrefix + " for " + userDn;
+    }
+}
@@ -0,0 +1,142 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.replay;
+
+import com.google.common.collect.Maps;
+import ezbake.base.thrift.EzSecurityToken;
+import ezbake.ezbroadcast.core.EzBroadcaster;
+import org.apache.thrift.TException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Broadcasters shared by the replays running at the same time.  Replays with the same group and topic broadcast
+ * through the same broadcaster, which is closed once the last of them releases it.  The public key of each topic is
+ * kept for keyTtlMillis, so replays don't ask the locksmith for it every time.
+ * <p/>
+ * Broadcasting through a shared broadcaster must be synchronized on the broadcaster.
+ */
+public class SharedBroadcasters {
+    private static Logger logger = LoggerFactory.getLogger(SharedBroadcasters.class);
+
+    /**
+     * Creates the broadcasters being shared
+     */
+    public interface Factory {
+        /**
+         * @return the public key of the topic, or null if broadcasting doesn't need one
+         */
+        String retrieveKey(EzSecurityToken token, String topic) throws TException;
+
+        /**
+         * @return a broadcaster registered to broadcast on the topic
+         */
+        EzBroadcaster create(String groupId, String key, String topic);
+    }
+
+    private static class Shared {
+        private final EzBroadcaster broadcaster;
+        private int references = 0;
+
+        private Shared(EzBroadcaster broadcaster) {
+            this.broadcaster = broadcaster;
+        }
+    }
+
+    private static class Key {
+        private final String key;
+        private final long retrievedMillis = System.currentTimeMillis();
+
+        private Key(String key) {
+            this.key = key;
+        }
+    }
+
+    private final Factory factory;
+    private final long keyTtlMillis;
+    private final Map<String, Shared> broadcasters = Maps.newHashMap();
+    private final Map<String, Key> keys = Maps.newConcurrentMap();
+
+    public SharedBroadcasters(Factory factory, long keyTtlMillis) {
+        this.factory = factory;
+        this.keyTtlMillis = keyTtlMillis;
+    }
+
+    /**
+     * Get the broadcaster for the group and topic, creating it if no replay is using one.  Must be released with
+     * {@link #release(String, String)}.
+     */
+    public EzBroadcaster acquire(EzSecurityToken token, String groupId, String topic) throws TException {
+        String name = groupId + "/" + topic;
+        synchronized (this) {
+            Shared shared = broadcasters.get(name);
+            if (shared != null) {
+                shared.references++;
+                return shared.broadcaster;
+            }
+        }
+
+        // Retrieve the key without holding the lock, the locksmith could be slow
+        String key = getKey(token, topic);
+        synchronized (this) {
+            Shared shared = broadcasters.get(name);
+            if (shared == null) {
+                shared = new Shared(factory.create(groupId, key, topic));
+                broadcasters.put(name, shared);
+                logger.debug("Created broadcaster for {}", name);
+            }
+            shared.references++;
+            return shared.broadcaster;
+        }
+    }
+
+    /**
+     * Release the broadcaster for the group and topic, closing it if no other replay is using it
+     */
+    public void release(String groupId, String topic) throws IOException {
+        String name = groupId + "/" + topic;
+        EzBroadcaster toClose = null;
+        synchronized (this) {
+            Shared shared = broadcasters.get(name);
+            if (shared != null && --shared.references <= 0) {
+                broadcasters.remove(name);
+                toClose = shared.broadcaster;
+            }
+        }
+        if (toClose != null) {
+            synchronized (toClose) {
+                toClose.close();
+            }
+            logger.debug("Closed broadcaster for {}", name);
+        }
+    }
+
+    public synchronized int size() {
+        return broadcasters.size();
+    }
+
+    private String getKey(EzSecurityToken token, String topic) throws TException {
+        Key key = keys.get(topic);
+        if (key == null || System.currentTimeMillis() - key.retrievedMillis > keyTtlMillis) {
+            key = new Key(factory.retrieveKey(token, topic));
+            keys.put(topic, key);
+        }
+        return key.key;
+    }
+}
@@ -0,0 +1,104 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.replay;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import ezbake.base.thrift.EzSecurityToken;
+import ezbake.data.common.TimeUtil;
+import ezbake.thrift.ThriftClientPool;
+import ezbake.warehaus.BinaryReplay;
+import ezbake.warehaus.DatedURI;
+import ezbake.warehaus.EntryNotInWarehausException;
+import ezbake.warehaus.GetDataType;
+import ezbake.warehaus.GetRequest;
+import ezbake.warehaus.MaxGetRequestSizeExceededException;
+import ezbake.warehaus.RequestParameter;
+import ezbake.warehaus.WarehausService;
+import ezbake.warehaus.WarehausServiceConstants;
+import org.apache.thrift.TException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fetches the parsed payloads of a batch of URIs with a single warehaus get call.  If the batch is larger than the
+ * warehaus allows in a single get, the URIs of the batch are fetched one at a time instead.
+ */
+public class WarehausBatchFetcher implements ReplayPipeline.Fetcher {
+    private static Logger logger = LoggerFactory.getLogger(WarehausBatchFetcher.class);
+
+    private final ThriftClientPool pool;
+    private final EzSecurityToken warehausToken;
+
+    public WarehausBatchFetcher(ThriftClientPool pool, EzSecurityToken warehausToken) {
+        this.pool = pool;
+        this.warehausToken = warehausToken;
+    }
+
+    @Override
+    public Map<String, BinaryReplay> fetch(List<DatedURI> batch) throws TException {
+        WarehausService.Client warehaus = null;
+        try {
+            warehaus = pool.getClient(WarehausServiceConstants.SERVICE_NAME, WarehausService.Client.class);
+            try {
+                Map<String, BinaryReplay> payloads = Maps.newHashMapWithExpectedSize(batch.size());
+                for (BinaryReplay payload : warehaus.get(getRequest(batch), warehausToken)) {
+                    payloads.put(payload.getUri(), payload);
+                }
+                return payloads;
+            } catch (MaxGetRequestSizeExceededException e) {
+                logger.debug("Batch of {} URIs is too large for a single get, fetching them one at a time",
+                        batch.size());
+                return fetchEach(warehaus, batch);
+            }
+        } finally {
+            if (warehaus != null) {
+                pool.returnToPool(warehaus);
+            }
+        }
+    }
+
+    private Map<String, BinaryReplay> fetchEach(WarehausService.Client warehaus, List<DatedURI> batch)
+            throws TException {
+        Map<String, BinaryReplay> payloads = Maps.newHashMapWithExpectedSize(batch.size());
+        for (DatedURI uri : batch) {
+            try {
+                long version = TimeUtil.convertFromThriftDateTime(uri.getTimestamp());
+                payloads.put(uri.getUri(), warehaus.getParsed(uri.getUri(), version, warehausToken));
+            } catch (EntryNotInWarehausException e) {
+                // Left out, the pipeline logs it
+            }
+        }
+        return payloads;
+    }
+
+    private static GetRequest getRequest(List<DatedURI> batch) {
+        List<RequestParameter> params = Lists.newArrayListWithCapacity(batch.size());
+        for (DatedURI uri : batch) {
+            RequestParameter param = new RequestParameter();
+            param.setUri(uri.getUri());
+            param.setTimestamp(uri.getTimestamp());
+            params.add(param);
+        }
+        GetRequest request = new GetRequest();
+        request.setRequestParams(params);
+        request.setGetDataType(GetDataType.PARSED);
+        request.setLatestVersion(false);
+        return request;
+    }
+}
@@ -38,6 +38,7 @@ import org.apache.accumulo.core.client.TableExistsException;
 import org.apache.accumulo.core.client.TableNotFoundException;
 import org.apache.thrift.TException;
 import org.junit.*;
+import org.junit.rules.TemporaryFolder;
 import static org.mockito.Mockito.*;
 
 import java.io.IOException;
@@ -56,10 +57,14 @@ public class BroadcasterReplayTest {
     private static BroadcasterReplay replay;
     private static EzSecurityToken token;
     private static AccumuloHelper accumulo;
+    private static Properties props;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
 
     @BeforeClass
     public static void initialize() throws Exception {
-        Properties props = new Properties();
+        props = new Properties();
         props.setProperty(EzBakePropertyConstants.THRIFT_USE_SSL, Boolean.toString(false));
         props.setProperty(EzBakePropertyConstants.EZBAKE_SECURITY_ID, "replay");
         props.setProperty(EzBakePropertyConstants.ZOOKEEPER_CONNECTION_STRING, "localhost:49998");
@@ -298,6 +303,51 @@ public class BroadcasterReplayTest {
         assertEquals("All parsed objects found", 0, parsedObjects.size());
     }
 
+    @Test
+    public void testResumeWithExpiredToken() throws Exception {
+        WarehausService.Client warehaus = pool.getClient(WarehausServiceConstants.SERVICE_NAME, WarehausService.Client.class);
+        Visibility visibility = new Visibility().setFormalVisibility("A");
+        Repository repo = new Repository("DEV://replay/test", ByteBuffer.wrap("this is raw data".getBytes()), ByteBuffer.wrap("this is parsed data".getBytes()));
+        IngestStatus status = warehaus.insert(repo, visibility, getMockToken());
+        pool.returnToPool(warehaus);
+        DateTime startTime = TimeUtil.convertToThriftDateTime(status.getTimestamp() - 1000);
+        DateTime endTime = TimeUtil.convertToThriftDateTime(status.getTimestamp() + 1000);
+
+        // A replay that was still queued when the service stopped, its token has expired since
+        EzSecurityToken expired = getMockToken().deepCopy();
+        expired.getValidity().setNotAfter(System.currentTimeMillis() - 60 * 1000);
+        String dn = expired.getTokenPrincipal().getPrincipal();
+        long date = System.currentTimeMillis();
+        new HistoryData(new ReplayJobStore(folder.getRoot())).addJob(new ReplayRequest(date, dn, "group",
+                "DEV://replay", startTime, endTime, "topic", true, GetDataType.PARSED, 0, expired));
+
+        Properties resumedProps = new Properties();
+        resumedProps.putAll(props);
+        resumedProps.setProperty(BroadcasterReplay.STORE_DIRECTORY_KEY, folder.getRoot().getAbsolutePath());
+        BroadcasterReplay resumed = new BroadcasterReplay();
+        resumed.setConfigurationProperties(resumedProps);
+        resumed.securityClient = mock(EzbakeSecurityClient.class);
+        try {
+            resumed.getThriftProcessor();
+
+            RequestHistory request = null;
+            for (int i = 0; i < 100; i++) {
+                request = resumed.getUserHistory(getMockToken()).getReplayHistory().get(Long.toString(date));
+                if (!"pending".equals(request.getStatus()) && !"broadcasting".equals(request.getStatus())) {
+                    break;
+                }
+                Thread.sleep(100);
+            }
+            assertEquals("Correct status", BroadcasterReplay.TOKEN_EXPIRED_STATUS, request.getStatus());
+            assertFalse("Nothing broadcast", ReplayBroadcaster.getBroadcasted().containsKey("topic"));
+            // No token of any kind was fetched to read the warehaus with
+            verify(resumed.securityClient, never()).fetchAppToken(anyString());
+            verify(resumed.securityClient, never()).fetchDerivedTokenForApp(any(EzSecurityToken.class), anyString());
+        } finally {
+            resumed.shutdown();
+        }
+    }
+
     @Test
     public void testRemoveHistory() throws TException, InterruptedException {
         DateTime startTime = TimeUtil.convertToThriftDateTime(new java.util.Date().getTime());
@@ -0,0 +1,245 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.replay;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import ezbake.data.common.TimeUtil;
+import ezbake.warehaus.BinaryReplay;
+import ezbake.warehaus.DatedURI;
+import org.apache.thrift.TException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReplayJobManagerTest {
+    private static Logger logger = LoggerFactory.getLogger(ReplayJobManagerTest.class);
+
+    private ExecutorService fetchExecutor;
+    private ReplayJobManager manager;
+
+    @Before
+    public void setUp() {
+        fetchExecutor = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void tearDown() {
+        if (manager != null) {
+            manager.shutdown();
+        }
+        fetchExecutor.shutdownNow();
+    }
+
+    /**
+     * Many users replaying at once against a local stand-in for the warehaus that takes a few milliseconds per batch
+     */
+    @Test
+    public void testLoad() throws Exception {
+        final int users = 10;
+        final int jobsPerUser = 5;
+        final int urisPerJob = 200;
+        final CountDownLatch done = new CountDownLatch(users * jobsPerUser);
+        final AtomicLong broadcast = new AtomicLong();
+        final ConcurrencyRecorder recorder = new ConcurrencyRecorder();
+        final ReplayPipeline.Fetcher warehaus = new StandInWarehaus(3);
+
+        manager = new ReplayJobManager(new ReplayJobManager.Runner() {
+            @Override
+            public void run(ReplayRequest request, ReplayCheckpoint checkpoint) {
+                recorder.started(request.getUserDn());
+                try {
+                    ReplayPipeline pipeline = new ReplayPipeline(fetchExecutor, warehaus, 50, 2);
+                    pipeline.replay(uris(request.getUriPrefix(), urisPerJob), new ReplayPipeline.Listener() {
+                        @Override
+                        public void onPayload(DatedURI uri, BinaryReplay payload) {
+                            broadcast.incrementAndGet();
+                        }
+                    });
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    recorder.finished(request.getUserDn());
+                    done.countDown();
+                }
+            }
+        }, 4, 2, jobsPerUser);
+
+        long start = System.currentTimeMillis();
+        for (int job = 0; job < jobsPerUser; job++) {
+            for (int user = 0; user < users; user++) {
+                manager.submit(request("user" + user, job), new ReplayCheckpoint());
+            }
+        }
+        assertTrue("Replays should finish", done.await(60, TimeUnit.SECONDS));
+        long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+
+        logger.info("Ran {} replays of {} URIs in {} ms: {} replays/s, {} msg/s, {} ms average queue wait",
+                users * jobsPerUser, urisPerJob, elapsed, users * jobsPerUser * 1000 / elapsed,
+                broadcast.get() * 1000 / elapsed, manager.getAverageQueueWaitMillis());
+        assertEquals(users * jobsPerUser * urisPerJob, broadcast.get());
+        assertTrue("At most 4 replays run at once", recorder.maxTotal.get() <= 4);
+        assertTrue("Replays run at the same time", recorder.maxTotal.get() > 1);
+        for (AtomicInteger maxForUser : recorder.maxPerUser.values()) {
+            assertTrue("At most 2 replays of a user run at once", maxForUser.get() <= 2);
+        }
+    }
+
+    @Test
+    public void testUsersTakeTurns() throws Exception {
+        final List<String> order = Collections.synchronizedList(Lists.<String>newArrayList());
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(7);
+        manager = new ReplayJobManager(new ReplayJobManager.Runner() {
+            @Override
+            public void run(ReplayRequest request, ReplayCheckpoint checkpoint) {
+                order.add(request.getUserDn());
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }
+        }, 1, 1, 10);
+
+        // The busy user queues up first, the others come in after
+        for (int i = 0; i < 5; i++) {
+            manager.submit(request("busy", i), new ReplayCheckpoint());
+        }
+        manager.submit(request("other1", 0), new ReplayCheckpoint());
+        manager.submit(request("other2", 0), new ReplayCheckpoint());
+        assertEquals(1, manager.getRunning());
+        assertEquals(6, manager.getQueued());
+        release.countDown();
+
+        assertTrue("Replays should finish", done.await(10, TimeUnit.SECONDS));
+        assertEquals(Lists.newArrayList("busy", "other1", "other2", "busy", "busy", "busy", "busy"), order);
+    }
+
+    @Test
+    public void testQueueLimit() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        manager = new ReplayJobManager(new ReplayJobManager.Runner() {
+            @Override
+            public void run(ReplayRequest request, ReplayCheckpoint checkpoint) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, 2, 1, 2);
+
+        manager.submit(request("user", 0), new ReplayCheckpoint());
+        manager.submit(request("user", 1), new ReplayCheckpoint());
+        manager.submit(request("user", 2), new ReplayCheckpoint());
+        try {
+            manager.submit(request("user", 3), new ReplayCheckpoint());
+            fail("The user's queue is full");
+        } catch (TException e) {
+            // expected
+        }
+        // Other users have their own queue
+        manager.submit(request("other", 0), new ReplayCheckpoint());
+        assertEquals(1, manager.getRunning("user"));
+        assertEquals(2, manager.getQueued("user"));
+        assertEquals(1, manager.getRunning("other"));
+        release.countDown();
+    }
+
+    private static ReplayRequest request(String userDn, int job) {
+        return new ReplayRequest(job, userDn, "group", "DEV://" + userDn + "/" + job, null, null, "topic", true,
+                null, 0, null);
+    }
+
+    private static List<DatedURI> uris(String prefix, int count) {
+        List<DatedURI> uris = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            DatedURI uri = new DatedURI();
+            uri.setUri(prefix + "/" + i);
+            uri.setTimestamp(TimeUtil.convertToThriftDateTime(i));
+            uris.add(uri);
+        }
+        return uris;
+    }
+
+    /**
+     * Answers every batch after latencyMillis, with a payload for every URI
+     */
+    private static class StandInWarehaus implements ReplayPipeline.Fetcher {
+        private final long latencyMillis;
+
+        private StandInWarehaus(long latencyMillis) {
+            this.latencyMillis = latencyMillis;
+        }
+
+        @Override
+        public Map<String, BinaryReplay> fetch(List<DatedURI> batch) throws TException {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                throw new TException(e);
+            }
+            Map<String, BinaryReplay> payloads = Maps.newHashMap();
+            for (DatedURI uri : batch) {
+                BinaryReplay payload = new BinaryReplay();
+                payload.setUri(uri.getUri());
+                payload.setPacket(uri.getUri().getBytes());
+                payloads.put(uri.getUri(), payload);
+            }
+            return payloads;
+        }
+    }
+
+    private static class ConcurrencyRecorder {
+        private final AtomicInteger total = new AtomicInteger();
+        private final AtomicInteger maxTotal = new AtomicInteger();
+        private final Map<String, AtomicInteger> perUser = new ConcurrentHashMap<>();
+        private final Map<String, AtomicInteger> maxPerUser = new ConcurrentHashMap<>();
+
+        private synchronized void started(String userDn) {
+            maxTotal.set(Math.max(maxTotal.get(), total.incrementAndGet()));
+            if (!perUser.containsKey(userDn)) {
+                perUser.put(userDn, new AtomicInteger());
+                maxPerUser.put(userDn, new AtomicInteger());
+            }
+            maxPerUser.get(userDn).set(Math.max(maxPerUser.get(userDn).get(), perUser.get(userDn).incrementAndGet()));
+        }
+
+        private synchronized void finished(String userDn) {
+            total.decrementAndGet();
+            perUser.get(userDn).decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.replay;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.BaseEncoding;
+import ezbake.base.thrift.EzSecurityToken;
+import ezbake.data.common.TimeUtil;
+import ezbake.thrift.ThriftTestUtils;
+import ezbake.thrift.ThriftUtils;
+import ezbake.warehaus.DatedURI;
+import ezbake.warehaus.GetDataType;
+import org.apache.thrift.TException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReplayJobStoreTest {
+    private static final String USER = "user1";
+    private static final long DATE = 1000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testUnfinishedReplayIsResumable() throws IOException {
+        EzSecurityToken token = ThriftTestUtils.generateTestSecurityToken("U");
+        HistoryData historyData = new HistoryData(new ReplayJobStore(folder.getRoot()));
+        RequestHistory history = historyData.addJob(new ReplayRequest(DATE, USER, "group", "DEV://replay",
+                TimeUtil.convertToThriftDateTime(100), TimeUtil.convertToThriftDateTime(200), "topic", true,
+                GetDataType.PARSED, 5, token));
+
+        ReplayProgress progress = new ReplayProgress(historyData, USER, DATE, history, new ReplayCheckpoint(),
+                Long.MAX_VALUE, 2);
+        progress.found(4);
+        progress.broadcast(150, "DEV://replay/a");
+        progress.broadcast(160, "DEV://replay/b");
+        progress.broadcast(160, "DEV://replay/c");
+
+        // Restart
+        historyData = new HistoryData(new ReplayJobStore(folder.getRoot()));
+        List<ReplayJobStore.Record> unfinished = historyData.getUnfinishedJobs();
+        assertEquals(1, unfinished.size());
+        ReplayJobStore.Record record = unfinished.get(0);
+        ReplayRequest request = record.getRequest();
+        assertEquals(DATE, request.getId());
+        assertEquals(USER, request.getUserDn());
+        assertEquals("DEV://replay", request.getUriPrefix());
+        assertEquals(200, TimeUtil.convertFromThriftDateTime(request.getFinish()));
+        assertEquals(GetDataType.PARSED, request.getType());
+        assertEquals(5, request.getReplayIntervalMinutes());
+        // The token isn't stored, a resumed replay fetches a fresh one
+        assertNull(request.getToken());
+        assertEquals("2", record.getHistory().getCount());
+        assertEquals("broadcasting", historyData.getEntry(USER, DATE).getStatus());
+
+        // Only the broadcast that wasn't checkpointed is replayed again
+        ReplayCheckpoint checkpoint = record.getCheckpoint();
+        assertEquals(160, checkpoint.getTimestamp());
+        List<DatedURI> listed = Lists.newArrayList(uri("DEV://replay/a", 150), uri("DEV://replay/b", 160),
+                uri("DEV://replay/c", 160), uri("DEV://replay/d", 170));
+        assertEquals(Lists.newArrayList(uri("DEV://replay/c", 160), uri("DEV://replay/d", 170)),
+                checkpoint.remaining(listed));
+
+        // The resumed replay carries on counting
+        progress = new ReplayProgress(historyData, USER, DATE, record.getHistory(), checkpoint, Long.MAX_VALUE, 2);
+        progress.found(2);
+        progress.broadcast(160, "DEV://replay/c");
+        progress.broadcast(170, "DEV://replay/d");
+        progress.complete();
+
+        historyData = new HistoryData(new ReplayJobStore(folder.getRoot()));
+        assertTrue(historyData.getUnfinishedJobs().isEmpty());
+        RequestHistory stored = historyData.getEntry(USER, DATE);
+        assertEquals("4", stored.getCount());
+        assertEquals("4", stored.getTotal());
+        assertEquals("complete", stored.getStatus());
+    }
+
+    @Test
+    public void testTokenIsNotStored() throws IOException, TException {
+        EzSecurityToken token = ThriftTestUtils.generateTestSecurityToken("U");
+        HistoryData historyData = new HistoryData(new ReplayJobStore(folder.getRoot()));
+        historyData.addJob(new ReplayRequest(DATE, USER, "group", "DEV://replay", null, null, "topic", true, null, 0,
+                token));
+
+        File[] files = folder.getRoot().listFiles();
+        assertEquals(1, files.length);
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(files[0])) {
+            props.load(in);
+        }
+        assertNull(props.getProperty("request.token"));
+        String encodedToken = BaseEncoding.base64().encode(ThriftUtils.serialize(token));
+        for (String name : props.stringPropertyNames()) {
+            assertFalse(props.getProperty(name).contains(encodedToken));
+        }
+    }
+
+    @Test
+    public void testRemovedEntryIsDeleted() throws IOException {
+        HistoryData historyData = new HistoryData(new ReplayJobStore(folder.getRoot()));
+        historyData.addJob(new ReplayRequest(DATE, USER, "group", "DEV://replay", null, null, "topic", true, null, 0,
+                ThriftTestUtils.generateTestSecurityToken("U")));
+        assertNotNull(new HistoryData(new ReplayJobStore(folder.getRoot())).getEntry(USER, DATE));
+
+        historyData.removeEntry(USER, Long.toString(DATE));
+
+        historyData = new HistoryData(new ReplayJobStore(folder.getRoot()));
+        assertNull(historyData.getEntry(USER, DATE));
+        assertTrue(historyData.getUnfinishedJobs().isEmpty());
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void testCheckpointKeepsUrisOfLastTimestamp() {
+        ReplayCheckpoint checkpoint = new ReplayCheckpoint();
+        checkpoint.broadcast(10, "a");
+        checkpoint.broadcast(20, "b");
+        checkpoint.broadcast(20, "c");
+        assertEquals(20, checkpoint.getTimestamp());
+        assertEquals(Sets.newHashSet("b", "c"), checkpoint.getUris());
+        assertTrue(checkpoint.isBroadcast(uri("a", 10)));
+        assertTrue(checkpoint.isBroadcast(uri("z", 19)));
+        assertTrue(!checkpoint.isBroadcast(uri("d", 20)));
+        assertTrue(!checkpoint.isBroadcast(uri("a", 21)));
+    }
+
+    private static DatedURI uri(String uri, long version) {
+        DatedURI datedURI = new DatedURI();
+        datedURI.setUri(uri);
+        datedURI.setTimestamp(TimeUtil.convertToThriftDateTime(version));
+        return datedURI;
+    }
+}
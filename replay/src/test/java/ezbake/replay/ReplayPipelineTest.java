@@ -0,0 +1,209 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.replay;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import ezbake.data.common.TimeUtil;
+import ezbake.warehaus.BinaryReplay;
+import ezbake.warehaus.DatedURI;
+import org.apache.thrift.TException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReplayPipelineTest {
+    private static Logger logger = LoggerFactory.getLogger(ReplayPipelineTest.class);
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testOrderIsPreserved() throws TException, IOException {
+        List<DatedURI> uris = uris(1000);
+        SlowFetcher fetcher = new SlowFetcher(5, Collections.<String>emptySet());
+        ReplayPipeline pipeline = new ReplayPipeline(executor, fetcher, 50, 4);
+        RecordingListener listener = new RecordingListener();
+
+        pipeline.replay(uris, listener);
+
+        assertEquals(uris, listener.received);
+        assertTrue("At most window batches are fetched at once", fetcher.maxConcurrent.get() <= 4);
+        assertTrue("Batches are fetched ahead", fetcher.maxConcurrent.get() > 1);
+        assertEquals(20, fetcher.batches.get());
+    }
+
+    @Test
+    public void testMissingEntriesAreSkipped() throws TException, IOException {
+        List<DatedURI> uris = uris(10);
+        ReplayPipeline pipeline = new ReplayPipeline(executor,
+                new SlowFetcher(0, Sets.newHashSet("DEV://replay/3", "DEV://replay/7")), 4, 2);
+        RecordingListener listener = new RecordingListener();
+
+        pipeline.replay(uris, listener);
+
+        assertEquals(8, listener.received.size());
+        assertEquals(2, pipeline.getMissing());
+        for (DatedURI uri : listener.received) {
+            assertTrue(!uri.getUri().equals("DEV://replay/3") && !uri.getUri().equals("DEV://replay/7"));
+        }
+    }
+
+    @Test
+    public void testRepeatedUriStartsNewBatch() {
+        List<DatedURI> uris = Lists.newArrayList(uri("a", 1), uri("b", 1), uri("a", 2), uri("c", 1), uri("d", 1));
+        ReplayPipeline pipeline = new ReplayPipeline(executor,
+                new SlowFetcher(0, Collections.<String>emptySet()), 3, 1);
+
+        List<List<DatedURI>> batches = pipeline.split(uris);
+
+        assertEquals(2, batches.size());
+        assertEquals(Lists.newArrayList(uri("a", 1), uri("b", 1)), batches.get(0));
+        assertEquals(Lists.newArrayList(uri("a", 2), uri("c", 1), uri("d", 1)), batches.get(1));
+    }
+
+    @Test
+    public void testFetchErrorStopsReplay() throws IOException {
+        ReplayPipeline pipeline = new ReplayPipeline(executor, new ReplayPipeline.Fetcher() {
+            @Override
+            public Map<String, BinaryReplay> fetch(List<DatedURI> batch) throws TException {
+                throw new TException("warehaus is down");
+            }
+        }, 10, 2);
+        try {
+            pipeline.replay(uris(100), new RecordingListener());
+            fail("The fetch error should stop the replay");
+        } catch (TException e) {
+            assertEquals("warehaus is down", e.getMessage());
+        }
+    }
+
+    /**
+     * Compare fetching one URI at a time, as replays used to, with batches fetched ahead
+     */
+    @Test
+    public void testPipelinedThroughput() throws TException, IOException {
+        List<DatedURI> uris = uris(400);
+
+        long start = System.currentTimeMillis();
+        new ReplayPipeline(executor, new SlowFetcher(2, Collections.<String>emptySet()), 1, 1)
+                .replay(uris, new RecordingListener());
+        long serialMillis = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        new ReplayPipeline(executor, new SlowFetcher(2, Collections.<String>emptySet()), 50, 4)
+                .replay(uris, new RecordingListener());
+        long pipelinedMillis = System.currentTimeMillis() - start;
+
+        logger.info("Replayed {} URIs in {} ms one at a time, {} ms pipelined", uris.size(), serialMillis,
+                pipelinedMillis);
+        assertTrue("Pipelined replay should be faster", pipelinedMillis < serialMillis);
+    }
+
+    private static List<DatedURI> uris(int count) {
+        List<DatedURI> uris = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            uris.add(uri("DEV://replay/" + i, i));
+        }
+        return uris;
+    }
+
+    private static DatedURI uri(String uri, long version) {
+        DatedURI datedURI = new DatedURI();
+        datedURI.setUri(uri);
+        datedURI.setTimestamp(TimeUtil.convertToThriftDateTime(version));
+        return datedURI;
+    }
+
+    /**
+     * Takes latencyMillis per batch, and leaves out the missing URIs
+     */
+    private static class SlowFetcher implements ReplayPipeline.Fetcher {
+        private final long latencyMillis;
+        private final Set<String> missing;
+        private final AtomicInteger concurrent = new AtomicInteger();
+        private final AtomicInteger maxConcurrent = new AtomicInteger();
+        private final AtomicInteger batches = new AtomicInteger();
+
+        private SlowFetcher(long latencyMillis, Set<String> missing) {
+            this.latencyMillis = latencyMillis;
+            this.missing = missing;
+        }
+
+        @Override
+        public Map<String, BinaryReplay> fetch(List<DatedURI> batch) throws TException {
+            batches.incrementAndGet();
+            int running = concurrent.incrementAndGet();
+            while (true) {
+                int max = maxConcurrent.get();
+                if (running <= max || maxConcurrent.compareAndSet(max, running)) {
+                    break;
+                }
+            }
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                throw new TException(e);
+            } finally {
+                concurrent.decrementAndGet();
+            }
+            Map<String, BinaryReplay> payloads = Maps.newHashMap();
+            for (DatedURI uri : batch) {
+                if (!missing.contains(uri.getUri())) {
+                    BinaryReplay payload = new BinaryReplay();
+                    payload.setUri(uri.getUri());
+                    payload.setPacket(uri.getUri().getBytes());
+                    payloads.put(uri.getUri(), payload);
+                }
+            }
+            return payloads;
+        }
+    }
+
+    private static class RecordingListener implements ReplayPipeline.Listener {
+        private final List<DatedURI> received = Lists.newArrayList();
+
+        @Override
+        public void onPayload(DatedURI uri, BinaryReplay payload) {
+            assertEquals(uri.getUri(), new String(payload.getPacket()));
+            received.add(uri);
+        }
+    }
+}
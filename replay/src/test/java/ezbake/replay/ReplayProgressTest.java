@@ -0,0 +1,94 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.replay;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+
+public class ReplayProgressTest {
+    private static final String USER = "user1";
+    private static final long DATE = 1000L;
+
+    @Test
+    public void testBroadcastsAreCoalesced() {
+        CountingHistoryData historyData = new CountingHistoryData();
+        RequestHistory history = historyData.addBroadcast("group", "DEV://*", "start", "finish", "topic", USER, DATE);
+        historyData.updates = 0;
+
+        ReplayProgress progress = new ReplayProgress(historyData, USER, DATE, history, new ReplayCheckpoint(),
+                Long.MAX_VALUE, 100);
+        progress.found(1000);
+        for (int i = 0; i < 1000; i++) {
+            progress.broadcast(i, "DEV://replay/" + i);
+        }
+        progress.complete();
+
+        // One for the total, one per 100 broadcasts and one for the completion
+        assertEquals(12, historyData.updates);
+        assertEquals(12, progress.getFlushes());
+        RequestHistory stored = historyData.getUserHistory(USER).getReplayHistory().get(Long.toString(DATE));
+        assertEquals("1000", stored.getCount());
+        assertEquals("1000", stored.getTotal());
+        assertEquals("complete", stored.getStatus());
+        assertNotNull(stored.getLastBroadcast());
+        assertEquals(0, progress.getBacklog());
+    }
+
+    @Test
+    public void testStoredHistoryIsACopy() {
+        HistoryData historyData = new HistoryData();
+        RequestHistory history = historyData.addBroadcast("group", "DEV://*", "start", "finish", "topic", USER, DATE);
+
+        ReplayProgress progress = new ReplayProgress(historyData, USER, DATE, history, new ReplayCheckpoint(),
+                Long.MAX_VALUE, 1000);
+        progress.found(10);
+        RequestHistory stored = historyData.getUserHistory(USER).getReplayHistory().get(Long.toString(DATE));
+        progress.broadcast(1, "DEV://replay/1");
+        progress.failed("Failed to broadcast");
+
+        assertEquals("0", stored.getCount());
+        assertEquals("broadcasting", stored.getStatus());
+        RequestHistory latest = historyData.getUserHistory(USER).getReplayHistory().get(Long.toString(DATE));
+        assertNotSame(stored, latest);
+        assertEquals("1", latest.getCount());
+        assertEquals("Failed to broadcast", latest.getStatus());
+        assertEquals(9, progress.getBacklog());
+    }
+
+    @Test
+    public void testNoMatches() {
+        HistoryData historyData = new HistoryData();
+        RequestHistory history = historyData.addBroadcast("group", "DEV://*", "start", "finish", "topic", USER, DATE);
+
+        new ReplayProgress(historyData, USER, DATE, history, new ReplayCheckpoint(), 1000, 1000).complete();
+
+        RequestHistory stored = historyData.getUserHistory(USER).getReplayHistory().get(Long.toString(DATE));
+        assertEquals("no matches", stored.getStatus());
+        assertEquals("0", stored.getCount());
+    }
+
+    private static class CountingHistoryData extends HistoryData {
+        private int updates = 0;
+
+        @Override
+        public void updateEntry(String userDn, long date, RequestHistory history) {
+            updates++;
+            super.updateEntry(userDn, date, history);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.replay;
+
+import ezbake.base.thrift.EzSecurityToken;
+import ezbake.ezbroadcast.core.EzBroadcaster;
+import org.apache.thrift.TException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class SharedBroadcastersTest {
+
+    @Test
+    public void testBroadcasterIsSharedUntilReleased() throws TException, IOException {
+        CountingFactory factory = new CountingFactory();
+        SharedBroadcasters broadcasters = new SharedBroadcasters(factory, 60000);
+
+        EzBroadcaster first = broadcasters.acquire(null, "group", "topic");
+        EzBroadcaster second = broadcasters.acquire(null, "group", "topic");
+        EzBroadcaster other = broadcasters.acquire(null, "group", "other");
+        assertSame(first, second);
+        assertNotSame(first, other);
+        assertEquals(2, factory.created.get());
+        assertEquals(2, broadcasters.size());
+
+        broadcasters.release("group", "topic");
+        verify(first, never()).close();
+        broadcasters.release("group", "topic");
+        verify(first).close();
+        assertEquals(1, broadcasters.size());
+
+        // A later replay gets a new broadcaster, but the key is kept
+        assertNotSame(first, broadcasters.acquire(null, "group", "topic"));
+        assertEquals(3, factory.created.get());
+        assertEquals(2, factory.keys.get());
+    }
+
+    @Test
+    public void testKeyIsRetrievedAgainAfterTtl() throws TException, IOException {
+        CountingFactory factory = new CountingFactory();
+        SharedBroadcasters broadcasters = new SharedBroadcasters(factory, -1);
+
+        broadcasters.acquire(null, "group", "topic");
+        broadcasters.release("group", "topic");
+        broadcasters.acquire(null, "group", "topic");
+        assertEquals(2, factory.keys.get());
+    }
+
+    private static class CountingFactory implements SharedBroadcasters.Factory {
+        private final AtomicInteger keys = new AtomicInteger();
+        private final AtomicInteger created = new AtomicInteger();
+
+        @Override
+        public String retrieveKey(EzSecurityToken token, String topic) {
+            keys.incrementAndGet();
+            return "key-" + topic;
+        }
+
+        @Override
+        public EzBroadcaster create(String groupId, String key, String topic) {
+            created.incrementAndGet();
+            return mock(EzBroadcaster.class);
+        }
+    }
+}
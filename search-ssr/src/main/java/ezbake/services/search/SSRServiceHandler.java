@@ -36,12 +36,21 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 
 import ezbake.data.elastic.thrift.DocumentIdentifier;
+import ezbake.data.elastic.thrift.Page;
 import ezbake.data.elastic.thrift.UpdateOptions;
 import ezbake.data.elastic.thrift.UpdateScript;
-import org.apache.commons.collections.map.LRUMap;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.DateUtils;
 import org.apache.thrift.TException;
@@ -57,14 +66,19 @@ import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
 import ezbake.base.thrift.CancelStatus;
@@ -91,6 +105,7 @@ import ezbake.data.elastic.thrift.Facet;
 import ezbake.data.elastic.thrift.FacetRange;
 import ezbake.data.elastic.thrift.FacetRequest;
 import ezbake.data.elastic.thrift.FacetResult;
+import ezbake.data.elastic.thrift.FieldSort;
 import ezbake.data.elastic.thrift.IndexResponse;
 import ezbake.data.elastic.thrift.MalformedQueryException;
 import ezbake.data.elastic.thrift.PercolateQuery;
@@ -100,6 +115,8 @@ import ezbake.data.elastic.thrift.RangeFacet;
 import ezbake.data.elastic.thrift.RangeFacetEntry;
 import ezbake.data.elastic.thrift.RangeType;
 import ezbake.data.elastic.thrift.SearchResult;
+import ezbake.data.elastic.thrift.SortCriteria;
+import ezbake.data.elastic.thrift.SortOrder;
 import ezbake.data.elastic.thrift.TermsFacet;
 import ezbake.data.elastic.thrift.TermsFacetEntry;
 import ezbake.security.client.EzSecurityTokenWrapper;
@@ -116,7 +133,11 @@ import ezbake.services.provenance.thrift.ProvenanceService;
 import ezbake.services.provenance.thrift.ProvenanceServiceConstants;
 import ezbake.services.search.utils.BooleanSerializer;
 import ezbake.services.search.utils.DateSerializer;
+import ezbake.services.search.utils.GeoRegionCache;
+import ezbake.services.search.utils.SSRHitReader;
+import ezbake.services.search.utils.SSRJsonWriter;
 import ezbake.services.search.utils.SSRUtils;
+import ezbake.services.search.utils.TypeMappingCache;
 import ezbake.thrift.ThriftClientPool;
 import ezbake.util.AuditEvent;
 import ezbake.util.AuditEventType;
@@ -131,7 +152,10 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
     private Gson gson;
     private JsonParser jsonParser = new JsonParser();
     private ThriftClientPool pool;
-    private final LRUMap typeCache = new LRUMap(1000);
+    private final TypeMappingCache typeCache = new TypeMappingCache(1000);
+    private GeoRegionCache geoRegionCache;
+    private SSRJsonWriter ssrJsonWriter;
+    private SSRHitReader ssrHitReader;
     private final String DATE_FACET_KEY = "Report Date";
     private final String VISIBILITY_FACET_KEY = "Report Visibility";
     private final String TYPE_FACET_KEY = "Report Type";
@@ -149,11 +173,45 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
     private boolean isGeoEnabled;
     private final int MAX_PERCOLATOR_RESPONSE = 50;
     private final int MAX_WEEKLY_PERCOLATOR_RESULTS = 350;
+    private final short PERCOLATOR_HIT_PAGE_SIZE = 500;
+
+    // Scripts maintaining the hit count of an individual percolator inbox, so hits are added without rewriting it
+    private static final String ADD_HITS_SCRIPT =
+            "if (ctx._source." + SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_HIT_COUNT + " == null) { " +
+            "ctx._source." + SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_HIT_COUNT + " = Long.parseLong(count) } else { " +
+            "ctx._source." + SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_HIT_COUNT + " += Long.parseLong(count) }";
+    private static final String FLUSH_HITS_SCRIPT =
+            "ctx._source." + SSRUtils.PERCOLAOTR_INDIVIDUAL_INBOX_LAST_FLUSHED + " = flushed; " +
+            "ctx._source." + SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_HITS + " = []; " +
+            "if (ctx._source." + SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_HIT_COUNT + " != null) { " +
+            "ctx._source." + SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_HIT_COUNT + " -= Long.parseLong(count) }";
+
+    private final short PERCOLATOR_PEEK_BATCH_SIZE = 500;
+
+    // key: main inbox id of a user, value: the summaries of the user's percolator inboxes. Only set up when the
+    // peek cache TTL is configured, summaries may then be up to the TTL behind hits added by ingest.
+    private Cache<String, Map<String, PercolatorInboxPeek>> inboxPeekCache;
+
+    // Last time handed out to a percolator hit, so hit ids from this process never collide
+    private final AtomicLong lastHitTime = new AtomicLong();
+    // Flushes of the same inbox run one at a time, so every flushed hit is taken off the hit count only once
+    private final Striped<Lock> inboxFlushLocks = Striped.lock(64);
 
     // Configuration constants
     public static String EZELASTIC_APPLICATION_NAME_KEY = "ssr.application.name";
     public static String EZELASTIC_SERVICE_NAME_KEY = "ezelastic.service.name";
     public static String ENABLE_GEO_KEY = "ssr.geo.enable";
+    public static String GEO_CACHE_SIZE_KEY = "ssr.geo.cache.size";
+    public static String GEO_CACHE_PRECISION_KEY = "ssr.geo.cache.precision";
+    public static String PERCOLATE_THREADS_KEY = "ssr.percolate.threads";
+    public static String PERCOLATE_ASYNC_KEY = "ssr.percolate.async";
+    public static String PERCOLATE_ASYNC_QUEUE_KEY = "ssr.percolate.async.queue.size";
+    public static String INBOX_PEEK_CACHE_TTL_KEY = "ssr.percolator.peek.cache.ttl.seconds";
+
+    // Runs percolateByIds for the types of an ingest batch concurrently, bounded by the pool size
+    private ExecutorService percolateExecutor;
+    // Percolates ingested batches after putWithDocs returned, when percolation is asynchronous
+    private ExecutorService asyncPercolateExecutor;
 
     private EzbakeSecurityClient security;
 
@@ -171,6 +229,29 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
                     .arg("event", "init");
 
             isGeoEnabled = props.getBoolean(ENABLE_GEO_KEY, true);
+            geoRegionCache = new GeoRegionCache(props.getInteger(GEO_CACHE_SIZE_KEY, 100000),
+                    props.getInteger(GEO_CACHE_PRECISION_KEY, 2));
+
+            int percolateThreads = props.getInteger(PERCOLATE_THREADS_KEY, 4);
+            percolateExecutor = Executors.newFixedThreadPool(percolateThreads,
+                    new ThreadFactoryBuilder().setNameFormat("ssr-percolate-%d").setDaemon(true).build());
+            int inboxPeekCacheTtl = props.getInteger(INBOX_PEEK_CACHE_TTL_KEY, 0);
+            if (inboxPeekCacheTtl > 0) {
+                inboxPeekCache = CacheBuilder.newBuilder()
+                        .expireAfterWrite(inboxPeekCacheTtl, TimeUnit.SECONDS)
+                        .maximumSize(10000)
+                        .build();
+            }
+
+            if (props.getBoolean(PERCOLATE_ASYNC_KEY, false)) {
+                // Once the backlog is full the ingesting thread percolates its own batch, which slows ingest down
+                // instead of queueing without bound
+                asyncPercolateExecutor = new ThreadPoolExecutor(percolateThreads, percolateThreads, 0L,
+                        TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<Runnable>(props.getInteger(PERCOLATE_ASYNC_QUEUE_KEY, 100)),
+                        new ThreadFactoryBuilder().setNameFormat("ssr-percolate-async-%d").setDaemon(true).build(),
+                        new ThreadPoolExecutor.CallerRunsPolicy());
+            }
 
             // Update the index to ignore malformed values coming in. The malformed values will still be added
             // to _all, but they won't be searchable in their field.
@@ -182,6 +263,8 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
                     .registerTypeAdapter(Date.class, new DateSerializer())
                     .registerTypeAdapter(Boolean.TYPE, new BooleanSerializer())
                     .create();
+            ssrJsonWriter = new SSRJsonWriter(gson);
+            ssrHitReader = new SSRHitReader(gson);
 
             AuditLoggerConfigurator.setAdditivity(true);
             auditLogger = AuditLogger.getAuditLogger(SSRServiceHandler.class);
@@ -208,18 +291,67 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
     private void setupTypeMappings(EzElastic.Client documentClient, EzSecurityToken token) {
         try {
             // mapping for ssr_default
-            String type = SSRUtils.SSR_DEFAULT_TYPE_NAME;
-            if (!typeCache.containsKey(type)) {
-                documentClient.setTypeMapping(type, getSSRDefaultTypeMap(type), token);
-                typeCache.put(type, true);
-            }
+            final String type = SSRUtils.SSR_DEFAULT_TYPE_NAME;
+            ensureTypeMapping(documentClient, type, new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    return getSSRDefaultTypeMap(type);
+                }
+            }, token);
         } catch (TException e) {
             logger.error("setupTypeMappings exception", e);
-        } catch (IOException e) {
-            logger.error("setupTypeMappings exception", e);
         }
     }
 
+    /**
+     * Set up the mapping of a type the first time this service writes it. If it already exists and just isn't in the
+     * cache there is no harm.
+     *
+     * @param type    document type
+     * @param mapping produces the mapping of the type, only called when it has to be set up
+     */
+    private void ensureTypeMapping(String type, Callable<String> mapping, EzSecurityToken token) throws TException {
+        ensureTypeMapping(null, type, mapping, token);
+    }
+
+    private void ensureTypeMapping(final EzElastic.Client client, final String type, final Callable<String> mapping,
+                                   final EzSecurityToken token) throws TException {
+        typeCache.ensureMapping(type, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                logger.info("Setting up initial mapping for type ({})", type);
+                String typeMapping = mapping.call();
+                EzElastic.Client documentClient = client == null ? getDocumentClient() : client;
+                try {
+                    documentClient.setTypeMapping(type, typeMapping, token);
+                } finally {
+                    if (client == null) {
+                        returnAndNullClient(documentClient);
+                    }
+                }
+                logger.debug("Type mapping cache: {}", typeCache.stats());
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Forget that the mapping of a type was set up, e.g. after it was changed or removed outside of this service, so
+     * the next write of the type sets it up again
+     *
+     * @param type document type
+     */
+    public void invalidateTypeMapping(String type) {
+        typeCache.invalidate(type);
+    }
+
+    /**
+     * @return hit, miss and load statistics of the type mapping cache
+     */
+    public CacheStats getTypeMappingCacheStats() {
+        return typeCache.stats();
+    }
+
     @Override
     public List<IndexResponse> putWithDocs(Map<SSR, String> ssrJsonMap, EzSecurityToken userToken) throws TException {
 
@@ -233,25 +365,15 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
         List<IndexResponse> responses = null;
         try {
 
+            Map<SSR, GeoRegionCache.Region> regions = findRegions(ssrJsonMap.keySet());
             for (Map.Entry<SSR, String> entry : ssrJsonMap.entrySet()) {
                 SSR ssr = entry.getKey();
-                String type = getTypeFromUri(ssr.getUri());
-                if (!typeCache.containsKey(type)) {
-                    // If it already exists and just isn't in the cache there is no harm
-                    logger.info("Setting up initial mapping for type ({})", type);
-                    try {
-                        documentClient = getDocumentClient();
-                        documentClient.setTypeMapping(type, getSSRTypeMap(type), userToken);
-                    } finally {
-                        documentClient = returnAndNullClient(documentClient);
-                    }
-                    typeCache.put(type, true);
-                }
+                ensureSSRTypeMapping(getTypeFromUri(ssr.getUri()), userToken);
                 if (ssr.getTimeOfIngest() == null) {
                     ssr.setTimeOfIngest(TimeUtil.getCurrentThriftDateTime());
                 }
 
-                toIndex.add(generateDocument(ssr, getCombinedJSON(ssr, entry.getValue())));
+                toIndex.add(generateDocument(ssr, getCombinedJSON(ssr, entry.getValue(), regions.get(ssr))));
                 auditArgs.put("uri", ssr.getUri());
             }
 
@@ -263,44 +385,34 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
             }
 
             // key: document type, value: list of document ids
-            Map<String, List<String>> typeMap = groupByType(responses);
-            // key: perlocator id, value: list of document ids to add to inbox
-            Map<String, List<PercolatorHit>> percolatorInboxHitMap = new HashMap<>();
-            // key: document id, value: percolateHit object
-            Map<String, PercolatorHit> idsToInboxHitDocument = new HashMap<>();
-            for (String type : typeMap.keySet()) {
-                List<PercolateQuery> percolateResponse;
-                try {
-                    documentClient = getDocumentClient();
-                    percolateResponse = documentClient.percolateByIds(typeMap.get(type), type, MAX_PERCOLATOR_RESPONSE, userToken);
-                } finally {
-                    documentClient = returnAndNullClient(documentClient);
-                }
-
-                for (PercolateQuery percolateQuery : percolateResponse) {
-                    String matchingDocId = percolateQuery.getMatchingDocId();
-                    String percolatorId = percolateQuery.getId();
-
-                    // this document should be added to the percolator inbox
-                    if (!percolatorInboxHitMap.containsKey(percolatorId)) {
-                        percolatorInboxHitMap.put(percolatorId, new ArrayList<PercolatorHit>());
-                    }
-
-                    if (!idsToInboxHitDocument.containsKey(matchingDocId)) {
-                        idsToInboxHitDocument.put(matchingDocId, getPercolatorHitDocument(matchingDocId, ssrJsonMap.keySet()));
-                    }
-                    PercolatorHit hit = idsToInboxHitDocument.get(matchingDocId);
-                    // should not happen, but just to be safe.
-                    if (hit != null) {
-                        percolatorInboxHitMap.get(percolatorId).add(hit);
-                    }
-                }
+            final Map<String, List<String>> typeMap = groupByType(responses);
+            // key: document id, value: the ingested SSR
+            final Map<String, SSR> ssrsById = new HashMap<>(ssrJsonMap.size());
+            for (SSR ssr : ssrJsonMap.keySet()) {
+                ssrsById.put(ssr.getUri(), ssr);
             }
 
-            for (Map.Entry<String, List<PercolatorHit>> entry : percolatorInboxHitMap.entrySet()) {
-                addPercolatorHits(entry.getKey(), entry.getValue(), userToken);
+            if (asyncPercolateExecutor != null) {
+                // acknowledge the batch as soon as it is indexed
+                final EzSecurityToken percolateToken = userToken;
+                asyncPercolateExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            percolateIndexed(typeMap, ssrsById, percolateToken);
+                        } catch (Exception e) {
+                            logger.error("Asynchronous percolation of " + ssrsById.size() + " documents failed", e);
+                        }
+                    }
+                });
+            } else {
+                percolateIndexed(typeMap, ssrsById, userToken);
             }
         } catch (DocumentIndexingException e) {
+            // The mappings may have gone away with the index, set them up again on the next write
+            for (SSR ssr : ssrJsonMap.keySet()) {
+                typeCache.invalidate(getTypeFromUri(ssr.getUri()));
+            }
             logError(e, evt, "Failed to index records");
             throw new TException("Error indexing records - document index exception", e);
         } catch (Exception e) {
@@ -313,18 +425,119 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
         return responses;
     }
 
-    // construct PercolatorHit from SSR
-    private PercolatorHit getPercolatorHitDocument(String targetDocId, Set<SSR> ssrSet) {
-        for (SSR ssr : ssrSet) {
-            if (ssr.getUri().equals(targetDocId)) {
-                PercolatorHit hitDoc = new PercolatorHit();
-                hitDoc.setDocumentId(ssr.getUri());
-                hitDoc.setDocumentTitle(ssr.getTitle());
-                hitDoc.setDocumentResultDate(ssr.getResultDate());
-                hitDoc.setTimeOfIngest(ssr.getTimeOfIngest());
-
-                return hitDoc;
+    private void ensureSSRTypeMapping(final String type, EzSecurityToken userToken) throws TException {
+        ensureTypeMapping(type, new Callable<String>() {
+            @Override
+            public String call() {
+                return getSSRTypeMap(type);
             }
+        }, userToken);
+    }
+
+    /**
+     * Percolate indexed documents, all types at once, and add the hits to the inboxes of the matching percolators
+     *
+     * @param typeMap  key: document type, value: ids of the indexed documents of that type
+     * @param ssrsById key: document id, value: the indexed SSR
+     */
+    private void percolateIndexed(Map<String, List<String>> typeMap, Map<String, SSR> ssrsById,
+                                  EzSecurityToken userToken) throws TException {
+        // key: perlocator id, value: list of document ids to add to inbox
+        Map<String, List<PercolatorHit>> percolatorInboxHitMap = new HashMap<>();
+        // key: document id, value: percolateHit object
+        Map<String, PercolatorHit> idsToInboxHitDocument = new HashMap<>();
+
+        for (List<PercolateQuery> percolateResponse : percolateByType(typeMap, userToken)) {
+            for (PercolateQuery percolateQuery : percolateResponse) {
+                String matchingDocId = percolateQuery.getMatchingDocId();
+                String percolatorId = percolateQuery.getId();
+
+                // this document should be added to the percolator inbox
+                if (!percolatorInboxHitMap.containsKey(percolatorId)) {
+                    percolatorInboxHitMap.put(percolatorId, new ArrayList<PercolatorHit>());
+                }
+
+                if (!idsToInboxHitDocument.containsKey(matchingDocId)) {
+                    idsToInboxHitDocument.put(matchingDocId, getPercolatorHitDocument(matchingDocId, ssrsById));
+                }
+                PercolatorHit hit = idsToInboxHitDocument.get(matchingDocId);
+                // should not happen, but just to be safe.
+                if (hit != null) {
+                    percolatorInboxHitMap.get(percolatorId).add(hit);
+                }
+            }
+        }
+
+        for (Map.Entry<String, List<PercolatorHit>> entry : percolatorInboxHitMap.entrySet()) {
+            addPercolatorHits(entry.getKey(), entry.getValue(), userToken);
+        }
+    }
+
+    /**
+     * Percolate the documents of each type, concurrently when there is more than one type
+     *
+     * @return the percolator matches of each type
+     */
+    private List<List<PercolateQuery>> percolateByType(Map<String, List<String>> typeMap,
+                                                       final EzSecurityToken userToken) throws TException {
+        List<List<PercolateQuery>> responses = new ArrayList<>(typeMap.size());
+        if (typeMap.size() == 1) {
+            Map.Entry<String, List<String>> entry = typeMap.entrySet().iterator().next();
+            responses.add(percolateByIds(entry.getKey(), entry.getValue(), userToken));
+            return responses;
+        }
+
+        List<Future<List<PercolateQuery>>> futures = new ArrayList<>(typeMap.size());
+        try {
+            for (final Map.Entry<String, List<String>> entry : typeMap.entrySet()) {
+                futures.add(percolateExecutor.submit(new Callable<List<PercolateQuery>>() {
+                    @Override
+                    public List<PercolateQuery> call() throws TException {
+                        return percolateByIds(entry.getKey(), entry.getValue(), userToken);
+                    }
+                }));
+            }
+            for (Future<List<PercolateQuery>> future : futures) {
+                responses.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TException("Interrupted while percolating", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TException) {
+                throw (TException) e.getCause();
+            }
+            throw new TException(e.getCause());
+        } finally {
+            for (Future<List<PercolateQuery>> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return responses;
+    }
+
+    private List<PercolateQuery> percolateByIds(String type, List<String> ids, EzSecurityToken userToken)
+            throws TException {
+        EzElastic.Client documentClient = null;
+        try {
+            documentClient = getDocumentClient();
+            return documentClient.percolateByIds(ids, type, MAX_PERCOLATOR_RESPONSE, userToken);
+        } finally {
+            returnAndNullClient(documentClient);
+        }
+    }
+
+    // construct PercolatorHit from SSR
+    private PercolatorHit getPercolatorHitDocument(String targetDocId, Map<String, SSR> ssrsById) {
+        SSR ssr = ssrsById.get(targetDocId);
+        if (ssr != null) {
+            PercolatorHit hitDoc = new PercolatorHit();
+            hitDoc.setDocumentId(ssr.getUri());
+            hitDoc.setDocumentTitle(ssr.getTitle());
+            hitDoc.setDocumentResultDate(ssr.getResultDate());
+            hitDoc.setTimeOfIngest(ssr.getTimeOfIngest());
+
+            return hitDoc;
         }
 
         logger.warn("Document not found from SSR set with id " + targetDocId);
@@ -432,6 +645,7 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
             logError(e, evt, "putPercolateQuery encountered an exception [" + e.getClass().getName() + ":" + e.getMessage() + "]");
             throw new TException(e);
         } finally {
+            invalidateInboxPeeks(userToken);
             returnAndNullClient(documentClient);
             auditLogger.logEvent(evt);
         }
@@ -487,17 +701,12 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
             }
             // If the id is null then the inbox doesn't exist yet and it must be made
             if (response.get_id() == null) {
-                if (!typeCache.containsKey(SSRUtils.PERCOLATOR_MAIN_INBOX_TYPE_FIELD)) {
-                    // If it already exists and just isn't in the cache there is no harm
-                    logger.info("Setting up initial mapping for type ({})", SSRUtils.PERCOLATOR_MAIN_INBOX_TYPE_FIELD);
-                    try {
-                        documentClient = getDocumentClient();
-                        documentClient.setTypeMapping(SSRUtils.PERCOLATOR_MAIN_INBOX_TYPE_FIELD, getMainInboxMapping(), userToken);
-                    } finally {
-                        documentClient = returnAndNullClient(documentClient);
+                ensureTypeMapping(SSRUtils.PERCOLATOR_MAIN_INBOX_TYPE_FIELD, new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return getMainInboxMapping();
                     }
-                    typeCache.put(SSRUtils.PERCOLATOR_MAIN_INBOX_TYPE_FIELD, true);
-                }
+                }, userToken);
 
                 Visibility visibility = new Visibility();
                 // TODO revisit the visibility level to use
@@ -578,7 +787,7 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
         return result;
     }
 
-    // When a document is ingested and there is a percolator that matches that doc this method is called. This method adds the hit to the inbox
+    // Create the individual inbox of a new percolator.  It only holds the hit count, the hits are records of their own.
     private boolean initializeIndividualPercolatorInbox(String name, PercolateQuery percolator, EzSecurityToken userToken) throws TException {
         AuditEvent evt = event(AuditEventType.FileObjectCreate.getName(), userToken)
                 .arg("event", "initializeIndividualPercolatorInbox")
@@ -587,21 +796,13 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
 
         try {
 
-            if (!typeCache.containsKey(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_TYPE_FIELD)) {
-                // If it already exists and just isn't in the cache there is no harm
-                logger.info("Setting up initial mapping for type ({})", SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_TYPE_FIELD);
-                String mapping = getIndividualPercolatorInboxMapping();
-                try {
-                    documentClient = getDocumentClient();
-                    documentClient.setTypeMapping(
-                            SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_TYPE_FIELD, mapping, userToken);
-                } finally {
-                    documentClient = returnAndNullClient(documentClient);
+            ensureTypeMapping(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_TYPE_FIELD, new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    return getIndividualPercolatorInboxMapping();
                 }
-                typeCache.put(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_TYPE_FIELD, true);
-            }
+            }, userToken);
 
-            // Create the percolator hit and add it to the inbox object
             Visibility visibility = new Visibility();
             // TODO revisit the visibility level to use
             visibility.setFormalVisibility(userToken.getAuthorizationLevel());
@@ -610,8 +811,7 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
             percolatorInboxMap.put(SSRUtils.PERCOLAOTR_INDIVIDUAL_INBOX_LAST_FLUSHED, ingestFormatter.format(new Date()));
             percolatorInboxMap.put(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_NAME, name);
             percolatorInboxMap.put(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_SEARCH_TEXT, percolator.getQueryDocument());
-            JSONArray docHits = new JSONArray();
-            percolatorInboxMap.put(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_HITS, docHits);
+            percolatorInboxMap.put(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_HIT_COUNT, 0);
 
             // Put the inbox into ElasticSearch
             Document percolatorInboxDoc = new Document();
@@ -624,6 +824,10 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
             try {
                 documentClient = getDocumentClient();
                 mainPutResponse = documentClient.put(percolatorInboxDoc, userToken);
+                if (mainPutResponse.isSuccess()) {
+                    // Inbox peeks search for the inboxes
+                    documentClient.forceIndexRefresh(userToken);
+                }
             } finally {
                 documentClient = returnAndNullClient(documentClient);
             }
@@ -640,8 +844,10 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
         }
     }
 
-    // When a document is ingested and there is a percolator that matches that doc this method is called. This method adds the hit to the inbox
-    private boolean addPercolatorHits(String percolatorId, List<PercolatorHit> hits, EzSecurityToken userToken) throws TException {
+    // When a document is ingested and there is a percolator that matches that doc this method is called. Every hit
+    // is stored as its own record and the inbox only counts them, so adding hits doesn't depend on the inbox size and
+    // concurrent adds don't conflict.
+    private boolean addPercolatorHits(final String percolatorId, List<PercolatorHit> hits, EzSecurityToken userToken) throws TException {
         AuditEvent evt = event(AuditEventType.FileObjectModify.getName(), userToken)
                 .arg("event", "addPercolatorHits")
                 .arg("percolatorId", percolatorId)
@@ -651,18 +857,6 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
 
         boolean result = false;
         try {
-            // Create the docHit and get the inbox
-            JSONArray docHits = new JSONArray();
-            for (PercolatorHit hit : hits) {
-                JSONObject docHit = new JSONObject();
-                docHit.put(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_ID, hit.getDocumentId());
-                docHit.put(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_TITLE, hit.getDocumentTitle());
-                if (hit.isSetDocumentResultDate()) {
-                    docHit.put(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_RESULTDATE, ingestFormatter.format(new Date(TimeUtil.convertFromThriftDateTime(hit.getDocumentResultDate()))));
-                }
-                docHit.put(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_TIMEOFINGEST, ingestFormatter.format(new Date(TimeUtil.convertFromThriftDateTime(hit.getTimeOfIngest()))));
-                docHits.put(docHit);
-            }
             String percolatorInboxId = getPercolatorInboxId(percolatorId);
             Document response = null;
             try {
@@ -680,42 +874,55 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
                 return false;
             }
 
-            // This loop is to ensure a version doesn't get overwritten
-            boolean successFullyInserted = false;
-            while (!successFullyInserted) {
-                try {
-                    // Create the hit, add it to the list and insert it
-                    JSONObject jsonObject = new JSONObject(response.get_jsonObject());
-                    JSONArray jsonArrayIds;
-                    jsonArrayIds = (JSONArray) jsonObject.get(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_HITS);
+            ensureTypeMapping(SSRUtils.PERCOLATOR_HIT_TYPE_FIELD, new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    return getPercolatorHitMapping();
+                }
+            }, userToken);
 
-                    for (int i = 0; i < docHits.length(); i++) {
-                        jsonArrayIds.put(docHits.get(i));
-                    }
-                    jsonObject.put(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_HITS, jsonArrayIds);
-                    response.set_jsonObject(jsonObject.toString());
-                    IndexResponse inboxResponse = null;
-                    try {
-                        documentClient = getDocumentClient();
-                        inboxResponse = documentClient.put(response, userToken);
-                    } finally {
-                        documentClient = returnAndNullClient(documentClient);
-                    }
+            // Create a hit record, readable by whoever can read the inbox, for each hit
+            List<Document> hitRecords = new ArrayList<>(hits.size());
+            for (PercolatorHit hit : hits) {
+                long appendedAt = nextHitTime();
+                JSONObject docHit = new JSONObject();
+                docHit.put(SSRUtils.PERCOLATOR_HIT_PERCOLATOR_ID, percolatorId);
+                docHit.put(SSRUtils.PERCOLATOR_HIT_APPENDED_AT, appendedAt);
+                docHit.put(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_ID, hit.getDocumentId());
+                docHit.put(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_TITLE, hit.getDocumentTitle());
+                if (hit.isSetDocumentResultDate()) {
+                    docHit.put(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_RESULTDATE, ingestFormatter.format(new Date(TimeUtil.convertFromThriftDateTime(hit.getDocumentResultDate()))));
+                }
+                docHit.put(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_TIMEOFINGEST, ingestFormatter.format(new Date(TimeUtil.convertFromThriftDateTime(hit.getTimeOfIngest()))));
 
-                    if (inboxResponse.isSuccess())
-                        successFullyInserted = true;
-                    else
-                        throw new TException("Failed to insert doc hit into percolator inbox");
-                } catch (VersionConflictEngineException e) {
-                    try {
-                        documentClient = getDocumentClient();
-                        response = documentClient.getWithType(
-                                percolatorInboxId, SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_TYPE_FIELD, userToken);
-                    } finally {
-                        documentClient = returnAndNullClient(documentClient);
-                    }
+                Document hitRecord = new Document();
+                hitRecord.set_id(getPercolatorHitId(percolatorId, appendedAt, hit.getDocumentId()));
+                hitRecord.set_type(SSRUtils.PERCOLATOR_HIT_TYPE_FIELD);
+                hitRecord.setVisibility(response.getVisibility());
+                hitRecord.set_jsonObject(docHit.toString());
+                hitRecords.add(hitRecord);
+            }
+
+            List<IndexResponse> hitResponses;
+            try {
+                documentClient = getDocumentClient();
+                hitResponses = documentClient.bulkPut(hitRecords, userToken);
+            } finally {
+                documentClient = returnAndNullClient(documentClient);
+            }
+            int added = 0;
+            for (IndexResponse hitResponse : hitResponses) {
+                if (hitResponse.isSuccess()) {
+                    added++;
                 }
             }
+
+            if (added > 0) {
+                updatePercolatorInbox(percolatorId, ADD_HITS_SCRIPT, ImmutableMap.of("count", Integer.toString(added)), userToken);
+            }
+            if (added < hitRecords.size()) {
+                throw new TException("Failed to insert " + (hitRecords.size() - added) + " doc hits into percolator inbox");
+            }
             result = true;
 
         } catch (Exception e) {
@@ -728,6 +935,168 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
         return result;
     }
 
+    // Run a script against an individual percolator inbox, elasticsearch retries it when the inbox changed underneath.
+    // The index is refreshed afterwards so inbox peeks, which search for the inboxes, see the update.
+    private void updatePercolatorInbox(String percolatorId, String scriptText, Map<String, String> parameters,
+                                       EzSecurityToken userToken) throws TException {
+        DocumentIdentifier docId = new DocumentIdentifier(getPercolatorInboxId(percolatorId));
+        docId.setType(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_TYPE_FIELD);
+
+        UpdateScript script = new UpdateScript();
+        script.setScript(scriptText);
+        script.setParameters(parameters);
+
+        UpdateOptions options = new UpdateOptions();
+        options.setRetryCount(10);
+
+        EzElastic.Client documentClient = null;
+        try {
+            documentClient = getDocumentClient();
+            IndexResponse response = documentClient.update(docId, script, options, userToken);
+            if (!response.isSuccess()) {
+                throw new TException("Failed to update the inbox of percolator " + percolatorId);
+            }
+            documentClient.forceIndexRefresh(userToken);
+        } finally {
+            returnAndNullClient(documentClient);
+        }
+    }
+
+    private long nextHitTime() {
+        long now = System.currentTimeMillis();
+        while (true) {
+            long last = lastHitTime.get();
+            long next = Math.max(now, last + 1);
+            if (lastHitTime.compareAndSet(last, next)) {
+                return next;
+            }
+        }
+    }
+
+    // Hit records are keyed by percolator, time and document so the records of an inbox sort by the time they arrived
+    private String getPercolatorHitId(String percolatorId, long appendedAt, String documentId) {
+        return percolatorId + "_" + String.format("%013d", appendedAt) + "_" + documentId;
+    }
+
+    /**
+     * Read the hit records of a percolator inbox that arrived up to a point in time, a page at a time.  Pages are
+     * sorted by arrival time and each one starts at the arrival time of the last record read, so the records of a page
+     * don't shift when records are added or removed while paging.
+     *
+     * @param percolatorId  id of the percolator
+     * @param appendedUntil time of the last hit record to read, later records are left for the next read
+     */
+    private List<Document> readPercolatorHits(String percolatorId, long appendedUntil, EzSecurityToken userToken) throws TException {
+        // Records that arrived at the same time are sorted by id, the _uid of a type sorts the same as its ids
+        List<SortCriteria> sort = Arrays.asList(
+                SortCriteria.fieldSort(new FieldSort().setField(SSRUtils.PERCOLATOR_HIT_APPENDED_AT)
+                        .setOrder(SortOrder.ASCENDING)),
+                SortCriteria.fieldSort(new FieldSort().setField("_uid").setOrder(SortOrder.ASCENDING)));
+        List<Document> hitRecords = new ArrayList<>();
+        // Time of the last record read, and the number of records read that arrived at that time
+        long cursor = 0;
+        int readAtCursor = 0;
+        EzElastic.Client documentClient = null;
+        try {
+            documentClient = getDocumentClient();
+            while (true) {
+                Query query = new Query();
+                query.setSearchString(QueryBuilders.boolQuery()
+                        .must(QueryBuilders.termQuery(SSRUtils.PERCOLATOR_HIT_PERCOLATOR_ID, percolatorId))
+                        .must(QueryBuilders.rangeQuery(SSRUtils.PERCOLATOR_HIT_APPENDED_AT)
+                                .gte(cursor).lte(appendedUntil))
+                        .toString());
+                query.setType(SSRUtils.PERCOLATOR_HIT_TYPE_FIELD);
+                query.setSortCriteria(sort);
+                query.setPage(new Page().setOffset(readAtCursor).setPageSize(PERCOLATOR_HIT_PAGE_SIZE));
+                List<Document> page = documentClient.query(query, userToken).getMatchingDocuments();
+                hitRecords.addAll(page);
+                if (page.size() < PERCOLATOR_HIT_PAGE_SIZE) {
+                    return hitRecords;
+                }
+
+                long last = getAppendedAt(page.get(page.size() - 1));
+                if (last != cursor) {
+                    cursor = last;
+                    readAtCursor = 0;
+                }
+                for (int i = page.size() - 1; i >= 0 && getAppendedAt(page.get(i)) == cursor; i--) {
+                    readAtCursor++;
+                }
+            }
+        } finally {
+            returnAndNullClient(documentClient);
+        }
+    }
+
+    private long getAppendedAt(Document hitRecord) {
+        return new JSONObject(hitRecord.get_jsonObject()).getLong(SSRUtils.PERCOLATOR_HIT_APPENDED_AT);
+    }
+
+    /**
+     * Delete hit records, then look for the records that are still there
+     *
+     * @return ids of the records that could not be deleted
+     */
+    private Set<String> deletePercolatorHits(List<Document> hitRecords, EzSecurityToken userToken) throws TException {
+        Set<String> remaining = new HashSet<>();
+        if (hitRecords.isEmpty()) {
+            return remaining;
+        }
+        List<String> ids = new ArrayList<>(hitRecords.size());
+        for (Document hitRecord : hitRecords) {
+            ids.add(hitRecord.get_id());
+        }
+        bulkDelete(new HashSet<>(ids), userToken);
+
+        EzElastic.Client documentClient = null;
+        try {
+            documentClient = getDocumentClient();
+            // A search only sees the deletes after a refresh
+            documentClient.forceIndexRefresh(userToken);
+            for (int start = 0; start < ids.size(); start += PERCOLATOR_HIT_PAGE_SIZE) {
+                List<String> batch = ids.subList(start, Math.min(start + PERCOLATOR_HIT_PAGE_SIZE, ids.size()));
+                Query query = new Query(QueryBuilders.idsQuery(SSRUtils.PERCOLATOR_HIT_TYPE_FIELD)
+                        .addIds(batch.toArray(new String[batch.size()])).toString());
+                query.setType(SSRUtils.PERCOLATOR_HIT_TYPE_FIELD);
+                query.setPage(new Page().setOffset(0).setPageSize((short) batch.size()));
+                for (Document hitRecord : documentClient.query(query, userToken).getMatchingDocuments()) {
+                    remaining.add(hitRecord.get_id());
+                }
+            }
+        } finally {
+            returnAndNullClient(documentClient);
+        }
+        return remaining;
+    }
+
+    private PercolatorHit parsePercolatorHit(JSONObject percolatorDocHitJson, String percolatorId,
+                                             SimpleDateFormat ingestFormatter) throws ParseException {
+        PercolatorHit percolatorDocHit = new PercolatorHit();
+        percolatorDocHit.setDocumentId(percolatorDocHitJson.getString(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_ID));
+        Date docIngestTime = ingestFormatter.parse(percolatorDocHitJson.getString(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_TIMEOFINGEST));
+        percolatorDocHit.setTimeOfIngest(TimeUtil.convertToThriftDateTime(docIngestTime.getTime()));
+        if (percolatorDocHitJson.has(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_TITLE)) {
+            percolatorDocHit.setDocumentTitle(percolatorDocHitJson.getString(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_TITLE));
+        }
+        if (percolatorDocHitJson.has(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_RESULTDATE)) {
+            Date docTime = ingestFormatter.parse(percolatorDocHitJson.getString(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_RESULTDATE));
+            percolatorDocHit.setDocumentResultDate(TimeUtil.convertToThriftDateTime(docTime.getTime()));
+        }
+        percolatorDocHit.setPercolatorId(percolatorId);
+        return percolatorDocHit;
+    }
+
+    // Number of hits in an inbox: the hit counter, plus hits stored in the inbox itself before hits were records
+    private int getInboxHitCount(JSONObject inboxJson) {
+        int count = inboxJson.optInt(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_HIT_COUNT, 0);
+        JSONArray legacyHits = inboxJson.optJSONArray(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_HITS);
+        if (legacyHits != null) {
+            count += legacyHits.length();
+        }
+        return count;
+    }
+
     @Override
     public PercolatorInboxPeek peekPercolatorInbox(String percolatorId, EzSecurityToken userToken) throws TException {
         AuditEvent evt = event(AuditEventType.FileObjectAccess.getName(), userToken)
@@ -746,7 +1115,6 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
         EzElastic.Client documentClient = null;
         try {
             // Get the inbox from EzElastic
-            PercolatorInboxPeek result = new PercolatorInboxPeek();
             String inboxId = getPercolatorInboxId(percolatorId);
             Document percolatorInboxResponse = null;
             try {
@@ -756,22 +1124,7 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
                 documentClient = returnAndNullClient(documentClient);
             }
             if (percolatorInboxResponse.get_id() != null) {
-
-                // Get the list of percolators and the lastFlush date from the inbox
-                JSONObject jsonObject = new JSONObject(percolatorInboxResponse.get_jsonObject());
-                String name = jsonObject.getString(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_NAME);
-                String searchText = jsonObject.getString(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_SEARCH_TEXT);
-                JSONArray individualJsonArrayIds = jsonObject.getJSONArray(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_HITS);
-                String lastFlushedString = jsonObject.getString(SSRUtils.PERCOLAOTR_INDIVIDUAL_INBOX_LAST_FLUSHED);
-                SimpleDateFormat ingestFormatter = new SimpleDateFormat("yyyyMMdd'T' HHmmss.SSSZ");
-                Date lastFlushedDate = ingestFormatter.parse(lastFlushedString);
-
-                result.setLastFlushed(TimeUtil.convertToThriftDateTime(lastFlushedDate.getTime()));
-                result.setCountOfHits(individualJsonArrayIds.length());
-                result.setName(name);
-                result.setSearchText(searchText);
-
-                return result;
+                return toInboxPeek(new JSONObject(percolatorInboxResponse.get_jsonObject()));
             } else {
                 throw new TException("Could not get the percolatorInbox for this percolator id:" + percolatorId);
             }
@@ -780,11 +1133,93 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
         }
     }
 
+    // Summarize an individual percolator inbox
+    private PercolatorInboxPeek toInboxPeek(JSONObject jsonObject) throws ParseException {
+        PercolatorInboxPeek result = new PercolatorInboxPeek();
+        String name = jsonObject.getString(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_NAME);
+        String searchText = jsonObject.getString(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_SEARCH_TEXT);
+        String lastFlushedString = jsonObject.getString(SSRUtils.PERCOLAOTR_INDIVIDUAL_INBOX_LAST_FLUSHED);
+        SimpleDateFormat ingestFormatter = new SimpleDateFormat("yyyyMMdd'T' HHmmss.SSSZ");
+        Date lastFlushedDate = ingestFormatter.parse(lastFlushedString);
+
+        result.setLastFlushed(TimeUtil.convertToThriftDateTime(lastFlushedDate.getTime()));
+        result.setCountOfHits(getInboxHitCount(jsonObject));
+        result.setName(name);
+        result.setSearchText(searchText);
+        return result;
+    }
+
+    /**
+     * Summarize the inboxes of several percolators, fetching the inboxes by id a batch at a time instead of one at a
+     * time.  Unlike a get, a search only sees the inbox updates made before the last refresh, so every inbox update
+     * refreshes the index itself and peeking never does.
+     *
+     * @return key: percolator id, value: summary of its inbox, percolators whose inbox couldn't be read are left out
+     */
+    private Map<String, PercolatorInboxPeek> peekPercolatorInboxes(List<String> percolatorIds, AuditEvent evt,
+                                                                   EzSecurityToken userToken) throws TException {
+        Map<String, PercolatorInboxPeek> results = new HashMap<>();
+        if (percolatorIds.isEmpty()) {
+            return results;
+        }
+        EzElastic.Client documentClient = null;
+        try {
+            documentClient = getDocumentClient();
+            for (int start = 0; start < percolatorIds.size(); start += PERCOLATOR_PEEK_BATCH_SIZE) {
+                List<String> batch = percolatorIds.subList(start,
+                        Math.min(start + PERCOLATOR_PEEK_BATCH_SIZE, percolatorIds.size()));
+                // key: inbox id, value: percolator id
+                Map<String, String> percolatorIdsByInboxId = new HashMap<>(batch.size());
+                for (String percolatorId : batch) {
+                    percolatorIdsByInboxId.put(getPercolatorInboxId(percolatorId), percolatorId);
+                }
+
+                Query query = new Query(QueryBuilders.idsQuery(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_TYPE_FIELD)
+                        .addIds(percolatorIdsByInboxId.keySet().toArray(new String[percolatorIdsByInboxId.size()]))
+                        .toString());
+                query.setType(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_TYPE_FIELD);
+                query.setPage(new Page().setOffset(0).setPageSize((short) percolatorIdsByInboxId.size()));
+
+                for (Document inbox : documentClient.query(query, userToken).getMatchingDocuments()) {
+                    String percolatorId = percolatorIdsByInboxId.remove(inbox.get_id());
+                    if (percolatorId == null) {
+                        continue;
+                    }
+                    try {
+                        results.put(percolatorId, toInboxPeek(new JSONObject(inbox.get_jsonObject())));
+                    } catch (Exception e) {
+                        logError(e, evt, "percolatorInboxPeek failed [" + e.getClass().getName() + ":" + e.getMessage() + "] for this percolator:" + "(id:" + percolatorId + ")");
+                    }
+                }
+                for (String percolatorId : percolatorIdsByInboxId.values()) {
+                    logger.warn("Could not get the percolatorInbox for this percolator id:" + percolatorId);
+                }
+            }
+        } finally {
+            returnAndNullClient(documentClient);
+        }
+        return results;
+    }
+
+    // Drop the cached inbox summaries of the user after the user changed their inboxes
+    private void invalidateInboxPeeks(EzSecurityToken userToken) {
+        if (inboxPeekCache == null) {
+            return;
+        }
+        try {
+            inboxPeekCache.invalidate(getPercolatorMainInboxId(userToken));
+        } catch (UnsupportedEncodingException e) {
+            logger.warn("Could not invalidate the cached percolator inbox summaries", e);
+        }
+    }
+
     @Override
     public PercolatorHitInbox getAndFlushPercolatorInbox(String percolatorId, EzSecurityToken userToken) throws TException {
         AuditEvent evt = event(AuditEventType.FileObjectModify.getName(), userToken)
                 .arg("event", "getAndFlushPercolatorInbox");
         EzElastic.Client documentClient = null;
+        Lock flushLock = inboxFlushLocks.get(percolatorId);
+        flushLock.lock();
         try {
             // Get the inbox from EzElastic
             userToken = validateAndFetchDerived(userToken);
@@ -808,26 +1243,30 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
             Date lastFlushedDate = ingestFormatter.parse(lastFlushedString);
             result.setLastFlushed(TimeUtil.convertToThriftDateTime(lastFlushedDate.getTime()));
 
-            // Get the list of percolators
-            JSONArray individualJsonArrayIds = jsonObject.getJSONArray(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_HITS);
-            List<PercolatorHit> resultPercolatorHits = new LinkedList<>();
-
-            // Iterate over the doc hits adding them to the list
-            for (int individualInboxCounter = 0; individualInboxCounter < individualJsonArrayIds.length(); individualInboxCounter++) {
-                JSONObject percolatorDocHitJson = individualJsonArrayIds.getJSONObject(individualInboxCounter);
-                PercolatorHit percolatorDocHit = new PercolatorHit();
-                percolatorDocHit.setDocumentId(percolatorDocHitJson.getString(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_ID));
-                Date docIngestTime = ingestFormatter.parse(percolatorDocHitJson.getString(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_TIMEOFINGEST));
-                percolatorDocHit.setTimeOfIngest(TimeUtil.convertToThriftDateTime(docIngestTime.getTime()));
-                if (percolatorDocHitJson.has(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_TITLE)) {
-                    percolatorDocHit.setDocumentTitle(percolatorDocHitJson.getString(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_TITLE));
+            // Get the hits that arrived so far, hits arriving while flushing are left for the next flush
+            Date flushed = new Date();
+            List<Document> hitRecords = readPercolatorHits(percolatorId, flushed.getTime(), userToken);
+
+            // Take the hits out of the inbox before they are counted off, a failed delete goes back to the caller with
+            // the inbox unchanged.  Hits whose record is still there are left for the next flush.
+            Set<String> notDeleted = deletePercolatorHits(hitRecords, userToken);
+            List<PercolatorHit> resultPercolatorHits = new ArrayList<>(hitRecords.size());
+            for (Document hitRecord : hitRecords) {
+                if (!notDeleted.contains(hitRecord.get_id())) {
+                    resultPercolatorHits.add(parsePercolatorHit(new JSONObject(hitRecord.get_jsonObject()), percolatorId, ingestFormatter));
                 }
-                if (percolatorDocHitJson.has(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_RESULTDATE)) {
-                    Date docTime = ingestFormatter.parse(percolatorDocHitJson.getString(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_RESULTDATE));
-                    percolatorDocHit.setDocumentResultDate(TimeUtil.convertToThriftDateTime(docTime.getTime()));
+            }
+            if (!notDeleted.isEmpty()) {
+                logger.warn("{} of the {} hits in the inbox of percolator {} could not be deleted, they are left "
+                        + "for the next flush", notDeleted.size(), hitRecords.size(), percolatorId);
+            }
+
+            // Hits stored in the inbox itself before hits were records
+            JSONArray legacyHits = jsonObject.optJSONArray(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_HITS);
+            if (legacyHits != null) {
+                for (int legacyCounter = 0; legacyCounter < legacyHits.length(); legacyCounter++) {
+                    resultPercolatorHits.add(parsePercolatorHit(legacyHits.getJSONObject(legacyCounter), percolatorId, ingestFormatter));
                 }
-                percolatorDocHit.setPercolatorId(percolatorId);
-                resultPercolatorHits.add(percolatorDocHit);
             }
 
             // sort the doc hits by ingesting time
@@ -839,19 +1278,10 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
             });
             result.setListOfHits(resultPercolatorHits);
 
-            // Set the last flush date to the current date
-            jsonObject.put(SSRUtils.PERCOLAOTR_INDIVIDUAL_INBOX_LAST_FLUSHED, ingestFormatter.format(new Date()));
-            jsonObject.put(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_HITS, new JSONArray());
-            percolatorInboxResponse.set_jsonObject(jsonObject.toString());
-            IndexResponse inboxFlushingResponse = null;
-            try {
-                documentClient = getDocumentClient();
-                inboxFlushingResponse = documentClient.put(percolatorInboxResponse, userToken);
-            } finally {
-                documentClient = returnAndNullClient(documentClient);
-            }
-            if (!inboxFlushingResponse.isSuccess())
-                logError(new TException("getAndFlushPercolatorInbox failed to update the inbox"), evt, "getAndFlushPercolatorInbox failed to update the inbox");
+            // Set the last flush date to the current date and take the deleted hits off the hit count
+            updatePercolatorInbox(percolatorId, FLUSH_HITS_SCRIPT, ImmutableMap.of(
+                    "flushed", ingestFormatter.format(flushed),
+                    "count", Integer.toString(hitRecords.size() - notDeleted.size())), userToken);
             return result;
 
         } catch (ParseException e) {
@@ -861,6 +1291,8 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
             logError(e, evt, "getAndFlushPercolatorInbox encountered an exception [" + e.getClass().getName() + ":" + e.getMessage() + "]");
             throw e;
         } finally {
+            flushLock.unlock();
+            invalidateInboxPeeks(userToken);
             returnAndNullClient(documentClient);
             auditLogger.logEvent(evt);
         }
@@ -878,6 +1310,12 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
             userToken = validateAndFetchDerived(userToken);
             results = new HashMap<>();
             String mainInboxId = getPercolatorMainInboxId(userToken);
+            if (inboxPeekCache != null) {
+                Map<String, PercolatorInboxPeek> cached = inboxPeekCache.getIfPresent(mainInboxId);
+                if (cached != null) {
+                    return new HashMap<>(cached);
+                }
+            }
             Document mainInboxResponse = null;
             try {
                 documentClient = getDocumentClient();
@@ -888,22 +1326,22 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
             }
 
             if (!mainInboxResponse.get_jsonObject().isEmpty()) {
-                // Get the last flushed date and list of percolators from the main inbox
+                // Get the list of percolators from the main inbox
                 JSONObject jsonObject = new JSONObject(mainInboxResponse.get_jsonObject());
                 JSONArray jsonArrayIds = jsonObject.getJSONArray(SSRUtils.PERCOLATOR_MAIN_INBOX_IDS);
-
-                // Iterate over the percolator ids getting their inboxes
+                List<String> percolatorIds = new ArrayList<>(jsonArrayIds.length());
                 for (int mainInboxCounter = 0; mainInboxCounter < jsonArrayIds.length(); mainInboxCounter++) {
-                    String percolatorId = jsonArrayIds.getString(mainInboxCounter);
-                    try {
-                        PercolatorInboxPeek percolatorInboxPeek = percolatorInboxPeekHelper(percolatorId, userToken);
-                        results.put(percolatorId, percolatorInboxPeek);
-                    } catch (Exception e) {
-                        logError(e, evt, "percolatorInboxPeek failed [" + e.getClass().getName() + ":" + e.getMessage() + "] for this percolator:" + "(id:" + percolatorId + ")");
-                    }
+                    percolatorIds.add(jsonArrayIds.getString(mainInboxCounter));
                 }
+
+                // Get all of their inboxes at once
+                results = peekPercolatorInboxes(percolatorIds, evt, userToken);
             }
 
+            if (inboxPeekCache != null) {
+                inboxPeekCache.put(mainInboxId, results);
+                results = new HashMap<>(results);
+            }
             return results;
         } catch (UnsupportedEncodingException e) {
             logError(e, evt, "peekMainPercolatorInbox encountered an exception [" + e.getClass().getName() + ":" + e.getMessage() + "]");
@@ -943,11 +1381,17 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
             UpdateOptions options = new UpdateOptions();
             options.setRetryCount(3);
 
-            return documentClient.update(docId, script, options, userToken);
+            IndexResponse response = documentClient.update(docId, script, options, userToken);
+            if (response.isSuccess()) {
+                // Inbox peeks search for the inboxes
+                documentClient.forceIndexRefresh(userToken);
+            }
+            return response;
         } catch (TException e) {
             logError(e, evt, "updatePercolateInbox encountered an exception [" + e.getClass().getName() + ":" + e.getMessage() + "]");
             throw e;
         } finally {
+            invalidateInboxPeeks(userToken);
             returnAndNullClient(documentClient);
             auditLogger.logEvent(evt);
         }
@@ -1014,13 +1458,14 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
                 }
             }
 
-            // delete the percolator inbox document too
+            // delete the percolator inbox document and its hits too
             try {
                 documentClient = getDocumentClient();
                 documentClient.deleteWithType(getPercolatorInboxId(id), SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_TYPE_FIELD, userToken);
             }finally {
                 documentClient = returnAndNullClient(documentClient);
             }
+            deletePercolatorHits(readPercolatorHits(id, Long.MAX_VALUE, userToken), userToken);
             return result;
         } catch (UnsupportedEncodingException e) {
             logError(e, evt, "deletePercolateQuery encountered an exception [" + e.getClass().getName() + ":" + e.getMessage() + "]");
@@ -1029,6 +1474,7 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
             logError(e, evt, "deletePercolateQuery encountered an exception [" + e.getClass().getName() + ":" + e.getMessage() + "]");
             throw e;
         } finally {
+            invalidateInboxPeeks(userToken);
             returnAndNullClient(documentClient);
             auditLogger.logEvent(evt);
         }
@@ -1043,22 +1489,11 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
         userToken = validateAndFetchDerived(userToken);
 
         try {
+            Map<SSR, GeoRegionCache.Region> regions = findRegions(ssrJsonMap.keySet());
             for (Map.Entry<SSR, String> entry : ssrJsonMap.entrySet()) {
                 SSR ssr = entry.getKey();
-                String type = getTypeFromUri(ssr.getUri());
-                if (!typeCache.containsKey(type)) {
-                    // If it already exists and just isn't in the cache there is no harm
-                    logger.info("Setting up initial mapping for type ({})", type);
-                    try {
-                        documentClient = getDocumentClient();
-                        documentClient.setTypeMapping(
-                                type, getSSRTypeMap(type), userToken);
-                    } finally {
-                        documentClient = returnAndNullClient(documentClient);
-                    }
-                    typeCache.put(type, true);
-                }
-                Document document = generateDocument(ssr, getCombinedJSON(ssr, entry.getValue()));
+                ensureSSRTypeMapping(getTypeFromUri(ssr.getUri()), userToken);
+                Document document = generateDocument(ssr, getCombinedJSON(ssr, entry.getValue(), regions.get(ssr)));
                 document.setPercolate(new PercolateRequest());
                 toPercolate.add(document);
                 evt.arg("uri", ssr.getUri());
@@ -1115,12 +1550,13 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
                 String jsonObjectAsString = match.get_jsonObject();
                 if (jsonObjectAsString == null) {
                     logger.error("Document had no json object");
+                    continue;
+                }
+                SSR ssrResult = ssrHitReader.read(jsonObjectAsString);
+                if (ssrResult == null) {
+                    logger.error("Document {} had no SSR", match.get_id());
+                    continue;
                 }
-                JsonElement jsonElement = jsonParser.parse(jsonObjectAsString);
-                JsonObject jsonObject = jsonElement.getAsJsonObject();
-                JsonElement ssrObject = jsonObject.get(SSRUtils.SSR_FIELD);
-                String ssrJson = ssrObject.toString();
-                SSR ssrResult = gson.fromJson(ssrJson, SSR.class);
                 ssrResult.setVisibility(match.getVisibility());
                 results.addToMatchingRecords(ssrResult);
             }
@@ -1406,47 +1842,54 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
         return document;
     }
 
-    private String getCombinedJSON(SSR ssr, String jsonDocument) throws TException {
+    private String getCombinedJSON(SSR ssr, String jsonDocument, GeoRegionCache.Region region) throws TException {
+        try {
+            return ssrJsonWriter.combine(ssr, getTypeFromUri(ssr.getUri()), jsonDocument, region);
+        } catch (IOException e) {
+            throw new TException("Could not write the JSON of " + ssr.getUri(), e);
+        }
+    }
 
-        Map<String, Object> ssrJson = new HashMap<>();
-        Map<String, Double> coordMap = new HashMap<>();
-        coordMap.put(SSRUtils.ELASTIC_LATITUDE_DEFAULT, ssr.getCoordinate() != null ? ssr.getCoordinate().getLatitude() : 0.0);
-        coordMap.put(SSRUtils.ELASTIC_LONGITUDE_DEFAULT, ssr.getCoordinate() != null ? ssr.getCoordinate().getLongitude() : 0.0);
-        SimpleDateFormat resultFormatter = new SimpleDateFormat("ddHHmm'Z' MMM yy");
-        ssrJson.put(SSRUtils.SSR_DATE_FIELD, ssr.getResultDate() != null ? resultFormatter.format(new Date(TimeUtil.convertFromThriftDateTime(ssr.getResultDate()))) : null);
-        ssrJson.put(SSRUtils.SSR_COORDINATE_FIELD, coordMap);
-        ssrJson.put(SSRUtils.SSR_TYPE_FIELD, getTypeFromUri(ssr.getUri()));
-        ssrJson.put(SSRUtils.SSR_FIELD, ssr);
-        ssrJson.put(SSRUtils.SSR_METADATA_FIELD, ssr.getMetaData() != null ? ssr.getMetaData().getTags() : null);
-        SimpleDateFormat ingestFormatter = new SimpleDateFormat("yyyyMMdd'T' HHmmss.SSSZ");
-        ssrJson.put(SSRUtils.SSR_TIME_OF_INGEST, ssr.getTimeOfIngest() != null ? ingestFormatter.format(new Date(TimeUtil.convertFromThriftDateTime(ssr.getTimeOfIngest()))) : null);
+    /**
+     * Find the country and province of the coordinates of a batch of SSRs. Cells that aren't cached are looked up one
+     * at a time, as the geospatial service has no batch lookup, but with a single client for the whole batch.
+     *
+     * @return key: SSR with a coordinate, value: its region. Empty when geospatial enrichment is disabled.
+     */
+    private Map<SSR, GeoRegionCache.Region> findRegions(Collection<SSR> ssrs) throws TException {
+        if (!isGeoEnabled) {
+            return Collections.emptyMap();
+        }
 
-        if (ssr.getCoordinate() != null && isGeoEnabled) {
-            GeospatialExtractorService.Client geoClient = getGeospatialClient();
-            try {
-                TLocationFinderResult geoLocation = geoClient
-                        .findLocation(new TCentroid(ssr.getCoordinate().getLatitude(),
-                                ssr.getCoordinate().getLongitude()), null);
-                if (!geoLocation.getLocations().isEmpty()) {
+        final GeospatialExtractorService.Client[] geoClient = new GeospatialExtractorService.Client[1];
+        try {
+            return geoRegionCache.findRegions(ssrs, new GeoRegionCache.RegionFinder() {
+                @Override
+                public GeoRegionCache.Region find(double latitude, double longitude) throws TException {
+                    if (geoClient[0] == null) {
+                        geoClient[0] = getGeospatialClient();
+                    }
+                    TLocationFinderResult geoLocation =
+                            geoClient[0].findLocation(new TCentroid(latitude, longitude), null);
+                    if (geoLocation.getLocations().isEmpty()) {
+                        return GeoRegionCache.Region.NONE;
+                    }
                     // Find the location with the most administrative paths
                     List<String> administrativePaths = getMostAccurateLocation(geoLocation.getLocations());
-                    if (!administrativePaths.isEmpty()) {
-                        ssrJson.put(SSRUtils.SSR_COUNTRY_FIELD, administrativePaths.get(administrativePaths.size() - 1));
-                        if (administrativePaths.size() > 1) {
-                            ssrJson.put(SSRUtils.SSR_PROVINCE_FIELD, administrativePaths.get(administrativePaths.size() - 2));
-                        }
-                        logger.info("SSR being indexed based on geospatial locations : {}",
-                                StringUtils.join(administrativePaths, ", "));
+                    if (administrativePaths.isEmpty()) {
+                        return GeoRegionCache.Region.NONE;
                     }
+                    logger.debug("Geospatial locations of cell {},{} : {}", latitude, longitude,
+                            StringUtils.join(administrativePaths, ", "));
+                    return new GeoRegionCache.Region(administrativePaths.get(administrativePaths.size() - 1),
+                            administrativePaths.size() > 1 ? administrativePaths.get(administrativePaths.size() - 2) : null);
                 }
-            } finally {
-                pool.returnToPool(geoClient);
+            });
+        } finally {
+            if (geoClient[0] != null) {
+                pool.returnToPool(geoClient[0]);
             }
         }
-
-        String ssrStripped = gson.toJson(ssrJson)
-                .replaceFirst(Pattern.quote("{"), StringUtils.EMPTY);
-        return jsonDocument.substring(0, jsonDocument.lastIndexOf("}")) + "," + ssrStripped;
     }
 
     private List<String> getMostAccurateLocation(List<TLocation> locations) {
@@ -1729,12 +2172,12 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
 
         EzElastic.Client documentClient = getDocumentClient();
 
-        if (!typeCache.containsKey(SSRUtils.PURGE_TYPE_FIELD)) {
-            // If it already exists and just isn't in the cache there is no harm
-            logger.info("Setting up initial mapping for purge type ({})", SSRUtils.PURGE_TYPE_FIELD);
-            documentClient.setTypeMapping("purge:type", getPurgeTypeMap(), userToken);
-            typeCache.put(SSRUtils.PURGE_TYPE_FIELD, true);
-        }
+        ensureTypeMapping(documentClient, SSRUtils.PURGE_TYPE_FIELD, new Callable<String>() {
+            @Override
+            public String call() {
+                return getPurgeTypeMap();
+            }
+        }, userToken);
 
         String json = gson.toJson(purgeState);
 
@@ -1848,6 +2291,9 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
                                 .startObject(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_SEARCH_TEXT)
                                     .field("type", "string")
                                 .endObject()
+                                .startObject(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_HIT_COUNT)
+                                    .field("type", "long")
+                                .endObject()
                                 .startObject(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_HITS)
                                     .startObject("properties")
                                         .startObject(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_ID)
@@ -1874,6 +2320,46 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
         return mappingBuilder.string();
     }
 
+    /**
+     * Creates an elasticsearch mapping for the hit records of the individual
+     * percolator inboxes
+     *
+     * @return percolator hit type mapping string for elasticsearch.
+     */
+    private String getPercolatorHitMapping() throws IOException {
+        final XContentBuilder mappingBuilder =
+                jsonBuilder().startObject()
+                        .startObject(SSRUtils.PERCOLATOR_HIT_TYPE_FIELD)
+                            .startObject("properties")
+                                .startObject(SSRUtils.PERCOLATOR_HIT_PERCOLATOR_ID)
+                                    .field("type", "string")
+                                    .field("index", "not_analyzed")
+                                .endObject()
+                                .startObject(SSRUtils.PERCOLATOR_HIT_APPENDED_AT)
+                                    .field("type", "long")
+                                .endObject()
+                                .startObject(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_ID)
+                                    .field("type", "string")
+                                .endObject()
+                                .startObject(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_TITLE)
+                                    .field("type", "string")
+                                .endObject()
+                                .startObject(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_RESULTDATE)
+                                    .field("type", "date")
+                                    .field("format", "yyyyMMdd'T' HHmmss.SSSZ")
+                                .endObject()
+                                .startObject(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_TIMEOFINGEST)
+                                    .field("type", "date")
+                                    .field("format", "yyyyMMdd'T' HHmmss.SSSZ")
+                                .endObject()
+                            .endObject()
+                        .endObject();
+
+        logger.info("percolator hit mapping = " + mappingBuilder.string());
+
+        return mappingBuilder.string();
+    }
+
     /**
      * Validates that the app security from the userToken matches up the
      * EzCentralPurgeService security id.
@@ -1897,6 +2383,24 @@ public class SSRServiceHandler extends EzBakeBasePurgeThriftService implements s
 
     @Override
     public void shutdown() {
+        logger.info("Type mapping cache: {}", typeCache.stats());
+        if (geoRegionCache != null) {
+            logger.info("Geospatial region cache: {} cells, {}", geoRegionCache.size(), geoRegionCache.stats());
+        }
+        if (asyncPercolateExecutor != null) {
+            // let percolation of the batches already acknowledged finish
+            asyncPercolateExecutor.shutdown();
+            try {
+                if (!asyncPercolateExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+                    logger.warn("Asynchronous percolation still running at shutdown");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (percolateExecutor != null) {
+            percolateExecutor.shutdownNow();
+        }
         pool.close();
         try {
             if (security != null) {
@@ -0,0 +1,142 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.services.search.utils;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.apache.thrift.TException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import ezbake.base.thrift.SSR;
+
+/**
+ * Country and province of the coordinates of SSRs, remembered per coordinate cell. Coordinates are rounded to a fixed
+ * number of decimal places, so every SSR in a cell gets the region found for the first coordinate looked up in it.
+ * With 2 decimal places a cell is about a kilometer across.
+ */
+public class GeoRegionCache {
+    /**
+     * Country and province of a coordinate, either may be null when the coordinate isn't in one
+     */
+    public static class Region {
+        public static final Region NONE = new Region(null, null);
+
+        private final String country;
+        private final String province;
+
+        public Region(String country, String province) {
+            this.country = country;
+            this.province = province;
+        }
+
+        public String getCountry() {
+            return country;
+        }
+
+        public String getProvince() {
+            return province;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Region)) {
+                return false;
+            }
+            Region other = (Region) o;
+            return (country == null ? other.country == null : country.equals(other.country))
+                    && (province == null ? other.province == null : province.equals(other.province));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (country == null ? 0 : country.hashCode()) + (province == null ? 0 : province.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return "Region{country=" + country + ", province=" + province + "}";
+        }
+    }
+
+    /**
+     * Finds the region of a coordinate, e.g. with the geospatial extraction service
+     */
+    public interface RegionFinder {
+        Region find(double latitude, double longitude) throws TException;
+    }
+
+    private final Cache<String, Region> regions;
+    private final double scale;
+
+    /**
+     * @param maximumCells  number of cells to remember
+     * @param decimalPlaces decimal places coordinates are rounded to
+     */
+    public GeoRegionCache(long maximumCells, int decimalPlaces) {
+        regions = CacheBuilder.newBuilder().maximumSize(maximumCells).recordStats().build();
+        scale = Math.pow(10, decimalPlaces);
+    }
+
+    /**
+     * Find the regions of a batch of SSRs, looking up each cell that isn't cached once however many SSRs are in it
+     *
+     * @param ssrs   SSRs to find the regions of, SSRs without a coordinate are skipped
+     * @param finder finds the region of a cell that isn't cached
+     * @return key: SSR, value: its region
+     */
+    public Map<SSR, Region> findRegions(Collection<SSR> ssrs, RegionFinder finder) throws TException {
+        Map<SSR, Region> results = new IdentityHashMap<>();
+        // cells of this batch, including the ones found while the batch is looked up
+        Map<String, Region> batchRegions = new HashMap<>();
+        for (SSR ssr : ssrs) {
+            if (ssr.getCoordinate() == null) {
+                continue;
+            }
+            double latitude = ssr.getCoordinate().getLatitude();
+            double longitude = ssr.getCoordinate().getLongitude();
+            String cell = cellOf(latitude, longitude);
+
+            Region region = batchRegions.get(cell);
+            if (region == null) {
+                region = regions.getIfPresent(cell);
+                if (region == null) {
+                    region = finder.find(latitude, longitude);
+                    regions.put(cell, region);
+                }
+                batchRegions.put(cell, region);
+            }
+            results.put(ssr, region);
+        }
+        return results;
+    }
+
+    String cellOf(double latitude, double longitude) {
+        return Math.round(latitude * scale) + ":" + Math.round(longitude * scale);
+    }
+
+    public long size() {
+        return regions.size();
+    }
+
+    public CacheStats stats() {
+        return regions.stats();
+    }
+}
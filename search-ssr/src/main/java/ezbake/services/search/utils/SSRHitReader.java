@@ -0,0 +1,65 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package ezbake.services.search.utils;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import ezbake.base.thrift.SSR;
+
+/**
+ * Reads the SSR of a search hit in a single pass over the hit JSON. The SSR is bound as it is read, other fields of
+ * the hit are skipped without being parsed into a tree and reading stops as soon as the SSR has been read.
+ */
+public class SSRHitReader {
+    private final TypeAdapter<SSR> ssrAdapter;
+
+    /**
+     * @param gson binds the SSR, configured the same way as the Gson the SSR was written with
+     */
+    public SSRHitReader(Gson gson) {
+        ssrAdapter = gson.getAdapter(SSR.class);
+    }
+
+    /**
+     * @param hitJson JSON object of a search hit
+     * @return the SSR in the {@value SSRUtils#SSR_FIELD} field of the hit, or null if the hit has none
+     * @throws JsonParseException if the hit isn't valid JSON or its SSR can't be bound
+     */
+    public SSR read(String hitJson) {
+        JsonReader reader = new JsonReader(new StringReader(hitJson));
+        reader.setLenient(true);
+        try {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                return null;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (SSRUtils.SSR_FIELD.equals(reader.nextName())) {
+                    return ssrAdapter.read(reader);
+                }
+                reader.skipValue();
+            }
+            return null;
+        } catch (IOException | IllegalStateException e) {
+            throw new JsonParseException("Could not read the SSR of a search hit", e);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.services.search.utils;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Date;
+import java.util.Map;
+
+import org.apache.commons.lang3.time.FastDateFormat;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+import ezbake.base.thrift.SSR;
+import ezbake.data.common.TimeUtil;
+
+/**
+ * Writes the JSON indexed for an SSR: the document JSON of the application with the SSR fields added to it
+ */
+public class SSRJsonWriter {
+    private static final FastDateFormat RESULT_DATE_FORMAT = FastDateFormat.getInstance("ddHHmm'Z' MMM yy");
+    private static final FastDateFormat INGEST_DATE_FORMAT = FastDateFormat.getInstance("yyyyMMdd'T' HHmmss.SSSZ");
+
+    private final Gson gson;
+
+    /**
+     * @param gson serializes the SSR itself
+     */
+    public SSRJsonWriter(Gson gson) {
+        this.gson = gson;
+    }
+
+    /**
+     * @param ssr          the SSR
+     * @param type         document type of the SSR
+     * @param jsonDocument JSON object of the application document
+     * @param region       region of the SSR coordinate, or null when it isn't known
+     * @return the document JSON object with the SSR fields added
+     */
+    public String combine(SSR ssr, String type, String jsonDocument, GeoRegionCache.Region region) throws IOException {
+        String documentFields = jsonDocument.substring(0, jsonDocument.lastIndexOf('}'));
+        StringWriter out = new StringWriter(documentFields.length() + 512);
+        out.write(documentFields);
+        if (!documentFields.trim().endsWith("{")) {
+            out.write(',');
+        }
+
+        // Write the SSR fields as an object of their own and then drop its opening brace, so they continue the
+        // document object
+        int ssrStart = out.getBuffer().length();
+        JsonWriter writer = new JsonWriter(out);
+        writer.setHtmlSafe(true);
+        writer.beginObject();
+        if (ssr.getResultDate() != null) {
+            writer.name(SSRUtils.SSR_DATE_FIELD)
+                    .value(RESULT_DATE_FORMAT.format(new Date(TimeUtil.convertFromThriftDateTime(ssr.getResultDate()))));
+        }
+        writer.name(SSRUtils.SSR_COORDINATE_FIELD).beginObject()
+                .name(SSRUtils.ELASTIC_LATITUDE_DEFAULT)
+                .value(ssr.getCoordinate() != null ? ssr.getCoordinate().getLatitude() : 0.0)
+                .name(SSRUtils.ELASTIC_LONGITUDE_DEFAULT)
+                .value(ssr.getCoordinate() != null ? ssr.getCoordinate().getLongitude() : 0.0)
+                .endObject();
+        writer.name(SSRUtils.SSR_TYPE_FIELD).value(type);
+        writer.name(SSRUtils.SSR_FIELD);
+        gson.toJson(ssr, SSR.class, writer);
+        if (ssr.getMetaData() != null && ssr.getMetaData().getTags() != null) {
+            writer.name(SSRUtils.SSR_METADATA_FIELD);
+            gson.toJson(ssr.getMetaData().getTags(), Map.class, writer);
+        }
+        if (ssr.getTimeOfIngest() != null) {
+            writer.name(SSRUtils.SSR_TIME_OF_INGEST)
+                    .value(INGEST_DATE_FORMAT.format(new Date(TimeUtil.convertFromThriftDateTime(ssr.getTimeOfIngest()))));
+        }
+        if (region != null && region.getCountry() != null) {
+            writer.name(SSRUtils.SSR_COUNTRY_FIELD).value(region.getCountry());
+        }
+        if (region != null && region.getProvince() != null) {
+            writer.name(SSRUtils.SSR_PROVINCE_FIELD).value(region.getProvince());
+        }
+        writer.endObject();
+        writer.flush();
+
+        out.getBuffer().deleteCharAt(ssrStart);
+        return out.toString();
+    }
+}
@@ -48,6 +48,11 @@ public abstract class SSRUtils {
     public static final String PERCOLATOR_INDIVIDUAL_INBOX_DOC_TITLE = "docTitle";
     public static final String PERCOLATOR_INDIVIDUAL_INBOX_DOC_RESULTDATE = "docResultDate";
     public static final String PERCOLATOR_INDIVIDUAL_INBOX_DOC_TIMEOFINGEST = "docTimeOfIngest";
+    public static final String PERCOLATOR_INDIVIDUAL_INBOX_HIT_COUNT = "hitcount";
+
+    public static final String PERCOLATOR_HIT_TYPE_FIELD = "percolatorhit";
+    public static final String PERCOLATOR_HIT_PERCOLATOR_ID = "percolatorId";
+    public static final String PERCOLATOR_HIT_APPENDED_AT = "appendedAt";
 
     public static final String SSR_DEFAULT_TYPE_NAME = "ssr_default";
 }
@@ -0,0 +1,94 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.services.search.utils;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.thrift.TException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * The document types whose Elasticsearch mapping this service has already set up, shared by all Thrift worker
+ * threads. A type that isn't cached is set up by exactly one caller while concurrent callers for the same type wait
+ * for it, and a failed set up isn't cached so the next caller tries again.
+ */
+public class TypeMappingCache {
+    private final Cache<String, Boolean> types;
+
+    /**
+     * @param maximumSize number of types to remember, least recently used types are set up again once evicted
+     */
+    public TypeMappingCache(long maximumSize) {
+        types = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+    }
+
+    /**
+     * Set up the mapping of a type unless it has been set up already
+     *
+     * @param type  document type
+     * @param setup sets up the mapping of the type, called at most once while the type stays cached
+     * @throws TException if setting up the mapping failed
+     */
+    public void ensureMapping(String type, final Callable<?> setup) throws TException {
+        try {
+            types.get(type, new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    setup.call();
+                    return Boolean.TRUE;
+                }
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof TException) {
+                throw (TException) e.getCause();
+            }
+            throw new TException("Could not set up the mapping for type " + type, e.getCause());
+        }
+    }
+
+    /**
+     * @return whether the mapping of the type is known to be set up, without counting as a cache access
+     */
+    public boolean contains(String type) {
+        return types.asMap().containsKey(type);
+    }
+
+    /**
+     * Forget a type, e.g. after its mapping was changed or removed, so the next write sets it up again
+     */
+    public void invalidate(String type) {
+        types.invalidate(type);
+    }
+
+    public void invalidateAll() {
+        types.invalidateAll();
+    }
+
+    public long size() {
+        return types.size();
+    }
+
+    /**
+     * @return hits, misses and set up counts and times since the cache was created
+     */
+    public CacheStats stats() {
+        return types.stats();
+    }
+}
@@ -0,0 +1,147 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.services.search;
+
+import ezbake.base.thrift.EzSecurityToken;
+import ezbake.base.thrift.Visibility;
+import ezbake.configuration.ClasspathConfigurationLoader;
+import ezbake.configuration.EzConfiguration;
+import ezbake.configuration.constants.EzBakePropertyConstants;
+import ezbake.data.elastic.EzElasticHandler;
+import ezbake.data.elastic.thrift.PercolateQuery;
+import ezbake.ezdiscovery.ServiceDiscoveryClient;
+import ezbake.security.impl.ua.FileUAService;
+import ezbake.security.service.processor.EzSecurityHandler;
+import ezbake.security.thrift.EzSecurityServicesConstants;
+import ezbake.security.ua.UAModule;
+import ezbake.services.centralPurge.thrift.EzCentralPurgeConstants;
+import ezbake.thrift.ThriftServerPool;
+import ezbake.thrift.ThriftTestUtils;
+import ezbakehelpers.ezconfigurationhelpers.elasticsearch.ElasticsearchConfigurationHelper;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.node.NodeBuilder;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Latency of peeking at the main percolator inbox of a user with 10, 100 and 1000 saved searches, next to peeking at
+ * each of the inboxes on its own the way the main inbox peek used to.  Only run with the benchmark profile.
+ */
+public class PercolatorInboxPeekBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger(PercolatorInboxPeekBenchmark.class);
+    private static final String SERVICE_NAME = "documentDataset";
+    private static final int REPETITIONS = 5;
+
+    private static SSRServiceHandler ssrService;
+    private static ThriftServerPool serverPool;
+    private static EzSecurityToken securityToken;
+    private static Node node;
+
+    @BeforeClass
+    public static void startUp() throws Exception {
+        Properties props = new EzConfiguration(new ClasspathConfigurationLoader()).getProperties();
+        ElasticsearchConfigurationHelper elasticConfig = new ElasticsearchConfigurationHelper(props);
+        Settings settings = ImmutableSettings.settingsBuilder()
+                .put("script.disable_dynamic", false)
+                .put("cluster.name", elasticConfig.getElasticsearchClusterName())
+                .put("network.host", elasticConfig.getElasticsearchHost())
+                .put("transport.tcp.port", elasticConfig.getElasticsearchPort())
+                .put("script.native.visibility.type", "ezbake.data.elastic.security.EzSecurityScriptFactory").build();
+        node = NodeBuilder.nodeBuilder().local(false).settings(settings).node();
+        node.start();
+        Thread.sleep(3000);
+
+        String securityId = props.getProperty(EzBakePropertyConstants.EZBAKE_SECURITY_ID);
+        securityToken = ThriftTestUtils.generateTestSecurityToken(securityId, securityId, Arrays.asList("U"));
+
+        props.setProperty(EzBakePropertyConstants.EZBAKE_SSL_CIPHERS_KEY, "TLS_ECDHE_ECDSA_WITH_AES_128_CBC_SHA,TLS_ECDHE_RSA_WITH_AES_128_CBC_SHA,TLS_RSA_WITH_AES_128_CBC_SHA");
+        props.setProperty(UAModule.UA_SERVICE_IMPL, FileUAService.class.getCanonicalName());
+        Properties securityConfig = new Properties();
+        securityConfig.putAll(props);
+        securityConfig.setProperty(EzBakePropertyConstants.EZBAKE_CERTIFICATES_DIRECTORY, System.getProperty("user.dir") + File.separator + "search-ssr-service/src/test/resources/pki/server");
+        serverPool = new ThriftServerPool(securityConfig, 14000);
+        serverPool.startCommonService(new EzSecurityHandler(), EzSecurityServicesConstants.SECURITY_SERVICE_NAME, "12345");
+
+        String ezelasticAppName = props.getProperty(SSRServiceHandler.EZELASTIC_APPLICATION_NAME_KEY, null);
+        serverPool.startApplicationService(new EzElasticHandler(), SERVICE_NAME, ezelasticAppName, securityId);
+
+        ServiceDiscoveryClient discovery = new ServiceDiscoveryClient(props);
+        discovery.setSecurityIdForCommonService(EzCentralPurgeConstants.SERVICE_NAME, securityId);
+        discovery.close();
+
+        ssrService = new SSRServiceHandler();
+        props.setProperty(EzBakePropertyConstants.EZBAKE_CERTIFICATES_DIRECTORY, System.getProperty("user.dir") + File.separator + "search-ssr-service/src/test/resources/pki/client");
+        ssrService.setConfigurationProperties(props);
+        ssrService.getThriftProcessor();
+    }
+
+    @AfterClass
+    public static void shutdown() throws Exception {
+        node.client().admin().indices().prepareDelete("ssrindexing").get();
+        node.stop();
+        node.close();
+        ssrService.shutdown();
+        serverPool.shutdown();
+    }
+
+    @Test
+    public void peekMainInbox() throws Exception {
+        PercolateQuery percolator = new PercolateQuery();
+        percolator.setVisibility(new Visibility().setFormalVisibility("U"));
+        percolator.setQueryDocument(jsonBuilder().startObject()
+                .field("query", QueryBuilders.termQuery("title", "latency")).endObject().string());
+
+        int created = 0;
+        for (int percolators : new int[] {10, 100, 1000}) {
+            for (; created < percolators; created++) {
+                percolator.unsetId();
+                ssrService.putPercolateQuery("saved search " + created, percolator, securityToken);
+            }
+
+            Map<String, PercolatorInboxPeek> peeks = ssrService.peekMainPercolatorInbox(securityToken);
+            assertEquals(percolators, peeks.size());
+
+            long batchedNanos = 0;
+            long perInboxNanos = 0;
+            for (int i = 0; i < REPETITIONS; i++) {
+                long start = System.nanoTime();
+                ssrService.peekMainPercolatorInbox(securityToken);
+                batchedNanos += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (String percolatorId : peeks.keySet()) {
+                    ssrService.peekPercolatorInbox(percolatorId, securityToken);
+                }
+                perInboxNanos += System.nanoTime() - start;
+            }
+            logger.info("{} percolators: peekMainPercolatorInbox {}us, peeking at each inbox {}us", percolators,
+                    batchedNanos / REPETITIONS / 1000, perInboxNanos / REPETITIONS / 1000);
+        }
+    }
+}
@@ -56,6 +56,10 @@ import org.junit.Test;
 import java.io.File;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static ezbake.data.common.TimeUtil.getCurrentThriftDateTime;
 import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
@@ -586,6 +590,39 @@ public class SSRServiceHandlerTest {
         }
     }
 
+    @Test
+    public void testConcurrentFlushesReturnEveryHitOnce() throws Exception {
+        PercolateQuery percolator = new PercolateQuery();
+        percolator.setVisibility(new Visibility().setFormalVisibility("U"));
+        percolator.setQueryDocument(jsonBuilder().startObject().field("query",
+                new FilteredQueryBuilder(QueryBuilders.matchAllQuery(), FilterBuilders.typeFilter("DEV:chirp")))
+                .endObject().string());
+        final String percolatorId = ssrService.putPercolateQuery("flushed", percolator, securityToken).get_id();
+
+        populateTestData();
+        populateTestData();
+        int hits = ssrService.peekPercolatorInbox(percolatorId, securityToken).getCountOfHits();
+        assertTrue(hits > 0);
+
+        Callable<Integer> flush = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return ssrService.getAndFlushPercolatorInbox(percolatorId, securityToken).getListOfHitsSize();
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Integer> first = executor.submit(flush);
+            Future<Integer> second = executor.submit(flush);
+            assertEquals(hits, first.get() + second.get());
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(0, ssrService.peekPercolatorInbox(percolatorId, securityToken).getCountOfHits());
+        assertEquals(0, ssrService.getAndFlushPercolatorInbox(percolatorId, securityToken).getListOfHitsSize());
+        ssrService.deletePercolateQuery(percolatorId, securityToken);
+    }
+
     @Test
     public void testPercolate() throws Exception {
 
@@ -700,8 +737,8 @@ public class SSRServiceHandlerTest {
 
         assertEquals(1, docResults.getMatchingDocumentsSize());
         JSONObject inboxHits = new JSONObject(docResults.getMatchingDocuments().get(0).get_jsonObject());
-        JSONArray dochits = (JSONArray) inboxHits.get(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_HITS);
-        assertEquals(0, dochits.length());
+        assertEquals(0, inboxHits.getInt(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_HIT_COUNT));
+        assertFalse(inboxHits.has(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_HITS));
 
         queryJson = QueryBuilders.idsQuery(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_TYPE_FIELD).addIds(percolateResponse.get_id() + "_inbox").toString();
         query = new Query(queryJson);
@@ -709,8 +746,13 @@ public class SSRServiceHandlerTest {
 
         assertEquals(1, docResults2.getMatchingDocumentsSize());
         JSONObject inboxHits2 = new JSONObject(docResults2.getMatchingDocuments().get(0).get_jsonObject());
-        JSONArray dochits2 = (JSONArray) inboxHits2.get(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_HITS);
-        assertEquals(4, dochits2.length());
+        assertEquals(4, inboxHits2.getInt(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_HIT_COUNT));
+        assertEquals(0, inboxHits2.getJSONArray(SSRUtils.PERCOLATOR_INDIVIDUAL_INBOX_DOC_HITS).length());
+
+        // the hits themselves are records of their own
+        query = new Query(QueryBuilders.termQuery(SSRUtils.PERCOLATOR_HIT_PERCOLATOR_ID, percolateResponse.get_id()).toString());
+        query.setType(SSRUtils.PERCOLATOR_HIT_TYPE_FIELD);
+        assertEquals(4, ssrService.search(query, securityToken).getTotalHits());
 
         queryJson = QueryBuilders.matchAllQuery().toString();
         query.setSearchString(queryJson);
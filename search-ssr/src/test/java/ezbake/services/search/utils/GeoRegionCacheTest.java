@@ -0,0 +1,141 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package ezbake.services.search.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.thrift.TException;
+import org.junit.Test;
+
+import ezbake.base.thrift.Coordinate;
+import ezbake.base.thrift.SSR;
+
+public class GeoRegionCacheTest {
+    private static final int DOCUMENTS = 1000;
+    private static final int CELLS = 20;
+
+    @Test
+    public void testEachCellIsLookedUpOnce() throws Exception {
+        GeoRegionCache cache = new GeoRegionCache(1000, 2);
+        CountingFinder finder = new CountingFinder();
+        List<SSR> batch = batch(DOCUMENTS);
+        // one document without a coordinate
+        batch.add(new SSR());
+
+        Map<SSR, GeoRegionCache.Region> regions = cache.findRegions(batch, finder);
+        assertEquals(CELLS, finder.lookups.get());
+        assertEquals(DOCUMENTS, regions.size());
+        for (int i = 0; i < DOCUMENTS; i++) {
+            assertEquals(new GeoRegionCache.Region("country" + (i % CELLS), "province" + (i % CELLS)),
+                    regions.get(batch.get(i)));
+        }
+        assertNull(regions.get(batch.get(DOCUMENTS)));
+
+        // the next batch over the same cells is served from the cache
+        regions = cache.findRegions(batch(DOCUMENTS), finder);
+        assertEquals(CELLS, finder.lookups.get());
+        assertEquals(DOCUMENTS, regions.size());
+        assertEquals(CELLS, cache.stats().hitCount());
+        assertEquals(CELLS, cache.size());
+    }
+
+    @Test
+    public void testNearbyCoordinatesShareACell() throws Exception {
+        GeoRegionCache cache = new GeoRegionCache(1000, 2);
+        CountingFinder finder = new CountingFinder();
+        List<SSR> batch = new ArrayList<>();
+        batch.add(ssr(38.8912, -77.0364));
+        batch.add(ssr(38.8908, -77.0361));
+        batch.add(ssr(38.9051, -77.0364));
+
+        Map<SSR, GeoRegionCache.Region> regions = cache.findRegions(batch, finder);
+        assertEquals(2, finder.lookups.get());
+        assertSame(regions.get(batch.get(0)), regions.get(batch.get(1)));
+    }
+
+    @Test
+    public void testEmptyRegionIsCachedAndFailureIsNot() throws Exception {
+        GeoRegionCache cache = new GeoRegionCache(1000, 2);
+        final AtomicInteger lookups = new AtomicInteger();
+        GeoRegionCache.RegionFinder failing = new GeoRegionCache.RegionFinder() {
+            @Override
+            public GeoRegionCache.Region find(double latitude, double longitude) throws TException {
+                lookups.incrementAndGet();
+                throw new TException("geospatial service unavailable");
+            }
+        };
+        List<SSR> batch = Collections.singletonList(ssr(0.5, 0.5));
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.findRegions(batch, failing);
+                fail("lookup should have failed");
+            } catch (TException e) {
+                assertEquals("geospatial service unavailable", e.getMessage());
+            }
+        }
+        assertEquals(2, lookups.get());
+        assertEquals(0, cache.size());
+
+        CountingFinder empty = new CountingFinder() {
+            @Override
+            public GeoRegionCache.Region find(double latitude, double longitude) {
+                lookups.incrementAndGet();
+                return GeoRegionCache.Region.NONE;
+            }
+        };
+        assertSame(GeoRegionCache.Region.NONE, cache.findRegions(batch, empty).get(batch.get(0)));
+        assertSame(GeoRegionCache.Region.NONE, cache.findRegions(batch, empty).get(batch.get(0)));
+        assertEquals(3, lookups.get());
+    }
+
+    private static List<SSR> batch(int size) {
+        List<SSR> batch = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            int cell = i % CELLS;
+            // spread the documents of a cell within it
+            batch.add(ssr(cell + 0.001 * (i % 3), -cell - 0.001 * (i % 4)));
+        }
+        return batch;
+    }
+
+    private static SSR ssr(double latitude, double longitude) {
+        SSR ssr = new SSR();
+        Coordinate coordinate = new Coordinate();
+        coordinate.setLatitude(latitude);
+        coordinate.setLongitude(longitude);
+        ssr.setCoordinate(coordinate);
+        return ssr;
+    }
+
+    private static class CountingFinder implements GeoRegionCache.RegionFinder {
+        final AtomicInteger lookups = new AtomicInteger();
+
+        @Override
+        public GeoRegionCache.Region find(double latitude, double longitude) throws TException {
+            lookups.incrementAndGet();
+            int cell = (int) Math.round(latitude);
+            return new GeoRegionCache.Region("country" + cell, "province" + cell);
+        }
+    }
+}
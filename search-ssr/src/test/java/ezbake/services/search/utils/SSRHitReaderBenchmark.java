@@ -0,0 +1,80 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package ezbake.services.search.utils;
+package ezbake.services.search.utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * CPU time and latency of reading a page of hits, against parsing every hit into a tree and binding the SSR of the
+ * tree.  Only run with the benchmark profile.
+ */
+public class SSRHitReaderBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger(SSRHitReaderBenchmark.class);
+    private static final int PAGES = 40;
+    private static final int WARM_UP_PAGES = 5;
+
+    private final Gson gson = new GsonBuilder()
+            .registerTypeAdapter(java.util.Date.class, new DateSerializer())
+            .registerTypeAdapter(Boolean.TYPE, new BooleanSerializer())
+            .create();
+    private final SSRHitReader reader = new SSRHitReader(gson);
+
+    @Test
+    public void read() throws Exception {
+        List<String> hits = SSRHitReaderTest.page(gson, SSRHitReaderTest.PAGE_SIZE, true);
+
+        // warm up both
+        for (int i = 0; i < WARM_UP_PAGES; i++) {
+            for (String hit : hits) {
+                SSRHitReaderTest.treeRead(gson, hit);
+                reader.read(hit);
+            }
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long cpu = threads.getCurrentThreadCpuTime();
+        long start = System.nanoTime();
+        for (int i = 0; i < PAGES; i++) {
+            for (String hit : hits) {
+                SSRHitReaderTest.treeRead(gson, hit);
+            }
+        }
+        long treeNanos = System.nanoTime() - start;
+        long treeCpu = threads.getCurrentThreadCpuTime() - cpu;
+
+        cpu = threads.getCurrentThreadCpuTime();
+        start = System.nanoTime();
+        for (int i = 0; i < PAGES; i++) {
+            for (String hit : hits) {
+                reader.read(hit);
+            }
+        }
+        long streamNanos = System.nanoTime() - start;
+        long streamCpu = threads.getCurrentThreadCpuTime() - cpu;
+
+        logger.info("Reading a page of {} hits: tree parsing {}us ({}us CPU), streaming {}us ({}us CPU)",
+                SSRHitReaderTest.PAGE_SIZE, treeNanos / PAGES / 1000, treeCpu / PAGES / 1000,
+                streamNanos / PAGES / 1000, streamCpu / PAGES / 1000);
+    }
+}
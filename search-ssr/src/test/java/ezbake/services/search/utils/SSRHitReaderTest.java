@@ -0,0 +1,115 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package ezbake.services.search.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParser;
+
+import ezbake.base.thrift.Coordinate;
+import ezbake.base.thrift.Date;
+import ezbake.base.thrift.DateTime;
+import ezbake.base.thrift.EnterpriseMetaData;
+import ezbake.base.thrift.SSR;
+import ezbake.base.thrift.Visibility;
+import ezbake.data.common.TimeUtil;
+
+public class SSRHitReaderTest {
+    static final int PAGE_SIZE = 500;
+    private static final JsonParser PARSER = new JsonParser();
+
+    private final Gson gson = new GsonBuilder()
+            .registerTypeAdapter(java.util.Date.class, new DateSerializer())
+            .registerTypeAdapter(Boolean.TYPE, new BooleanSerializer())
+            .create();
+    private final SSRHitReader reader = new SSRHitReader(gson);
+
+    @Test
+    public void testMatchesTreeParsing() throws Exception {
+        for (String hit : page(gson, PAGE_SIZE, true)) {
+            assertEquals(treeRead(gson, hit), reader.read(hit));
+        }
+        for (String hit : page(gson, PAGE_SIZE, false)) {
+            assertEquals(treeRead(gson, hit), reader.read(hit));
+        }
+    }
+
+    @Test
+    public void testHitWithoutSSR() {
+        assertNull(reader.read("{\"text\":\"no ssr\",\"nested\":{\"_ssr\":{\"uri\":\"a\"}}}"));
+        assertNull(reader.read("{\"_ssr\":null}"));
+        assertNull(reader.read("[]"));
+    }
+
+    /**
+     * The way search results were read before the hits were streamed
+     */
+    static SSR treeRead(Gson gson, String hit) {
+        return gson.fromJson(PARSER.parse(hit).getAsJsonObject().get(SSRUtils.SSR_FIELD).toString(), SSR.class);
+    }
+
+    /**
+     * @param withDocument whether the hits carry the whole indexed document or just the returned SSR field
+     */
+    static List<String> page(Gson gson, int size, boolean withDocument) throws Exception {
+        SSRJsonWriter writer = new SSRJsonWriter(gson);
+        GeoRegionCache.Region region = new GeoRegionCache.Region("United States", "Virginia");
+        List<String> hits = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            SSR ssr = ssr(i);
+            if (withDocument) {
+                String document = "{\"_id\":\"tag:search:" + i + "\",\"text\":\"<b>chirp</b> & \\\"more\\\" " + i +
+                        "\",\"user\":{\"name\":\"test\",\"followers\":[1,2,3],\"verified\":true}," +
+                        "\"entities\":[{\"type\":\"hashtag\",\"value\":\"ezbake\"},{\"type\":\"url\",\"value\":null}]}";
+                hits.add(writer.combine(ssr, "DEV:chirp", document, region));
+            } else {
+                hits.add("{\"" + SSRUtils.SSR_FIELD + "\":" + gson.toJson(ssr) + "}");
+            }
+        }
+        return hits;
+    }
+
+    private static SSR ssr(int i) {
+        SSR ssr = new SSR();
+        ssr.setUri("DEV://chirp/tag:search:" + i);
+        ssr.setVisibility(new Visibility().setFormalVisibility("U"));
+        ssr.setTitle("ssr_title " + i);
+        ssr.setSnippet("a \"quoted\" <snippet> é " + i);
+        ssr.setResultDate(new DateTime(new Date((short) 10, (short) 5, (short) 1999)));
+        ssr.setTimeOfIngest(TimeUtil.getCurrentThriftDateTime());
+        if (i % 2 == 0) {
+            Coordinate coordinate = new Coordinate();
+            coordinate.setLatitude(38.8951 + i % 100);
+            coordinate.setLongitude(-77.0364);
+            ssr.setCoordinate(coordinate);
+        }
+        EnterpriseMetaData metaData = new EnterpriseMetaData();
+        Map<String, String> tags = new HashMap<>();
+        tags.put("usp", "true");
+        tags.put("exempt_code", String.valueOf(i));
+        metaData.setTags(tags);
+        ssr.setMetaData(metaData);
+        return ssr;
+    }
+}
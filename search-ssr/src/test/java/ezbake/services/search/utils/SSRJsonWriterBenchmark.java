@@ -0,0 +1,78 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package ezbake.services.search.utils;
+package ezbake.services.search.utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import ezbake.base.thrift.SSR;
+
+/**
+ * Per document CPU time and latency of writing the combined JSON, against serializing a map of the SSR fields and
+ * splicing it into the document.  Only run with the benchmark profile.
+ */
+public class SSRJsonWriterBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger(SSRJsonWriterBenchmark.class);
+    private static final int DOCUMENTS = 20000;
+    private static final int WARM_UP = 2000;
+
+    private final Gson gson = new GsonBuilder()
+            .registerTypeAdapter(java.util.Date.class, new DateSerializer())
+            .registerTypeAdapter(Boolean.TYPE, new BooleanSerializer())
+            .create();
+    private final SSRJsonWriter writer = new SSRJsonWriter(gson);
+
+    @Test
+    public void combine() throws Exception {
+        SSR[] ssrs = new SSR[DOCUMENTS];
+        for (int i = 0; i < DOCUMENTS; i++) {
+            ssrs[i] = SSRJsonWriterTest.ssr(i);
+        }
+        GeoRegionCache.Region region = new GeoRegionCache.Region("United States", "Virginia");
+
+        // warm up both
+        for (int i = 0; i < WARM_UP; i++) {
+            SSRJsonWriterTest.legacyCombine(gson, ssrs[i], SSRJsonWriterTest.DOCUMENT, region);
+            writer.combine(ssrs[i], SSRJsonWriterTest.TYPE, SSRJsonWriterTest.DOCUMENT, region);
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long cpu = threads.getCurrentThreadCpuTime();
+        long start = System.nanoTime();
+        for (SSR ssr : ssrs) {
+            SSRJsonWriterTest.legacyCombine(gson, ssr, SSRJsonWriterTest.DOCUMENT, region);
+        }
+        long legacyNanos = System.nanoTime() - start;
+        long legacyCpu = threads.getCurrentThreadCpuTime() - cpu;
+
+        cpu = threads.getCurrentThreadCpuTime();
+        start = System.nanoTime();
+        for (SSR ssr : ssrs) {
+            writer.combine(ssr, SSRJsonWriterTest.TYPE, SSRJsonWriterTest.DOCUMENT, region);
+        }
+        long writerNanos = System.nanoTime() - start;
+        long writerCpu = threads.getCurrentThreadCpuTime() - cpu;
+
+        logger.info("Combined JSON per document: map serialization {}ns ({}ns CPU), streaming {}ns ({}ns CPU)",
+                legacyNanos / DOCUMENTS, legacyCpu / DOCUMENTS, writerNanos / DOCUMENTS, writerCpu / DOCUMENTS);
+    }
+}
@@ -0,0 +1,135 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package ezbake.services.search.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParser;
+
+import ezbake.base.thrift.Coordinate;
+import ezbake.base.thrift.Date;
+import ezbake.base.thrift.DateTime;
+import ezbake.base.thrift.EnterpriseMetaData;
+import ezbake.base.thrift.SSR;
+import ezbake.base.thrift.Visibility;
+import ezbake.data.common.TimeUtil;
+
+public class SSRJsonWriterTest {
+    static final String TYPE = "DEV:chirp";
+    static final String DOCUMENT = "{\"_id\":\"tag:search:475858716546596474\",\"text\":\"<b>chirp</b> & more\"," +
+            "\"user\":{\"name\":\"test\",\"followers\":[1,2,3]}}";
+
+    private final Gson gson = new GsonBuilder()
+            .registerTypeAdapter(java.util.Date.class, new DateSerializer())
+            .registerTypeAdapter(Boolean.TYPE, new BooleanSerializer())
+            .create();
+    private final SSRJsonWriter writer = new SSRJsonWriter(gson);
+    private final JsonParser parser = new JsonParser();
+
+    @Test
+    public void testMatchesMapSerialization() throws Exception {
+        SSR ssr = ssr(0);
+        GeoRegionCache.Region region = new GeoRegionCache.Region("United States", "Virginia");
+        assertEquals(parser.parse(legacyCombine(gson, ssr, DOCUMENT, region)),
+                parser.parse(writer.combine(ssr, TYPE, DOCUMENT, region)));
+
+        // only the province is unknown
+        region = new GeoRegionCache.Region("Nauru", null);
+        assertEquals(parser.parse(legacyCombine(gson, ssr, DOCUMENT, region)),
+                parser.parse(writer.combine(ssr, TYPE, DOCUMENT, region)));
+    }
+
+    @Test
+    public void testOptionalFieldsAreLeftOut() throws Exception {
+        SSR ssr = new SSR();
+        ssr.setUri("DEV://chirp/tag:search:1");
+        ssr.setVisibility(new Visibility().setFormalVisibility("U"));
+        assertEquals(parser.parse(legacyCombine(gson, ssr, DOCUMENT, null)),
+                parser.parse(writer.combine(ssr, TYPE, DOCUMENT, null)));
+        assertEquals(parser.parse(legacyCombine(gson, ssr, DOCUMENT, GeoRegionCache.Region.NONE)),
+                parser.parse(writer.combine(ssr, TYPE, DOCUMENT, GeoRegionCache.Region.NONE)));
+    }
+
+    @Test
+    public void testEmptyDocument() throws Exception {
+        SSR ssr = ssr(1);
+        String json = writer.combine(ssr, TYPE, "{ }", null);
+        assertEquals(parser.parse(gson.toJson(ssrFields(ssr, null))), parser.parse(json));
+    }
+
+    static SSR ssr(int i) {
+        SSR ssr = new SSR();
+        ssr.setUri("DEV://chirp/tag:search:" + i);
+        ssr.setVisibility(new Visibility().setFormalVisibility("U"));
+        ssr.setTitle("ssr_title " + i);
+        ssr.setSnippet("a \"quoted\" <snippet> " + i);
+        ssr.setResultDate(new DateTime(new Date((short) 10, (short) 5, (short) 1999)));
+        ssr.setTimeOfIngest(TimeUtil.getCurrentThriftDateTime());
+        Coordinate coordinate = new Coordinate();
+        coordinate.setLatitude(38.8951 + i % 100);
+        coordinate.setLongitude(-77.0364);
+        ssr.setCoordinate(coordinate);
+        EnterpriseMetaData metaData = new EnterpriseMetaData();
+        Map<String, String> tags = new HashMap<>();
+        tags.put("usp", "true");
+        tags.put("exempt_code", String.valueOf(i));
+        metaData.setTags(tags);
+        ssr.setMetaData(metaData);
+        return ssr;
+    }
+
+    /**
+     * The SSR fields the way the service put them together before they were streamed
+     */
+    private static Map<String, Object> ssrFields(SSR ssr, GeoRegionCache.Region region) {
+        Map<String, Object> ssrJson = new HashMap<>();
+        Map<String, Double> coordMap = new HashMap<>();
+        coordMap.put(SSRUtils.ELASTIC_LATITUDE_DEFAULT, ssr.getCoordinate() != null ? ssr.getCoordinate().getLatitude() : 0.0);
+        coordMap.put(SSRUtils.ELASTIC_LONGITUDE_DEFAULT, ssr.getCoordinate() != null ? ssr.getCoordinate().getLongitude() : 0.0);
+        SimpleDateFormat resultFormatter = new SimpleDateFormat("ddHHmm'Z' MMM yy");
+        ssrJson.put(SSRUtils.SSR_DATE_FIELD, ssr.getResultDate() != null ? resultFormatter.format(new java.util.Date(TimeUtil.convertFromThriftDateTime(ssr.getResultDate()))) : null);
+        ssrJson.put(SSRUtils.SSR_COORDINATE_FIELD, coordMap);
+        ssrJson.put(SSRUtils.SSR_TYPE_FIELD, TYPE);
+        ssrJson.put(SSRUtils.SSR_FIELD, ssr);
+        ssrJson.put(SSRUtils.SSR_METADATA_FIELD, ssr.getMetaData() != null ? ssr.getMetaData().getTags() : null);
+        SimpleDateFormat ingestFormatter = new SimpleDateFormat("yyyyMMdd'T' HHmmss.SSSZ");
+        ssrJson.put(SSRUtils.SSR_TIME_OF_INGEST, ssr.getTimeOfIngest() != null ? ingestFormatter.format(new java.util.Date(TimeUtil.convertFromThriftDateTime(ssr.getTimeOfIngest()))) : null);
+        if (region != null && region.getCountry() != null) {
+            ssrJson.put(SSRUtils.SSR_COUNTRY_FIELD, region.getCountry());
+        }
+        if (region != null && region.getProvince() != null) {
+            ssrJson.put(SSRUtils.SSR_PROVINCE_FIELD, region.getProvince());
+        }
+        return ssrJson;
+    }
+
+    /**
+     * Serialize the SSR fields as a map and splice them into the document, the way the service did before
+     */
+    static String legacyCombine(Gson gson, SSR ssr, String jsonDocument, GeoRegionCache.Region region) {
+        String ssrStripped = gson.toJson(ssrFields(ssr, region))
+                .replaceFirst(Pattern.quote("{"), StringUtils.EMPTY);
+        return jsonDocument.substring(0, jsonDocument.lastIndexOf("}")) + "," + ssrStripped;
+    }
+}
@@ -0,0 +1,147 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.services.search.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.thrift.TException;
+import org.junit.Test;
+
+import com.google.common.cache.CacheStats;
+
+public class TypeMappingCacheTest {
+    private static final int THREADS = 16;
+    private static final int TYPES = 50;
+    private static final int CALLS_PER_THREAD = 5000;
+
+    @Test
+    public void testMappingIsSetUpOnceUnderContention() throws Exception {
+        final TypeMappingCache cache = new TypeMappingCache(1000);
+        final ConcurrentMap<String, AtomicInteger> setups = new ConcurrentHashMap<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                final int offset = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        for (int i = 0; i < CALLS_PER_THREAD; i++) {
+                            final String type = "type" + ((i + offset) % TYPES);
+                            cache.ensureMapping(type, new Callable<Void>() {
+                                @Override
+                                public Void call() throws Exception {
+                                    setups.putIfAbsent(type, new AtomicInteger());
+                                    setups.get(type).incrementAndGet();
+                                    // widen the window for a second set up of the same type
+                                    Thread.sleep(1);
+                                    return null;
+                                }
+                            });
+                        }
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Void> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(TYPES, setups.size());
+        for (AtomicInteger count : setups.values()) {
+            assertEquals(1, count.get());
+        }
+
+        CacheStats stats = cache.stats();
+        assertEquals(TYPES, stats.loadSuccessCount());
+        assertEquals(0, stats.loadExceptionCount());
+        assertEquals(THREADS * CALLS_PER_THREAD, stats.requestCount());
+        assertTrue(stats.hitCount() >= THREADS * CALLS_PER_THREAD - THREADS * TYPES);
+        assertEquals(TYPES, cache.size());
+    }
+
+    @Test
+    public void testFailedSetUpIsRetried() throws Exception {
+        TypeMappingCache cache = new TypeMappingCache(10);
+        final AtomicInteger attempts = new AtomicInteger();
+        Callable<Void> failing = new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                attempts.incrementAndGet();
+                throw new TException("mapping rejected");
+            }
+        };
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.ensureMapping("type", failing);
+                fail("set up should have failed");
+            } catch (TException e) {
+                assertEquals("mapping rejected", e.getMessage());
+            }
+        }
+        assertEquals(2, attempts.get());
+        assertFalse(cache.contains("type"));
+        assertEquals(2, cache.stats().loadExceptionCount());
+    }
+
+    @Test
+    public void testInvalidatedTypeIsSetUpAgain() throws Exception {
+        TypeMappingCache cache = new TypeMappingCache(10);
+        final AtomicInteger setups = new AtomicInteger();
+        Callable<Void> setup = new Callable<Void>() {
+            @Override
+            public Void call() {
+                setups.incrementAndGet();
+                return null;
+            }
+        };
+
+        cache.ensureMapping("type", setup);
+        cache.ensureMapping("type", setup);
+        assertEquals(1, setups.get());
+        assertTrue(cache.contains("type"));
+
+        cache.invalidate("type");
+        assertFalse(cache.contains("type"));
+        cache.ensureMapping("type", setup);
+        assertEquals(2, setups.get());
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+}
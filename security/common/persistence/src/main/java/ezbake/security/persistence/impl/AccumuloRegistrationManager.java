@@ -30,6 +30,7 @@ import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Mutation;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.user.WholeRowIterator;
 import org.apache.accumulo.core.security.Authorizations;
 import org.apache.accumulo.core.security.ColumnVisibility;
 import org.apache.hadoop.io.Text;
@@ -53,10 +54,23 @@ public class AccumuloRegistrationManager implements RegistrationManager {
     private static Logger log = LoggerFactory.getLogger(AccumuloRegistrationManager.class);
     public static final String LOOKUP_TABLE = "ezsecurity_lookup";
     public static final String REG_TABLE = "ezsecurity_reg";
+    public static final String PAGE_SIZE = "ezsecurity.registrations.page.size";
+
+    /**
+     * Receives the registrations listed by {@link #all(String[], String, RegistrationStatus, PageHandler)} a page at a
+     * time
+     */
+    public interface PageHandler {
+        /**
+         * @return false to stop listing registrations
+         */
+        boolean onPage(List<AppPersistenceModel> page) throws RegistrationException;
+    }
 
     private Properties configuration;
     private String visibilityToken;
     private String[] scanAuthorizations;
+    private int pageSize;
 
     @Inject
     public AccumuloRegistrationManager(Properties ezConfiguration) throws AccumuloException, AccumuloSecurityException {
@@ -65,6 +79,7 @@ public class AccumuloRegistrationManager implements RegistrationManager {
     public AccumuloRegistrationManager(Properties ezConfiguration, String table) throws AccumuloException, AccumuloSecurityException {
         this.configuration = ezConfiguration;
         this.scanAuthorizations = ezConfiguration.getProperty("ezsecurity.auths", "U").split(",");
+        this.pageSize = Math.max(Integer.parseInt(ezConfiguration.getProperty(PAGE_SIZE, "100")), 1);
 
         authParser(this.scanAuthorizations);
         try {
@@ -320,16 +335,37 @@ public class AccumuloRegistrationManager implements RegistrationManager {
     public List<AppPersistenceModel> all(String[] auths,
                                                       String owner,
                                                       RegistrationStatus status) throws RegistrationException {
-        List<AppPersistenceModel> registrations = new ArrayList<AppPersistenceModel>();
+        final List<AppPersistenceModel> registrations = new ArrayList<AppPersistenceModel>();
+        all(auths, owner, status, new PageHandler() {
+            @Override
+            public boolean onPage(List<AppPersistenceModel> page) {
+                registrations.addAll(page);
+                return true;
+            }
+        });
+        return registrations;
+    }
 
-        Map<Text, List<Map.Entry<Key, Value>>> rows = new HashMap<Text, List<Map.Entry<Key, Value>>>();
+    /**
+     * List the registrations a page at a time.  The registration rows are put together on the tablet servers, and
+     * when listing by status without an owner, the rows are also filtered by status there, instead of looking the ids
+     * up in the lookup table first.  Only a page of registrations is held at once.
+     *
+     * @param auths accumulo scan auths
+     * @param owner only list the registrations this user owns or administers, all registrations if null
+     * @param status only list the registrations with this status, any status if null
+     * @param handler receives the registrations
+     * @throws RegistrationException
+     */
+    public void all(String[] auths, String owner, RegistrationStatus status, PageHandler handler)
+            throws RegistrationException {
+        ScannerBase scanIter = null;
         try {
             Connector connector = new AccumuloHelper(configuration).getConnector();
-            ScannerBase scanIter;
 
-            List<Range> idsToScanFor = new ArrayList<Range>();
             if (owner != null && !owner.isEmpty()) {
                 // Lookup the users rows first
+                List<Range> idsToScanFor = new ArrayList<Range>();
                 Scanner scanner = connector.createScanner(LOOKUP_TABLE, new Authorizations(auths));
                 scanner.setRange(new Range(owner));
                 if (status != null) {
@@ -341,54 +377,49 @@ public class AccumuloRegistrationManager implements RegistrationManager {
                     idsToScanFor.add(new Range(new Text(id)));
                 }
                 scanner.close();
-                // return empty list if there are no ids to scan for
+                // nothing to list if there are no ids to scan for
                 if (idsToScanFor.isEmpty()) {
-                    return Collections.emptyList();
-                }
-                BatchScanner bs = connector.createBatchScanner(REG_TABLE, new Authorizations(auths), 4);
-                bs.setRanges(idsToScanFor);
-                scanIter = bs;
-            } else if (status != null) {
-                Scanner scanner = connector.createScanner(LOOKUP_TABLE, new Authorizations(auths));
-                scanner.setRange(new Range(status.toString()));
-                for (Map.Entry<Key, Value> entry : scanner) {
-                    log.debug("Adding id to status query: {}", entry.getKey().getColumnFamily());
-                    idsToScanFor.add(new Range(entry.getKey().getColumnFamily()));
-                }
-                scanner.close();
-                // return empty list if there are no ids to scan for
-                if (idsToScanFor.isEmpty()) {
-                    return Collections.emptyList();
+                    return;
                 }
                 BatchScanner bs = connector.createBatchScanner(REG_TABLE, new Authorizations(auths), 4);
                 bs.setRanges(idsToScanFor);
                 scanIter = bs;
             } else {
-                scanIter = connector.createScanner(REG_TABLE, new Authorizations(auths));
+                Scanner scanner = connector.createScanner(REG_TABLE, new Authorizations(auths));
+                scanner.setBatchSize(pageSize);
+                if (status != null) {
+                    IteratorSetting statusFilter = new IteratorSetting(20, "registrationStatus",
+                            RegistrationStatusFilter.class);
+                    RegistrationStatusFilter.setStatus(statusFilter, status);
+                    scanner.addScanIterator(statusFilter);
+                }
+                scanIter = scanner;
             }
+            scanIter.addScanIterator(new IteratorSetting(21, "registrationRows", WholeRowIterator.class));
 
-            // run over the scanner, collecting the rows by ID
-            for (Map.Entry<Key, Value> entry : scanIter) {
+            // build the registrations as their rows come in, handing them over a page at a time
+            List<AppPersistenceModel> page = new ArrayList<AppPersistenceModel>(pageSize);
+            for (Map.Entry<Key, Value> row : scanIter) {
                 // Don't return reserved certs
-                if (SecurityID.ReservedSecurityId.isReserved(entry.getKey().getRow().toString())) {
+                if (SecurityID.ReservedSecurityId.isReserved(row.getKey().getRow().toString())) {
                     continue;
                 }
-                List<Map.Entry<Key, Value>> row = rows.get(entry.getKey().getRow());
-                if (row == null) {
-                    row = new ArrayList<Map.Entry<Key, Value>>();
-                }
-                row.add(entry);
-                rows.put(entry.getKey().getRow(), row);
-            }
-            scanIter.close();
-
-            // now that the rows are collected by ID, build the objects
-            for (List<Map.Entry<Key, Value>> entry : rows.values()) {
                 try {
-                    registrations.add(AppPersistenceModel.fromRows(entry));
+                    page.add(AppPersistenceModel.fromRows(
+                            new ArrayList<Map.Entry<Key, Value>>(
+                                    WholeRowIterator.decodeRow(row.getKey(), row.getValue()).entrySet())));
                 } catch (AppPersistCryptoException e) {
                     log.error("Failed decrypting private key {}", e.getMessage());
                 }
+                if (page.size() == pageSize) {
+                    if (!handler.onPage(page)) {
+                        return;
+                    }
+                    page = new ArrayList<AppPersistenceModel>(pageSize);
+                }
+            }
+            if (!page.isEmpty()) {
+                handler.onPage(page);
             }
         } catch (TableNotFoundException e) {
             log.error("Error: Accumulo Misconfigured - table is not found " + e);
@@ -396,9 +427,11 @@ public class AccumuloRegistrationManager implements RegistrationManager {
         } catch (IOException e) {
             log.error("Error: IOException " + e);
             throw new RegistrationException("Error: IOException " + e);
+        } finally {
+            if (scanIter != null) {
+                scanIter.close();
+            }
         }
-
-        return registrations;
     }
 
     protected List<Map.Entry<Key, Value>> getApplicationRow(String[] auths, String id, RegistrationStatus status) throws RegistrationException, SecurityIDNotFoundException {
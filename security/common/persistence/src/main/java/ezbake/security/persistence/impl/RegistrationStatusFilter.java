@@ -0,0 +1,72 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.security.persistence.impl;
+
+import ezbake.security.persistence.model.AppPersistenceModel;
+import ezbake.security.thrift.RegistrationStatus;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.user.RowFilter;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Keeps the registration rows with the given status, so listing registrations by status doesn't have to look their
+ * ids up in the lookup table first.  Runs on the tablet servers, so this jar has to be on their classpath.
+ */
+public class RegistrationStatusFilter extends RowFilter {
+    public static final String STATUS_OPTION = "status";
+
+    private static final String STATUS_COLUMN = AppPersistenceModel.APP_REG_FIELDS.STATUS.getValue();
+
+    private String status;
+
+    public static void setStatus(IteratorSetting setting, RegistrationStatus status) {
+        setting.addOption(STATUS_OPTION, status.toString());
+    }
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env)
+            throws IOException {
+        super.init(source, options, env);
+        status = options.get(STATUS_OPTION);
+        if (status == null) {
+            throw new IllegalArgumentException(STATUS_OPTION + " option is required");
+        }
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env) {
+        RegistrationStatusFilter copy = (RegistrationStatusFilter) super.deepCopy(env);
+        copy.status = status;
+        return copy;
+    }
+
+    @Override
+    public boolean acceptRow(SortedKeyValueIterator<Key, Value> rowIterator) throws IOException {
+        while (rowIterator.hasTop()) {
+            if (STATUS_COLUMN.equals(rowIterator.getTopKey().getColumnFamily().toString())) {
+                return status.equals(rowIterator.getTopValue().toString());
+            }
+            rowIterator.next();
+        }
+        return false;
+    }
+}
@@ -0,0 +1,190 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.security.persistence.impl;
+
+import com.google.common.collect.Sets;
+import ezbake.configuration.ClasspathConfigurationLoader;
+import ezbake.configuration.EzConfiguration;
+import ezbake.security.persistence.model.AppPersistenceModel;
+import ezbake.security.thrift.RegistrationException;
+import ezbake.security.thrift.RegistrationStatus;
+import ezbakehelpers.accumulo.AccumuloHelper;
+import org.apache.accumulo.core.client.BatchScanner;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.MultiTableBatchWriter;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.hadoop.io.Text;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Lists a large number of synthetic registrations, comparing the paged listing with looking the ids up first and
+ * buffering every row, the way the registrations used to be listed.  The number of registrations can be set with
+ * the registration.benchmark.size system property.
+ */
+public class RegistrationListingTest {
+    private static final Logger logger = LoggerFactory.getLogger(RegistrationListingTest.class);
+    private static final int REGISTRATIONS = Integer.getInteger("registration.benchmark.size", 10000);
+    private static final String[] AUTHS = new String[] {"all", "pending"};
+
+    private Properties ezConfiguration;
+    private Connector connector;
+    private AccumuloRegistrationManager reg;
+
+    @Before
+    public void setUp() throws Exception {
+        ezConfiguration = new EzConfiguration(new ClasspathConfigurationLoader()).getProperties();
+        ezConfiguration.setProperty(AccumuloRegistrationManager.PAGE_SIZE, "500");
+        reg = new AccumuloRegistrationManager(ezConfiguration, AccumuloRegistrationManager.REG_TABLE);
+        connector = new AccumuloHelper(ezConfiguration).getConnector();
+
+        MultiTableBatchWriter writer = connector.createMultiTableBatchWriter(1000000L, 1000L, 10);
+        for (int i = 0; i < REGISTRATIONS; i++) {
+            AppPersistenceModel model = new AppPersistenceModel();
+            model.setId(String.format("5%07d", i));
+            model.setOwner("Owner" + i % 100);
+            model.setAppName("App" + i);
+            model.setAuthorizationLevel("low");
+            model.setFormalAuthorizations(Arrays.asList("X", "Y", "Z"));
+            model.setAdmins(Sets.newHashSet("Admin" + i % 10));
+            model.setAppDn("App Dn " + i);
+            model.setStatus(i % 4 == 0 ? RegistrationStatus.ACTIVE : RegistrationStatus.PENDING);
+            writer.getBatchWriter(AccumuloRegistrationManager.REG_TABLE).addMutations(model.getObjectMutations());
+            writer.getBatchWriter(AccumuloRegistrationManager.LOOKUP_TABLE).addMutations(model.getLookupMutations());
+        }
+        writer.close();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connector.tableOperations().delete(AccumuloRegistrationManager.REG_TABLE);
+        connector.tableOperations().delete(AccumuloRegistrationManager.LOOKUP_TABLE);
+    }
+
+    @Test
+    public void testListAll() throws Exception {
+        long start = System.currentTimeMillis();
+        List<AppPersistenceModel> registrations = reg.all(AUTHS, null, null);
+        long pagedMillis = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        int buffered = listBuffered(null);
+        long bufferedMillis = System.currentTimeMillis() - start;
+
+        logger.info("Listed {} registrations in {} ms paged, {} ms buffered", REGISTRATIONS, pagedMillis,
+                bufferedMillis);
+        Assert.assertEquals(REGISTRATIONS, registrations.size());
+        Assert.assertEquals(REGISTRATIONS, buffered);
+    }
+
+    @Test
+    public void testListByStatus() throws Exception {
+        long start = System.currentTimeMillis();
+        List<AppPersistenceModel> registrations = reg.all(AUTHS, null, RegistrationStatus.ACTIVE);
+        long pagedMillis = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        int buffered = listBuffered(RegistrationStatus.ACTIVE);
+        long bufferedMillis = System.currentTimeMillis() - start;
+
+        logger.info("Listed {} active registrations in {} ms filtered on the server, {} ms through the lookup table",
+                registrations.size(), pagedMillis, bufferedMillis);
+        Assert.assertEquals(REGISTRATIONS / 4, registrations.size());
+        Assert.assertEquals(REGISTRATIONS / 4, buffered);
+        for (AppPersistenceModel registration : registrations) {
+            Assert.assertEquals(RegistrationStatus.ACTIVE, registration.getStatus());
+        }
+    }
+
+    @Test
+    public void testListByOwner() throws RegistrationException {
+        List<AppPersistenceModel> registrations = reg.all(AUTHS, "Owner7", RegistrationStatus.PENDING);
+
+        Assert.assertEquals(REGISTRATIONS / 100, registrations.size());
+        for (AppPersistenceModel registration : registrations) {
+            Assert.assertEquals("Owner7", registration.getOwner());
+            Assert.assertEquals(RegistrationStatus.PENDING, registration.getStatus());
+        }
+    }
+
+    @Test
+    public void testPagesStopWhenHandlerIsDone() throws RegistrationException {
+        final List<Integer> pages = new ArrayList<Integer>();
+        long start = System.currentTimeMillis();
+        reg.all(AUTHS, null, null, new AccumuloRegistrationManager.PageHandler() {
+            @Override
+            public boolean onPage(List<AppPersistenceModel> page) {
+                pages.add(page.size());
+                return pages.size() < 2;
+            }
+        });
+
+        logger.info("Listed the first 2 pages of registrations in {} ms", System.currentTimeMillis() - start);
+        Assert.assertEquals(Arrays.asList(500, 500), pages);
+    }
+
+    /**
+     * Look the ids up, then buffer every row before building the registrations
+     */
+    private int listBuffered(RegistrationStatus status) throws Exception {
+        Authorizations auths = new Authorizations(AUTHS);
+        Map<Text, List<Map.Entry<Key, Value>>> rows = new HashMap<Text, List<Map.Entry<Key, Value>>>();
+        BatchScanner bs = connector.createBatchScanner(AccumuloRegistrationManager.REG_TABLE, auths, 4);
+        if (status != null) {
+            List<Range> ids = new ArrayList<Range>();
+            Scanner scanner = connector.createScanner(AccumuloRegistrationManager.LOOKUP_TABLE, auths);
+            scanner.setRange(new Range(status.toString()));
+            for (Map.Entry<Key, Value> entry : scanner) {
+                ids.add(new Range(entry.getKey().getColumnFamily()));
+            }
+            bs.setRanges(ids);
+        } else {
+            bs.setRanges(Arrays.asList(new Range()));
+        }
+        for (Map.Entry<Key, Value> entry : bs) {
+            List<Map.Entry<Key, Value>> row = rows.get(entry.getKey().getRow());
+            if (row == null) {
+                row = new ArrayList<Map.Entry<Key, Value>>();
+                rows.put(entry.getKey().getRow(), row);
+            }
+            row.add(entry);
+        }
+        bs.close();
+
+        int registrations = 0;
+        for (List<Map.Entry<Key, Value>> row : rows.values()) {
+            if (AppPersistenceModel.fromRows(row) != null) {
+                registrations++;
+            }
+        }
+        return registrations;
+    }
+}
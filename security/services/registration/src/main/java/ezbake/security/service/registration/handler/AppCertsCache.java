@@ -0,0 +1,247 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.security.service.registration.handler;
+
+import com.google.common.base.Joiner;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import ezbake.common.properties.EzProperties;
+import ezbake.security.persistence.model.AppPersistenceModel;
+import ezbake.security.thrift.AppCerts;
+import ezbake.thrift.ThriftUtils;
+import org.apache.thrift.TException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches what getAppCerts assembles, so fetching the certificates of many applications at once doesn't scan the
+ * registration tables for every one of them.  Two things are cached, by security id and the authorizations they were
+ * read with:
+ * <ul>
+ *     <li>the CA and EzSecurity registrations, with only the public certificate and key kept</li>
+ *     <li>the AppCerts of applications, encrypted with a key that only lives in this process</li>
+ * </ul>
+ * Changing a registration invalidates its entries, and changing the CA or EzSecurity registration invalidates
+ * everything.  The cache is versioned: entries are stored with the version the cache had before they were read, and
+ * are dropped again if a registration changed while they were being read.  Registrations changed through another
+ * instance of the service are picked up once the entries expire.
+ */
+public class AppCertsCache {
+    private static final Logger log = LoggerFactory.getLogger(AppCertsCache.class);
+
+    public static final String CACHE_TTL_MILLIS = "ezbake.security.registration.certs.cache.ttl.ms";
+    public static final String CACHE_SIZE = "ezbake.security.registration.certs.cache.size";
+
+    private static final String CIPHER = "AES/CBC/PKCS5Padding";
+    private static final int IV_LENGTH = 16;
+
+    private final Cache<String, byte[]> appCerts;
+    private final Cache<String, AppPersistenceModel> reserved;
+    private final String[] reservedIds;
+    private final AtomicLong version = new AtomicLong();
+    private final SecretKey key;
+    private final SecureRandom random = new SecureRandom();
+
+    private final AtomicLong appCertsHits = new AtomicLong();
+    private final AtomicLong appCertsMisses = new AtomicLong();
+    private final AtomicLong reservedHits = new AtomicLong();
+    private final AtomicLong reservedMisses = new AtomicLong();
+
+    /**
+     * @param reservedIds - ids of the registrations every AppCerts is built from, changing one invalidates everything
+     */
+    public AppCertsCache(EzProperties configuration, String... reservedIds) {
+        long ttl = configuration.getLong(CACHE_TTL_MILLIS, 5 * 60 * 1000);
+        int size = configuration.getInteger(CACHE_SIZE, 1000);
+        this.appCerts = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+                .maximumSize(size)
+                .build();
+        this.reserved = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+                .build();
+        this.reservedIds = reservedIds;
+        try {
+            KeyGenerator generator = KeyGenerator.getInstance("AES");
+            generator.init(128, random);
+            this.key = generator.generateKey();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to create the certificate cache key", e);
+        }
+    }
+
+    /**
+     * @return the current version, read it before reading the registrations that are put in the cache
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * @return the cached certificates, or null if they aren't cached
+     */
+    public AppCerts getAppCerts(String id, String[] auths) {
+        byte[] encrypted = appCerts.getIfPresent(key(id, auths));
+        if (encrypted == null) {
+            appCertsMisses.incrementAndGet();
+            return null;
+        }
+        try {
+            AppCerts certs = ThriftUtils.deserialize(AppCerts.class, crypt(Cipher.DECRYPT_MODE, encrypted));
+            appCertsHits.incrementAndGet();
+            return certs;
+        } catch (TException | GeneralSecurityException e) {
+            log.warn("Unable to read the cached certificates of {}, reading them again", id, e);
+            appCerts.invalidate(key(id, auths));
+            appCertsMisses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * @param readVersion - version of the cache before the registrations the certificates were built from were read
+     */
+    public void putAppCerts(String id, String[] auths, AppCerts certs, long readVersion) {
+        String key = key(id, auths);
+        try {
+            appCerts.put(key, crypt(Cipher.ENCRYPT_MODE, ThriftUtils.serialize(certs)));
+        } catch (TException | GeneralSecurityException e) {
+            log.warn("Unable to cache the certificates of {}", id, e);
+            return;
+        }
+        if (version.get() != readVersion) {
+            appCerts.invalidate(key);
+        }
+    }
+
+    /**
+     * @return the cached CA or EzSecurity registration, or null if it isn't cached
+     */
+    public AppPersistenceModel getReserved(String id, String[] auths) {
+        AppPersistenceModel registration = reserved.getIfPresent(key(id, auths));
+        if (registration == null) {
+            reservedMisses.incrementAndGet();
+        } else {
+            reservedHits.incrementAndGet();
+        }
+        return registration;
+    }
+
+    /**
+     * Cache the public parts of a CA or EzSecurity registration
+     *
+     * @param readVersion - version of the cache before the registration was read
+     * @return the registration that was cached, without its private key
+     */
+    public AppPersistenceModel putReserved(String id, String[] auths, AppPersistenceModel registration,
+                                           long readVersion) {
+        AppPersistenceModel publicOnly = new AppPersistenceModel();
+        publicOnly.setId(registration.getId());
+        publicOnly.setAppName(registration.getAppName());
+        publicOnly.setStatus(registration.getStatus());
+        publicOnly.setX509Cert(registration.getX509Cert());
+        publicOnly.setPublicKey(registration.getPublicKey());
+
+        String key = key(id, auths);
+        reserved.put(key, publicOnly);
+        if (version.get() != readVersion) {
+            reserved.invalidate(key);
+        }
+        return publicOnly;
+    }
+
+    /**
+     * The registration changed, drop what was cached for it
+     */
+    public void invalidate(String id) {
+        version.incrementAndGet();
+        if (Arrays.asList(reservedIds).contains(id)) {
+            log.info("Registration {} changed, dropping all cached certificates", id);
+            appCerts.invalidateAll();
+            reserved.invalidateAll();
+            return;
+        }
+        String prefix = id + "\0";
+        for (String key : appCerts.asMap().keySet()) {
+            if (key.startsWith(prefix)) {
+                appCerts.invalidate(key);
+            }
+        }
+    }
+
+    public double getAppCertsHitRate() {
+        return hitRate(appCertsHits.get(), appCertsMisses.get());
+    }
+
+    public double getReservedHitRate() {
+        return hitRate(reservedHits.get(), reservedMisses.get());
+    }
+
+    public long getAppCertsHits() {
+        return appCertsHits.get();
+    }
+
+    public long getAppCertsMisses() {
+        return appCertsMisses.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("version %d, app certs %d cached, %d hits, %d misses (%.2f), " +
+                        "CA/EzSecurity %d hits, %d misses (%.2f)", version.get(), appCerts.size(),
+                appCertsHits.get(), appCertsMisses.get(), getAppCertsHitRate(), reservedHits.get(),
+                reservedMisses.get(), getReservedHitRate());
+    }
+
+    private static double hitRate(long hits, long misses) {
+        long requests = hits + misses;
+        return requests == 0 ? 1.0 : (double) hits / requests;
+    }
+
+    private static String key(String id, String[] auths) {
+        String[] sorted = Arrays.copyOf(auths, auths.length);
+        Arrays.sort(sorted);
+        return id + "\0" + Joiner.on(',').join(sorted);
+    }
+
+    /**
+     * Encrypted entries are the IV followed by the cipher text
+     */
+    private byte[] crypt(int mode, byte[] data) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(CIPHER);
+        if (mode == Cipher.ENCRYPT_MODE) {
+            byte[] iv = new byte[IV_LENGTH];
+            random.nextBytes(iv);
+            cipher.init(mode, key, new IvParameterSpec(iv));
+            byte[] encrypted = cipher.doFinal(data);
+            byte[] entry = Arrays.copyOf(iv, IV_LENGTH + encrypted.length);
+            System.arraycopy(encrypted, 0, entry, IV_LENGTH, encrypted.length);
+            return entry;
+        }
+        cipher.init(mode, key, new IvParameterSpec(data, 0, IV_LENGTH));
+        return cipher.doFinal(data, IV_LENGTH, data.length - IV_LENGTH);
+    }
+}
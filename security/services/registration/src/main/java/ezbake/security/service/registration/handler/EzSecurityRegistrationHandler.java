@@ -80,6 +80,7 @@ public class EzSecurityRegistrationHandler extends EzBakeBaseThriftService imple
     private EzbakeSecurityClient securityClient;
     private ThriftClientPool clientPool;
     private String passphrase;
+    private AppCertsCache certsCache;
     
     private boolean encryptPk;
     /**
@@ -100,6 +101,7 @@ public class EzSecurityRegistrationHandler extends EzBakeBaseThriftService imple
         securityClient = new EzbakeSecurityClient(ezConfiguration);
         this.passphrase = calculatePassphrase(getCrypto(properties));
         this.encryptPk = Boolean.parseBoolean(properties.getProperty(SECURITY_ENCRYPT));
+        this.certsCache = createCertsCache(ezConfiguration);
     }
 
     @Inject
@@ -110,6 +112,7 @@ public class EzSecurityRegistrationHandler extends EzBakeBaseThriftService imple
         this.securityClient = new EzbakeSecurityClient(configuration, clientPool);
         this.passphrase = calculatePassphrase(getCrypto(configuration));
         this.encryptPk = Boolean.parseBoolean(configuration.getProperty(SECURITY_ENCRYPT));
+        this.certsCache = createCertsCache(ezConfiguration);
     }
 
 
@@ -222,6 +225,9 @@ public class EzSecurityRegistrationHandler extends EzBakeBaseThriftService imple
             event.failed();
             throw e;
         }  finally {
+            if (id != null) {
+                certsCache.invalidate(id);
+            }
             auditLogger.logEvent(event);
         }
 
@@ -296,6 +302,7 @@ public class EzSecurityRegistrationHandler extends EzBakeBaseThriftService imple
             log.error("Exception encrypting the app private key", e);
             throw new RegistrationException("Unable to encrypt the application private key");
         } finally {
+            certsCache.invalidate(id);
             auditLogger.logEvent(eventCert);
             clientPool.returnToPool(client);
         }
@@ -317,6 +324,7 @@ public class EzSecurityRegistrationHandler extends EzBakeBaseThriftService imple
             throw e;
         }
         finally {
+            certsCache.invalidate(appReg.id);
             auditLogger.logEvent(event);
         }
     }
@@ -339,6 +347,7 @@ public class EzSecurityRegistrationHandler extends EzBakeBaseThriftService imple
             throw e;
         }
         finally {
+            certsCache.invalidate(id);
             auditLogger.logEvent(event);
         }
     }
@@ -381,6 +390,7 @@ public class EzSecurityRegistrationHandler extends EzBakeBaseThriftService imple
             throw e;
         }
         finally {
+            certsCache.invalidate(id);
             auditLogger.logEvent(eventDelete);
         }
         
@@ -401,6 +411,7 @@ public class EzSecurityRegistrationHandler extends EzBakeBaseThriftService imple
             
         }
         finally {
+            certsCache.invalidate(id);
             auditLogger.logEvent(event);
         }
     }
@@ -539,9 +550,19 @@ public class EzSecurityRegistrationHandler extends EzBakeBaseThriftService imple
         log.info("getAppSecurityInfo - requester: {},  info for: {}", ezToken.getValidity().getIssuedTo(), id);
         validatePrivilegedPeer(ezToken, new EzX509());
         AuditEvent event = AuditEvent.event(AuditEventType.FileObjectAccess.name(), ezToken).arg("", id);
+        String[] auths = authsFromToken(ezToken);
+
+        // Read the version before the registrations, so certificates built from changed registrations aren't cached
+        long cacheVersion = certsCache.getVersion();
+        AppCerts certs = certsCache.getAppCerts(id, auths);
+        if (certs != null) {
+            log.debug("getAppCerts - returning cached certificates for {}, cache: {}", id, certsCache);
+            auditLogger.logEvent(event);
+            return certs;
+        }
         
         // Get actual application things
-        AppPersistenceModel app = regManager.getRegistration(authsFromToken(ezToken), id, null, RegistrationStatus.ACTIVE);
+        AppPersistenceModel app = regManager.getRegistration(auths, id, null, RegistrationStatus.ACTIVE);
         AppPersistenceModel ca;
         AppPersistenceModel ezSec;
         
@@ -556,25 +577,8 @@ public class EzSecurityRegistrationHandler extends EzBakeBaseThriftService imple
                 app.setPasscode(this.passphrase);
             }
 
-            
-            try {
-                ca = regManager.getRegistration(authsFromToken(ezToken),
-                        SecurityID.ReservedSecurityId.CA.getCn(), null, null);
-            } catch (SecurityIDNotFoundException e ){
-                // Try looking up by old style id
-                ca = regManager.getRegistration(authsFromToken(ezToken),
-                        SecurityID.ReservedSecurityId.CA.getId(), null, null);
-            }
-
-            
-            try {
-                ezSec = regManager.getRegistration(authsFromToken(ezToken),
-                        SecurityID.ReservedSecurityId.EzSecurity.getCn(), null, null);
-            } catch (SecurityIDNotFoundException e) {
-                // Try looking up by old style id
-                ezSec = regManager.getRegistration(authsFromToken(ezToken),
-                        SecurityID.ReservedSecurityId.EzSecurity.getId(), null, null);
-            }
+            ca = getReservedRegistration(auths, SecurityID.ReservedSecurityId.CA, cacheVersion);
+            ezSec = getReservedRegistration(auths, SecurityID.ReservedSecurityId.EzSecurity, cacheVersion);
         }
         catch(Exception e) {
             event.failed();
@@ -585,11 +589,40 @@ public class EzSecurityRegistrationHandler extends EzBakeBaseThriftService imple
         }
 
         try {
-            return EzPersistUtil.getAppCerts(app, ca, ezSec);
+            certs = EzPersistUtil.getAppCerts(app, ca, ezSec);
         } catch (IOException e) {
             log.error("Failed loading App Certs", e);
             throw new RegistrationException("Failed to load App Certs - " + e.getMessage());
         }
+        certsCache.putAppCerts(id, auths, certs, cacheVersion);
+        log.debug("getAppCerts - cached certificates for {}, cache: {}", id, certsCache);
+        return certs;
+    }
+
+    /**
+     * @return the cache of getAppCerts, with its hit rates
+     */
+    public AppCertsCache getCertsCache() {
+        return certsCache;
+    }
+
+    /**
+     * Get the CA or EzSecurity registration from the cache, reading it if it isn't cached
+     */
+    private AppPersistenceModel getReservedRegistration(String[] auths, SecurityID.ReservedSecurityId reserved,
+                                                        long cacheVersion)
+            throws RegistrationException, SecurityIDNotFoundException {
+        AppPersistenceModel registration = certsCache.getReserved(reserved.getCn(), auths);
+        if (registration != null) {
+            return registration;
+        }
+        try {
+            registration = regManager.getRegistration(auths, reserved.getCn(), null, null);
+        } catch (SecurityIDNotFoundException e) {
+            // Try looking up by old style id
+            registration = regManager.getRegistration(auths, reserved.getId(), null, null);
+        }
+        return certsCache.putReserved(reserved.getCn(), auths, registration, cacheVersion);
     }
 
     /**
@@ -718,6 +751,12 @@ public class EzSecurityRegistrationHandler extends EzBakeBaseThriftService imple
 	    return Base64.encodeBase64String(signedData);
 	}
 
+    private static AppCertsCache createCertsCache(EzProperties configuration) {
+        return new AppCertsCache(configuration,
+                SecurityID.ReservedSecurityId.CA.getCn(), SecurityID.ReservedSecurityId.CA.getId(),
+                SecurityID.ReservedSecurityId.EzSecurity.getCn(), SecurityID.ReservedSecurityId.EzSecurity.getId());
+    }
+
     private static PKeyCrypto getCrypto(Properties configuration) throws IOException {
         PKeyCrypto crypto;
         switch (configuration.getProperty(PKEY_MODE, "")) {
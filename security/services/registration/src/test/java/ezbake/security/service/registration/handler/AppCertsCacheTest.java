@@ -0,0 +1,115 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.security.service.registration.handler;
+
+import ezbake.common.properties.EzProperties;
+import ezbake.security.persistence.model.AppPersistCryptoException;
+import ezbake.security.persistence.model.AppPersistenceModel;
+import ezbake.security.thrift.AppCerts;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Properties;
+
+public class AppCertsCacheTest {
+    private static final String[] AUTHS = new String[]{"U", "FOUO"};
+
+    private AppCertsCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new AppCertsCache(new EzProperties(new Properties(), true), "_Ez_CA", "_Ez_Security");
+    }
+
+    @Test
+    public void testCachedCertsAreReturned() {
+        Assert.assertNull(cache.getAppCerts("1234", AUTHS));
+        cache.putAppCerts("1234", AUTHS, certs("1234"), cache.getVersion());
+
+        Assert.assertEquals(certs("1234"), cache.getAppCerts("1234", new String[]{"FOUO", "U"}));
+        Assert.assertNull("Certs are cached per authorizations", cache.getAppCerts("1234", new String[]{"U"}));
+        Assert.assertEquals(1, cache.getAppCertsHits());
+        Assert.assertEquals(2, cache.getAppCertsMisses());
+        Assert.assertEquals(1.0 / 3, cache.getAppCertsHitRate(), 0.001);
+    }
+
+    @Test
+    public void testInvalidateDropsOnlyThatApplication() {
+        cache.putAppCerts("1234", AUTHS, certs("1234"), cache.getVersion());
+        cache.putAppCerts("5678", AUTHS, certs("5678"), cache.getVersion());
+
+        cache.invalidate("1234");
+
+        Assert.assertNull(cache.getAppCerts("1234", AUTHS));
+        Assert.assertEquals(certs("5678"), cache.getAppCerts("5678", AUTHS));
+    }
+
+    @Test
+    public void testInvalidateReservedDropsEverything() {
+        long version = cache.getVersion();
+        cache.putAppCerts("1234", AUTHS, certs("1234"), version);
+        cache.putReserved("_Ez_CA", AUTHS, registration("_Ez_CA"), version);
+
+        cache.invalidate("_Ez_CA");
+
+        Assert.assertNull(cache.getAppCerts("1234", AUTHS));
+        Assert.assertNull(cache.getReserved("_Ez_CA", AUTHS));
+    }
+
+    @Test
+    public void testCertsReadBeforeAChangeAreNotCached() {
+        long version = cache.getVersion();
+        cache.invalidate("1234");
+        cache.putAppCerts("1234", AUTHS, certs("1234"), version);
+        cache.putReserved("_Ez_CA", AUTHS, registration("_Ez_CA"), version);
+
+        Assert.assertNull(cache.getAppCerts("1234", AUTHS));
+        Assert.assertNull(cache.getReserved("_Ez_CA", AUTHS));
+    }
+
+    @Test
+    public void testReservedKeepsOnlyPublicParts() throws AppPersistCryptoException {
+        AppPersistenceModel cached = cache.putReserved("_Ez_CA", AUTHS, registration("_Ez_CA"), cache.getVersion());
+
+        Assert.assertSame(cached, cache.getReserved("_Ez_CA", AUTHS));
+        Assert.assertEquals("cert", cached.getX509Cert());
+        Assert.assertEquals("public", cached.getPublicKey());
+        Assert.assertNull(cached.getPrivateKey());
+        Assert.assertEquals(1.0, cache.getReservedHitRate(), 0.001);
+    }
+
+    private static AppCerts certs(String id) {
+        AppCerts certs = new AppCerts();
+        certs.setApplication_crt(("crt " + id).getBytes());
+        certs.setApplication_priv(("private " + id).getBytes());
+        certs.setApplication_pub(("public " + id).getBytes());
+        return certs;
+    }
+
+    private static AppPersistenceModel registration(String id) {
+        AppPersistenceModel registration = new AppPersistenceModel();
+        registration.setId(id);
+        registration.setX509Cert("cert");
+        registration.setPublicKey("public");
+        try {
+            registration.setPrivateKey("private");
+        } catch (AppPersistCryptoException e) {
+            throw new IllegalStateException(e);
+        }
+        return registration;
+    }
+}
@@ -0,0 +1,108 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.security;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import ezbake.base.thrift.ProxyPrincipal;
+import ezbake.base.thrift.ProxyUserToken;
+import ezbake.base.thrift.X509Info;
+import ezbake.crypto.PKeyCryptoException;
+import ezbake.crypto.utils.EzSSL;
+import ezbake.security.client.EzbakeSecurityClient;
+import ezbake.security.common.core.EzSecurityTokenUtils;
+import ezbake.security.test.suite.common.load.LoadGenerator;
+import ezbake.security.test.suite.common.load.LoadReport;
+import ezbake.security.test.suite.common.load.OperationMix;
+import ezbake.security.test.suite.common.load.SecurityLoadTarget;
+import ezbake.thrift.ThriftClientPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the security load harness against a security service backed by local stand-ins: the file UA service, an
+ * embedded redis, mock accumulo and an in-process EzGroups.  The load can be changed with system properties, e.g.
+ * <pre>
+ * mvn verify -Dit.test=SecurityLoadIT -Dload.threads=16 -Dload.rate=200 -Dload.requests=10000
+ * </pre>
+ */
+public class SecurityLoadIT extends EzSecurityITBase {
+    private static final long PRINCIPAL_TTL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final String ADMIN = "Daenerys";
+
+    private ThriftClientPool clientPool;
+    private EzbakeSecurityClient securityClient;
+
+    @Before
+    public void setUpClient() {
+        EzbakeSecurityClient.clearCache();
+        clientPool = new ThriftClientPool(properties);
+        securityClient = new EzbakeSecurityClient(properties, clientPool);
+    }
+
+    @After
+    public void closeClient() {
+        clientPool.close();
+    }
+
+    @Test
+    public void coldAndWarm() throws Exception {
+        int threads = Integer.getInteger("load.threads", 4);
+        double rate = Double.parseDouble(System.getProperty("load.rate", "0"));
+        long requests = Long.getLong("load.requests", 500);
+        OperationMix mix = OperationMix.parse(System.getProperty("load.mix", "token:40,proxied:40,refresh:20"));
+        List<String> users = Lists.newArrayList(Splitter.on(',').trimResults().omitEmptyStrings()
+                .split(System.getProperty("load.users", "Hodor,Daenerys")));
+
+        SecurityLoadTarget target = new SecurityLoadTarget(clientPool, securityClient, null,
+                EzSSL.getCrypto(properties), App, users, PRINCIPAL_TTL_MILLIS, false) {
+            @Override
+            protected ProxyPrincipal fetchPrincipal(String user) throws IOException, PKeyCryptoException {
+                return signPrincipal(user);
+            }
+        };
+        target.prepare(mix);
+        LoadGenerator generator = new LoadGenerator(target, mix, threads, rate, 10000);
+
+        target.invalidateCaches(ADMIN);
+        LoadReport cold = generator.run("cold", 0, requests);
+        cold.print(System.out);
+        LoadReport warm = generator.run("warm", 0, requests);
+        warm.print(System.out);
+
+        assertEquals(0, cold.getErrors());
+        assertEquals(requests, cold.getCompleted());
+        assertEquals(0, warm.getErrors());
+        assertEquals(requests, warm.getCompleted());
+    }
+
+    /**
+     * Sign a principal as the EFE would, valid for longer than the harness reuses it for
+     */
+    private ProxyPrincipal signPrincipal(String user) throws IOException, PKeyCryptoException {
+        ProxyUserToken userToken = new ProxyUserToken(new X509Info(user), "EzSecurity", "EFE",
+                System.currentTimeMillis() + 2 * PRINCIPAL_TTL_MILLIS);
+        return new ProxyPrincipal(EzSecurityTokenUtils.serializeProxyUserTokenToJSON(userToken),
+                EzSecurityTokenUtils.proxyUserTokenSignature(userToken, serverCrypt));
+    }
+}
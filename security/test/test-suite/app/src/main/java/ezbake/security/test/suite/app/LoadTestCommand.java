@@ -0,0 +1,130 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.security.test.suite.app;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import ezbake.configuration.constants.EzBakePropertyConstants;
+import ezbake.crypto.PKeyCrypto;
+import ezbake.crypto.PKeyCryptoException;
+import ezbake.crypto.utils.EzSSL;
+import ezbake.security.client.EzbakeSecurityClient;
+import ezbake.security.test.suite.common.Command;
+import ezbake.security.test.suite.common.load.LoadGenerator;
+import ezbake.security.test.suite.common.load.LoadReport;
+import ezbake.security.test.suite.common.load.OperationMix;
+import ezbake.security.test.suite.common.load.SecurityLoadTarget;
+import ezbake.thrift.ThriftClientPool;
+import org.apache.thrift.TException;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of the security service.  Makes a mix of security service calls from a number of threads, either as fast
+ * as the service answers (closed loop) or at a fixed rate (open loop), and prints the latency percentiles of each
+ * phase.  A cold phase clears the service and client caches before it starts, a warm phase runs on whatever is
+ * cached.
+ */
+public class LoadTestCommand extends Command {
+    private static final Logger logger = LoggerFactory.getLogger(LoadTestCommand.class);
+
+    @Option(name="-t", aliases="--threads", usage="number of threads making requests")
+    public int threads = 4;
+
+    @Option(name="-r", aliases="--rate", usage="requests started per second, 0 for as fast as the service answers")
+    public double rate = 0;
+
+    @Option(name="-d", aliases="--duration", usage="seconds each phase runs for, 0 for no limit")
+    public long durationSeconds = 30;
+
+    @Option(name="-n", aliases="--requests", usage="requests each phase makes, 0 for no limit")
+    public long requests = 0;
+
+    @Option(name="-x", aliases="--mix", usage="weighted operations, from principal, token, proxied, refresh and auths")
+    public String mix = "token:40,proxied:40,refresh:10,auths:10";
+
+    @Option(name="-U", aliases="--users", usage="comma separated users to make the requests for, defaults to the user")
+    public String users;
+
+    @Option(name="-P", aliases="--phases", usage="comma separated phases to run, each of them cold or warm")
+    public String phases = "cold,warm";
+
+    @Option(name="-w", aliases="--warmup", usage="seconds of unreported load before the first warm phase")
+    public long warmupSeconds = 0;
+
+    @Option(name="--principal-ttl", usage="seconds a user's principal is reused for")
+    public long principalTtlSeconds = 60;
+
+    @Option(name="--skip-client-cache", usage="make the proxied requests skip the security client's token cache")
+    public boolean skipClientCache = false;
+
+    @Option(name="--max-backlog", usage="open loop requests waiting for a thread beyond which requests are dropped")
+    public int maxBacklog = 10000;
+
+    public LoadTestCommand() {}
+
+    public LoadTestCommand(Properties properties) {
+        super(properties);
+    }
+
+    @Override
+    public void runCommand() {
+        Properties appConfiguration = new Properties();
+        appConfiguration.putAll(configuration);
+        if (myPkiDir != null) {
+            appConfiguration.setProperty(EzBakePropertyConstants.EZBAKE_CERTIFICATES_DIRECTORY, myPkiDir);
+        }
+
+        ThriftClientPool clientPool = new ThriftClientPool(appConfiguration);
+        EzbakeSecurityClient securityClient = new EzbakeSecurityClient(appConfiguration, clientPool);
+        try {
+            OperationMix operationMix = OperationMix.parse(mix);
+            PKeyCrypto appCrypto = EzSSL.getCrypto(appConfiguration);
+            String securityId = appConfiguration.getProperty(EzBakePropertyConstants.EZBAKE_SECURITY_ID);
+
+            List<String> loadUsers = users == null ? Lists.newArrayList(user) :
+                    Lists.newArrayList(Splitter.on(',').trimResults().omitEmptyStrings().split(users));
+            SecurityLoadTarget target = new SecurityLoadTarget(clientPool, securityClient, getEfeCrypto(), appCrypto,
+                    securityId, loadUsers, TimeUnit.SECONDS.toMillis(principalTtlSeconds), skipClientCache);
+            target.prepare(operationMix);
+
+            LoadGenerator generator = new LoadGenerator(target, operationMix, threads, rate, maxBacklog);
+            boolean warmedUp = warmupSeconds <= 0;
+            for (String phase : Splitter.on(',').trimResults().omitEmptyStrings().split(phases)) {
+                if ("cold".equalsIgnoreCase(phase)) {
+                    target.invalidateCaches(user);
+                } else if (!"warm".equalsIgnoreCase(phase)) {
+                    throw new IllegalArgumentException("Unknown phase: " + phase);
+                } else if (!warmedUp) {
+                    LoadReport warmup = generator.run("warmup", TimeUnit.SECONDS.toMillis(warmupSeconds), 0);
+                    logger.info("Warm up made {} requests, {} errors", warmup.getCompleted(), warmup.getErrors());
+                    warmedUp = true;
+                }
+                generator.run(phase, TimeUnit.SECONDS.toMillis(durationSeconds), requests).print(System.out);
+            }
+        } catch (TException | IOException | PKeyCryptoException | InterruptedException e) {
+            e.printStackTrace();
+        } finally {
+            clientPool.close();
+        }
+    }
+}
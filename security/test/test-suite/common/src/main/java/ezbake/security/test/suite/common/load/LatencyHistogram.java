@@ -0,0 +1,183 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.security.test.suite.common.load;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram with the bucketing scheme of HdrHistogram: values are recorded with a fixed number of
+ * significant digits, whatever their magnitude, in a fixed amount of memory.  Values below 2 * 10^digits are
+ * recorded exactly, larger values are grouped into buckets that double in width.
+ * <p/>
+ * Recording is thread safe and lock free, so all the load threads record into the same histogram.  Values above the
+ * highest trackable value are recorded as the highest trackable value.
+ */
+public class LatencyHistogram {
+    private final long highestTrackableValue;
+    private final int significantDigits;
+    private final int subBucketBits;
+    private final int subBucketCount;
+    private final int subBucketHalfCount;
+    private final AtomicLongArray counts;
+
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalValue = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+    private final AtomicLong minValue = new AtomicLong(Long.MAX_VALUE);
+
+    /**
+     * @param highestTrackableValue - highest value the histogram distinguishes
+     * @param significantDigits     - number of significant decimal digits recorded, between 1 and 5
+     */
+    public LatencyHistogram(long highestTrackableValue, int significantDigits) {
+        if (significantDigits < 1 || significantDigits > 5) {
+            throw new IllegalArgumentException("significantDigits must be between 1 and 5: " + significantDigits);
+        }
+        this.significantDigits = significantDigits;
+        long largestExact = 2 * (long) Math.pow(10, significantDigits);
+        this.subBucketBits = 64 - Long.numberOfLeadingZeros(largestExact - 1);
+        this.subBucketCount = 1 << subBucketBits;
+        this.subBucketHalfCount = subBucketCount / 2;
+        this.highestTrackableValue = Math.max(highestTrackableValue, subBucketCount - 1);
+        this.counts = new AtomicLongArray(indexOf(this.highestTrackableValue) + 1);
+    }
+
+    public void recordValue(long value) {
+        long clamped = Math.min(Math.max(value, 0), highestTrackableValue);
+        counts.incrementAndGet(indexOf(clamped));
+        totalCount.incrementAndGet();
+        totalValue.addAndGet(clamped);
+        updateMax(clamped);
+        updateMin(clamped);
+    }
+
+    /**
+     * Add the values recorded by another histogram with the same layout
+     */
+    public void add(LatencyHistogram other) {
+        if (other.counts.length() != counts.length() || other.subBucketBits != subBucketBits) {
+            throw new IllegalArgumentException("Histograms have different layouts");
+        }
+        for (int i = 0; i < counts.length(); i++) {
+            long count = other.counts.get(i);
+            if (count != 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+        totalCount.addAndGet(other.getTotalCount());
+        totalValue.addAndGet(other.totalValue.get());
+        if (other.getTotalCount() > 0) {
+            updateMax(other.getMaxValue());
+            updateMin(other.getMinValue());
+        }
+    }
+
+    /**
+     * @return an empty histogram with the same layout as this one
+     */
+    public LatencyHistogram copyLayout() {
+        return new LatencyHistogram(highestTrackableValue, significantDigits);
+    }
+
+    public long getTotalCount() {
+        return totalCount.get();
+    }
+
+    public long getMaxValue() {
+        return maxValue.get();
+    }
+
+    public long getMinValue() {
+        return getTotalCount() == 0 ? 0 : minValue.get();
+    }
+
+    public double getMean() {
+        long count = getTotalCount();
+        return count == 0 ? 0 : (double) totalValue.get() / count;
+    }
+
+    /**
+     * @param percentile - percentile between 0 and 100
+     * @return the highest value equivalent to the value at the percentile, 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = getTotalCount();
+        if (count == 0) {
+            return 0;
+        }
+        double bounded = Math.min(Math.max(percentile, 0), 100);
+        long target = Math.max((long) Math.ceil(bounded / 100 * count), 1);
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestEquivalentValue(i), getMaxValue());
+            }
+        }
+        return getMaxValue();
+    }
+
+    /**
+     * Print the percentiles of the histogram, values are divided by the scale
+     */
+    public void outputPercentiles(PrintStream out, double scale, String unit) {
+        double[] percentiles = {50, 75, 90, 99, 99.9, 99.99, 100};
+        out.println(String.format("  count %d, min %.3f %s, mean %.3f %s", getTotalCount(), getMinValue() / scale,
+                unit, getMean() / scale, unit));
+        for (double percentile : percentiles) {
+            out.println(String.format("  p%-7s %12.3f %s", formatPercentile(percentile),
+                    getValueAtPercentile(percentile) / scale, unit));
+        }
+    }
+
+    int indexOf(long value) {
+        if (value < subBucketCount) {
+            return (int) value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - (subBucketBits - 1);
+        int subBucket = (int) (value >> shift);
+        return subBucketCount + (shift - 1) * subBucketHalfCount + (subBucket - subBucketHalfCount);
+    }
+
+    long highestEquivalentValue(int index) {
+        if (index < subBucketCount) {
+            return index;
+        }
+        int shift = (index - subBucketCount) / subBucketHalfCount + 1;
+        long subBucket = (index - subBucketCount) % subBucketHalfCount + subBucketHalfCount;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    private void updateMax(long value) {
+        long max = maxValue.get();
+        while (value > max && !maxValue.compareAndSet(max, value)) {
+            max = maxValue.get();
+        }
+    }
+
+    private void updateMin(long value) {
+        long min = minValue.get();
+        while (value < min && !minValue.compareAndSet(min, value)) {
+            min = minValue.get();
+        }
+    }
+
+    private static String formatPercentile(double percentile) {
+        return percentile == Math.rint(percentile) ? Long.toString((long) percentile) : Double.toString(percentile);
+    }
+}
@@ -0,0 +1,184 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.security.test.suite.common.load;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a mix of operations against a target from a pool of threads, in one of two modes:
+ * <ul>
+ *     <li>closed loop, with a rate of 0: every thread makes its next request as soon as the previous one returns, which
+ *     finds the throughput limit of the target</li>
+ *     <li>open loop: requests are started at a fixed rate whatever the target does.  Latency is measured from the time
+ *     a request was meant to start, so time spent queued behind a slow target counts, rather than being hidden by
+ *     the generator slowing down with it.</li>
+ * </ul>
+ * Latencies are recorded in microseconds.
+ */
+public class LoadGenerator {
+    private static final Logger logger = LoggerFactory.getLogger(LoadGenerator.class);
+
+    static final long HIGHEST_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(5);
+    static final int SIGNIFICANT_DIGITS = 3;
+    private static final int LOGGED_ERRORS = 10;
+
+    /**
+     * The system under load
+     */
+    public interface Target {
+        void execute(SecurityOperation operation) throws Exception;
+    }
+
+    private final Target target;
+    private final OperationMix mix;
+    private final int threads;
+    private final double ratePerSecond;
+    private final int maxBacklog;
+
+    /**
+     * @param threads       - number of threads making requests
+     * @param ratePerSecond - requests started per second in open loop mode, 0 for closed loop
+     * @param maxBacklog    - open loop requests waiting for a thread beyond which new ones are dropped, and counted
+     */
+    public LoadGenerator(Target target, OperationMix mix, int threads, double ratePerSecond, int maxBacklog) {
+        this.target = target;
+        this.mix = mix;
+        this.threads = Math.max(threads, 1);
+        this.ratePerSecond = Math.max(ratePerSecond, 0);
+        this.maxBacklog = Math.max(maxBacklog, 1);
+    }
+
+    /**
+     * Run a phase of load, until either the duration has passed or maxRequests have been made.  Blocks until the
+     * requests started by the phase have finished.
+     *
+     * @param phase          - name of the phase, for the report
+     * @param durationMillis - how long to make requests for, 0 for no limit
+     * @param maxRequests    - how many requests to make, 0 for no limit
+     */
+    public LoadReport run(String phase, long durationMillis, long maxRequests) throws InterruptedException {
+        if (durationMillis <= 0 && maxRequests <= 0) {
+            throw new IllegalArgumentException("Either a duration or a number of requests is needed");
+        }
+        Recorder recorder = new Recorder();
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("load-" + phase + "-%d").setDaemon(true).build());
+        long start = System.nanoTime();
+        long end = durationMillis > 0 ? start + TimeUnit.MILLISECONDS.toNanos(durationMillis) : Long.MAX_VALUE;
+        long limit = maxRequests > 0 ? maxRequests : Long.MAX_VALUE;
+        try {
+            if (ratePerSecond > 0) {
+                openLoop(executor, recorder, start, end, limit);
+            } else {
+                closedLoop(executor, recorder, end, limit);
+            }
+        } finally {
+            executor.shutdown();
+            if (!executor.awaitTermination(HIGHEST_LATENCY_MICROS, TimeUnit.MICROSECONDS)) {
+                logger.warn("Requests of phase {} still running, abandoning them", phase);
+                executor.shutdownNow();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        return new LoadReport(phase, threads, ratePerSecond, mix, elapsed, recorder.response, recorder.service,
+                recorder.errors, recorder.dropped.get());
+    }
+
+    private void openLoop(ThreadPoolExecutor executor, final Recorder recorder, long start, long end, long limit) {
+        double intervalNanos = TimeUnit.SECONDS.toNanos(1) / ratePerSecond;
+        for (long i = 0; i < limit; i++) {
+            final long intended = start + (long) (i * intervalNanos);
+            if (intended >= end) {
+                break;
+            }
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            if (executor.getQueue().size() >= maxBacklog) {
+                recorder.dropped.incrementAndGet();
+                continue;
+            }
+            final SecurityOperation operation = mix.next(ThreadLocalRandom.current());
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    recorder.execute(operation, intended);
+                }
+            });
+        }
+    }
+
+    private void closedLoop(ExecutorService executor, final Recorder recorder, final long end, final long limit) {
+        final AtomicLong issued = new AtomicLong();
+        for (int i = 0; i < threads; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    while (System.nanoTime() < end && issued.incrementAndGet() <= limit) {
+                        recorder.execute(mix.next(ThreadLocalRandom.current()), System.nanoTime());
+                    }
+                }
+            });
+        }
+    }
+
+    private class Recorder {
+        private final Map<SecurityOperation, LatencyHistogram> response = new EnumMap<>(SecurityOperation.class);
+        private final Map<SecurityOperation, LatencyHistogram> service = new EnumMap<>(SecurityOperation.class);
+        private final Map<SecurityOperation, AtomicLong> errors = new EnumMap<>(SecurityOperation.class);
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong logged = new AtomicLong();
+
+        private Recorder() {
+            for (SecurityOperation operation : SecurityOperation.values()) {
+                response.put(operation, new LatencyHistogram(HIGHEST_LATENCY_MICROS, SIGNIFICANT_DIGITS));
+                service.put(operation, new LatencyHistogram(HIGHEST_LATENCY_MICROS, SIGNIFICANT_DIGITS));
+                errors.put(operation, new AtomicLong());
+            }
+        }
+
+        /**
+         * @param intended - time the request was meant to start, in nanos
+         */
+        private void execute(SecurityOperation operation, long intended) {
+            long started = System.nanoTime();
+            try {
+                target.execute(operation);
+                long finished = System.nanoTime();
+                response.get(operation).recordValue(TimeUnit.NANOSECONDS.toMicros(finished - intended));
+                service.get(operation).recordValue(TimeUnit.NANOSECONDS.toMicros(finished - started));
+            } catch (Exception e) {
+                errors.get(operation).incrementAndGet();
+                if (logged.incrementAndGet() <= LOGGED_ERRORS) {
+                    logger.warn("{} request failed", operation.getShortName(), e);
+                }
+            }
+        }
+    }
+}
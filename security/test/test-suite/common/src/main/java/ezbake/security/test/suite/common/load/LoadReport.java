@@ -0,0 +1,140 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.security.test.suite.common.load;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Results of a phase of a load run.  Response time is measured from when a request was meant to start, service time
+ * from when it actually started; they only differ in open loop runs, where requests can wait for a thread.
+ */
+public class LoadReport {
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    private final String phase;
+    private final int threads;
+    private final double ratePerSecond;
+    private final OperationMix mix;
+    private final long elapsedNanos;
+    private final Map<SecurityOperation, LatencyHistogram> response;
+    private final Map<SecurityOperation, LatencyHistogram> service;
+    private final Map<SecurityOperation, AtomicLong> errors;
+    private final long dropped;
+
+    LoadReport(String phase, int threads, double ratePerSecond, OperationMix mix, long elapsedNanos,
+               Map<SecurityOperation, LatencyHistogram> response, Map<SecurityOperation, LatencyHistogram> service,
+               Map<SecurityOperation, AtomicLong> errors, long dropped) {
+        this.phase = phase;
+        this.threads = threads;
+        this.ratePerSecond = ratePerSecond;
+        this.mix = mix;
+        this.elapsedNanos = elapsedNanos;
+        this.response = response;
+        this.service = service;
+        this.errors = errors;
+        this.dropped = dropped;
+    }
+
+    public String getPhase() {
+        return phase;
+    }
+
+    /**
+     * @return response times of an operation, in microseconds
+     */
+    public LatencyHistogram getResponseTimes(SecurityOperation operation) {
+        return response.get(operation);
+    }
+
+    /**
+     * @return service times of an operation, in microseconds
+     */
+    public LatencyHistogram getServiceTimes(SecurityOperation operation) {
+        return service.get(operation);
+    }
+
+    /**
+     * @return response times of all the operations together, in microseconds
+     */
+    public LatencyHistogram getResponseTimes() {
+        LatencyHistogram all = null;
+        for (LatencyHistogram histogram : response.values()) {
+            if (all == null) {
+                all = histogram.copyLayout();
+            }
+            all.add(histogram);
+        }
+        return all;
+    }
+
+    public long getCompleted() {
+        long completed = 0;
+        for (LatencyHistogram histogram : response.values()) {
+            completed += histogram.getTotalCount();
+        }
+        return completed;
+    }
+
+    public long getErrors(SecurityOperation operation) {
+        return errors.get(operation).get();
+    }
+
+    public long getErrors() {
+        long total = 0;
+        for (AtomicLong count : errors.values()) {
+            total += count.get();
+        }
+        return total;
+    }
+
+    /**
+     * @return open loop requests that were never made because too many were waiting for a thread
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return completed requests per second
+     */
+    public double getThroughput() {
+        return getCompleted() * 1.0e9 / Math.max(elapsedNanos, 1);
+    }
+
+    public void print(PrintStream out) {
+        out.println(String.format("=== Phase %s: %d threads, %s, mix %s", phase, threads,
+                ratePerSecond > 0 ? String.format("open loop at %.1f req/s", ratePerSecond) : "closed loop", mix));
+        out.println(String.format("%d completed, %d errors, %d dropped in %.3f s, %.1f req/s", getCompleted(),
+                getErrors(), dropped, TimeUnit.NANOSECONDS.toMillis(elapsedNanos) / 1000.0, getThroughput()));
+        out.println("All operations, response time:");
+        getResponseTimes().outputPercentiles(out, MICROS_PER_MILLI, "ms");
+        for (SecurityOperation operation : SecurityOperation.values()) {
+            if (!mix.contains(operation)) {
+                continue;
+            }
+            out.println(String.format("%s (%d errors), response time:", operation.getShortName(),
+                    getErrors(operation)));
+            response.get(operation).outputPercentiles(out, MICROS_PER_MILLI, "ms");
+            if (ratePerSecond > 0) {
+                out.println(String.format("%s, service time:", operation.getShortName()));
+                service.get(operation).outputPercentiles(out, MICROS_PER_MILLI, "ms");
+            }
+        }
+    }
+}
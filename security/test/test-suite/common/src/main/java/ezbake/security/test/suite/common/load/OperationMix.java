@@ -0,0 +1,100 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.security.test.suite.common.load;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Weighted mix of the operations made by a load run, written as operation:weight pairs separated by commas, e.g.
+ * "token:40,proxied:40,refresh:10,auths:10".  An operation without a weight has a weight of 1.
+ */
+public class OperationMix {
+    private final Map<SecurityOperation, Integer> weights;
+    private final SecurityOperation[] operations;
+    private final int[] cumulative;
+    private final int total;
+
+    public OperationMix(Map<SecurityOperation, Integer> weights) {
+        this.weights = Maps.newEnumMap(SecurityOperation.class);
+        for (Map.Entry<SecurityOperation, Integer> entry : weights.entrySet()) {
+            if (entry.getValue() < 0) {
+                throw new IllegalArgumentException("Negative weight for " + entry.getKey());
+            }
+            if (entry.getValue() > 0) {
+                this.weights.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (this.weights.isEmpty()) {
+            throw new IllegalArgumentException("The operation mix is empty");
+        }
+
+        operations = new SecurityOperation[this.weights.size()];
+        cumulative = new int[this.weights.size()];
+        int sum = 0;
+        int i = 0;
+        for (Map.Entry<SecurityOperation, Integer> entry : this.weights.entrySet()) {
+            sum += entry.getValue();
+            operations[i] = entry.getKey();
+            cumulative[i] = sum;
+            i++;
+        }
+        total = sum;
+    }
+
+    public static OperationMix parse(String mix) {
+        Map<SecurityOperation, Integer> weights = Maps.newEnumMap(SecurityOperation.class);
+        for (String entry : Splitter.on(',').trimResults().omitEmptyStrings().split(mix)) {
+            int sep = entry.indexOf(':');
+            String name = sep < 0 ? entry : entry.substring(0, sep).trim();
+            int weight = sep < 0 ? 1 : Integer.parseInt(entry.substring(sep + 1).trim());
+            SecurityOperation operation = SecurityOperation.fromShortName(name);
+            Integer previous = weights.get(operation);
+            weights.put(operation, previous == null ? weight : previous + weight);
+        }
+        return new OperationMix(weights);
+    }
+
+    /**
+     * @return an operation picked at random according to the weights
+     */
+    public SecurityOperation next(Random random) {
+        int pick = random.nextInt(total);
+        for (int i = 0; i < cumulative.length; i++) {
+            if (pick < cumulative[i]) {
+                return operations[i];
+            }
+        }
+        return operations[operations.length - 1];
+    }
+
+    public boolean contains(SecurityOperation operation) {
+        return weights.containsKey(operation);
+    }
+
+    @Override
+    public String toString() {
+        Map<String, Integer> named = Maps.newLinkedHashMap();
+        for (Map.Entry<SecurityOperation, Integer> entry : weights.entrySet()) {
+            named.put(entry.getKey().getShortName(), entry.getValue());
+        }
+        return Joiner.on(',').withKeyValueSeparator(":").join(named);
+    }
+}
@@ -0,0 +1,248 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.security.test.suite.common.load;
+
+import com.google.common.collect.ImmutableList;
+import ezbake.base.thrift.EzSecurityToken;
+import ezbake.base.thrift.ProxyPrincipal;
+import ezbake.base.thrift.TokenRequest;
+import ezbake.base.thrift.TokenType;
+import ezbake.crypto.PKeyCrypto;
+import ezbake.crypto.PKeyCryptoException;
+import ezbake.groups.thrift.EzGroups;
+import ezbake.groups.thrift.EzGroupsConstants;
+import ezbake.protect.test.EzSecurityClientHelpers;
+import ezbake.security.client.EzbakeSecurityClient;
+import ezbake.security.common.core.EzSecurityTokenUtils;
+import ezbake.security.thrift.EzSecurity;
+import ezbake.security.thrift.ezsecurityConstants;
+import ezbake.thrift.ThriftClientPool;
+import org.apache.thrift.TException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Makes the security service calls of the load harness on behalf of a set of users, each request picking one of the
+ * users at random.  The inputs of the calls, i.e. the users' principals and tokens, are fetched once and reused until
+ * they are about to expire, so a request only times the call being measured.
+ */
+public class SecurityLoadTarget implements LoadGenerator.Target {
+    private static final Logger logger = LoggerFactory.getLogger(SecurityLoadTarget.class);
+
+    /** Tokens are fetched again when they have less than this left before they expire */
+    private static final long EXPIRY_MARGIN_MILLIS = 5000;
+
+    private final ThriftClientPool pool;
+    private final EzbakeSecurityClient securityClient;
+    private final PKeyCrypto efeCrypto;
+    private final PKeyCrypto appCrypto;
+    private final String securityId;
+    private final List<String> users;
+    private final long principalTtlMillis;
+    private final boolean skipClientCache;
+
+    private final ConcurrentMap<String, Cached<ProxyPrincipal>> principals = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Cached<EzSecurityToken>> userTokens = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Cached<EzSecurityToken>> groupsTokens = new ConcurrentHashMap<>();
+
+    /**
+     * @param efeCrypto          - EFE keys, signing the principal requests
+     * @param appCrypto          - keys of the application the requests are made as
+     * @param securityId         - security id of the application the requests are made as
+     * @param users              - users the requests are made for
+     * @param principalTtlMillis - how long a user's principal is reused for
+     * @param skipClientCache    - whether fetchTokenForProxiedUser requests skip the security client's token cache
+     */
+    public SecurityLoadTarget(ThriftClientPool pool, EzbakeSecurityClient securityClient, PKeyCrypto efeCrypto,
+                              PKeyCrypto appCrypto, String securityId, List<String> users, long principalTtlMillis,
+                              boolean skipClientCache) {
+        if (users.isEmpty()) {
+            throw new IllegalArgumentException("At least one user is needed");
+        }
+        this.pool = pool;
+        this.securityClient = securityClient;
+        this.efeCrypto = efeCrypto;
+        this.appCrypto = appCrypto;
+        this.securityId = securityId;
+        this.users = ImmutableList.copyOf(users);
+        this.principalTtlMillis = principalTtlMillis;
+        this.skipClientCache = skipClientCache;
+    }
+
+    @Override
+    public void execute(SecurityOperation operation) throws TException, IOException, PKeyCryptoException {
+        String user = users.get(ThreadLocalRandom.current().nextInt(users.size()));
+        switch (operation) {
+            case PRINCIPAL:
+                fetchPrincipal(user);
+                break;
+            case REQUEST_TOKEN:
+                requestToken(principal(user));
+                break;
+            case PROXIED_TOKEN:
+                securityClient.fetchTokenForProxiedUser(principal(user), null, skipClientCache);
+                break;
+            case REFRESH_TOKEN:
+                refreshToken(userToken(user));
+                break;
+            case AUTHORIZATIONS:
+                getAuthorizations(groupsToken(user));
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported operation: " + operation);
+        }
+    }
+
+    /**
+     * Fetch the inputs of the operations in the mix for every user, so the first requests aren't slowed down by it
+     */
+    public void prepare(OperationMix mix) throws TException, IOException, PKeyCryptoException {
+        for (String user : users) {
+            principal(user);
+            if (mix.contains(SecurityOperation.REFRESH_TOKEN)) {
+                userToken(user);
+            }
+            if (mix.contains(SecurityOperation.AUTHORIZATIONS)) {
+                groupsToken(user);
+            }
+        }
+    }
+
+    /**
+     * Clear the user cache of the security service, and the token cache of the security client
+     *
+     * @param admin - an EzBake admin, only admins can clear the service cache
+     */
+    public void invalidateCaches(String admin) throws TException, IOException, PKeyCryptoException {
+        EzSecurityToken adminToken = securityClient.fetchTokenForProxiedUser(fetchPrincipal(admin), null, true);
+        EzSecurity.Client client = null;
+        try {
+            client = pool.getClient(ezsecurityConstants.SERVICE_NAME, EzSecurity.Client.class);
+            client.invalidateCache(adminToken);
+        } finally {
+            if (client != null) {
+                pool.returnToPool(client);
+            }
+        }
+        EzbakeSecurityClient.clearCache();
+        logger.info("Invalidated the security service and client caches");
+    }
+
+    /**
+     * Get a signed principal for the user from the security service, as the EFE does
+     */
+    protected ProxyPrincipal fetchPrincipal(String user) throws TException, IOException, PKeyCryptoException {
+        EzSecurity.Client client = null;
+        try {
+            client = pool.getClient(ezsecurityConstants.SERVICE_NAME, EzSecurity.Client.class);
+            return EzSecurityClientHelpers.getPrincipalToken(client, efeCrypto, user);
+        } finally {
+            if (client != null) {
+                pool.returnToPool(client);
+            }
+        }
+    }
+
+    private void requestToken(ProxyPrincipal principal) throws TException, IOException, PKeyCryptoException {
+        EzSecurity.Client client = null;
+        try {
+            client = pool.getClient(ezsecurityConstants.SERVICE_NAME, EzSecurity.Client.class);
+            EzSecurityClientHelpers.getUserToken(client, appCrypto, principal, securityId);
+        } finally {
+            if (client != null) {
+                pool.returnToPool(client);
+            }
+        }
+    }
+
+    private void refreshToken(EzSecurityToken token) throws TException, IOException, PKeyCryptoException {
+        TokenRequest request = new TokenRequest(securityId, System.currentTimeMillis(), TokenType.USER);
+        request.setTokenPrincipal(token.deepCopy());
+        String signature = EzSecurityTokenUtils.tokenRequestSignature(request, appCrypto);
+
+        EzSecurity.Client client = null;
+        try {
+            client = pool.getClient(ezsecurityConstants.SERVICE_NAME, EzSecurity.Client.class);
+            client.refreshToken(request, signature);
+        } finally {
+            if (client != null) {
+                pool.returnToPool(client);
+            }
+        }
+    }
+
+    private void getAuthorizations(EzSecurityToken token) throws TException {
+        EzGroups.Client client = null;
+        try {
+            client = pool.getClient(EzGroupsConstants.SERVICE_NAME, EzGroups.Client.class);
+            client.getAuthorizations(token);
+        } finally {
+            if (client != null) {
+                pool.returnToPool(client);
+            }
+        }
+    }
+
+    private ProxyPrincipal principal(String user) throws TException, IOException, PKeyCryptoException {
+        Cached<ProxyPrincipal> cached = principals.get(user);
+        if (cached == null || cached.isExpired()) {
+            cached = new Cached<>(fetchPrincipal(user), System.currentTimeMillis() + principalTtlMillis);
+            principals.put(user, cached);
+        }
+        return cached.value;
+    }
+
+    private EzSecurityToken userToken(String user) throws TException, IOException, PKeyCryptoException {
+        Cached<EzSecurityToken> cached = userTokens.get(user);
+        if (cached == null || cached.isExpired()) {
+            EzSecurityToken token = securityClient.fetchTokenForProxiedUser(principal(user), null, true);
+            cached = new Cached<>(token, token.getValidity().getNotAfter() - EXPIRY_MARGIN_MILLIS);
+            userTokens.put(user, cached);
+        }
+        return cached.value;
+    }
+
+    private EzSecurityToken groupsToken(String user) throws TException, IOException, PKeyCryptoException {
+        Cached<EzSecurityToken> cached = groupsTokens.get(user);
+        if (cached == null || cached.isExpired()) {
+            EzSecurityToken token = securityClient.fetchTokenForProxiedUser(principal(user),
+                    pool.getSecurityId(EzGroupsConstants.SERVICE_NAME), true);
+            cached = new Cached<>(token, token.getValidity().getNotAfter() - EXPIRY_MARGIN_MILLIS);
+            groupsTokens.put(user, cached);
+        }
+        return cached.value;
+    }
+
+    private static class Cached<T> {
+        private final T value;
+        private final long refreshAt;
+
+        private Cached(T value, long refreshAt) {
+            this.value = value;
+            this.refreshAt = refreshAt;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() >= refreshAt;
+        }
+    }
+}
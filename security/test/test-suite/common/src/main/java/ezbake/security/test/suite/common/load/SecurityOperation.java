@@ -0,0 +1,51 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.security.test.suite.common.load;
+
+/**
+ * Security service calls the load harness can make
+ */
+public enum SecurityOperation {
+    /** requestProxyToken, the EFE asking for a user's principal */
+    PRINCIPAL("principal"),
+    /** requestToken for a proxied user, straight to the service */
+    REQUEST_TOKEN("token"),
+    /** fetchTokenForProxiedUser through the security client, and its token cache */
+    PROXIED_TOKEN("proxied"),
+    /** refreshToken of a user token */
+    REFRESH_TOKEN("refresh"),
+    /** getAuthorizations of a user from EzGroups */
+    AUTHORIZATIONS("auths");
+
+    private final String shortName;
+
+    SecurityOperation(String shortName) {
+        this.shortName = shortName;
+    }
+
+    public String getShortName() {
+        return shortName;
+    }
+
+    public static SecurityOperation fromShortName(String name) {
+        for (SecurityOperation operation : values()) {
+            if (operation.shortName.equalsIgnoreCase(name) || operation.name().equalsIgnoreCase(name)) {
+                return operation;
+            }
+        }
+        throw new IllegalArgumentException("Unknown operation: " + name);
+    }
+}
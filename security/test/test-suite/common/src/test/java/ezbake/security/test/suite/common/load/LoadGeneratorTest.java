@@ -0,0 +1,140 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.security.test.suite.common.load;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LoadGeneratorTest {
+
+    @Test
+    public void testHistogramExactBelowSubBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram(TimeUnit.MINUTES.toMicros(1), 3);
+        for (int i = 1; i <= 1000; i++) {
+            histogram.recordValue(i);
+        }
+        assertEquals(1000, histogram.getTotalCount());
+        assertEquals(500, histogram.getValueAtPercentile(50));
+        assertEquals(990, histogram.getValueAtPercentile(99));
+        assertEquals(1000, histogram.getValueAtPercentile(100));
+        assertEquals(1, histogram.getMinValue());
+        assertEquals(500.5, histogram.getMean(), 0.001);
+    }
+
+    @Test
+    public void testHistogramPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram(TimeUnit.MINUTES.toMicros(1), 3);
+        long[] values = {2047, 2048, 123456, 9876543, TimeUnit.MINUTES.toMicros(1)};
+        for (long value : values) {
+            LatencyHistogram single = histogram.copyLayout();
+            single.recordValue(value);
+            long recorded = single.getValueAtPercentile(50);
+            assertTrue(value + " recorded as " + recorded, Math.abs(recorded - value) <= value / 1000);
+        }
+        for (int index = 0; index < 20000; index++) {
+            long value = histogram.highestEquivalentValue(index);
+            if (value > TimeUnit.MINUTES.toMicros(1)) {
+                break;
+            }
+            assertEquals(index, histogram.indexOf(value));
+            assertEquals(index + 1, histogram.indexOf(value + 1));
+        }
+    }
+
+    @Test
+    public void testHistogramClampsAndAdds() {
+        LatencyHistogram first = new LatencyHistogram(10000, 2);
+        LatencyHistogram second = first.copyLayout();
+        first.recordValue(-5);
+        second.recordValue(1000000);
+        first.add(second);
+        assertEquals(2, first.getTotalCount());
+        assertEquals(0, first.getMinValue());
+        assertEquals(10000, first.getMaxValue());
+        assertEquals(10000, first.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testMixWeights() {
+        OperationMix mix = OperationMix.parse("token:3, refresh:1, auths:0");
+        assertTrue(mix.contains(SecurityOperation.REQUEST_TOKEN));
+        assertTrue(!mix.contains(SecurityOperation.AUTHORIZATIONS));
+        assertEquals("token:3,refresh:1", mix.toString());
+
+        Random random = new Random(42);
+        int tokens = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (mix.next(random) == SecurityOperation.REQUEST_TOKEN) {
+                tokens++;
+            }
+        }
+        assertTrue("Token share was " + tokens, tokens > 7000 && tokens < 8000);
+    }
+
+    @Test
+    public void testClosedLoopMakesRequestedCount() throws InterruptedException {
+        final AtomicInteger calls = new AtomicInteger();
+        LoadGenerator generator = new LoadGenerator(new LoadGenerator.Target() {
+            @Override
+            public void execute(SecurityOperation operation) throws Exception {
+                if (calls.incrementAndGet() % 10 == 0) {
+                    throw new Exception("failed");
+                }
+            }
+        }, OperationMix.parse("proxied"), 4, 0, 100);
+
+        LoadReport report = generator.run("closed", 0, 1000);
+
+        assertEquals(1000, calls.get());
+        assertEquals(900, report.getCompleted());
+        assertEquals(100, report.getErrors(SecurityOperation.PROXIED_TOKEN));
+        assertEquals(900, report.getResponseTimes(SecurityOperation.PROXIED_TOKEN).getTotalCount());
+    }
+
+    /**
+     * A target stalling for a while holds up every request scheduled during the stall.  The open loop response times
+     * show it, while the service times of the same requests don't.
+     */
+    @Test
+    public void testOpenLoopCountsQueueing() throws InterruptedException {
+        final AtomicInteger calls = new AtomicInteger();
+        LoadGenerator generator = new LoadGenerator(new LoadGenerator.Target() {
+            @Override
+            public void execute(SecurityOperation operation) throws Exception {
+                if (calls.incrementAndGet() == 10) {
+                    Thread.sleep(200);
+                }
+            }
+        }, OperationMix.parse("token"), 1, 500, 10000);
+
+        LoadReport report = generator.run("open", 0, 200);
+
+        assertEquals(200, report.getCompleted());
+        LatencyHistogram response = report.getResponseTimes(SecurityOperation.REQUEST_TOKEN);
+        LatencyHistogram service = report.getServiceTimes(SecurityOperation.REQUEST_TOKEN);
+        assertTrue("p90 response " + response.getValueAtPercentile(90),
+                response.getValueAtPercentile(90) >= TimeUnit.MILLISECONDS.toMicros(50));
+        assertTrue("p90 service " + service.getValueAtPercentile(90),
+                service.getValueAtPercentile(90) < TimeUnit.MILLISECONDS.toMicros(50));
+        assertTrue(report.getThroughput() > 0);
+    }
+}
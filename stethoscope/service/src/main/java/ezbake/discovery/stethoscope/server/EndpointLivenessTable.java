@@ -0,0 +1,261 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package ezbake.discovery.stethoscope.server;
+
+import com.google.common.base.Ticker;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The endpoints which have checked in and when they did, split into shards which each have their own lock so check
+ * ins of different endpoints rarely wait on each other.
+ *
+ * Each shard keeps a timer wheel of the ticks its endpoints are due to expire at. A check in only moves the deadline
+ * of an endpoint, the endpoint is moved to a later slot of the wheel when its old slot comes up, so an endpoint which
+ * keeps checking in is touched by the wheel about once per expiry period whatever its check in rate.
+ */
+public class EndpointLivenessTable {
+    /**
+     * Told about the endpoints which expired during a tick of the wheel, all at once
+     */
+    public interface ExpiryListener {
+        /**
+         * @param expired key: endpoint, value: the application, service and time of its last check in
+         */
+        void onExpired(Map<String, StethoscopeCacheEntry> expired);
+    }
+
+    private static class Liveness {
+        String applicationName;
+        String serviceName;
+        long checkinTime;
+        long scheduledTick;
+    }
+
+    private class Shard {
+        final ReentrantLock lock = new ReentrantLock();
+        final Map<String, Liveness> endpoints = new HashMap<>();
+        final List<Set<String>> wheel = new ArrayList<>(wheelSize);
+        long processedTick;
+
+        Shard() {
+            for(int i = 0; i < wheelSize; ++i) {
+                wheel.add(new HashSet<String>());
+            }
+        }
+
+        void checkin(String endpoint, String applicationName, String serviceName, long now) {
+            Liveness liveness = endpoints.get(endpoint);
+            if(liveness == null) {
+                liveness = new Liveness();
+                endpoints.put(endpoint, liveness);
+                liveness.checkinTime = now;
+                schedule(endpoint, liveness);
+            }
+            liveness.applicationName = applicationName;
+            liveness.serviceName = serviceName;
+            liveness.checkinTime = now;
+        }
+
+        void schedule(String endpoint, Liveness liveness) {
+            liveness.scheduledTick = Math.max(tickOf(liveness.checkinTime + expireNanos), processedTick + 1);
+            wheel.get(slotOf(liveness.scheduledTick)).add(endpoint);
+        }
+
+        void advance(long currentTick, long now, Map<String, StethoscopeCacheEntry> expired) {
+            // Every slot is visited once even when we are more than a whole turn of the wheel behind
+            long tick = Math.max(processedTick + 1, currentTick - wheelSize + 1);
+            List<String> rescheduled = new ArrayList<>();
+            for(; tick <= currentTick; ++tick) {
+                Iterator<String> slot = wheel.get(slotOf(tick)).iterator();
+                while(slot.hasNext()) {
+                    String endpoint = slot.next();
+                    Liveness liveness = endpoints.get(endpoint);
+                    if(liveness.scheduledTick > tick) {
+                        // due in a later turn of the wheel
+                        continue;
+                    }
+                    slot.remove();
+                    if(liveness.checkinTime + expireNanos <= now) {
+                        endpoints.remove(endpoint);
+                        expired.put(endpoint, new StethoscopeCacheEntry(liveness.applicationName,
+                                liveness.serviceName, liveness.checkinTime));
+                    } else {
+                        rescheduled.add(endpoint);
+                    }
+                }
+            }
+            processedTick = Math.max(processedTick, currentTick);
+            for(String endpoint : rescheduled) {
+                schedule(endpoint, endpoints.get(endpoint));
+            }
+        }
+    }
+
+    private final Shard[] shards;
+    private final int wheelSize;
+    private final long expireNanos;
+    private final long tickNanos;
+    private final Ticker ticker;
+    private final long startNanos;
+    private final ExpiryListener listener;
+
+    /**
+     * @param shardCount number of shards, each with its own lock
+     * @param expireAfter how long after its last check in an endpoint expires
+     * @param tick how often the wheel is expected to advance, endpoints expire up to a tick late
+     * @param ticker the time source
+     * @param listener told about expired endpoints
+     */
+    public EndpointLivenessTable(int shardCount, long expireAfter, long tick, TimeUnit unit, Ticker ticker,
+                                 ExpiryListener listener) {
+        this.expireNanos = unit.toNanos(expireAfter);
+        this.tickNanos = unit.toNanos(tick);
+        this.ticker = ticker;
+        this.startNanos = ticker.read();
+        this.listener = listener;
+
+        // Enough slots for a whole expiry period, so endpoints are moved about once per period
+        int size = 16;
+        while(size <= expireNanos / tickNanos + 1) {
+            size <<= 1;
+        }
+        this.wheelSize = size;
+
+        this.shards = new Shard[shardCount];
+        for(int i = 0; i < shardCount; ++i) {
+            shards[i] = new Shard();
+        }
+    }
+
+    /**
+     * Record a check in, the endpoint expires if it doesn't check in again within the expiry time
+     */
+    public void checkin(String endpoint, String applicationName, String serviceName) {
+        long now = ticker.read();
+        Shard shard = shardOf(endpoint);
+        shard.lock.lock();
+        try {
+            shard.checkin(endpoint, applicationName, serviceName, now);
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * Record the check in of several endpoints of a service, taking the lock of each shard once
+     */
+    public void checkinAll(Collection<String> endpoints, String applicationName, String serviceName) {
+        long now = ticker.read();
+        Map<Shard, List<String>> byShard = new HashMap<>();
+        for(String endpoint : endpoints) {
+            Shard shard = shardOf(endpoint);
+            List<String> shardEndpoints = byShard.get(shard);
+            if(shardEndpoints == null) {
+                shardEndpoints = new ArrayList<>();
+                byShard.put(shard, shardEndpoints);
+            }
+            shardEndpoints.add(endpoint);
+        }
+
+        for(Map.Entry<Shard, List<String>> entry : byShard.entrySet()) {
+            Shard shard = entry.getKey();
+            shard.lock.lock();
+            try {
+                for(String endpoint : entry.getValue()) {
+                    shard.checkin(endpoint, applicationName, serviceName, now);
+                }
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Expire the endpoints which are due and tell the listener about them. Called every tick.
+     *
+     * @return the number of endpoints which expired
+     */
+    public int advance() {
+        long now = ticker.read();
+        long currentTick = (now - startNanos) / tickNanos;
+        Map<String, StethoscopeCacheEntry> expired = new LinkedHashMap<>();
+        for(Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                shard.advance(currentTick, now, expired);
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+
+        if(!expired.isEmpty()) {
+            listener.onExpired(expired);
+        }
+        return expired.size();
+    }
+
+    /**
+     * @return the last check in of an endpoint, or null if it isn't alive
+     */
+    public StethoscopeCacheEntry get(String endpoint) {
+        Shard shard = shardOf(endpoint);
+        shard.lock.lock();
+        try {
+            Liveness liveness = shard.endpoints.get(endpoint);
+            return liveness == null ? null : new StethoscopeCacheEntry(liveness.applicationName,
+                    liveness.serviceName, liveness.checkinTime);
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    public long size() {
+        long size = 0;
+        for(Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                size += shard.endpoints.size();
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    private Shard shardOf(String endpoint) {
+        int hash = endpoint.hashCode();
+        hash ^= hash >>> 16;
+        return shards[(hash & Integer.MAX_VALUE) % shards.length];
+    }
+
+    private long tickOf(long time) {
+        // round up so an endpoint never expires before its deadline
+        return (time - startNanos + tickNanos - 1) / tickNanos;
+    }
+
+    private int slotOf(long tick) {
+        return (int) (tick & (wheelSize - 1));
+    }
+}
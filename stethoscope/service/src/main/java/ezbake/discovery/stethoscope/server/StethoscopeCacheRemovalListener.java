@@ -11,75 +11,103 @@
  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
  * See the License for the specific language governing permissions and
  * limitations under the License. */
-
 package ezbake.discovery.stethoscope.server;
 
-import com.google.common.cache.RemovalCause;
-import com.google.common.cache.RemovalListener;
-import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.Multimap;
 
 import ezbake.ezdiscovery.ServiceDiscoveryClient;
 import ezbake.discovery.stethoscope.thrift.stethoscopeConstants;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class StethoscopeCacheRemovalListener implements RemovalListener<String, StethoscopeCacheEntry> {
+public class StethoscopeCacheRemovalListener implements EndpointLivenessTable.ExpiryListener {
 
     private ServiceDiscoveryClient serviceDiscoveryClient;
     private boolean shouldRemoveEntriesFromZookeeper;
+    private ExecutorService removalExecutor;
 
     private final static Logger logger  = LoggerFactory.getLogger(StethoscopeCacheRemovalListener.class);
     private Multimap<String, String> servicesToIgnore;
 
+    /**
+     * @param removalExecutor runs the zookeeper removals of a batch of expired endpoints concurrently
+     */
     public StethoscopeCacheRemovalListener(ServiceDiscoveryClient client, boolean shouldRemoveEntriesFromZookeeper,
-                                           Multimap<String, String> servicesToIgnore) {
+                                           Multimap<String, String> servicesToIgnore, ExecutorService removalExecutor) {
         this.serviceDiscoveryClient = client;
         this.shouldRemoveEntriesFromZookeeper = shouldRemoveEntriesFromZookeeper;
         this.servicesToIgnore = servicesToIgnore;
+        this.removalExecutor = removalExecutor;
         logger.debug("Setup removal handler");
     }
 
     @Override
-    public void onRemoval(RemovalNotification<String, StethoscopeCacheEntry> entry) {
-        if(entry.getCause() == RemovalCause.REPLACED) {
-            // We don't want to do anything here since our key gets a new value
-            return;
-        }
+    public void onExpired(Map<String, StethoscopeCacheEntry> expired) {
+        List<Callable<Void>> removals = new ArrayList<>();
+        for(Map.Entry<String, StethoscopeCacheEntry> entry : expired.entrySet()) {
+            final String appName = entry.getValue().getApplicationName();
+            final String serviceName = entry.getValue().getServiceName();
+            if(servicesToIgnore.containsEntry(appName, serviceName)) {
+                logger.info("Ignoring: {},{} and NOT removing that from zookeeper", appName, serviceName);
+                continue;
+            }
 
-        String appName = entry.getValue().getApplicationName();
-        String serviceName = entry.getValue().getServiceName();
-        if(servicesToIgnore.containsEntry(appName, serviceName)) {
-            logger.info("Ignoring: {},{} and NOT removing that from zookeeper", appName, serviceName);
-            return;
-        }
+            final String endpoint = entry.getKey();
 
-        String endpoint = entry.getKey();
+            // We want to ignore removing ourself for right now
+            if(appName.equals(ServiceDiscoveryClient.COMMON_SERVICE_APP_NAME) &&
+               serviceName.equals(stethoscopeConstants.SERVICE_NAME)) {
+                continue;
+            }
 
-        // We want to ignore removing ourself for right now
-        if(appName.equals(ServiceDiscoveryClient.COMMON_SERVICE_APP_NAME) &&
-           serviceName.equals(stethoscopeConstants.SERVICE_NAME)) {
-            return;
+            if(!shouldRemoveEntriesFromZookeeper) {
+                logger.info("Would have removed: {} for {} {} from zookeeper!", endpoint, appName, serviceName);
+                continue;
+            }
+
+            removals.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    try {
+                        serviceDiscoveryClient.unregisterEndpoint(appName, serviceName, endpoint);
+                    } catch(Exception e) {
+                        throw new Exception("We had an error removing /ezdiscovery/" + appName + "/" + serviceName +
+                                "/endpoints/" + endpoint + " from zookeeper!", e);
+                    }
+                    logger.debug("Removed: {} for {} {} from zookeeper!", endpoint, appName, serviceName);
+                    return null;
+                }
+            });
         }
 
-        if(!shouldRemoveEntriesFromZookeeper) {
-            logger.info("Would have removed: {} for {} {} from zookeeper!", endpoint, appName, serviceName);
+        if(removals.isEmpty()) {
             return;
         }
 
+        int removed = 0;
         try {
-            serviceDiscoveryClient.unregisterEndpoint(appName, serviceName, endpoint);
-            logger.info("Removed: {} for {} {} from zookeeper!", endpoint, appName, serviceName);
-        } catch(Exception e) {
-            StringBuilder builder = new StringBuilder("We had an error removing /ezdiscovery/")
-                                        .append(appName)
-                                        .append("/")
-                                        .append("/endpoints/")
-                                        .append(endpoint)
-                                        .append("from zookeeper!");
-
-            logger.error(builder.toString(), e);
+            List<Future<Void>> futures = removalExecutor.invokeAll(removals);
+            for(Future<Void> future : futures) {
+                try {
+                    future.get();
+                    ++removed;
+                } catch(ExecutionException e) {
+                    logger.error(e.getCause().getMessage(), e.getCause().getCause());
+                }
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while removing expired endpoints from zookeeper");
         }
+        logger.info("Removed {} of {} expired endpoints from zookeeper!", removed, removals.size());
     }
 }
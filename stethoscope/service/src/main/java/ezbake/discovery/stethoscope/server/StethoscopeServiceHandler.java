@@ -16,9 +16,9 @@ package ezbake.discovery.stethoscope.server;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Splitter;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import com.google.common.base.Ticker;
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.net.HostAndPort;
@@ -29,9 +29,14 @@ import ezbake.discovery.stethoscope.thrift.StethoscopeService;
 import ezbake.discovery.stethoscope.thrift.Endpoint;
 import ezbake.ezdiscovery.ServiceDiscoveryClient;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -48,10 +53,13 @@ public class StethoscopeServiceHandler extends EzBakeBaseThriftService implement
     public final static String STETHOSCOPE_SERVICE_CLEANUP_TIME = "stethoscope.service.cleanup.time.minutes";
     public final static String STETHOSCOPE_ACTUALLY_REMOVE_FROM_ZOOKEEPER = "stethoscope.actually.remove.from.zookeeper";
     public final static String STETHOSCOPE_SERVICES_TO_IGNORE = "stethoscope.services.to.ignore";
+    public final static String STETHOSCOPE_EXPIRY_TICK_SECONDS = "stethoscope.service.expiry.tick.seconds";
+    public final static String STETHOSCOPE_SHARDS = "stethoscope.service.shards";
+    public final static String STETHOSCOPE_ZOOKEEPER_THREADS = "stethoscope.zookeeper.threads";
 
     private final static Logger logger = LoggerFactory.getLogger(StethoscopeServiceHandler.class);
 
-    private Cache<String, StethoscopeCacheEntry> serviceCache;
+    private EndpointLivenessTable serviceCache;
 
     private ServiceDiscoveryClient serviceDiscoveryClient;
 
@@ -59,13 +67,27 @@ public class StethoscopeServiceHandler extends EzBakeBaseThriftService implement
 
     private ScheduledExecutorService scheduler;
 
+    // Removes expired endpoints from zookeeper and loads the endpoints from it at startup
+    private ExecutorService zookeeperExecutor;
+
     @Override
     public boolean checkin(String applicationName, String serviceName, Endpoint endpoint) {
-        this.serviceCache.put(endpointToString(endpoint),
-            new StethoscopeCacheEntry(applicationName, serviceName, System.nanoTime()));
-        // Just make sure we access to make Guava happy
-        this.serviceCache.getIfPresent(endpointToString(endpoint));
-        logger.info("{} for {}{} just checked in!", endpointToString(endpoint), applicationName, serviceName);
+        this.serviceCache.checkin(endpointToString(endpoint), applicationName, serviceName);
+        logger.debug("{} for {}{} just checked in!", endpointToString(endpoint), applicationName, serviceName);
+        return true;
+    }
+
+    /**
+     * Check in several endpoints of a service at once, e.g. the instances co-located on a host. The Thrift IDL of the
+     * service lives outside this project, this is what a batched check in call delegates to once it has one.
+     */
+    public boolean checkinAll(String applicationName, String serviceName, List<Endpoint> endpoints) {
+        List<String> keys = Lists.newArrayListWithCapacity(endpoints.size());
+        for(Endpoint endpoint : endpoints) {
+            keys.add(endpointToString(endpoint));
+        }
+        this.serviceCache.checkinAll(keys, applicationName, serviceName);
+        logger.debug("{} endpoints for {}{} just checked in!", keys.size(), applicationName, serviceName);
         return true;
     }
 
@@ -92,15 +114,19 @@ public class StethoscopeServiceHandler extends EzBakeBaseThriftService implement
             logger.info("Stethoscope will NOT remove entries from zookeeper");
         }
 
-        this.serviceCache = CacheBuilder.newBuilder()
-                                        .expireAfterWrite(expireMinutes, TimeUnit.MINUTES)
-                                        .removalListener(new StethoscopeCacheRemovalListener(serviceDiscoveryClient,
-                                                            shouldRemoveEntriesFromZookeeper, servicesToIgnore))
-                                        .build();
+        this.zookeeperExecutor = Executors.newFixedThreadPool(configuration.getInteger(STETHOSCOPE_ZOOKEEPER_THREADS, 8));
+        int tickSeconds = configuration.getInteger(STETHOSCOPE_EXPIRY_TICK_SECONDS, 30);
+        this.serviceCache = new EndpointLivenessTable(configuration.getInteger(STETHOSCOPE_SHARDS, 16),
+                                        TimeUnit.MINUTES.toSeconds(expireMinutes), tickSeconds, TimeUnit.SECONDS,
+                                        Ticker.systemTicker(),
+                                        new StethoscopeCacheRemovalListener(serviceDiscoveryClient,
+                                                shouldRemoveEntriesFromZookeeper, servicesToIgnore, zookeeperExecutor));
 
         this.scheduler = Executors.newScheduledThreadPool(1);
+        logger.info("Stethoscope will expire endpoints every {} seconds", tickSeconds);
+        scheduler.scheduleAtFixedRate(new ExpiryRunnable(), tickSeconds, tickSeconds, TimeUnit.SECONDS);
         int cleanupMinutes = configuration.getInteger(STETHOSCOPE_SERVICE_CLEANUP_TIME, 10);
-        logger.info("Stethoscope will wait {} minutes before running the clean up thread!", cleanupMinutes);
+        logger.info("Stethoscope will log the size of the cache every {} minutes!", cleanupMinutes);
         scheduler.scheduleAtFixedRate(new CacheMaintenanceRunnable(), 0, cleanupMinutes, TimeUnit.MINUTES);
         populateCacheFromZookeeper();
         return new StethoscopeService.Processor(this);
@@ -112,21 +138,31 @@ public class StethoscopeServiceHandler extends EzBakeBaseThriftService implement
     }
 
     /**
-     * We use this to intially populate the cache
+     * We use this to intially populate the cache, loading the services of each application concurrently
      */
     @VisibleForTesting
     void populateCacheFromZookeeper() {
         int count = 0;
         try {
-            // So many loops :P
-            for(String appName : serviceDiscoveryClient.getApplications()) {
-                for(String serviceName : serviceDiscoveryClient.getServices(appName)) {
-                    for(String endpoint : serviceDiscoveryClient.getEndpoints(appName, serviceName)) {
-                        logger.info("Loaded application {}, service: {}, endpoint {}", appName, serviceName, endpoint);
-                        ++count;
-                        serviceCache.put(endpoint, new StethoscopeCacheEntry(appName, serviceName, System.nanoTime()));
+            List<Future<Integer>> loads = Lists.newArrayList();
+            for(final String appName : serviceDiscoveryClient.getApplications()) {
+                loads.add(zookeeperExecutor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        int loaded = 0;
+                        for(String serviceName : serviceDiscoveryClient.getServices(appName)) {
+                            Collection<String> endpoints = serviceDiscoveryClient.getEndpoints(appName, serviceName);
+                            logger.info("Loaded application {}, service: {}, endpoints {}", appName, serviceName,
+                                    endpoints);
+                            serviceCache.checkinAll(endpoints, appName, serviceName);
+                            loaded += endpoints.size();
+                        }
+                        return loaded;
                     }
-                }
+                }));
+            }
+            for(Future<Integer> load : loads) {
+                count += load.get();
             }
         } catch(Exception e) {
             logger.error("Unable to load the cache from zookeeper", e);
@@ -136,13 +172,29 @@ public class StethoscopeServiceHandler extends EzBakeBaseThriftService implement
     }
 
     /**
-     * A private interal class which will force clean up at a given interval
+     * Expires the endpoints which haven't checked in in time, every tick of the liveness table
+     */
+    private class ExpiryRunnable implements Runnable {
+        @Override
+        public void run() {
+            try {
+                int expired = serviceCache.advance();
+                if(expired > 0) {
+                    logger.info("{} endpoints expired", expired);
+                }
+            } catch(Exception e) {
+                // an exception would cancel the schedule
+                logger.error("Unable to expire endpoints", e);
+            }
+        }
+    }
+
+    /**
+     * A private interal class which will log the size of the cache at a given interval
      */
     private class CacheMaintenanceRunnable implements Runnable {
         @Override
         public void run() {
-            logger.info("Cleaning up cache!");
-            serviceCache.cleanUp();
             logger.info("The size of the case is {} ", serviceCache.size());
         }
     }
@@ -0,0 +1,143 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package ezbake.discovery.stethoscope.server;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class EndpointLivenessTableTest {
+    private static final long EXPIRE_SECONDS = 15;
+
+    private static class FakeTicker extends Ticker {
+        long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+    }
+
+    private FakeTicker ticker;
+    private List<Map<String, StethoscopeCacheEntry>> notifications;
+    private EndpointLivenessTable table;
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        notifications = new ArrayList<>();
+        table = new EndpointLivenessTable(4, EXPIRE_SECONDS, 1, TimeUnit.SECONDS, ticker,
+                new EndpointLivenessTable.ExpiryListener() {
+            @Override
+            public void onExpired(Map<String, StethoscopeCacheEntry> expired) {
+                notifications.add(expired);
+            }
+        });
+    }
+
+    @Test
+    public void testExpiresAfterMissedCheckin() {
+        table.checkin("host1:10000", "app", "service");
+
+        assertEquals(0, advanceTo(EXPIRE_SECONDS - 1));
+        assertNotNull(table.get("host1:10000"));
+        assertEquals(0, notifications.size());
+
+        assertEquals(1, advanceTo(EXPIRE_SECONDS));
+        assertNull(table.get("host1:10000"));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void testCheckinAgainKeepsEndpointAlive() {
+        table.checkin("host1:10000", "app", "service");
+        advanceTo(10);
+        table.checkin("host1:10000", "app", "service");
+
+        assertEquals(0, advanceTo(EXPIRE_SECONDS));
+        assertEquals(new StethoscopeCacheEntry("app", "service", TimeUnit.SECONDS.toNanos(10)),
+                table.get("host1:10000"));
+
+        assertEquals(0, advanceTo(10 + EXPIRE_SECONDS - 1));
+        assertEquals(1, advanceTo(10 + EXPIRE_SECONDS));
+        assertEquals(new StethoscopeCacheEntry("app", "service", TimeUnit.SECONDS.toNanos(10)),
+                notifications.get(0).get("host1:10000"));
+    }
+
+    @Test
+    public void testListenerToldOnceAboutEachExpiry() {
+        table.checkinAll(Lists.newArrayList("host1:10000", "host1:10001", "host2:10000"), "app", "service");
+        table.checkin("host3:10000", "other", "otherService");
+        advanceTo(5);
+        table.checkin("host4:10000", "app", "service");
+
+        advanceTo(EXPIRE_SECONDS);
+        assertEquals(1, notifications.size());
+        Map<String, StethoscopeCacheEntry> expired = notifications.get(0);
+        assertEquals(ImmutableSet.of("host1:10000", "host1:10001", "host2:10000", "host3:10000"), expired.keySet());
+        assertEquals(new StethoscopeCacheEntry("other", "otherService", 0), expired.get("host3:10000"));
+        assertEquals(new StethoscopeCacheEntry("app", "service", 0), expired.get("host1:10001"));
+
+        advanceTo(5 + EXPIRE_SECONDS);
+        assertEquals(2, notifications.size());
+        assertEquals(ImmutableSet.of("host4:10000"), notifications.get(1).keySet());
+
+        // nothing is left to expire
+        advanceTo(100);
+        assertEquals(2, notifications.size());
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void testAdvanceAfterLongPause() {
+        table.checkin("host1:10000", "app", "service");
+        ticker.nanos = TimeUnit.SECONDS.toNanos(90);
+        table.checkin("host2:10000", "app", "service");
+
+        // more than a whole turn of the wheel in one advance
+        ticker.nanos = TimeUnit.SECONDS.toNanos(100);
+        assertEquals(1, table.advance());
+        assertEquals(ImmutableSet.of("host1:10000"), notifications.get(0).keySet());
+        assertNotNull(table.get("host2:10000"));
+
+        assertEquals(1, advanceTo(90 + EXPIRE_SECONDS));
+        assertEquals(ImmutableSet.of("host2:10000"), notifications.get(1).keySet());
+    }
+
+    /**
+     * Move the clock a second at a time up to the given time, advancing the table every tick
+     *
+     * @return the number of endpoints which expired
+     */
+    private int advanceTo(long seconds) {
+        int expired = 0;
+        while(ticker.nanos < TimeUnit.SECONDS.toNanos(seconds)) {
+            ticker.nanos += TimeUnit.SECONDS.toNanos(1);
+            expired += table.advance();
+        }
+        return expired;
+    }
+}
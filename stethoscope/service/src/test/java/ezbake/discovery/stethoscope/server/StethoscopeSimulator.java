@@ -0,0 +1,195 @@
+/*   Copyright (C) 2013-2015 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package ezbake.discovery.stethoscope.server;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drives the liveness table with synthetic endpoints, without zookeeper or Thrift. Measures check in throughput
+ * from concurrent clients, then plays an hour of check ins on a simulated clock in which some endpoints stop checking
+ * in, and verifies that exactly those expire and in time. A tool run by hand from the test classpath, it is not
+ * shipped with the service.
+ *
+ * Usage: StethoscopeSimulator [endpoints] [endpoints per host]
+ */
+public class StethoscopeSimulator {
+    private final static Logger logger = LoggerFactory.getLogger(StethoscopeSimulator.class);
+
+    private final static long EXPIRE_MINUTES = 15;
+    private final static long TICK_SECONDS = 30;
+    private final static int CHECKIN_INTERVAL_MINUTES = 10;
+    private final static int SHARDS = 16;
+    private final static int CLIENT_THREADS = 8;
+
+    private static class SimulatedTicker extends Ticker {
+        final AtomicLong nanos = new AtomicLong();
+
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int endpoints = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int endpointsPerHost = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        measureThroughput(endpoints, endpointsPerHost);
+        if(!simulateExpiry(endpoints, endpointsPerHost)) {
+            System.exit(1);
+        }
+    }
+
+    private static void measureThroughput(final int endpoints, final int endpointsPerHost) throws Exception {
+        final EndpointLivenessTable table = new EndpointLivenessTable(SHARDS, EXPIRE_MINUTES, 1, TimeUnit.MINUTES,
+                Ticker.systemTicker(), new EndpointLivenessTable.ExpiryListener() {
+            @Override
+            public void onExpired(Map<String, StethoscopeCacheEntry> expired) {
+            }
+        });
+        final int rounds = 20;
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENT_THREADS);
+        try {
+            for(final boolean batched : new boolean[] {false, true}) {
+                List<Callable<Void>> work = Lists.newArrayList();
+                for(int t = 0; t < CLIENT_THREADS; ++t) {
+                    final int thread = t;
+                    work.add(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            for(int round = 0; round < rounds; ++round) {
+                                for(int host = thread; host * endpointsPerHost < endpoints; host += CLIENT_THREADS) {
+                                    List<String> hostEndpoints = hostEndpoints(host, endpointsPerHost, endpoints);
+                                    if(batched) {
+                                        table.checkinAll(hostEndpoints, "app" + host % 50, "service");
+                                    } else {
+                                        for(String endpoint : hostEndpoints) {
+                                            table.checkin(endpoint, "app" + host % 50, "service");
+                                        }
+                                    }
+                                }
+                            }
+                            return null;
+                        }
+                    });
+                }
+                long start = System.nanoTime();
+                for(Future<Void> future : clients.invokeAll(work)) {
+                    future.get();
+                }
+                long nanos = System.nanoTime() - start;
+                logger.info("{} check ins of {} endpoints from {} threads{}: {} check ins/s", rounds * endpoints,
+                        endpoints, CLIENT_THREADS, batched ? " batched per host" : "",
+                        rounds * endpoints * TimeUnit.SECONDS.toNanos(1) / nanos);
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    private static boolean simulateExpiry(int endpoints, int endpointsPerHost) {
+        final SimulatedTicker ticker = new SimulatedTicker();
+        final long[] lastCheckin = new long[endpoints];
+        final long[] expiredAt = new long[endpoints];
+        final AtomicLong batches = new AtomicLong();
+        final AtomicLong largestBatch = new AtomicLong();
+        EndpointLivenessTable table = new EndpointLivenessTable(SHARDS, TimeUnit.MINUTES.toSeconds(EXPIRE_MINUTES),
+                TICK_SECONDS, TimeUnit.SECONDS, ticker, new EndpointLivenessTable.ExpiryListener() {
+            @Override
+            public void onExpired(Map<String, StethoscopeCacheEntry> expired) {
+                batches.incrementAndGet();
+                largestBatch.set(Math.max(largestBatch.get(), expired.size()));
+                for(String endpoint : expired.keySet()) {
+                    expiredAt[endpointIndex(endpoint)] = ticker.read();
+                }
+            }
+        });
+
+        Random random = new Random(42);
+        int hosts = (endpoints + endpointsPerHost - 1) / endpointsPerHost;
+        long[] nextCheckin = new long[hosts];
+        // a tenth of the hosts stop checking in half way through
+        boolean[] dies = new boolean[hosts];
+        for(int host = 0; host < hosts; ++host) {
+            dies[host] = random.nextInt(10) == 0;
+        }
+        long end = TimeUnit.MINUTES.toNanos(60);
+        long deathTime = end / 2;
+        long step = TimeUnit.SECONDS.toNanos(TICK_SECONDS);
+
+        long checkins = 0;
+        for(long now = 0; now <= end; now += step) {
+            ticker.nanos.set(now);
+            for(int host = 0; host < hosts; ++host) {
+                if(nextCheckin[host] > now || (dies[host] && now >= deathTime)) {
+                    continue;
+                }
+                List<String> hostEndpoints = hostEndpoints(host, endpointsPerHost, endpoints);
+                table.checkinAll(hostEndpoints, "app" + host % 50, "service");
+                for(String endpoint : hostEndpoints) {
+                    lastCheckin[endpointIndex(endpoint)] = now;
+                }
+                checkins += hostEndpoints.size();
+                // the client sleeps a random number of minutes below its check in interval
+                nextCheckin[host] = now + TimeUnit.MINUTES.toNanos(random.nextInt(CHECKIN_INTERVAL_MINUTES - 1) + 1);
+            }
+            table.advance();
+        }
+
+        long expireNanos = TimeUnit.MINUTES.toNanos(EXPIRE_MINUTES);
+        int expired = 0;
+        int wrong = 0;
+        for(int i = 0; i < endpoints; ++i) {
+            boolean dead = dies[i / endpointsPerHost];
+            if(expiredAt[i] != 0) {
+                ++expired;
+                long late = expiredAt[i] - (lastCheckin[i] + expireNanos);
+                if(!dead || late < 0 || late > step) {
+                    ++wrong;
+                }
+            } else if(dead) {
+                ++wrong;
+            }
+        }
+        logger.info("{} check ins over an hour: {} endpoints expired in {} batches of up to {}, {} left alive, " +
+                "{} wrong", checkins, expired, batches.get(), largestBatch.get(), table.size(), wrong);
+        return wrong == 0 && table.size() == endpoints - expired;
+    }
+
+    private static List<String> hostEndpoints(int host, int endpointsPerHost, int endpoints) {
+        List<String> hostEndpoints = Lists.newArrayListWithCapacity(endpointsPerHost);
+        for(int i = host * endpointsPerHost; i < Math.min((host + 1) * endpointsPerHost, endpoints); ++i) {
+            hostEndpoints.add("host" + host + ":" + (10000 + i));
+        }
+        return hostEndpoints;
+    }
+
+    private static int endpointIndex(String endpoint) {
+        return Integer.parseInt(endpoint.substring(endpoint.indexOf(':') + 1)) - 10000;
+    }
+}